@@ -228,7 +228,7 @@ def printGpuInfo():
 	c.gpu.opencl.Diagnostics.main(None)
 
 
-def initExternalMemory(internalSizeMiB, tempDir=None, tempSubdir=None):
+def initExternalMemory(internalSizeMiB, tempDir=None, tempSubdir=None, backend=None):
 	'''
 	Initializes external memory for calculations.
 
@@ -237,8 +237,12 @@ def initExternalMemory(internalSizeMiB, tempDir=None, tempSubdir=None):
 	:default tempDir: <system temp dir>
 	:param str tempSubdir: name of subdirectory within tempDir
 	:default tempSubdir: <automatically generated>
+	:param str backend: ``'TPIE'`` to use the TPIE native library, or ``'Java'`` to use pure-Java queues
+	:default backend: ``'TPIE'``
 	'''
 
+	if backend is not None:
+		ExternalMemory.setBackend(ExternalMemory.Backend.valueOf(backend))
 	ExternalMemory.setInternalLimit(internalSizeMiB)
 	if tempDir is not None:
 		if tempSubdir is not None:
@@ -502,7 +506,7 @@ def SharedEnergyCalculator(ecalc, isMinimizing=None):
 	return builder.build()
 
 
-def ConfEnergyCalculator(confSpace, ecalc, referenceEnergies=None, addResEntropy=None, energyPartition=None):
+def ConfEnergyCalculator(confSpace, ecalc, referenceEnergies=None, addResEntropy=None, energyPartition=None, warmStarts=None):
 	'''
 	:java:classdoc:`.energy.ConfEnergyCalculator`
 
@@ -511,6 +515,7 @@ def ConfEnergyCalculator(confSpace, ecalc, referenceEnergies=None, addResEntropy
 	:builder_option referenceEnergies .energy.ConfEnergyCalculator$Builder#eref:
 	:builder_option addResEntropy .energy.ConfEnergyCalculator$Builder#addResEntropy:
 	:builder_option energyPartition .energy.ConfEnergyCalculator$Builder#epart:
+	:builder_option warmStarts .energy.ConfEnergyCalculator$Builder#useWarmStarts:
 	:builder_return .energy.ConfEnergyCalculator$Builder:
 	'''
 	builder = _get_builder(c.energy.ConfEnergyCalculator)(confSpace, ecalc)
@@ -521,6 +526,9 @@ def ConfEnergyCalculator(confSpace, ecalc, referenceEnergies=None, addResEntropy
 	if energyPartition is not None:
 		builder.setEnergyPartition(energyPartition)
 
+	if warmStarts is not None:
+		builder.setWarmStarts(warmStarts)
+
 	return builder.build()
 
 
@@ -536,12 +544,15 @@ def ConfEnergyCalculatorCopy(source, ecalc):
 	return c.energy.ConfEnergyCalculator(source, ecalc)
 
 
-def EnergyMatrix(confEcalc, cacheFile=None):
+def EnergyMatrix(confEcalc, cacheFile=None, checkpointFile=None, pipelined=None, sparseCutoff=None):
 	'''
 	:java:methoddoc:`.ematrix.SimplerEnergyMatrixCalculator#calcEnergyMatrix`
 
 	:builder_option confEcalc .ematrix.SimplerEnergyMatrixCalculator$Builder#confEcalc:
 	:builder_option cacheFile .ematrix.SimplerEnergyMatrixCalculator$Builder#cacheFile:
+	:builder_option checkpointFile .ematrix.SimplerEnergyMatrixCalculator$Builder#checkpointFile:
+	:builder_option pipelined .ematrix.SimplerEnergyMatrixCalculator$Builder#isPipelined:
+	:builder_option sparseCutoff .ematrix.SimplerEnergyMatrixCalculator$Builder#sparseCutoff:
 	'''
 	
 	builder = _get_builder(c.ematrix.SimplerEnergyMatrixCalculator)(confEcalc)
@@ -549,6 +560,15 @@ def EnergyMatrix(confEcalc, cacheFile=None):
 	if cacheFile is not None:
 		builder.setCacheFile(jvm.toFile(cacheFile))
 
+	if checkpointFile is not None:
+		builder.setCheckpointFile(jvm.toFile(checkpointFile))
+
+	if pipelined is not None:
+		builder.setPipelined(pipelined)
+
+	if sparseCutoff is not None:
+		builder.setSparseCutoff(sparseCutoff)
+
 	return builder.build().calcEnergyMatrix()
 
 
@@ -707,7 +727,7 @@ def AStarMPLP(emat, confSpaceOrPmat, updater=None, numIterations=None, convergen
 	return builder.build()
 
 
-def GMECFinder(astar, confEcalc, confLog=None, printIntermediateConfs=None, useExternalMemory=None, resumeLog=None, confDBFile=None):
+def GMECFinder(astar, confEcalc, confLog=None, printIntermediateConfs=None, useExternalMemory=None, resumeLog=None, confDBFile=None, prefetchConfs=useJavaDefault):
 	'''
 	:java:classdoc:`.gmec.SimpleGMECFinder`
 
@@ -723,6 +743,7 @@ def GMECFinder(astar, confEcalc, confLog=None, printIntermediateConfs=None, useE
 	:builder_option printIntermediateConfs .gmec.SimpleGMECFinder$Builder#printIntermediateConfsToConsole:
 	:builder_option useExternalMemory .gmec.SimpleGMECFinder$Builder#useExternalMemory:
 	:param str resumeLog: Path to log file where resume info will be written or read, so designs can be resumed.
+	:builder_option prefetchConfs .gmec.SimpleGMECFinder$Builder#prefetchConfs:
 	:builder_return .gmec.SimpleGMECFinder$Builder:
 	'''
 
@@ -744,6 +765,9 @@ def GMECFinder(astar, confEcalc, confLog=None, printIntermediateConfs=None, useE
 	if confDBFile is not None:
 		builder.setConfDB(jvm.toFile(confDBFile))
 
+	if prefetchConfs is not useJavaDefault:
+		builder.setPrefetchConfs(prefetchConfs)
+
 	return builder.build()
 
 
@@ -795,7 +819,7 @@ def DEEPerStrandFlex(strand, pert_file_name, flex_res_list, pdb_file):
 	bbflex = c.confspace.DEEPerStrandFlex(strand,deeper_settings)
 	return bbflex
 
-def KStar(proteinConfSpace, ligandConfSpace, complexConfSpace, epsilon=useJavaDefault, stabilityThreshold=useJavaDefault, maxSimultaneousMutations=useJavaDefault, writeSequencesToConsole=False, writeSequencesToFile=None, useExternalMemory=useJavaDefault, showPfuncProgress=useJavaDefault):
+def KStar(proteinConfSpace, ligandConfSpace, complexConfSpace, epsilon=useJavaDefault, stabilityThreshold=useJavaDefault, maxSimultaneousMutations=useJavaDefault, writeSequencesToConsole=False, writeSequencesToFile=None, useExternalMemory=useJavaDefault, showPfuncProgress=useJavaDefault, numConcurrentSequences=useJavaDefault, pfuncResultsFile=None, confDBWriteBehindMs=useJavaDefault, confDBBackend=None):
 	'''
 	:java:classdoc:`.kstar.KStar`
 
@@ -812,6 +836,12 @@ def KStar(proteinConfSpace, ligandConfSpace, complexConfSpace, epsilon=useJavaDe
 	:builder_option maxSimultaneousMutations .kstar.KStar$Settings$Builder#maxSimultaneousMutations:
 	:builder_option useExternalMemory .kstar.KStar$Settings$Builder#useExternalMemory:
 	:builder_option showPfuncProgress .kstar.KStar$Settings$Builder#showPfuncProgress:
+	:builder_option numConcurrentSequences .kstar.KStar$Settings$Builder#numConcurrentSequences:
+	:param str pfuncResultsFile: :java:fielddoc:`.kstar.KStar$Settings$Builder#pfuncResultsFile`
+	:builder_option confDBWriteBehindMs .kstar.KStar$Settings$Builder#confDBWriteBehindMs:
+	:param str confDBBackend: ``'MapDB'`` to store conformations in MapDB btrees, ``'Log'`` to use compact append-only logs,
+		or ``'SharedLog'`` to use logs that several processes can share
+	:default confDBBackend: ``'MapDB'``
 	:param bool writeSequencesToConsole: True to write sequences and scores to the console
 	:param str writeSequencesToFile: Path to the log file to write sequences scores (in TSV format), or None to skip logging
 
@@ -834,6 +864,14 @@ def KStar(proteinConfSpace, ligandConfSpace, complexConfSpace, epsilon=useJavaDe
 		settingsBuilder.setExternalMemory(useExternalMemory)
 	if showPfuncProgress is not useJavaDefault:
 		settingsBuilder.setShowPfuncProgress(showPfuncProgress)
+	if numConcurrentSequences is not useJavaDefault:
+		settingsBuilder.setNumConcurrentSequences(numConcurrentSequences)
+	if pfuncResultsFile is not None:
+		settingsBuilder.setPfuncResultsFile(jvm.toFile(pfuncResultsFile))
+	if confDBWriteBehindMs is not useJavaDefault:
+		settingsBuilder.setConfDBWriteBehindMs(confDBWriteBehindMs)
+	if confDBBackend is not None:
+		settingsBuilder.setConfDBBackend(jvm.getInnerClass(c.confspace.ConfDB, 'Backend').valueOf(confDBBackend))
 	settings = settingsBuilder.build()
 
 	return c.kstar.KStar(proteinConfSpace, ligandConfSpace, complexConfSpace, settings)
@@ -850,7 +888,7 @@ def _KStarConfSearchFactory(func):
 KStar.ConfSearchFactory = _KStarConfSearchFactory
 
 
-def BBKStar(proteinConfSpace, ligandConfSpace, complexConfSpace, epsilon=useJavaDefault, stabilityThreshold=useJavaDefault, maxSimultaneousMutations=useJavaDefault, energyMatrixCachePattern=useJavaDefault, useExternalMemory=useJavaDefault, showPfuncProgress=useJavaDefault, numBestSequences=useJavaDefault, numConfsPerBatch=useJavaDefault, writeSequencesToConsole=False, writeSequencesToFile=None):
+def BBKStar(proteinConfSpace, ligandConfSpace, complexConfSpace, epsilon=useJavaDefault, stabilityThreshold=useJavaDefault, maxSimultaneousMutations=useJavaDefault, energyMatrixCachePattern=useJavaDefault, useExternalMemory=useJavaDefault, showPfuncProgress=useJavaDefault, numBestSequences=useJavaDefault, numConfsPerBatch=useJavaDefault, numNodesInParallel=useJavaDefault, minNumConfTrees=useJavaDefault, confTreeCheckpointDir=None, maxConfTreeBytes=useJavaDefault, writeSequencesToConsole=False, writeSequencesToFile=None, pfuncResultsFile=None, confDBWriteBehindMs=useJavaDefault, confDBBackend=None):
 	'''
 	:java:classdoc:`.kstar.BBKStar`
 
@@ -869,8 +907,17 @@ def BBKStar(proteinConfSpace, ligandConfSpace, complexConfSpace, epsilon=useJava
 	:builder_option showPfuncProgress .kstar.KStar$Settings$Builder#showPfuncProgress:
 	:builder_option numBestSequences .kstar.BBKStar$Settings$Builder#numBestSequences:
 	:builder_option numConfsPerBatch .kstar.BBKStar$Settings$Builder#numConfsPerBatch:
+	:builder_option numNodesInParallel .kstar.BBKStar$Settings$Builder#numNodesInParallel:
+	:builder_option minNumConfTrees .kstar.BBKStar$Settings$Builder#minNumConfTrees:
+	:param str confTreeCheckpointDir: :java:fielddoc:`.kstar.BBKStar$Settings$Builder#confTreeCheckpointDir`
+	:builder_option maxConfTreeBytes .kstar.BBKStar$Settings$Builder#maxConfTreeBytes:
 	:param bool writeSequencesToConsole: True to write sequences and scores to the console
 	:param str writeSequencesToFile: Path to the log file to write sequences scores (in TSV format), or None to skip logging
+	:param str pfuncResultsFile: :java:fielddoc:`.kstar.KStar$Settings$Builder#pfuncResultsFile`
+	:builder_option confDBWriteBehindMs .kstar.KStar$Settings$Builder#confDBWriteBehindMs:
+	:param str confDBBackend: ``'MapDB'`` to store conformations in MapDB btrees, ``'Log'`` to use compact append-only logs,
+		or ``'SharedLog'`` to use logs that several processes can share
+	:default confDBBackend: ``'MapDB'``
 
 	:rtype: :java:ref:`.kstar.BBKStar`
 	'''
@@ -891,6 +938,12 @@ def BBKStar(proteinConfSpace, ligandConfSpace, complexConfSpace, epsilon=useJava
 		kstarSettingsBuilder.setExternalMemory(useExternalMemory)
 	if showPfuncProgress is not useJavaDefault:
 		kstarSettingsBuilder.setShowPfuncProgress(showPfuncProgress)
+	if pfuncResultsFile is not None:
+		kstarSettingsBuilder.setPfuncResultsFile(jvm.toFile(pfuncResultsFile))
+	if confDBWriteBehindMs is not useJavaDefault:
+		kstarSettingsBuilder.setConfDBWriteBehindMs(confDBWriteBehindMs)
+	if confDBBackend is not None:
+		kstarSettingsBuilder.setConfDBBackend(jvm.getInnerClass(c.confspace.ConfDB, 'Backend').valueOf(confDBBackend))
 	kstarSettings = kstarSettingsBuilder.build()
 
 	bbkstarSettingsBuilder = _get_builder(jvm.getInnerClass(c.kstar.BBKStar, 'Settings'))()
@@ -898,6 +951,14 @@ def BBKStar(proteinConfSpace, ligandConfSpace, complexConfSpace, epsilon=useJava
 		bbkstarSettingsBuilder.setNumBestSequences(numBestSequences)
 	if numConfsPerBatch is not useJavaDefault:
 		bbkstarSettingsBuilder.setNumConfsPerBatch(numConfsPerBatch)
+	if numNodesInParallel is not useJavaDefault:
+		bbkstarSettingsBuilder.setNumNodesInParallel(numNodesInParallel)
+	if minNumConfTrees is not useJavaDefault:
+		bbkstarSettingsBuilder.setMinNumConfTrees(jvm.boxInt(minNumConfTrees))
+	if confTreeCheckpointDir is not None:
+		bbkstarSettingsBuilder.setConfTreeCheckpointDir(jvm.toFile(confTreeCheckpointDir))
+	if maxConfTreeBytes is not useJavaDefault:
+		bbkstarSettingsBuilder.setMaxConfTreeBytes(jvm.boxLong(maxConfTreeBytes))
 	bbkstarSettings = bbkstarSettingsBuilder.build()
 
 	return c.kstar.BBKStar(proteinConfSpace, ligandConfSpace, complexConfSpace, kstarSettings, bbkstarSettings)
@@ -1129,7 +1190,7 @@ def COMETS_LME(weightsByState, offset=useJavaDefault, constrainLessThan=None):
 	return builder.build()
 
 
-def COMETS(objective, constraints=[], objectiveWindowSize=useJavaDefault, objectiveWindowMax=useJavaDefault, maxSimultaneousMutations=useJavaDefault, minNumConfTrees=useJavaDefault, logFile=None):
+def COMETS(objective, constraints=[], objectiveWindowSize=useJavaDefault, objectiveWindowMax=useJavaDefault, maxSimultaneousMutations=useJavaDefault, minNumConfTrees=useJavaDefault, confTreeCheckpointDir=None, numSequencesInParallel=useJavaDefault, refineStatesInParallel=useJavaDefault, maxMinimizationsInFlight=useJavaDefault, logFile=None):
 	'''
 	:java:classdoc:`.gmec.Comets`
 
@@ -1142,6 +1203,10 @@ def COMETS(objective, constraints=[], objectiveWindowSize=useJavaDefault, object
 	:builder_option objectiveWindowMax .gmec.Comets$Builder#objectiveWindowMax:
 	:builder_option maxSimultaneousMutations .gmec.Comets$Builder#maxSimultaneousMutations:
 	:builder_option minNumConfTrees .gmec.Comets$Builder#minNumConfsTrees:
+	:param str confTreeCheckpointDir: :java:fielddoc:`.gmec.Comets$Builder#confTreeCheckpointDir`
+	:builder_option numSequencesInParallel .gmec.Comets$Builder#numSequencesInParallel:
+	:builder_option refineStatesInParallel .gmec.Comets$Builder#refineStatesInParallel:
+	:builder_option maxMinimizationsInFlight .gmec.Comets$Builder#maxMinimizationsInFlight:
 
 	:param str logFile: :java:fielddoc:`.gmec.Comets$Builder#logFile`
 
@@ -1161,6 +1226,14 @@ def COMETS(objective, constraints=[], objectiveWindowSize=useJavaDefault, object
 		builder.setMaxSimultaneousMutations(maxSimultaneousMutations)
 	if minNumConfTrees is not useJavaDefault:
 		builder.setMinNumConfTrees(jvm.boxInt(minNumConfTrees))
+	if confTreeCheckpointDir is not None:
+		builder.setConfTreeCheckpointDir(jvm.toFile(confTreeCheckpointDir))
+	if numSequencesInParallel is not useJavaDefault:
+		builder.setNumSequencesInParallel(numSequencesInParallel)
+	if refineStatesInParallel is not useJavaDefault:
+		builder.setRefineStatesInParallel(refineStatesInParallel)
+	if maxMinimizationsInFlight is not useJavaDefault:
+		builder.setMaxMinimizationsInFlight(jvm.boxInt(maxMinimizationsInFlight))
 
 	if logFile is not None:
 		builder.setLogFile(jvm.toFile(logFile))
@@ -1217,7 +1290,7 @@ def MSKStar_LMFE(weightsByState, offset=useJavaDefault, constrainLessThan=None):
 	return builder.build()
 
 
-def MSKStar(objective, constraints=[], epsilon=useJavaDefault, objectiveWindowSize=useJavaDefault, objectiveWindowMax=useJavaDefault, maxSimultaneousMutations=useJavaDefault, minNumConfTrees=useJavaDefault, logFile=None):
+def MSKStar(objective, constraints=[], epsilon=useJavaDefault, objectiveWindowSize=useJavaDefault, objectiveWindowMax=useJavaDefault, maxSimultaneousMutations=useJavaDefault, minNumConfTrees=useJavaDefault, confTreeCheckpointDir=None, logFile=None):
 	'''
 	:java:classdoc:`.kstar.MSKStar`
 
@@ -1231,6 +1304,7 @@ def MSKStar(objective, constraints=[], epsilon=useJavaDefault, objectiveWindowSi
 	:builder_option objectiveWindowMax .kstar.MSKStar$Builder#objectiveWindowMax:
 	:builder_option maxSimultaneousMutations .kstar.MSKStar$Builder#maxSimultaneousMutations:
 	:builder_option minNumConfTrees .kstar.MSKStar$Builder#minNumConfsTrees:
+	:param str confTreeCheckpointDir: :java:fielddoc:`.kstar.MSKStar$Builder#confTreeCheckpointDir`
 
 	:param str logFile: :java:fielddoc:`.kstar.MSKStar$Builder#logFile`
 
@@ -1250,6 +1324,8 @@ def MSKStar(objective, constraints=[], epsilon=useJavaDefault, objectiveWindowSi
 		builder.setMaxSimultaneousMutations(maxSimultaneousMutations)
 	if minNumConfTrees is not useJavaDefault:
 		builder.setMinNumConfTrees(jvm.boxInt(minNumConfTrees))
+	if confTreeCheckpointDir is not None:
+		builder.setConfTreeCheckpointDir(jvm.toFile(confTreeCheckpointDir))
 
 	if logFile is not None:
 		builder.setLogFile(jvm.toFile(logFile))
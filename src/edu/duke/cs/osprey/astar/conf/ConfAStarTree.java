@@ -32,11 +32,17 @@
 
 package edu.duke.cs.osprey.astar.conf;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import edu.duke.cs.osprey.astar.AStarProgress;
+import edu.duke.cs.osprey.astar.conf.arena.ArenaConfAStarFactory;
+import edu.duke.cs.osprey.astar.conf.arena.ArenaQueue;
 import edu.duke.cs.osprey.astar.conf.linked.LinkedConfAStarFactory;
 import edu.duke.cs.osprey.astar.conf.order.*;
 import edu.duke.cs.osprey.astar.conf.pruning.AStarPruner;
@@ -86,6 +92,17 @@ public class ConfAStarTree implements ConfSearch {
 		private AStarPruner pruner = null;
 		private Long maxNumNodes = null;
 
+		/**
+		 * The number of frontier nodes to expand at once.
+		 *
+		 * Expanding more than one node at a time lets child scoring tasks for several nodes
+		 * run in parallel (see {@link ConfAStarTree#setParallelism}), which keeps threads busy
+		 * on positions with only a few RCs. Conformations are still returned in order of
+		 * non-decreasing score, but some extra nodes may be expanded that classic A* would
+		 * never have expanded.
+		 */
+		private int expansionBatchSize = 1;
+
 		public Builder(EnergyMatrix emat, SimpleConfSpace confSpace) {
 			this(emat, new RCs(confSpace));
 		}
@@ -195,6 +212,23 @@ public class ConfAStarTree implements ConfSearch {
 			return this;
 		}
 		
+		/**
+		 * Store A* nodes in a compact arena of primitive arrays, instead of as linked objects.
+		 *
+		 * Nodes take much less memory this way, and very large searches put far less
+		 * pressure on the garbage collector.
+		 */
+		public Builder useNodeArena() {
+
+			// just in case...
+			if (factory instanceof EMConfAStarFactory) {
+				throw new IllegalArgumentException("node arena is incompatible with external memory");
+			}
+
+			factory = new ArenaConfAStarFactory();
+			return this;
+		}
+
 		public Builder setShowProgress(boolean val) {
 			showProgress = val;
 			return this;
@@ -211,6 +245,9 @@ public class ConfAStarTree implements ConfSearch {
 			if (val != null && factory instanceof EMConfAStarFactory) {
 				throw new IllegalArgumentException("bounded memory is incompatible with external memory");
 			}
+			if (val != null && expansionBatchSize > 1) {
+				throw new IllegalArgumentException("bounded memory is incompatible with batched node expansion");
+			}
 
 			maxNumNodes = val;
 			return this;
@@ -219,6 +256,27 @@ public class ConfAStarTree implements ConfSearch {
 		public Builder setMaxNumNodes(int val) {
 			return setMaxNumNodes(Long.valueOf(val));
 		}
+
+		/**
+		 * Expand up to this many of the best frontier nodes in each step, instead of just one.
+		 *
+		 * Use with {@link ConfAStarTree#setParallelism} to score all the children of
+		 * the batch concurrently.
+		 */
+		public Builder setExpansionBatchSize(int val) {
+
+			if (val <= 0) {
+				throw new IllegalArgumentException("expansion batch size must be at least 1");
+			}
+
+			// just in case...
+			if (val > 1 && maxNumNodes != null) {
+				throw new IllegalArgumentException("batched node expansion is incompatible with bounded memory");
+			}
+
+			expansionBatchSize = val;
+			return this;
+		}
 		
 		public ConfAStarTree build() {
 			ConfAStarTree tree = new ConfAStarTree(
@@ -229,7 +287,8 @@ public class ConfAStarTree implements ConfSearch {
 				rcs,
 				factory,
 				pruner,
-				maxNumNodes
+				maxNumNodes,
+				expansionBatchSize
 			);
 			if (showProgress) {
 				tree.initProgress();
@@ -323,7 +382,7 @@ public class ConfAStarTree implements ConfSearch {
 	private TaskExecutor tasks;
 	private ObjectPool<ScoreContext> contexts;
 	
-	private ConfAStarTree(AStarOrder order, AStarScorer gscorer, AStarScorer hscorer, MathTools.Optimizer optimizer, RCs rcs, ConfAStarFactory factory, AStarPruner pruner, Long maxNumNodes) {
+	private ConfAStarTree(AStarOrder order, AStarScorer gscorer, AStarScorer hscorer, MathTools.Optimizer optimizer, RCs rcs, ConfAStarFactory factory, AStarPruner pruner, Long maxNumNodes, int expansionBatchSize) {
 		this.order = order;
 		this.gscorer = gscorer;
 		this.hscorer = hscorer;
@@ -335,7 +394,7 @@ public class ConfAStarTree implements ConfSearch {
 		if (maxNumNodes != null) {
 			this.impl = new SimplifiedBoundedImpl(maxNumNodes);
 		} else {
-			this.impl = new UnboundedImpl();
+			this.impl = new UnboundedImpl(expansionBatchSize);
 		}
 		this.confIndex = new ConfIndex(this.rcs.getNumPos());
 		
@@ -386,6 +445,50 @@ public class ConfAStarTree implements ConfSearch {
 		return impl.nextConf();
 	}
 	
+	@Override
+	public int nextConfs(int n, double[] scoresOut) {
+		return impl.nextConfs(n, scoresOut);
+	}
+
+	/**
+	 * Estimates how many bytes of heap memory the search is using, which is mostly the A* queue.
+	 *
+	 * Estimates assume a 64-bit JVM with compressed object pointers.
+	 * Nodes kept in external memory aren't counted.
+	 */
+	public long estimateNumBytes() {
+		return impl.estimateNumBytes();
+	}
+
+	/**
+	 * Writes the current search frontier (i.e., the queue of unexpanded nodes) to the output.
+	 *
+	 * Another tree built with the same settings can resume this search with {@link #readFrontier},
+	 * without having to expand any of the nodes again. This tree is not changed.
+	 *
+	 * Only the unbounded A* implementation supports frontier checkpoints,
+	 * see {@link #supportsFrontierCheckpoints}.
+	 */
+	public void writeFrontier(DataOutput out)
+	throws IOException {
+		impl.writeFrontier(out);
+	}
+
+	/** True if this tree can write and read frontier checkpoints */
+	public boolean supportsFrontierCheckpoints() {
+		return impl.supportsFrontierCheckpoints();
+	}
+
+	/**
+	 * Replaces the search frontier of this tree with one written by {@link #writeFrontier}.
+	 *
+	 * The tree must not have returned any conformations yet.
+	 */
+	public void readFrontier(DataInput in)
+	throws IOException {
+		impl.readFrontier(in);
+	}
+
 	@Override
 	public List<ScoredConf> nextConfs(double thresholdEnergy) {
 
@@ -459,23 +562,88 @@ public class ConfAStarTree implements ConfSearch {
 	private interface AStarImpl {
 
 		ScoredConf nextConf();
+		long estimateNumBytes();
+
+		default int nextConfs(int n, double[] scoresOut) {
+			for (int i=0; i<n; i++) {
+				ScoredConf conf = nextConf();
+				if (conf == null) {
+					return i;
+				}
+				scoresOut[i] = conf.getScore();
+			}
+			return n;
+		}
+
+		default boolean supportsFrontierCheckpoints() {
+			return false;
+		}
+
+		default void writeFrontier(DataOutput out)
+		throws IOException {
+			throw new UnsupportedOperationException("this A* implementation doesn't support frontier checkpoints");
+		}
+
+		default void readFrontier(DataInput in)
+		throws IOException {
+			throw new UnsupportedOperationException("this A* implementation doesn't support frontier checkpoints");
+		}
 	}
 
 	/**
 	 * An implementation of the classic A* that uses unbounded memory.
+	 *
+	 * Optionally, the best few nodes can be expanded at once, so the children of all of them
+	 * can be scored in parallel. Leaf nodes are only ever returned from the top of the queue,
+	 * so conformations still come out in order of non-decreasing score.
 	 */
 	private class UnboundedImpl implements AStarImpl {
 
+		// linked nodes: 40 bytes per node, plus 8 for its slot in the queue
+		// links are 24 bytes each, and are shared by all the descendants of a node
+		private static final long LinkedNodeBytes = 40 + 8;
+		private static final long LinkedLinkBytes = 24;
+
+		private final int expansionBatchSize;
 		private final Queue<ConfAStarNode> queue;
+		private final List<ConfAStarNode> batch;
 
 		private ConfAStarNode rootNode = null;
+		private long numLinks = 0;
 
-		UnboundedImpl() {
+		UnboundedImpl(int expansionBatchSize) {
+			this.expansionBatchSize = expansionBatchSize;
 			this.queue = factory.makeQueue(rcs);
+			this.batch = new ArrayList<>(expansionBatchSize);
 		}
 
 		@Override
 		public ScoredConf nextConf() {
+			ConfAStarNode leaf = nextLeaf();
+			if (leaf == null) {
+				return null;
+			}
+			return new ScoredConf(
+				leaf.makeConf(rcs.getNumPos()),
+				leaf.getGScore(optimizer)
+			);
+		}
+
+		@Override
+		public int nextConfs(int n, double[] scoresOut) {
+
+			// no need to make confs, just read the scores off the leaf nodes
+			for (int i=0; i<n; i++) {
+				ConfAStarNode leaf = nextLeaf();
+				if (leaf == null) {
+					return i;
+				}
+				scoresOut[i] = leaf.getGScore(optimizer);
+			}
+			return n;
+		}
+
+		private ConfAStarNode nextLeaf() {
 
 			// do we have a root node yet?
 			if (rootNode == null) {
@@ -512,76 +680,224 @@ public class ConfAStarTree implements ConfSearch {
 					return null;
 				}
 
-				// get the next node to expand
-				ConfAStarNode node = queue.poll();
+				// get the next nodes to expand
+				batch.clear();
+				while (batch.size() < expansionBatchSize && !queue.isEmpty()) {
 
-				// if this node was pruned dynamically, then ignore it
-				if (pruner != null && pruner.isPruned(node)) {
-					continue;
-				}
+					ConfAStarNode node = queue.poll();
+
+					// if this node was pruned dynamically, then ignore it
+					if (pruner != null && pruner.isPruned(node)) {
+						continue;
+					}
 
-				// leaf node? report it
-				if (node.getLevel() == rcs.getNumPos()) {
+					if (node.getLevel() == rcs.getNumPos()) {
 
-					if (progress != null) {
-						progress.reportLeafNode(node.getGScore(optimizer), queue.size());
+						// leaf node at the top of the queue? report it
+						if (batch.isEmpty()) {
+
+							if (progress != null) {
+								progress.reportLeafNode(node.getGScore(optimizer), queue.size());
+							}
+
+							return node;
+						}
+
+						// otherwise, the leaf has to wait until the nodes in this batch are expanded
+						queue.push(node);
+						break;
 					}
 
-					return new ScoredConf(
-						node.makeConf(rcs.getNumPos()),
-						node.getGScore(optimizer)
-					);
+					batch.add(node);
 				}
 
-				// which pos to expand next?
-				int numChildren = 0;
-				node.index(confIndex);
-				int nextPos = order.getNextPos(confIndex, rcs);
-				assert (!confIndex.isDefined(nextPos));
-				assert (confIndex.isUndefined(nextPos));
-
 				// score child nodes with tasks (possibly in parallel)
 				List<ConfAStarNode> children = new ArrayList<>();
-				for (int nextRc : rcs.get(nextPos)) {
+				for (ConfAStarNode node : batch) {
 
-					// if this child was pruned by the pruning matrix, then skip it
-					if (isPruned(confIndex, nextPos, nextRc)) {
-						continue;
-					}
+					// which pos to expand next?
+					node.index(confIndex);
+					int nextPos = order.getNextPos(confIndex, rcs);
+					assert (!confIndex.isDefined(nextPos));
+					assert (confIndex.isUndefined(nextPos));
 
-					// if this child was pruned dynamically, then don't score it
-					if (pruner != null && pruner.isPruned(node, nextPos, nextRc)) {
-						continue;
-					}
-
-					tasks.submit(() -> {
+					for (int nextRc : rcs.get(nextPos)) {
 
-						try (Checkout<ScoreContext> checkout = contexts.autoCheckout()) {
-							ScoreContext context = checkout.get();
+						// if this child was pruned by the pruning matrix, then skip it
+						if (isPruned(confIndex, nextPos, nextRc)) {
+							continue;
+						}
 
-							// score the child node differentially against the parent node
-							node.index(context.index);
-							ConfAStarNode child = node.assign(nextPos, nextRc);
-							child.setGScore(context.gscorer.calcDifferential(context.index, rcs, nextPos, nextRc), optimizer);
-							child.setHScore(context.hscorer.calcDifferential(context.index, rcs, nextPos, nextRc), optimizer);
-							return child;
+						// if this child was pruned dynamically, then don't score it
+						if (pruner != null && pruner.isPruned(node, nextPos, nextRc)) {
+							continue;
 						}
 
-					}, (ConfAStarNode child) -> {
+						tasks.submit(() -> {
 
-						// collect the possible children
-						if (Double.isFinite(child.getScore())) {
-							children.add(child);
-						}
-					});
+							try (Checkout<ScoreContext> checkout = contexts.autoCheckout()) {
+								ScoreContext context = checkout.get();
+
+								// score the child node differentially against the parent node
+								node.index(context.index);
+								ConfAStarNode child = node.assign(nextPos, nextRc);
+								child.setGScore(context.gscorer.calcDifferential(context.index, rcs, nextPos, nextRc), optimizer);
+								child.setHScore(context.hscorer.calcDifferential(context.index, rcs, nextPos, nextRc), optimizer);
+								return child;
+							}
+
+						}, (ConfAStarNode child) -> {
+
+							// collect the possible children
+							if (Double.isFinite(child.getScore())) {
+								children.add(child);
+							}
+						});
+					}
 				}
 				tasks.waitForFinish();
-				numChildren += children.size();
 				queue.pushAll(children);
+				numLinks += children.size();
 
 				if (progress != null) {
-					progress.reportInternalNode(node.getLevel(), node.getGScore(optimizer), node.getHScore(optimizer), queue.size(), numChildren);
+					int numChildren = children.size();
+					for (ConfAStarNode node : batch) {
+						// NOTE: attribute all the new children to the first node in the batch, so the totals stay correct
+						progress.reportInternalNode(node.getLevel(), node.getGScore(optimizer), node.getHScore(optimizer), queue.size(), numChildren);
+						numChildren = 0;
+					}
+				}
+			}
+		}
+
+		@Override
+		public long estimateNumBytes() {
+
+			if (queue instanceof ArenaQueue) {
+				ArenaQueue arenaQueue = (ArenaQueue)queue;
+				return arenaQueue.getNumBytes() + arenaQueue.arena.getNumBytes();
+			}
+
+			if (factory instanceof EMConfAStarFactory) {
+				// nodes are in external memory
+				return 0;
+			}
+
+			// NOTE: links of nodes that have left the queue might have been collected already,
+			// so this is an upper bound
+			return queue.size()*LinkedNodeBytes + numLinks*LinkedLinkBytes;
+		}
+
+		@Override
+		public boolean supportsFrontierCheckpoints() {
+			// writing the frontier copies the queue onto the heap, which defeats the point of external memory
+			return !(factory instanceof EMConfAStarFactory);
+		}
+
+		@Override
+		public void writeFrontier(DataOutput out)
+		throws IOException {
+
+			int numPos = rcs.getNumPos();
+			out.writeInt(numPos);
+			out.writeBoolean(rootNode != null);
+			out.writeLong(queue.size());
+
+			// drain the queue to get the nodes, then put them back
+			List<ConfAStarNode> nodes = new ArrayList<>();
+			while (!queue.isEmpty()) {
+				nodes.add(queue.poll());
+			}
+			queue.pushAll(nodes);
+
+			// write the nodes in assignment order, so nodes with common ancestors are next to each other
+			List<int[]> confs = new ArrayList<>(nodes.size());
+			for (ConfAStarNode node : nodes) {
+				int[] conf = new int[numPos];
+				node.getConf(conf);
+				confs.add(conf);
+			}
+			Integer[] order = new Integer[nodes.size()];
+			for (int i=0; i<order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> {
+				int[] confa = confs.get(a);
+				int[] confb = confs.get(b);
+				for (int pos=0; pos<numPos; pos++) {
+					int diff = Integer.compare(confa[pos], confb[pos]);
+					if (diff != 0) {
+						return diff;
+					}
 				}
+				return 0;
+			});
+			for (int i : order) {
+				ConfAStarNode node = nodes.get(i);
+				for (int rc : confs.get(i)) {
+					out.writeInt(rc);
+				}
+				out.writeDouble(node.getGScore());
+				out.writeDouble(node.getHScore());
+			}
+		}
+
+		@Override
+		public void readFrontier(DataInput in)
+		throws IOException {
+
+			int numPos = rcs.getNumPos();
+			if (in.readInt() != numPos) {
+				throw new IllegalArgumentException("frontier checkpoint doesn't match this conformation space");
+			}
+			if (rootNode != null) {
+				throw new IllegalStateException("can't read a frontier checkpoint after the search has started");
+			}
+
+			boolean hasRoot = in.readBoolean();
+			long numNodes = in.readLong();
+			if (!hasRoot) {
+				return;
+			}
+
+			// rebuild the nodes by assigning positions in order from a new root
+			// the scores are copied directly, so the nodes don't need to be scored again
+			// the nodes are written in assignment order, so reuse the ancestors of the previous node where the assignments match
+			rootNode = factory.makeRootNode(numPos);
+			ConfAStarNode[] ancestors = new ConfAStarNode[numPos + 1];
+			ancestors[0] = rootNode;
+			int[] prevConf = null;
+			int[] conf = new int[numPos];
+			for (long i=0; i<numNodes; i++) {
+
+				for (int pos=0; pos<numPos; pos++) {
+					conf[pos] = in.readInt();
+				}
+
+				int numShared = 0;
+				if (prevConf != null) {
+					while (numShared < numPos && conf[numShared] == prevConf[numShared]) {
+						numShared++;
+					}
+				} else {
+					prevConf = new int[numPos];
+				}
+
+				for (int pos=numShared; pos<numPos; pos++) {
+					ConfAStarNode parent = ancestors[pos];
+					if (conf[pos] >= 0) {
+						ancestors[pos + 1] = parent.assign(pos, conf[pos]);
+						numLinks++;
+					} else {
+						ancestors[pos + 1] = parent;
+					}
+				}
+				System.arraycopy(conf, 0, prevConf, 0, numPos);
+
+				ConfAStarNode node = ancestors[numPos];
+				node.setGScore(in.readDouble());
+				node.setHScore(in.readDouble());
+				queue.push(node);
 			}
 		}
 	}
@@ -597,6 +913,10 @@ public class ConfAStarTree implements ConfSearch {
 		private final long maxNumNodes;
 		private final ConfSMAStarQueue q;
 
+		// SMA* nodes: 72 bytes per node, 16 bytes per child slot, and about 40 bytes in the queue
+		private static final long NodeBytes = 72 + 40;
+		private static final long ChildBytes = 16;
+
 		private ConfSMAStarNode rootNode = null;
 		private long numNodes = 0;
 
@@ -624,6 +944,12 @@ public class ConfAStarTree implements ConfSearch {
 		// TODO: progress reporting?
 		// TODO: parallelism?
 
+		@Override
+		public long estimateNumBytes() {
+			// every node is some other node's child, except the root
+			return numNodes*(NodeBytes + ChildBytes);
+		}
+
 		@Override
 		public ScoredConf nextConf() {
 
@@ -2,11 +2,14 @@ package edu.duke.cs.osprey.astar.conf;
 
 
 import edu.duke.cs.osprey.confspace.ConfSearch;
+import edu.duke.cs.osprey.tools.MathTools;
 
+import java.io.*;
 import java.lang.ref.SoftReference;
 import java.math.BigInteger;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.function.Supplier;
 
 
@@ -18,6 +21,26 @@ import java.util.function.Supplier;
  *
  * Collected trees will be re-instantiated and enumerated to their
  * last known position when accessed again.
+ *
+ * If a checkpoint directory is given, {@link ConfAStarTree} instances that fall
+ * out of the N most recently used are instead written to disk with
+ * {@link ConfAStarTree#writeFrontier} and released, if they
+ * {@link ConfAStarTree#supportsFrontierCheckpoints support checkpoints}.
+ * Other trees are left to the garbage collector as usual. When accessed again,
+ * the tree is re-instantiated and its frontier read back from disk,
+ * so none of the A* search has to be repeated.
+ *
+ * If a heap budget is given, the cache also estimates the size of each {@link ConfAStarTree}
+ * in memory, and releases trees (either to the garbage collector or to checkpoints)
+ * until the trees in memory fit the budget, regardless of the minimum capacity.
+ * Trees are released in order of least expected utility, using the GreedyDual-Size policy
+ * {@cite Cao1997 Pei Cao and Sandy Irani, 1997.
+ * Cost-aware WWW proxy caching algorithms.
+ * In USENIX Symposium on Internet Technologies and Systems (pp. 193-206).}:
+ * the utility of a tree is the work needed to rebuild it (the number of conformations it has enumerated)
+ * per byte of memory it uses, plus an aging term that favors recently-used trees.
+ *
+ * Entries can be used from multiple threads, but the cache only allows one tree to be used at a time.
  */
 public class ConfSearchCache {
 
@@ -29,6 +52,10 @@ public class ConfSearchCache {
 		private boolean isExhausted = false;
 		private ConfSearch strongRef = null;
 		private SoftReference<ConfSearch> softRef = null;
+		private File checkpointFile = null;
+		private long numBytes = 0;
+		private double utility = 0.0;
+		private boolean wasBuilt = false;
 
 		private Entry(Supplier<ConfSearch> factory) {
 			this.factory = factory;
@@ -42,6 +69,7 @@ public class ConfSearchCache {
 			if (softRef != null) {
 				ConfSearch tree = softRef.get();
 				if (tree != null) {
+					numHits++;
 					markUsed(tree);
 					return tree;
 				}
@@ -50,10 +78,25 @@ public class ConfSearchCache {
 			// don't have a tree, make a new one
 			ConfSearch tree = factory.get();
 
-			// and put it back to where it was
-			for (int i=0; i<numConfs; i++) {
-				tree.nextConf();
+			if (checkpointFile != null) {
+
+				// put it back to where it was using the checkpoint
+				readCheckpoint((ConfAStarTree)tree);
+				numMisses++;
+				numRestores++;
+
+			} else {
+
+				// put it back to where it was by enumerating the confs again
+				for (int i=0; i<numConfs; i++) {
+					tree.nextConf();
+				}
+				if (wasBuilt) {
+					numMisses++;
+					numRebuilds++;
+				}
 			}
+			wasBuilt = true;
 
 			// recently-used entries are always protected from garbage collection
 			softRef = new SoftReference<>(tree);
@@ -66,6 +109,7 @@ public class ConfSearchCache {
 
 			// protect from garbage collection by holding a strong reference
 			strongRef = tree;
+			heldEntries.add(this);
 
 			// if capacity restrictions are turned on, manage recency and GC protections
 			if (minCapacity != null) {
@@ -76,64 +120,279 @@ public class ConfSearchCache {
 				// if we're over capacity, expose the least recently used trees to garbage collection
 				if (recentEntries.size() > minCapacity) {
 					Iterator<Entry> iter = recentEntries.iterator();
-
-					// get rid of the strong reference, so we only have the soft reference
-					iter.next().strongRef = null;
+					Entry entry = iter.next();
 					iter.remove();
+
+					// NOTE: never checkpoint the tree we're about to use
+					entry.release(entry != this && entry.canCheckpoint());
 				}
 			}
 		}
 
-		public void clearRefs() {
-			softRef = null;
+		private void updateSize(ConfSearch tree) {
+
+			if (!(tree instanceof ConfAStarTree) || strongRef == null) {
+				return;
+			}
+
+			long newNumBytes = ((ConfAStarTree)tree).estimateNumBytes();
+			heapBytes += newNumBytes - numBytes;
+			numBytes = newNumBytes;
+
+			// GreedyDual-Size: the cost of losing this tree, per byte, plus the aging term
+			utility = agingUtility + (double)(numConfs + 1)/Math.max(numBytes, 1);
+		}
+
+		/** true if the tree we're holding can be moved to disk when it's released */
+		private boolean canCheckpoint() {
+			return checkpointDir != null
+				&& strongRef instanceof ConfAStarTree
+				&& ((ConfAStarTree)strongRef).supportsFrontierCheckpoints();
+		}
+
+		private void release(boolean allowCheckpoint) {
+
+			// get rid of the strong reference, so we only have the soft reference
+			ConfSearch tree = strongRef;
 			strongRef = null;
+			heldEntries.remove(this);
+			heapBytes -= numBytes;
+			numBytes = 0;
+
+			// if we can, move the tree to disk instead
+			if (allowCheckpoint && checkpointDir != null && tree instanceof ConfAStarTree) {
+				writeCheckpoint((ConfAStarTree)tree);
+				softRef = null;
+			}
+		}
+
+		private void writeCheckpoint(ConfAStarTree tree) {
+			try {
+				checkpointFile = File.createTempFile("confTree.", ".checkpoint", checkpointDir);
+				checkpointFile.deleteOnExit();
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(checkpointFile)))) {
+					tree.writeFrontier(out);
+				}
+			} catch (IOException ex) {
+				throw new RuntimeException("can't write conf tree checkpoint to " + checkpointFile, ex);
+			}
+		}
+
+		private void readCheckpoint(ConfAStarTree tree) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+				tree.readFrontier(in);
+			} catch (IOException ex) {
+				throw new RuntimeException("can't read conf tree checkpoint from " + checkpointFile, ex);
+			}
+			deleteCheckpoint();
+		}
+
+		private void deleteCheckpoint() {
+			if (checkpointFile != null) {
+				checkpointFile.delete();
+				checkpointFile = null;
+			}
+		}
+
+		public void clearRefs() {
+			synchronized (ConfSearchCache.this) {
+				release(false);
+				softRef = null;
+				deleteCheckpoint();
+			}
 		}
 
 		public boolean isProtected() {
 			return strongRef != null;
 		}
 
+		public boolean isCheckpointed() {
+			return checkpointFile != null;
+		}
+
 		@Override
 		public BigInteger getNumConformations() {
-			return getOrMakeTree().getNumConformations();
+			synchronized (ConfSearchCache.this) {
+				return getOrMakeTree().getNumConformations();
+			}
 		}
 
 		@Override
 		public ScoredConf nextConf() {
+			synchronized (ConfSearchCache.this) {
+
+				// no more confs? don't bother with the tree
+				if (isExhausted) {
+					return null;
+				}
+
+				// get the next conf
+				ConfSearch tree = getOrMakeTree();
+				ScoredConf conf = tree.nextConf();
+
+				// and keep track of which conf we're on
+				if (conf == null) {
+					isExhausted = true;
+
+					// and let GC take the tree
+					clearRefs();
 
-			// no more confs? don't bother with the tree
-			if (isExhausted) {
-				return null;
+				} else {
+					numConfs++;
+
+					// the tree probably changed size, so check the heap budget
+					updateSize(tree);
+					if (maxHeapBytes != null) {
+						releaseOverBudget(this);
+					}
+				}
+
+				return conf;
 			}
+		}
 
-			// get the next conf
-			ScoredConf conf = getOrMakeTree().nextConf();
+		@Override
+		public int nextConfs(int n, double[] scoresOut) {
+			synchronized (ConfSearchCache.this) {
 
-			// and keep track of which conf we're on
-			if (conf == null) {
-				isExhausted = true;
+				if (isExhausted) {
+					return 0;
+				}
 
-				// and let GC take the tree
-				clearRefs();
+				ConfSearch tree = getOrMakeTree();
+				int numScores = tree.nextConfs(n, scoresOut);
+				numConfs += numScores;
 
-			} else {
-				numConfs++;
+				if (numScores < n) {
+					isExhausted = true;
+					clearRefs();
+
+				} else {
+					updateSize(tree);
+					if (maxHeapBytes != null) {
+						releaseOverBudget(this);
+					}
+				}
+
+				return numScores;
+			}
+		}
+	}
+
+
+	public static class Stats {
+
+		/** number of times a tree was still in memory when used */
+		public final long numHits;
+
+		/** number of times a tree had to be re-instantiated when used */
+		public final long numMisses;
+
+		/** number of misses where the tree had to be rebuilt by enumerating its conformations again */
+		public final long numRebuilds;
+
+		/** number of misses where the tree was restored from a checkpoint */
+		public final long numRestores;
+
+		/** number of trees released to keep the cache within the heap budget */
+		public final long numEvictions;
+
+		/** the estimated size of all trees held in memory by the cache, in bytes */
+		public final long heapBytes;
+
+		public Stats(long numHits, long numMisses, long numRebuilds, long numRestores, long numEvictions, long heapBytes) {
+			this.numHits = numHits;
+			this.numMisses = numMisses;
+			this.numRebuilds = numRebuilds;
+			this.numRestores = numRestores;
+			this.numEvictions = numEvictions;
+			this.heapBytes = heapBytes;
+		}
+
+		public double getHitRate() {
+			long numUses = numHits + numMisses;
+			if (numUses == 0) {
+				return 0.0;
 			}
+			return (double)numHits/numUses;
+		}
 
-			return conf;
+		@Override
+		public String toString() {
+			return String.format("conf trees: hits=%d, misses=%d (rebuilds=%d, restores=%d), hit rate=%.1f%%, evictions=%d, heap=%s",
+				numHits, numMisses, numRebuilds, numRestores, getHitRate()*100.0, numEvictions,
+				MathTools.formatBytes(heapBytes)
+			);
 		}
 	}
 
 
 	public final Integer minCapacity;
+	public final File checkpointDir;
+	public final Long maxHeapBytes;
 
 	private final LinkedHashSet<Entry> recentEntries = new LinkedHashSet<>();
+	private final Set<Entry> heldEntries = new LinkedHashSet<>();
+
+	private long heapBytes = 0;
+	private double agingUtility = 0.0;
+	private long numHits = 0;
+	private long numMisses = 0;
+	private long numRebuilds = 0;
+	private long numRestores = 0;
+	private long numEvictions = 0;
 
 	public ConfSearchCache(Integer minCapacity) {
+		this(minCapacity, null);
+	}
+
+	public ConfSearchCache(Integer minCapacity, File checkpointDir) {
+		this(minCapacity, checkpointDir, null);
+	}
+
+	/**
+	 * @param minCapacity number of most recently-used trees to keep in memory, or null to keep all trees
+	 * @param checkpointDir directory in which to checkpoint released trees, or null to leave them to the garbage collector
+	 * @param maxHeapBytes the most bytes of heap to use for trees, or null for no limit
+	 */
+	public ConfSearchCache(Integer minCapacity, File checkpointDir, Long maxHeapBytes) {
 		this.minCapacity = minCapacity;
+		this.checkpointDir = checkpointDir;
+		this.maxHeapBytes = maxHeapBytes;
+		if (checkpointDir != null) {
+			checkpointDir.mkdirs();
+		}
 	}
 
-	public Entry make(Supplier<ConfSearch> factory) {
+	public synchronized Entry make(Supplier<ConfSearch> factory) {
 		return new Entry(factory);
 	}
+
+	public synchronized Stats getStats() {
+		return new Stats(numHits, numMisses, numRebuilds, numRestores, numEvictions, heapBytes);
+	}
+
+	private void releaseOverBudget(Entry current) {
+
+		while (heapBytes > maxHeapBytes) {
+
+			// find the tree with the least utility, other than the one in use
+			Entry victim = null;
+			for (Entry entry : heldEntries) {
+				if (entry != current && (victim == null || entry.utility < victim.utility)) {
+					victim = entry;
+				}
+			}
+			if (victim == null) {
+				break;
+			}
+
+			// age the remaining trees by raising the utility floor for new uses
+			agingUtility = victim.utility;
+
+			recentEntries.remove(victim);
+			victim.release(victim.canCheckpoint());
+			numEvictions++;
+		}
+	}
 }
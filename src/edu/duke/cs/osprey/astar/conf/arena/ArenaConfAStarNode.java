@@ -0,0 +1,251 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.astar.conf.arena;
+
+import java.util.Arrays;
+
+import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
+import edu.duke.cs.osprey.astar.conf.ConfIndex;
+
+/**
+ * A lightweight handle to a node in a {@link NodeArena}.
+ *
+ * Handles are short-lived: the queue only keeps node ids, and makes a new handle
+ * each time a node is taken out. New child nodes aren't added to the arena
+ * until they're pushed onto the queue (or assigned themselves), so scoring children
+ * that end up being discarded doesn't cost any arena space.
+ */
+public class ArenaConfAStarNode implements ConfAStarNode {
+
+	public static final int NotStored = -1;
+
+	private final NodeArena arena;
+	private volatile int id;
+	private final int parentId;
+	private final int pos;
+	private final int rc;
+	private final int level;
+	private double gscore;
+	private double hscore;
+
+	private ArenaConfAStarNode(NodeArena arena, int id, int parentId, int pos, int rc, int level, double gscore, double hscore) {
+		this.arena = arena;
+		this.id = id;
+		this.parentId = parentId;
+		this.pos = pos;
+		this.rc = rc;
+		this.level = level;
+		this.gscore = gscore;
+		this.hscore = hscore;
+	}
+
+	/** makes a root node */
+	public ArenaConfAStarNode(NodeArena arena) {
+		this(arena, NotStored, NodeArena.NoParent, NodeArena.NoPos, -1, 0, Double.NaN, Double.NaN);
+	}
+
+	/** makes a handle to a node already in the arena */
+	public static ArenaConfAStarNode load(NodeArena arena, int id) {
+		return new ArenaConfAStarNode(
+			arena,
+			id,
+			arena.getParent(id),
+			arena.getPos(id),
+			arena.getRC(id),
+			arena.getLevel(id),
+			arena.getGScore(id),
+			arena.getHScore(id)
+		);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public boolean isStored() {
+		return id != NotStored;
+	}
+
+	/**
+	 * Adds this node to the arena, if it's not there already.
+	 *
+	 * Safe to call from several threads at once (e.g., when the children of one node
+	 * are scored in parallel): the node is only ever added once.
+	 *
+	 * @return the id of the node in the arena
+	 */
+	public int store() {
+
+		// already stored? no need to lock
+		int id = this.id;
+		if (id != NotStored) {
+			return id;
+		}
+
+		synchronized (this) {
+			if (this.id == NotStored) {
+				this.id = arena.add(parentId, pos, rc, level, gscore, hscore);
+			}
+			return this.id;
+		}
+	}
+
+	@Override
+	public ArenaConfAStarNode assign(int pos, int rc) {
+
+		// children refer to their parents by id, so the parent has to be in the arena
+		int parentId = store();
+
+		return new ArenaConfAStarNode(arena, NotStored, parentId, pos, rc, level + 1, Double.NaN, Double.NaN);
+	}
+
+	@Override
+	public void getConf(int[] conf) {
+		Arrays.fill(conf, -1);
+		if (pos != NodeArena.NoPos) {
+			conf[pos] = rc;
+		}
+		int id = parentId;
+		while (id != NodeArena.NoParent) {
+			int pos = arena.getPos(id);
+			if (pos == NodeArena.NoPos) {
+				break;
+			}
+			conf[pos] = arena.getRC(id);
+			id = arena.getParent(id);
+		}
+	}
+
+	@Override
+	public double getGScore() {
+		return gscore;
+	}
+
+	@Override
+	public void setGScore(double val) {
+		gscore = val;
+		if (id != NotStored) {
+			arena.setGScore(id, val);
+		}
+	}
+
+	@Override
+	public double getHScore() {
+		return hscore;
+	}
+
+	@Override
+	public void setHScore(double val) {
+		hscore = val;
+		if (id != NotStored) {
+			arena.setHScore(id, val);
+		}
+	}
+
+	@Override
+	public int getLevel() {
+		return level;
+	}
+
+	@Override
+	public void index(ConfIndex index) {
+
+		// is this node already indexed?
+		if (index.node == this) {
+			return;
+		}
+		index.node = this;
+
+		// use local vars so the (JIT)compiler can use stack/registers instead of field accesses
+		int numPos = index.numPos;
+		int numDefined = 0;
+		int[] dpos = index.definedPos;
+		int[] rcs = index.definedRCs;
+		int numUndefined = 0;
+		int[] upos = index.undefinedPos;
+
+		// walk up the parent ids to get the defined positions
+		if (pos != NodeArena.NoPos) {
+			dpos[numDefined] = pos;
+			rcs[numDefined] = rc;
+			numDefined++;
+		}
+		int id = parentId;
+		while (id != NodeArena.NoParent) {
+			int pos = arena.getPos(id);
+			if (pos == NodeArena.NoPos) {
+				break;
+			}
+			dpos[numDefined] = pos;
+			rcs[numDefined] = arena.getRC(id);
+			numDefined++;
+			id = arena.getParent(id);
+		}
+
+		// sort the defined positions using a simple insertion sort
+		// assignments arrays are always small (n << 100), so insertion sort should be fast enough
+		// NOTE: we need to sort two arrays simultaneously, so we can't use any library sorts
+		for (int i=1; i<numDefined; i++) {
+
+			int tempPos = dpos[i];
+			int tempRC = rcs[i];
+
+			int j;
+			for (j=i; j>=1 && tempPos < dpos[j-1]; j--) {
+				dpos[j] = dpos[j-1];
+				rcs[j] = rcs[j-1];
+			}
+			dpos[j] = tempPos;
+			rcs[j] = tempRC;
+		}
+
+		// now figure out the undefined positions
+		int i = 0;
+		for (int pos=0; pos<numPos; pos++) {
+
+			// does this pos match the next defined pos?
+			if (i < numDefined && pos == dpos[i]) {
+				i++;
+			} else {
+				upos[numUndefined] = pos;
+				numUndefined++;
+			}
+		}
+
+		assert (numDefined + numUndefined == numPos);
+
+		// copy vars back to the index
+		index.numDefined = numDefined;
+		index.numUndefined = numUndefined;
+	}
+}
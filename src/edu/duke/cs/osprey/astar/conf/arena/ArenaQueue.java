@@ -0,0 +1,152 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.astar.conf.arena;
+
+import java.util.Arrays;
+
+import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
+import edu.duke.cs.osprey.externalMemory.Queue;
+
+/**
+ * A binary min-heap of node ids keyed by node score, using only primitive arrays.
+ */
+public class ArenaQueue implements Queue<ConfAStarNode> {
+
+	private static final int InitialCapacity = 1024;
+	private static final int MaxCapacity = Integer.MAX_VALUE - 8;
+
+	public final NodeArena arena;
+
+	private int[] ids = new int[InitialCapacity];
+	private double[] scores = new double[InitialCapacity];
+	private int size = 0;
+
+	public ArenaQueue(NodeArena arena) {
+		this.arena = arena;
+	}
+
+	@Override
+	public void push(ConfAStarNode node) {
+
+		// the node has to live in the arena before we can keep its id
+		ArenaConfAStarNode arenaNode = (ArenaConfAStarNode)node;
+		int id = arenaNode.store();
+		double score = arenaNode.getScore();
+
+		if (size == ids.length) {
+			grow();
+		}
+
+		// sift up
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (scores[parent] <= score) {
+				break;
+			}
+			ids[i] = ids[parent];
+			scores[i] = scores[parent];
+			i = parent;
+		}
+		ids[i] = id;
+		scores[i] = score;
+	}
+
+	@Override
+	public ConfAStarNode peek() {
+		if (size == 0) {
+			return null;
+		}
+		return ArenaConfAStarNode.load(arena, ids[0]);
+	}
+
+	@Override
+	public void pop() {
+
+		if (size == 0) {
+			throw new IllegalStateException("queue is empty");
+		}
+
+		size--;
+		if (size == 0) {
+			return;
+		}
+
+		// move the last entry to the top and sift down
+		int id = ids[size];
+		double score = scores[size];
+		int i = 0;
+		int half = size >>> 1;
+		while (i < half) {
+			int child = 2*i + 1;
+			int right = child + 1;
+			if (right < size && scores[right] < scores[child]) {
+				child = right;
+			}
+			if (score <= scores[child]) {
+				break;
+			}
+			ids[i] = ids[child];
+			scores[i] = scores[child];
+			i = child;
+		}
+		ids[i] = id;
+		scores[i] = score;
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public long getNumBytes() {
+		return (long)ids.length*(Integer.BYTES + Double.BYTES);
+	}
+
+	private void grow() {
+
+		if (ids.length == MaxCapacity) {
+			throw new IllegalStateException("queue is full");
+		}
+
+		// grow by 50%, like ArrayList
+		int capacity = (int)Math.min((long)ids.length*3/2, MaxCapacity);
+		ids = Arrays.copyOf(ids, capacity);
+		scores = Arrays.copyOf(scores, capacity);
+	}
+}
@@ -0,0 +1,165 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.astar.conf.arena;
+
+import java.util.Arrays;
+
+/**
+ * Stores A* nodes as parallel primitive arrays indexed by node id,
+ * instead of as individual objects on the heap.
+ *
+ * Each node only needs its parent id, its assignment, its level, and its scores,
+ * so the per-node overhead is 26 bytes with no object headers or references
+ * for the garbage collector to trace.
+ *
+ * Arrays are allocated in fixed-size blocks, so growing the arena never copies node data.
+ *
+ * Adding nodes is synchronized. Reads aren't, but it's safe to read a node while other threads
+ * are adding nodes, as long as the node was added before the reading thread got its id
+ * (e.g., through a synchronized queue or by submitting a task to a thread pool).
+ * That's what happens when A* scores children in parallel: tasks read the ancestors of the
+ * nodes being expanded while other tasks add those nodes to the arena. The block tables are
+ * volatile and only published after their new block is in place, so readers never see a table
+ * with a missing block.
+ * Setting the scores of a node isn't safe while other threads read that node.
+ */
+public class NodeArena {
+
+	public static final int NoParent = -1;
+	public static final int NoPos = -1;
+
+	public static final int BytesPerNode = Integer.BYTES + Short.BYTES*3 + Double.BYTES*2;
+
+	private static final int BlockBits = 16;
+	private static final int BlockSize = 1 << BlockBits;
+	private static final int BlockMask = BlockSize - 1;
+
+	// NOTE: try to keep storage here as small as possible
+	// we expect to have hundreds of millions of nodes
+	private volatile int[][] parents = new int[0][];
+	private volatile short[][] positions = new short[0][];
+	private volatile short[][] rcs = new short[0][];
+	private volatile short[][] levels = new short[0][];
+	private volatile double[][] gscores = new double[0][];
+	private volatile double[][] hscores = new double[0][];
+
+	private int size = 0;
+
+	public synchronized int add(int parentId, int pos, int rc, int level, double gscore, double hscore) {
+
+		assert (pos <= Short.MAX_VALUE);
+		assert (rc <= Short.MAX_VALUE);
+		assert (level <= Short.MAX_VALUE);
+
+		if (size == Integer.MAX_VALUE) {
+			throw new IllegalStateException("node arena is full");
+		}
+
+		int id = size;
+		int block = id >>> BlockBits;
+		int i = id & BlockMask;
+
+		// need a new block?
+		// fill in the new block before publishing the table, so concurrent readers always see a whole table
+		if (block == parents.length) {
+			int[][] newParents = Arrays.copyOf(parents, block + 1);
+			newParents[block] = new int[BlockSize];
+			parents = newParents;
+			short[][] newPositions = Arrays.copyOf(positions, block + 1);
+			newPositions[block] = new short[BlockSize];
+			positions = newPositions;
+			short[][] newRcs = Arrays.copyOf(rcs, block + 1);
+			newRcs[block] = new short[BlockSize];
+			rcs = newRcs;
+			short[][] newLevels = Arrays.copyOf(levels, block + 1);
+			newLevels[block] = new short[BlockSize];
+			levels = newLevels;
+			double[][] newGscores = Arrays.copyOf(gscores, block + 1);
+			newGscores[block] = new double[BlockSize];
+			gscores = newGscores;
+			double[][] newHscores = Arrays.copyOf(hscores, block + 1);
+			newHscores[block] = new double[BlockSize];
+			hscores = newHscores;
+		}
+
+		parents[block][i] = parentId;
+		positions[block][i] = (short)pos;
+		rcs[block][i] = (short)rc;
+		levels[block][i] = (short)level;
+		gscores[block][i] = gscore;
+		hscores[block][i] = hscore;
+
+		size++;
+		return id;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getNumBytes() {
+		return (long)parents.length*BlockSize*BytesPerNode;
+	}
+
+	public int getParent(int id) {
+		return parents[id >>> BlockBits][id & BlockMask];
+	}
+
+	public int getPos(int id) {
+		return positions[id >>> BlockBits][id & BlockMask];
+	}
+
+	public int getRC(int id) {
+		return rcs[id >>> BlockBits][id & BlockMask];
+	}
+
+	public int getLevel(int id) {
+		return levels[id >>> BlockBits][id & BlockMask];
+	}
+
+	public double getGScore(int id) {
+		return gscores[id >>> BlockBits][id & BlockMask];
+	}
+
+	public void setGScore(int id, double val) {
+		gscores[id >>> BlockBits][id & BlockMask] = val;
+	}
+
+	public double getHScore(int id) {
+		return hscores[id >>> BlockBits][id & BlockMask];
+	}
+
+	public void setHScore(int id, double val) {
+		hscores[id >>> BlockBits][id & BlockMask] = val;
+	}
+}
@@ -43,21 +43,37 @@ import org.mapdb.serializer.GroupSerializerObjectArray;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 
 public class ConfDB implements AutoCleanable {
 
+	/** see {@link #setMaxOpenLogs(int)} */
+	public static final int DefaultMaxOpenLogs = 64;
+
 	public static ConfDB makeIfNeeded(SimpleConfSpace confSpace, File file) {
+		return makeIfNeeded(confSpace, file, 0);
+	}
+
+	public static ConfDB makeIfNeeded(SimpleConfSpace confSpace, File file, long writeBehindMs) {
 
 		// no file? confdb not needed
 		if (file == null) {
 			return null;
 		}
 
-		return new ConfDB(confSpace, file);
+		return new ConfDB(confSpace, file, writeBehindMs);
 	}
 
 	public static class DBs implements AutoCleanable {
@@ -66,13 +82,31 @@ public class ConfDB implements AutoCleanable {
 
 			public void add(SimpleConfSpace confSpace, File file) {
 				if (file != null) {
-					dbs.put(confSpace, new ConfDB(confSpace, file));
+					dbs.put(confSpace, new ConfDB(confSpace, file, writeBehindMs, backend));
 				}
 			}
 		}
 
 		private final Map<SimpleConfSpace,ConfDB> dbs = new HashMap<>();
 		private final Adder adder = new Adder();
+		private long writeBehindMs = 0;
+		private Backend backend = Backend.MapDB;
+
+		/**
+		 * Use write-behind buffers for DBs added after this call.
+		 *
+		 * See {@link ConfDB#ConfDB(SimpleConfSpace,File,long)} for details.
+		 */
+		public DBs setWriteBehind(long writeBehindMs) {
+			this.writeBehindMs = writeBehindMs;
+			return this;
+		}
+
+		/** Use this backend for DBs added after this call. */
+		public DBs setBackend(Backend backend) {
+			this.backend = backend;
+			return this;
+		}
 
 		public DBs add(SimpleConfSpace confSpace, File file) {
 			adder.add(confSpace, file);
@@ -104,6 +138,31 @@ public class ConfDB implements AutoCleanable {
 		Energy
 	}
 
+	public static enum Backend {
+
+		/** MapDB btrees for the confs, with btree indices on the lower and upper bounds */
+		MapDB,
+
+		/**
+		 * An append-only, memory-mapped log for each table, with an in-memory hash index.
+		 * Much more compact than the btrees, but the hash index must fit in memory, and sorted
+		 * views are built (by sorting all the confs in the table) the first time they're needed after a write.
+		 * Log files are kept next to the DB file, and only the most recently used ones are kept open
+		 * (see {@link ConfDB#setMaxOpenLogs(int)}). See {@link ConfLog}.
+		 */
+		Log,
+
+		/**
+		 * Like {@link #Log}, but several processes (e.g., K* jobs on the same node) can open the same DB
+		 * at the same time. Appends are coordinated with file locks, and each process sees
+		 * bounds written by the others as soon as they're written (or drained, when using write-behind).
+		 *
+		 * MapDB files can't be shared, so sequence metadata (see {@link ConfDB#getSequences()}) is only kept in memory,
+		 * and each process only sees the sequences it has used itself.
+		 */
+		SharedLog
+	}
+
 	public static class Conf {
 
 		public static class Bound {
@@ -170,6 +229,23 @@ public class ConfDB implements AutoCleanable {
 			this.upperTimestampNs = upperTimestampNs;
 		}
 
+		/**
+		 * Make a new info with the bounds of the update where they're set,
+		 * and the bounds of the base everywhere else.
+		 */
+		public static ConfInfo overlay(ConfInfo base, ConfInfo update) {
+			ConfInfo info = base == null ? new ConfInfo() : new ConfInfo(base.lowerEnergy, base.lowerTimestampNs, base.upperEnergy, base.upperTimestampNs);
+			if (update.lowerTimestampNs != 0L) {
+				info.lowerEnergy = update.lowerEnergy;
+				info.lowerTimestampNs = update.lowerTimestampNs;
+			}
+			if (update.upperTimestampNs != 0L) {
+				info.upperEnergy = update.upperEnergy;
+				info.upperTimestampNs = update.upperTimestampNs;
+			}
+			return info;
+		}
+
 		public Conf.Bound makeLowerBound() {
 			return makeBound(lowerEnergy, lowerTimestampNs);
 		}
@@ -215,6 +291,24 @@ public class ConfDB implements AutoCleanable {
 		}
 	}
 
+	static int compareAssignments(int[] a, int[] b) {
+
+		// short circuit
+		if (a == b) {
+			return 0;
+		}
+
+		// lexicographical comparison
+		final int len = Math.min(a.length, b.length);
+		for (int i=0; i<len; i++) {
+			int val = Integer.compare(a[i], b[i]);
+			if (val != 0) {
+				return val;
+			}
+		}
+		return Integer.compare(a.length, b.length);
+	}
+
 	private class AssignmentsSerializer extends SimpleSerializer<int[]> {
 
 		private final int numPos;
@@ -244,21 +338,7 @@ public class ConfDB implements AutoCleanable {
 
 		@Override
 		public int compare(int[] a, int[] b) {
-
-			// short circuit
-			if (a == b) {
-				return 0;
-			}
-
-			// lexicographical comparison
-			final int len = Math.min(a.length, b.length);
-			for (int i=0; i<len; i++) {
-				int val = Integer.compare(a[i], b[i]);
-				if (val != 0) {
-					return val;
-				}
-			}
-			return Integer.compare(a.length, b.length);
+			return compareAssignments(a, b);
 		}
 
 		@Override
@@ -315,13 +395,38 @@ public class ConfDB implements AutoCleanable {
 		}
 	}
 
-	public class ConfTable implements Iterable<Conf> {
+	/** sorted energies for the confs in a table */
+	private interface EnergyView extends Iterable<Map.Entry<Double,int[]>> {
+
+		/** returns the assignments of all the confs with this energy, or null if there aren't any */
+		List<int[]> get(double energy);
+
+		/** iterates over the distinct energies, in order */
+		Iterator<Double> energyIterator();
+	}
+
+	/** where a table keeps its confs */
+	private interface ConfStore extends Iterable<Conf> {
+		ConfInfo get(int[] assignments);
+		void write(int[] assignments, ConfInfo update);
+		void remove(int[] assignments);
+		EnergyView lowerIndex();
+		EnergyView upperIndex();
+		long size();
+
+		/** write this table's confs to disk, after the DB has been committed */
+		void flush();
+
+		void close();
+	}
+
+	private class BTreeStore implements ConfStore {
 
 		private final BTreeMap<int[],ConfInfo> btree;
 		private final EnergyIndex lowerIndex;
 		private final EnergyIndex upperIndex;
 
-		public ConfTable(String id) {
+		public BTreeStore(String id) {
 
 			// MapDB serializer for ConfInfo
 			final int ConfInfoBytes = Double.BYTES*2 + Long.BYTES*2;
@@ -357,67 +462,316 @@ public class ConfDB implements AutoCleanable {
 			this.upperIndex = new EnergyIndex(id + "-upperEnergy");
 		}
 
-		public void setBounds(ConfSearch.EnergiedConf econf, long timestampNs) {
-			setBounds(econf.getAssignments(), econf.getScore(), econf.getEnergy(), timestampNs);
+		@Override
+		public ConfInfo get(int[] assignments) {
+			return btree.get(assignments);
 		}
 
-		public void setBounds(int[] assignments, double lowerEnergy, double upperEnergy, long timestampNs) {
+		@Override
+		public void write(int[] assignments, ConfInfo update) {
 			ConfInfo info = btree.get(assignments);
-			if (info == null) {
-				info = new ConfInfo();
-			} else {
+			if (info != null) {
 				// remove old energy index entries if needed
-				if (info.lowerTimestampNs != 0L) {
+				if (update.lowerTimestampNs != 0L && info.lowerTimestampNs != 0L) {
 					lowerIndex.remove(info.lowerEnergy, assignments);
 				}
-				if (info.upperTimestampNs != 0L) {
+				if (update.upperTimestampNs != 0L && info.upperTimestampNs != 0L) {
 					upperIndex.remove(info.upperEnergy, assignments);
 				}
 			}
-			info.lowerEnergy = lowerEnergy;
-			info.lowerTimestampNs = timestampNs;
-			info.upperEnergy = upperEnergy;
-			info.upperTimestampNs = timestampNs;
-			btree.put(assignments, info);
-			lowerIndex.add(lowerEnergy, assignments);
-			upperIndex.add(upperEnergy, assignments);
+			btree.put(assignments, ConfInfo.overlay(info, update));
+			if (update.lowerTimestampNs != 0L) {
+				lowerIndex.add(update.lowerEnergy, assignments);
+			}
+			if (update.upperTimestampNs != 0L) {
+				upperIndex.add(update.upperEnergy, assignments);
+			}
 		}
 
-		public void setLowerBound(int[] assignments, double energy, long timestampNs) {
+		@Override
+		public void remove(int[] assignments) {
 			ConfInfo info = btree.get(assignments);
-			if (info == null) {
-				info = new ConfInfo();
-			} else {
-				// remove old energy index entries if needed
+			if (info != null) {
 				if (info.lowerTimestampNs != 0L) {
 					lowerIndex.remove(info.lowerEnergy, assignments);
 				}
+				if (info.upperTimestampNs != 0L) {
+					upperIndex.remove(info.upperEnergy, assignments);
+				}
+				btree.remove(assignments);
+			}
+		}
+
+		@Override
+		public Iterator<Conf> iterator() {
+			return Streams.of(btree.entryIterator())
+				.map((entry) -> new Conf(
+						entry.getKey(),
+						entry.getValue()
+					)
+				)
+				.iterator();
+		}
+
+		@Override
+		public EnergyView lowerIndex() {
+			return lowerIndex;
+		}
+
+		@Override
+		public EnergyView upperIndex() {
+			return upperIndex;
+		}
+
+		@Override
+		public long size() {
+			return btree.sizeLong();
+		}
+
+		@Override
+		public void flush() {
+			// the btree lives in the DB file, so committing the DB already wrote it
+		}
+
+		@Override
+		public void close() {
+			btree.close();
+		}
+	}
+
+	private class LogStore implements ConfStore {
+
+		private final String id;
+
+		public LogStore(String id) {
+			this.id = id;
+
+			// open the log right away, so we find out about bad files early
+			useLog(id, (log) -> null);
+		}
+
+		@Override
+		public ConfInfo get(int[] assignments) {
+			return toInfo(useLog(id, (log) -> log.get(assignments)));
+		}
+
+		private ConfInfo toInfo(ConfLog.Entry entry) {
+			if (entry == null) {
+				return null;
+			}
+			return new ConfInfo(entry.lowerEnergy, entry.lowerTimestampNs, entry.upperEnergy, entry.upperTimestampNs);
+		}
+
+		@Override
+		public void write(int[] assignments, ConfInfo update) {
+			useLog(id, (log) -> {
+				log.update(assignments, update.lowerEnergy, update.lowerTimestampNs, update.upperEnergy, update.upperTimestampNs);
+				return null;
+			});
+		}
+
+		@Override
+		public void remove(int[] assignments) {
+			useLog(id, (log) -> {
+				log.remove(assignments);
+				return null;
+			});
+		}
+
+		@Override
+		public Iterator<Conf> iterator() {
+			long[] records = useLog(id, (log) -> log.getView(ConfLog.View.Assignments));
+			return Arrays.stream(records)
+				.mapToObj((record) -> {
+					ConfLog.Entry entry = readLog(id, record);
+					return new Conf(entry.assignments, toInfo(entry));
+				})
+				.iterator();
+		}
+
+		@Override
+		public EnergyView lowerIndex() {
+			return new LogEnergyView(id, ConfLog.View.Lower);
+		}
+
+		@Override
+		public EnergyView upperIndex() {
+			return new LogEnergyView(id, ConfLog.View.Upper);
+		}
+
+		@Override
+		public long size() {
+			return useLog(id, (log) -> log.size());
+		}
+
+		@Override
+		public void flush() {
+			forceLog(id);
+		}
+
+		@Override
+		public void close() {
+			// the log is shared by all tables with the same id, so ConfDB closes it
+		}
+	}
+
+	private class LogEnergyView implements EnergyView {
+
+		private final String id;
+		private final ConfLog.View view;
+		private final long[] records;
+
+		public LogEnergyView(String id, ConfLog.View view) {
+			this.id = id;
+			this.view = view;
+			this.records = useLog(id, (log) -> log.getView(view));
+		}
+
+		private double getEnergy(int i) {
+			return readLog(id, records[i]).getEnergy(view);
+		}
+
+		@Override
+		public List<int[]> get(double energy) {
+
+			// binary search for the first record with the energy
+			int lo = 0;
+			int hi = records.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (getEnergy(mid) < energy) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
 			}
-			info.lowerEnergy = energy;
-			info.lowerTimestampNs = timestampNs;
-			btree.put(assignments, info);
-			lowerIndex.add(energy, assignments);
+
+			List<int[]> multiAssignments = new ArrayList<>();
+			for (int i=lo; i<records.length; i++) {
+				ConfLog.Entry entry = readLog(id, records[i]);
+				if (entry.getEnergy(view) != energy) {
+					break;
+				}
+				multiAssignments.add(entry.assignments);
+			}
+			return multiAssignments.isEmpty() ? null : multiAssignments;
+		}
+
+		@Override
+		public Iterator<Map.Entry<Double,int[]>> iterator() {
+			return Arrays.stream(records)
+				.mapToObj((record) -> {
+					ConfLog.Entry entry = readLog(id, record);
+					return (Map.Entry<Double,int[]>)new AbstractMap.SimpleImmutableEntry<>(entry.getEnergy(view), entry.assignments);
+				})
+				.iterator();
+		}
+
+		@Override
+		public Iterator<Double> energyIterator() {
+			return Arrays.stream(records)
+				.mapToDouble((record) -> readLog(id, record).getEnergy(view))
+				.distinct()
+				.boxed()
+				.iterator();
+		}
+	}
+
+	public class ConfTable implements Iterable<Conf> {
+
+		private final ConfStore store;
+
+		/** bound updates not yet written to the store, sorted by assignments, or null if not using write-behind */
+		private final ConcurrentSkipListMap<int[],ConfInfo> buffer;
+
+		public ConfTable(String id) {
+
+			switch (backend) {
+				case MapDB:
+					store = new BTreeStore(id);
+				break;
+				case Log:
+				case SharedLog:
+					store = new LogStore(id);
+				break;
+				default:
+					throw new UnpossibleError();
+			}
+
+			if (writeBehindThread != null) {
+				// tables with the same id share one buffer, so they all see the same buffered updates
+				ConfTable first = writeBehindTables.putIfAbsent(id, this);
+				this.buffer = first == null ? new ConcurrentSkipListMap<>(ConfDB::compareAssignments) : first.buffer;
+			} else {
+				this.buffer = null;
+			}
+		}
+
+		public void setBounds(ConfSearch.EnergiedConf econf, long timestampNs) {
+			setBounds(econf.getAssignments(), econf.getScore(), econf.getEnergy(), timestampNs);
+		}
+
+		public void setBounds(int[] assignments, double lowerEnergy, double upperEnergy, long timestampNs) {
+			set(assignments, new ConfInfo(lowerEnergy, timestampNs, upperEnergy, timestampNs));
+		}
+
+		public void setLowerBound(int[] assignments, double energy, long timestampNs) {
+			set(assignments, new ConfInfo(energy, timestampNs, 0.0, 0L));
 		}
 
 		public void setUpperBound(int[] assignments, double energy, long timestampNs) {
-			ConfInfo info = btree.get(assignments);
-			if (info == null) {
-				info = new ConfInfo();
+			set(assignments, new ConfInfo(0.0, 0L, energy, timestampNs));
+		}
+
+		private void set(int[] assignments, ConfInfo update) {
+			if (buffer != null) {
+
+				// coalesce with any other buffered updates for this conf
+				// and let the write-behind thread handle the rest
+				checkWriteBehind();
+				buffer.merge(assignments.clone(), update, (old, upd) -> ConfInfo.overlay(old, upd));
+
 			} else {
-				// remove old energy index entries if needed
-				if (info.upperTimestampNs != 0L) {
-					upperIndex.remove(info.upperEnergy, assignments);
+				store.write(assignments, update);
+			}
+		}
+
+		/**
+		 * Write all buffered bound updates to the store, in assignment order.
+		 * Doesn't commit anything to disk.
+		 */
+		private void drain() {
+
+			if (buffer == null) {
+				return;
+			}
+
+			synchronized (buffer) {
+				for (Map.Entry<int[],ConfInfo> entry : buffer.entrySet()) {
+					store.write(entry.getKey(), entry.getValue());
+
+					// if another thread updated the conf in the meantime, keep the newer update buffered
+					buffer.remove(entry.getKey(), entry.getValue());
 				}
 			}
-			info.upperEnergy = energy;
-			info.upperTimestampNs = timestampNs;
-			btree.put(assignments, info);
-			upperIndex.add(energy, assignments);
+		}
+
+		private ConfInfo read(int[] assignments) {
+
+			// buffered updates take precedence over whatever is in the store
+			if (buffer != null) {
+				ConfInfo update = buffer.get(assignments);
+				if (update != null) {
+					return ConfInfo.overlay(store.get(assignments), update);
+				}
+			}
+
+			return store.get(assignments);
 		}
 
 		public Conf get(int[] assignments) {
 
-			ConfInfo info = btree.get(assignments);
+			ConfInfo info = read(assignments);
 			if (info == null) {
 				return null;
 			}
@@ -427,7 +781,7 @@ public class ConfDB implements AutoCleanable {
 
 		public ConfSearch.ScoredConf getScored(int[] assignments) {
 
-			ConfInfo info = btree.get(assignments);
+			ConfInfo info = read(assignments);
 			if (info == null) {
 				return null;
 			}
@@ -440,7 +794,7 @@ public class ConfDB implements AutoCleanable {
 
 		public ConfSearch.EnergiedConf getEnergied(ConfSearch.ScoredConf conf) {
 
-			ConfInfo info = btree.get(conf.getAssignments());
+			ConfInfo info = read(conf.getAssignments());
 			if (info == null || info.upperTimestampNs == 0L) {
 				return null;
 			}
@@ -450,7 +804,7 @@ public class ConfDB implements AutoCleanable {
 
 		public ConfSearch.EnergiedConf getEnergied(int[] assignments) {
 
-			ConfInfo info = btree.get(assignments);
+			ConfInfo info = read(assignments);
 			if (info == null) {
 				return null;
 			}
@@ -463,30 +817,27 @@ public class ConfDB implements AutoCleanable {
 		}
 
 		public void remove(int[] assignments) {
-			ConfInfo info = btree.get(assignments);
-			if (info != null) {
-				if (info.lowerTimestampNs != 0L) {
-					lowerIndex.remove(info.lowerEnergy, assignments);
-				}
-				if (info.upperTimestampNs != 0L) {
-					upperIndex.remove(info.upperEnergy, assignments);
+			if (buffer != null) {
+				synchronized (buffer) {
+					buffer.remove(assignments);
+					store.remove(assignments);
 				}
-				btree.remove(assignments);
+			} else {
+				store.remove(assignments);
 			}
 		}
 
+		// NOTE: iterating, index lookups, and sizes read from the store,
+		// so write out any buffered updates first
+
 		@Override
 		public Iterator<Conf> iterator() {
-			return Streams.of(btree.entryIterator())
-				.map((entry) -> new Conf(
-						entry.getKey(),
-						entry.getValue()
-					)
-				)
-				.iterator();
+			drain();
+			return store.iterator();
 		}
 
 		public Iterable<ConfSearch.ScoredConf> scoredConfs(SortOrder sort) {
+			drain();
 			switch (sort) {
 
 				case Assignment:
@@ -495,12 +846,12 @@ public class ConfDB implements AutoCleanable {
 						.iterator();
 
 				case Score:
-					return () -> Streams.of(lowerIndex.iterator())
+					return () -> Streams.of(store.lowerIndex().iterator())
 						.map((entry) -> new ConfSearch.ScoredConf(entry.getValue(), entry.getKey()))
 						.iterator();
 
 				case Energy:
-					return () -> Streams.of(upperIndex.iterator())
+					return () -> Streams.of(store.upperIndex().iterator())
 						.map((entry) -> getScored(entry.getValue()))
 						.filter((conf) -> conf != null)
 						.iterator();
@@ -511,6 +862,7 @@ public class ConfDB implements AutoCleanable {
 		}
 
 		public Iterable<ConfSearch.EnergiedConf> energiedConfs(SortOrder sort) {
+			drain();
 			switch (sort) {
 
 				case Assignment:
@@ -519,13 +871,13 @@ public class ConfDB implements AutoCleanable {
 						.iterator();
 
 				case Score:
-					return () -> Streams.of(lowerIndex.iterator())
+					return () -> Streams.of(store.lowerIndex().iterator())
 						.map((entry) -> getEnergied(entry.getValue()))
 						.filter((conf) -> conf != null)
 						.iterator();
 
 				case Energy:
-					return () -> Streams.of(upperIndex.iterator())
+					return () -> Streams.of(store.upperIndex().iterator())
 						.map((entry) -> getEnergied(entry.getValue()))
 						.filter((conf) -> conf != null)
 						.iterator();
@@ -536,15 +888,18 @@ public class ConfDB implements AutoCleanable {
 		}
 
 		public Iterable<Double> lowerBounds() {
-			return () -> lowerIndex.btree.keyIterator();
+			drain();
+			return () -> store.lowerIndex().energyIterator();
 		}
 
 		public Iterable<Double> upperBounds() {
-			return () -> upperIndex.btree.keyIterator();
+			drain();
+			return () -> store.upperIndex().energyIterator();
 		}
 
 		public List<Conf> getConfsByLowerBound(double energy) {
-			List<int[]> multiAssignments = lowerIndex.get(energy);
+			drain();
+			List<int[]> multiAssignments = store.lowerIndex().get(energy);
 			if (multiAssignments == null) {
 				return null;
 			}
@@ -554,7 +909,8 @@ public class ConfDB implements AutoCleanable {
 		}
 
 		public List<Conf> getConfsByUpperBound(double energy) {
-			List<int[]> multiAssignments = upperIndex.get(energy);
+			drain();
+			List<int[]> multiAssignments = store.upperIndex().get(energy);
 			if (multiAssignments == null) {
 				return null;
 			}
@@ -564,11 +920,24 @@ public class ConfDB implements AutoCleanable {
 		}
 
 		public long size() {
-			return btree.sizeLong();
+			drain();
+			return store.size();
 		}
 
+		/**
+		 * Like {@link ConfDB#flush()}, but only writes this table's confs to disk,
+		 * so it's cheap to call after every conf even when the DB has many tables.
+		 */
 		public void flush() {
-			ConfDB.this.flush();
+
+			// with write-behind, the background thread commits on its own schedule
+			if (writeBehindThread != null) {
+				checkWriteBehind();
+				return;
+			}
+
+			db.commit();
+			store.flush();
 		}
 	}
 
@@ -608,7 +977,7 @@ public class ConfDB implements AutoCleanable {
 		}
 	}
 
-	private class EnergyIndex implements Iterable<Map.Entry<Double,int[]>> {
+	private class EnergyIndex implements EnergyView {
 
 		public final BTreeMap<Double,List<int[]>> btree;
 
@@ -619,10 +988,16 @@ public class ConfDB implements AutoCleanable {
 				.createOrOpen();
 		}
 
+		@Override
 		public List<int[]> get(double energy) {
 			return btree.get(energy);
 		}
 
+		@Override
+		public Iterator<Double> energyIterator() {
+			return btree.keyIterator();
+		}
+
 		public void add(double energy, int[] assignments) {
 			List<int[]> multiAssignments = get(energy);
 			if (multiAssignments == null) {
@@ -712,20 +1087,63 @@ public class ConfDB implements AutoCleanable {
 
 	public final SimpleConfSpace confSpace;
 	public final File file;
+	public final long writeBehindMs;
+	public final Backend backend;
 
 	private final DB db;
 	private final HTreeMap<Sequence,SequenceInfo> sequences;
 	private final Map<Sequence,SequenceDB> sequenceDBs;
 	private final IntEncoding assignmentEncoding;
+	/** open logs for the log backends, in least-recently-used order */
+	private final LinkedHashMap<String,ConfLog> logs = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String,Integer> numLogUsers = new HashMap<>();
+	private int maxOpenLogs = DefaultMaxOpenLogs;
+	private final ScheduledExecutorService writeBehindThread;
+	private final Map<String,ConfTable> writeBehindTables = new ConcurrentHashMap<>();
+	private volatile Throwable writeBehindError = null;
 
 	public ConfDB(SimpleConfSpace confSpace) {
 		this(confSpace, null);
 	}
 
 	public ConfDB(SimpleConfSpace confSpace, File file) {
+		this(confSpace, file, 0);
+	}
+
+	/**
+	 * Open a conf DB with write-behind buffers.
+	 *
+	 * Bound updates are coalesced in memory and written to the DB in sorted batches
+	 * by a background thread every {@code writeBehindMs} milliseconds, and then committed to disk.
+	 * {@link #flush()} doesn't wait for disk I/O in this mode, so writers (e.g., partition function listener threads)
+	 * don't block on the DB. Reads see buffered updates. Use {@link #sync()} or {@link #close()} to write everything
+	 * to disk. If the JVM crashes, at most about {@code writeBehindMs} milliseconds of updates are lost.
+	 *
+	 * @param writeBehindMs durability interval in milliseconds, or 0 to write all updates immediately
+	 */
+	public ConfDB(SimpleConfSpace confSpace, File file, long writeBehindMs) {
+		this(confSpace, file, writeBehindMs, Backend.MapDB);
+	}
+
+	/**
+	 * Open a conf DB with write-behind buffers, storing the confs with the given backend.
+	 *
+	 * Sequence metadata is kept in the MapDB file (except with {@link Backend#SharedLog}).
+	 * The log backends keep each table of confs in its own log file next to {@code file}, so they need a file.
+	 */
+	public ConfDB(SimpleConfSpace confSpace, File file, long writeBehindMs, Backend backend) {
+
+		if (writeBehindMs < 0) {
+			throw new IllegalArgumentException("write-behind interval must be non-negative, not " + writeBehindMs);
+		}
+		if ((backend == Backend.Log || backend == Backend.SharedLog) && file == null) {
+			throw new IllegalArgumentException("the " + backend + " backend needs a file");
+		}
 
 		this.confSpace = confSpace;
 		this.file = file;
+		this.writeBehindMs = writeBehindMs;
+		this.backend = backend;
 
 		// determine conf encoding
 		int maxAssignment = 0;
@@ -801,7 +1219,8 @@ public class ConfDB implements AutoCleanable {
 		};
 
 		// open the DB
-		if (file != null) {
+		// (only one process can open a MapDB file, so shared logs keep sequence metadata in memory)
+		if (file != null && backend != Backend.SharedLog) {
 			db = DBMaker.fileDB(file)
 				.transactionEnable() // turn on wite-ahead log, so the db survives JVM crashes
 				.fileMmapEnableIfSupported() // use memory-mapped files if possible (can be much faster)
@@ -816,6 +1235,102 @@ public class ConfDB implements AutoCleanable {
 			.valueSerializer(infoSerializer)
 			.createOrOpen();
 		sequenceDBs = new HashMap<>();
+
+		// start the write-behind thread if needed
+		if (writeBehindMs > 0) {
+			writeBehindThread = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+				Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+				thread.setDaemon(true);
+				thread.setName("ConfDB-writeBehind");
+				return thread;
+			});
+			writeBehindThread.scheduleWithFixedDelay(() -> {
+				try {
+					sync();
+				} catch (Throwable t) {
+					writeBehindError = t;
+					throw t;
+				}
+			}, writeBehindMs, writeBehindMs, TimeUnit.MILLISECONDS);
+		} else {
+			writeBehindThread = null;
+		}
+	}
+
+	/**
+	 * Each table in the log backends has its own log file, and some designs have many thousands of sequences,
+	 * so keep at most this many idle logs open at once (to save file descriptors and mapped address space).
+	 * The least recently used idle logs are closed first, and reopened (by replaying them) when they're needed again.
+	 */
+	public void setMaxOpenLogs(int maxOpenLogs) {
+		if (maxOpenLogs <= 0) {
+			throw new IllegalArgumentException("max open logs must be positive, not " + maxOpenLogs);
+		}
+		synchronized (logs) {
+			this.maxOpenLogs = maxOpenLogs;
+			closeIdleLogs();
+		}
+	}
+
+	private File getLogFile(String id) {
+		// table ids (e.g., sequences) can be longer than the file system allows for names, so use a hash instead
+		return new File(file.getPath() + "." + hashTableId(id) + ".log");
+	}
+
+	private static String hashTableId(String id) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(id.getBytes(StandardCharsets.UTF_8));
+			StringBuilder buf = new StringBuilder();
+			for (int i=0; i<16; i++) {
+				buf.append(String.format("%02x", hash[i]));
+			}
+			return buf.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			// all JVMs are required to have SHA-256
+			throw new Error(ex);
+		}
+	}
+
+	/**
+	 * Call the function with the log for the table, opening the log if needed.
+	 * The log won't be closed until the function returns.
+	 */
+	private <T> T useLog(String id, Function<ConfLog,T> f) {
+
+		ConfLog log;
+		synchronized (logs) {
+			log = logs.get(id);
+			if (log == null) {
+				log = new ConfLog(getLogFile(id), confSpace.positions.size(), assignmentEncoding, backend == Backend.SharedLog);
+				logs.put(id, log);
+			}
+			numLogUsers.merge(id, 1, Integer::sum);
+		}
+
+		try {
+			return f.apply(log);
+		} finally {
+			synchronized (logs) {
+				numLogUsers.compute(id, (key, n) -> n > 1 ? n - 1 : null);
+				closeIdleLogs();
+			}
+		}
+	}
+
+	/** records are never moved, even when closing and reopening logs, so record numbers from views stay valid */
+	private ConfLog.Entry readLog(String id, long record) {
+		return useLog(id, (log) -> log.read(record));
+	}
+
+	private void closeIdleLogs() {
+		Iterator<Map.Entry<String,ConfLog>> iter = logs.entrySet().iterator();
+		while (logs.size() > maxOpenLogs && iter.hasNext()) {
+			Map.Entry<String,ConfLog> entry = iter.next();
+			if (!numLogUsers.containsKey(entry.getKey())) {
+				entry.getValue().close();
+				iter.remove();
+			}
+		}
 	}
 
 	private String getSequenceId(Sequence sequence) {
@@ -864,20 +1379,94 @@ public class ConfDB implements AutoCleanable {
 		return sdb;
 	}
 
+	/**
+	 * Commits the DB and writes all the open table logs to disk.
+	 * To write just one table, use {@link ConfTable#flush()}.
+	 */
 	public void flush() {
+
+		// with write-behind, the background thread commits on its own schedule
+		if (writeBehindThread != null) {
+			checkWriteBehind();
+			return;
+		}
+
 		// In write-ahead mode, we don't actually have any transactions,
 		// so there's nothing to commit in the traditional sense.
 		// So in this case, "commit" flushes write caches to disk
 		db.commit();
+		forceLogs();
+	}
+
+	/** idle logs are forced when they're closed, so only force the log if it's open */
+	private void forceLog(String id) {
+		synchronized (logs) {
+			if (!logs.containsKey(id)) {
+				return;
+			}
+		}
+		useLog(id, (log) -> {
+			log.force();
+			return null;
+		});
+	}
+
+	private void forceLogs() {
+		synchronized (logs) {
+			for (ConfLog log : logs.values()) {
+				log.force();
+			}
+		}
+	}
+
+	/**
+	 * Write all buffered bound updates to the DB and commit them to disk,
+	 * even when using write-behind.
+	 */
+	public void sync() {
+		for (ConfTable table : writeBehindTables.values()) {
+			table.drain();
+		}
+		db.commit();
+		forceLogs();
+	}
+
+	private void checkWriteBehind() {
+		if (writeBehindError != null) {
+			throw new IllegalStateException("ConfDB write-behind thread failed, buffered updates may not have been saved", writeBehindError);
+		}
 	}
 
 	public void close() {
-		flush();
-		for (ConfTable sdb : sequenceDBs.values()) {
-			sdb.btree.close();
+		try {
+			if (writeBehindThread != null) {
+				writeBehindThread.shutdown();
+				try {
+					writeBehindThread.awaitTermination(1, TimeUnit.MINUTES);
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+				checkWriteBehind();
+			}
+			sync();
+		} finally {
+
+			// release the files even if we couldn't save everything
+			try {
+				for (ConfTable sdb : sequenceDBs.values()) {
+					sdb.store.close();
+				}
+				sequenceDBs.clear();
+				synchronized (logs) {
+					for (ConfLog log : logs.values()) {
+						log.close();
+					}
+					logs.clear();
+				}
+			} finally {
+				db.close();
+			}
 		}
-		sequenceDBs.clear();
-		db.close();
 	}
 
 	@Override
@@ -0,0 +1,720 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.confspace;
+
+import edu.duke.cs.osprey.tools.IntEncoding;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * An append-only, memory-mapped log of conformation bounds, used by {@link ConfDB.Backend#Log}.
+ *
+ * Every update appends a fixed-width record with all of the conformation's current bounds,
+ * so the newest record for a conformation always wins. An in-memory open-addressing hash table
+ * maps assignments to their newest record. The table only stores record numbers (the assignments
+ * are read back from the mapped file), so it costs 8 bytes per slot. Views sorted by assignments,
+ * lower bound, or upper bound are built on demand and kept until the next write.
+ *
+ * The layout is:
+ * <pre>
+ *  0  long    magic number
+ *  8  int     format version
+ * 12  int     number of positions
+ * 16  int     bytes per assignment (see {@link IntEncoding})
+ * 20  int     (reserved)
+ * 24  long    number of records
+ * </pre>
+ * padded to {@link #HeaderBytes}, followed by the records. Each record is:
+ * <pre>
+ *  assignments, packed with the {@link IntEncoding}
+ *  double  lower bound
+ *  long    lower bound timestamp, or 0 if no lower bound
+ *  double  upper bound
+ *  long    upper bound timestamp, or 0 if no upper bound
+ * </pre>
+ * A record without any bounds marks a removed conformation.
+ *
+ * The record count in the header is updated only after a record is written,
+ * so if the JVM crashes in the middle of an append, at most that one record is lost.
+ *
+ * A shared log can be opened by several processes at once. Writes hold an exclusive {@link FileLock} on the file,
+ * and reads hold a shared one (unless they need to map more of the file), so processes can read at the same time. Every operation first indexes any records
+ * other processes appended since the last operation, so writes from one process are visible to the others right away. Records are only ever appended, and the file
+ * is never truncated, so each process can keep its own mappings and hash table. All processes using the
+ * file must open it as shared.
+ */
+class ConfLog {
+
+	public static final long Magic = 0x474f4c435250534fL; // "OSPRCLOG" as little-endian bytes
+	public static final int Version = 1;
+
+	public static final int HeaderBytes = 64;
+
+	private static final int NumRecordsOffset = 24;
+
+	/** max bytes in each mapped region, regions always hold a whole number of records */
+	private static final long MaxMappedBytes = 1L << 30;
+
+	private static final int InitialRegionRecords = 1024;
+	private static final int InitialSlots = 1024;
+
+	/**
+	 * Shared logs lock one byte far past the end of the file, so the lock never covers any data.
+	 * (Some platforms won't let other processes access locked regions of the file.)
+	 */
+	private static final long LockPosition = Long.MAX_VALUE - 1;
+
+	/**
+	 * File locks are held by the whole JVM, and the JVM won't let two channels lock the same region,
+	 * so threads in this JVM coordinate with a read/write lock, and all the readers share one shared file lock.
+	 */
+	private static class JvmLock {
+
+		public final ReentrantReadWriteLock threads = new ReentrantReadWriteLock();
+
+		// guarded by this
+		private int numReaders = 0;
+		private FileLock sharedLock = null;
+	}
+
+	private static final Map<String,JvmLock> jvmLocks = new ConcurrentHashMap<>();
+
+	public static enum View {
+		Assignments,
+		Lower,
+		Upper
+	}
+
+	public static class Entry {
+
+		public final long record;
+		public final int[] assignments;
+		public final double lowerEnergy;
+		public final long lowerTimestampNs;
+		public final double upperEnergy;
+		public final long upperTimestampNs;
+
+		public Entry(long record, int[] assignments, double lowerEnergy, long lowerTimestampNs, double upperEnergy, long upperTimestampNs) {
+			this.record = record;
+			this.assignments = assignments;
+			this.lowerEnergy = lowerEnergy;
+			this.lowerTimestampNs = lowerTimestampNs;
+			this.upperEnergy = upperEnergy;
+			this.upperTimestampNs = upperTimestampNs;
+		}
+
+		public boolean isRemoved() {
+			return lowerTimestampNs == 0L && upperTimestampNs == 0L;
+		}
+
+		public double getEnergy(View view) {
+			switch (view) {
+				case Lower: return lowerEnergy;
+				case Upper: return upperEnergy;
+				default: throw new IllegalArgumentException("view " + view + " isn't sorted by energy");
+			}
+		}
+	}
+
+	public final File file;
+	public final int numPos;
+	public final IntEncoding encoding;
+	public final int recordBytes;
+	public final boolean shared;
+
+	private final int assignmentsBytes;
+	private final long recordsPerRegion;
+	private final FileChannel channel;
+	private final JvmLock jvmLock;
+	private final MappedByteBuffer header;
+	private FileLock fileLock = null;
+	private boolean lockedExclusive = false;
+	private final List<MappedByteBuffer> regions = new ArrayList<>();
+	private long lastRegionRecords = 0;
+
+	private long numRecords = 0;
+	private long numLive = 0;
+
+	/** record number + 1 of the newest record for each conf, or 0 for an empty slot */
+	private long[] slots = new long[InitialSlots];
+	private int numSlotsUsed = 0;
+
+	private final long[][] views = new long[View.values().length][];
+
+	public ConfLog(File file, int numPos, IntEncoding encoding) {
+		this(file, numPos, encoding, false);
+	}
+
+	public ConfLog(File file, int numPos, IntEncoding encoding, boolean shared) {
+
+		this.file = file;
+		this.numPos = numPos;
+		this.encoding = encoding;
+		this.shared = shared;
+		this.assignmentsBytes = numPos*encoding.numBytes;
+		this.recordBytes = assignmentsBytes + Double.BYTES*2 + Long.BYTES*2;
+		this.recordsPerRegion = MaxMappedBytes/recordBytes;
+
+		try {
+
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			if (shared) {
+				jvmLock = jvmLocks.computeIfAbsent(file.getCanonicalPath(), (path) -> new JvmLock());
+			} else {
+				jvmLock = null;
+			}
+
+			// don't let other processes see a half-written header
+			lockFile(true);
+			try {
+
+				boolean exists = channel.size() > 0;
+				header = map(0, HeaderBytes);
+
+				if (exists) {
+
+					// check the header
+					if (header.getLong(0) != Magic) {
+						throw new IllegalArgumentException("not a conf log file: " + file);
+					}
+					if (header.getInt(8) != Version) {
+						throw new IllegalArgumentException("unsupported conf log version " + header.getInt(8) + " in " + file);
+					}
+					if (header.getInt(12) != numPos || header.getInt(16) != encoding.numBytes) {
+						throw new IllegalArgumentException(String.format(
+							"conf log %s has %d positions with %d-byte assignments, but the conf space needs %d positions with %d-byte assignments",
+							file, header.getInt(12), header.getInt(16), numPos, encoding.numBytes
+						));
+					}
+
+					// replay the log to rebuild the hash table
+					catchUp();
+
+				} else {
+
+					header.putLong(0, Magic);
+					header.putInt(8, Version);
+					header.putInt(12, numPos);
+					header.putInt(16, encoding.numBytes);
+					header.putLong(NumRecordsOffset, 0L);
+				}
+
+			} finally {
+				unlockFile(true);
+			}
+
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private void lockFile(boolean exclusive) {
+
+		if (!shared) {
+			return;
+		}
+
+		if (exclusive) {
+
+			jvmLock.threads.writeLock().lock();
+			try {
+				fileLock = channel.lock(LockPosition, 1, false);
+			} catch (IOException ex) {
+				jvmLock.threads.writeLock().unlock();
+				throw new UncheckedIOException(ex);
+			}
+
+		} else {
+
+			jvmLock.threads.readLock().lock();
+			try {
+				synchronized (jvmLock) {
+					if (jvmLock.numReaders == 0) {
+						jvmLock.sharedLock = channel.lock(LockPosition, 1, true);
+					}
+					jvmLock.numReaders++;
+				}
+			} catch (IOException ex) {
+				jvmLock.threads.readLock().unlock();
+				throw new UncheckedIOException(ex);
+			}
+		}
+	}
+
+	private void unlockFile(boolean exclusive) {
+
+		if (!shared) {
+			return;
+		}
+
+		if (exclusive) {
+
+			try {
+				fileLock.release();
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			} finally {
+				fileLock = null;
+				jvmLock.threads.writeLock().unlock();
+			}
+
+		} else {
+
+			try {
+				synchronized (jvmLock) {
+					jvmLock.numReaders--;
+					if (jvmLock.numReaders == 0) {
+						FileLock sharedLock = jvmLock.sharedLock;
+						jvmLock.sharedLock = null;
+						sharedLock.release();
+					}
+				}
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			} finally {
+				jvmLock.threads.readLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * lock the file (if shared) and index any records appended by other processes
+	 *
+	 * Reads only need a shared lock, since other processes can't append while we hold it.
+	 */
+	private void lock(boolean exclusive) {
+
+		lockFile(exclusive);
+
+		// mapping more of the file can make it bigger, so don't race other processes that are doing the same
+		if (shared && !exclusive && header.getLong(NumRecordsOffset) > capacity()) {
+			unlockFile(false);
+			exclusive = true;
+			lockFile(true);
+		}
+
+		if (shared) {
+			try {
+				catchUp();
+			} catch (Throwable t) {
+				unlockFile(exclusive);
+				throw t;
+			}
+		}
+
+		lockedExclusive = exclusive;
+	}
+
+	private void unlock() {
+		unlockFile(lockedExclusive);
+	}
+
+	/** index all the records between the last one we know about and the last one in the header */
+	private void catchUp() {
+
+		long n = header.getLong(NumRecordsOffset);
+		if (n == numRecords) {
+			return;
+		}
+
+		try {
+			while (n > capacity()) {
+				grow();
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+
+		for (long r=numRecords; r<n; r++) {
+			numRecords = r + 1;
+			index(r, readAssignments(r));
+		}
+		Arrays.fill(views, null);
+	}
+
+	private MappedByteBuffer map(long offset, long size)
+	throws IOException {
+		MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, offset, size);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		return buf;
+	}
+
+	private long capacity() {
+		if (regions.isEmpty()) {
+			return 0;
+		}
+		return (regions.size() - 1)*recordsPerRegion + lastRegionRecords;
+	}
+
+	private void grow()
+	throws IOException {
+
+		int lastIndex = regions.size() - 1;
+		if (lastIndex >= 0 && lastRegionRecords < recordsPerRegion) {
+
+			// double the last region
+			lastRegionRecords = Math.min(lastRegionRecords*2, recordsPerRegion);
+			regions.set(lastIndex, map(regionOffset(lastIndex), lastRegionRecords*recordBytes));
+
+		} else {
+
+			// start a new region
+			lastRegionRecords = Math.min(InitialRegionRecords, recordsPerRegion);
+			regions.add(map(regionOffset(regions.size()), lastRegionRecords*recordBytes));
+		}
+	}
+
+	private long regionOffset(int region) {
+		return HeaderBytes + region*recordsPerRegion*recordBytes;
+	}
+
+	private ByteBuffer region(long record) {
+		return regions.get((int)(record/recordsPerRegion));
+	}
+
+	private int offset(long record) {
+		return (int)((record % recordsPerRegion)*recordBytes);
+	}
+
+	private int[] readAssignments(long record) {
+		ByteBuffer buf = region(record);
+		int offset = offset(record);
+		int[] assignments = new int[numPos];
+		for (int i=0; i<numPos; i++) {
+			assignments[i] = encoding.get(buf, offset + i*encoding.numBytes);
+		}
+		return assignments;
+	}
+
+	private boolean matches(long record, int[] assignments) {
+		ByteBuffer buf = region(record);
+		int offset = offset(record);
+		for (int i=0; i<numPos; i++) {
+			if (encoding.get(buf, offset + i*encoding.numBytes) != assignments[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isLive(long record) {
+		ByteBuffer buf = region(record);
+		int offset = offset(record) + assignmentsBytes;
+		return buf.getLong(offset + Double.BYTES) != 0L || buf.getLong(offset + Double.BYTES*2 + Long.BYTES) != 0L;
+	}
+
+	private Entry readEntry(long record) {
+		ByteBuffer buf = region(record);
+		int offset = offset(record) + assignmentsBytes;
+		return new Entry(
+			record,
+			readAssignments(record),
+			buf.getDouble(offset),
+			buf.getLong(offset + Double.BYTES),
+			buf.getDouble(offset + Double.BYTES + Long.BYTES),
+			buf.getLong(offset + Double.BYTES*2 + Long.BYTES)
+		);
+	}
+
+	private static int hash(int[] assignments) {
+		int h = Arrays.hashCode(assignments)*0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	/** returns the slot holding the assignments, or the empty slot where they would go */
+	private int findSlot(int[] assignments) {
+		int mask = slots.length - 1;
+		int slot = hash(assignments) & mask;
+		while (slots[slot] != 0 && !matches(slots[slot] - 1, assignments)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void index(long record, int[] assignments) {
+
+		int slot = findSlot(assignments);
+		long old = slots[slot];
+		if (old == 0) {
+			numSlotsUsed++;
+		} else if (isLive(old - 1)) {
+			numLive--;
+		}
+		slots[slot] = record + 1;
+		if (isLive(record)) {
+			numLive++;
+		}
+
+		// keep the load factor under 1/2
+		if (numSlotsUsed*2 > slots.length) {
+			long[] oldSlots = slots;
+			slots = new long[oldSlots.length*2];
+			for (long entry : oldSlots) {
+				if (entry != 0) {
+					slots[findSlot(readAssignments(entry - 1))] = entry;
+				}
+			}
+		}
+	}
+
+	private void checkAssignments(int[] assignments) {
+		if (assignments.length != numPos) {
+			throw new IllegalArgumentException("expected " + numPos + " assignments, not " + assignments.length);
+		}
+	}
+
+	/** returns the newest entry for the assignments, or null if there isn't one */
+	public synchronized Entry get(int[] assignments) {
+		checkAssignments(assignments);
+		lock(false);
+		try {
+			return getNewest(assignments);
+		} finally {
+			unlock();
+		}
+	}
+
+	private Entry getNewest(int[] assignments) {
+		long entry = slots[findSlot(assignments)];
+		if (entry == 0) {
+			return null;
+		}
+		Entry e = readEntry(entry - 1);
+		return e.isRemoved() ? null : e;
+	}
+
+	public synchronized Entry read(long record) {
+		if (record < 0 || record >= numRecords) {
+			throw new IndexOutOfBoundsException("record " + record + " not in [0," + numRecords + ")");
+		}
+		return readEntry(record);
+	}
+
+	/**
+	 * Append a record with the new bounds for the conf, replacing any older record.
+	 * Bounds with a timestamp of 0 keep their older values, if any.
+	 *
+	 * Merging with the older record happens while the file is locked, so in a shared log,
+	 * two processes can update different bounds for the same conf without losing either one.
+	 */
+	public synchronized void update(int[] assignments, double lowerEnergy, long lowerTimestampNs, double upperEnergy, long upperTimestampNs) {
+
+		checkAssignments(assignments);
+
+		lock(true);
+		try {
+
+			Entry old = getNewest(assignments);
+			if (old != null) {
+				if (lowerTimestampNs == 0L) {
+					lowerEnergy = old.lowerEnergy;
+					lowerTimestampNs = old.lowerTimestampNs;
+				}
+				if (upperTimestampNs == 0L) {
+					upperEnergy = old.upperEnergy;
+					upperTimestampNs = old.upperTimestampNs;
+				}
+			}
+
+			append(assignments, lowerEnergy, lowerTimestampNs, upperEnergy, upperTimestampNs);
+
+		} finally {
+			unlock();
+		}
+	}
+
+	/** append a removal record for the conf, if it has any bounds */
+	public synchronized void remove(int[] assignments) {
+
+		checkAssignments(assignments);
+
+		lock(true);
+		try {
+			if (getNewest(assignments) != null) {
+				append(assignments, 0.0, 0L, 0.0, 0L);
+			}
+		} finally {
+			unlock();
+		}
+	}
+
+	private void append(int[] assignments, double lowerEnergy, long lowerTimestampNs, double upperEnergy, long upperTimestampNs) {
+
+		try {
+
+			long record = numRecords;
+			while (record >= capacity()) {
+				grow();
+			}
+
+			ByteBuffer buf = region(record);
+			int offset = offset(record);
+			for (int i=0; i<numPos; i++) {
+				encoding.put(buf, offset + i*encoding.numBytes, assignments[i]);
+			}
+			offset += assignmentsBytes;
+			buf.putDouble(offset, lowerEnergy);
+			buf.putLong(offset + Double.BYTES, lowerTimestampNs);
+			buf.putDouble(offset + Double.BYTES + Long.BYTES, upperEnergy);
+			buf.putLong(offset + Double.BYTES*2 + Long.BYTES, upperTimestampNs);
+
+			// commit the record
+			numRecords = record + 1;
+			header.putLong(NumRecordsOffset, numRecords);
+
+			index(record, assignments);
+			Arrays.fill(views, null);
+
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/** number of confs with bounds */
+	public synchronized long size() {
+		lock(false);
+		try {
+			return numLive;
+		} finally {
+			unlock();
+		}
+	}
+
+	public synchronized long getNumRecords() {
+		lock(false);
+		try {
+			return numRecords;
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Returns the record numbers of the newest entries, sorted by the view.
+	 * Energy views only include confs that have that bound, with ties broken by assignments.
+	 *
+	 * Records are never modified once written, so the returned records can be read later with {@link #read(long)},
+	 * but writes after this call won't show up in the returned view.
+	 */
+	public synchronized long[] getView(View view) {
+		lock(false);
+		try {
+			return makeView(view);
+		} finally {
+			unlock();
+		}
+	}
+
+	private long[] makeView(View view) {
+
+		long[] records = views[view.ordinal()];
+		if (records != null) {
+			return records;
+		}
+
+		// collect the newest entries
+		List<Entry> entries = new ArrayList<>((int)Math.min(numLive, Integer.MAX_VALUE));
+		for (long entry : slots) {
+			if (entry == 0) {
+				continue;
+			}
+			Entry e = readEntry(entry - 1);
+			if (view == View.Lower ? e.lowerTimestampNs != 0L
+				: view == View.Upper ? e.upperTimestampNs != 0L
+				: !e.isRemoved()) {
+				entries.add(e);
+			}
+		}
+
+		Comparator<Entry> byAssignments = (a, b) -> ConfDB.compareAssignments(a.assignments, b.assignments);
+		if (view == View.Assignments) {
+			entries.sort(byAssignments);
+		} else {
+			entries.sort(Comparator.<Entry>comparingDouble((e) -> e.getEnergy(view)).thenComparing(byAssignments));
+		}
+
+		records = new long[entries.size()];
+		for (int i=0; i<records.length; i++) {
+			records[i] = entries.get(i).record;
+		}
+		views[view.ordinal()] = records;
+		return records;
+	}
+
+	/** write all records to disk */
+	public synchronized void force() {
+		for (MappedByteBuffer region : regions) {
+			region.force();
+		}
+		header.force();
+	}
+
+	public synchronized void close() {
+		force();
+		if (shared) {
+			// wait for other readers in this JVM, since they could be using our channel's shared lock
+			jvmLock.threads.writeLock().lock();
+		}
+		try {
+			regions.clear();
+			if (!shared) {
+				// drop the unused end of the last mapped region
+				// (but not in shared logs, since other processes could still have it mapped)
+				channel.truncate(HeaderBytes + numRecords*recordBytes);
+			}
+			channel.close();
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		} finally {
+			if (shared) {
+				jvmLock.threads.writeLock().unlock();
+			}
+		}
+	}
+}
@@ -95,6 +95,25 @@ public interface ConfSearch {
 		}
 		return nodes;
     }
+
+    /**
+     * Get the scores of the next n conformations, without keeping the conformations themselves.
+     *
+     * Implementations that can avoid making a {@link ScoredConf} for each conformation
+     * should override this, so bulk enumeration doesn't allocate anything per conformation.
+     *
+     * @return the number of scores written to scoresOut, which is less than n only if the conformations ran out
+     */
+    default int nextConfs(int n, double[] scoresOut) {
+		for (int i=0; i<n; i++) {
+			ScoredConf conf = nextConf();
+			if (conf == null) {
+				return i;
+			}
+			scoresOut[i] = conf.getScore();
+		}
+		return n;
+    }
     
     /**
      * A conformation from a conformation space with an associated score.
@@ -0,0 +1,264 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.confspace;
+
+import edu.duke.cs.osprey.structure.Atom;
+import edu.duke.cs.osprey.structure.Molecule;
+import edu.duke.cs.osprey.structure.Residue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Makes {@link ParametricMolecule} instances like {@link SimpleConfSpace#makeMolecule(RCTuple)},
+ * but keeps one mutable molecule per thread and reuses it across calls.
+ * 
+ * Between successive calls on the same thread, only the residues whose conformations changed
+ * are updated: residues that keep the same template just get their dihedrals set again,
+ * residues that change templates (or leave the conformation) are restored from the strand
+ * and then mutated, and all other residues are left alone.
+ * 
+ * The returned molecule is only valid until the next call on the same thread,
+ * so don't hang on to it (e.g., to write PDB files) after the energy calculation finishes.
+ * 
+ * Conformation spaces with strand flexibility (e.g., DEEPer, CATS, translation/rotation) move
+ * residues outside of the design positions, so they always fall back to rebuilding the molecule.
+ */
+public class MoleculePool {
+	
+	/**
+	 * Residues are restored from the strand after this many reuses,
+	 * so roundoff error from repeated dihedral rotations can't accumulate
+	 */
+	public static final int DefaultMaxReuses = 64;
+	
+	/** Max coordinate difference (in Angstroms) allowed between pooled and rebuilt molecules when checking */
+	public static final double CheckTolerance = 1e-6;
+	
+	public static boolean isSupported(SimpleConfSpace confSpace) {
+		for (List<StrandFlex> flexes : confSpace.strandFlex.values()) {
+			for (StrandFlex flex : flexes) {
+				if (!(flex instanceof StrandFlex.None)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	private class Entry {
+		
+		final Molecule mol;
+		final Residue[] originals;
+		final Residue[] residues;
+		final SimpleConfSpace.ResidueConf[] resConfs;
+		final SimpleConfSpace.ResidueConf[] targets;
+		final int[] numReuses;
+		
+		Entry() {
+			
+			mol = confSpace.makeUnmutatedMolecule();
+			
+			int numPos = confSpace.positions.size();
+			originals = new Residue[numPos];
+			residues = new Residue[numPos];
+			resConfs = new SimpleConfSpace.ResidueConf[numPos];
+			targets = new SimpleConfSpace.ResidueConf[numPos];
+			numReuses = new int[numPos];
+			for (SimpleConfSpace.Position pos : confSpace.positions) {
+				originals[pos.index] = pos.strand.mol.getResByPDBResNumber(pos.resNum);
+				residues[pos.index] = mol.getResByPDBResNumber(pos.resNum);
+			}
+		}
+		
+		void update(RCTuple conf) {
+			
+			Arrays.fill(targets, null);
+			for (int i=0; i<conf.size(); i++) {
+				SimpleConfSpace.Position pos = confSpace.positions.get(conf.pos.get(i));
+				targets[pos.index] = pos.resConfs.get(conf.RCs.get(i));
+			}
+			
+			for (SimpleConfSpace.Position pos : confSpace.positions) {
+				
+				SimpleConfSpace.ResidueConf current = resConfs[pos.index];
+				SimpleConfSpace.ResidueConf target = targets[pos.index];
+				Residue res = residues[pos.index];
+				
+				if (target == null) {
+					
+					// position isn't in the conf, so it should look like the strand
+					if (current != null) {
+						restore(res, originals[pos.index]);
+						resConfs[pos.index] = null;
+					}
+					
+				} else if (current != null && canReuse(current, target) && numReuses[pos.index] < maxReuses) {
+					
+					// same template, the dihedrals get set with the DOFs
+					resConfs[pos.index] = target;
+					numReuses[pos.index]++;
+					
+				} else {
+					
+					// mutate from the strand residue, just like the rebuild path
+					if (current != null) {
+						restore(res, originals[pos.index]);
+					}
+					target.updateResidue(pos.strand.templateLib, res);
+					resConfs[pos.index] = target;
+					numReuses[pos.index] = 0;
+				}
+			}
+		}
+	}
+	
+	public final SimpleConfSpace confSpace;
+	public final int maxReuses;
+	public final boolean checkRebuild;
+	
+	private final boolean isSupported;
+	private final ThreadLocal<Entry> entries;
+	
+	public MoleculePool(SimpleConfSpace confSpace) {
+		this(confSpace, DefaultMaxReuses, false);
+	}
+	
+	/**
+	 * @param checkRebuild if true, compare every pooled molecule against a rebuilt molecule
+	 *                     and throw an exception if they don't match. Slow, so use only for debugging.
+	 */
+	public MoleculePool(SimpleConfSpace confSpace, int maxReuses, boolean checkRebuild) {
+		
+		if (maxReuses < 0) {
+			throw new IllegalArgumentException("max reuses must be non-negative, not " + maxReuses);
+		}
+		
+		this.confSpace = confSpace;
+		this.maxReuses = maxReuses;
+		this.checkRebuild = checkRebuild;
+		
+		isSupported = isSupported(confSpace);
+		entries = ThreadLocal.withInitial(() -> new Entry());
+	}
+	
+	/** @see #makeMolecule(RCTuple) */
+	public ParametricMolecule makeMolecule(int[] conf) {
+		return makeMolecule(new RCTuple(conf));
+	}
+	
+	/**
+	 * pose this thread's molecule in the specified conformation
+	 * 
+	 * The returned molecule is only valid until the next call from this thread.
+	 */
+	public ParametricMolecule makeMolecule(RCTuple conf) {
+		
+		if (!isSupported) {
+			return confSpace.makeMolecule(conf);
+		}
+		
+		Entry entry = entries.get();
+		entry.update(conf);
+		ParametricMolecule pmol = confSpace.makeParametricMolecule(entry.mol, conf);
+		
+		if (checkRebuild) {
+			check(pmol, confSpace.makeMolecule(conf), conf);
+		}
+		
+		return pmol;
+	}
+	
+	private static boolean canReuse(SimpleConfSpace.ResidueConf current, SimpleConfSpace.ResidueConf target) {
+		
+		// different templates need the mutation alignment
+		if (current.template != target.template) {
+			return false;
+		}
+		
+		// prolines have puckers and post-template modifiers, just rebuild them
+		if (target.template.name.equalsIgnoreCase("PRO") || current.postTemplateModifier != null || target.postTemplateModifier != null) {
+			return false;
+		}
+		
+		// without a rotamer, the DOFs might not set every dihedral
+		return target.rotamerIndex != null || target.template.numDihedrals == 0;
+	}
+	
+	private static void restore(Residue res, Residue original) {
+		
+		res.removeInterResBonds();
+		
+		res.template = original.template;
+		res.fullName = original.fullName;
+		res.coords = Arrays.copyOf(original.coords, original.coords.length);
+		res.atoms = Residue.copyAtoms(original.atoms);
+		for (int i=0; i<res.atoms.size(); i++) {
+			Atom atom = res.atoms.get(i);
+			atom.res = res;
+			atom.indexInRes = i;
+		}
+		res.confProblems = new ArrayList<>(original.confProblems);
+		res.pucker = original.pucker;
+		
+		res.markIntraResBondsByTemplate();
+		res.reconnectInterResBonds();
+	}
+	
+	private static void check(ParametricMolecule pooled, ParametricMolecule rebuilt, RCTuple conf) {
+		
+		if (pooled.dofs.size() != rebuilt.dofs.size()) {
+			throw new RuntimeException("pooled molecule for " + conf + " has " + pooled.dofs.size()
+				+ " DOFs, but the rebuilt molecule has " + rebuilt.dofs.size());
+		}
+		
+		for (int i=0; i<rebuilt.mol.residues.size(); i++) {
+			Residue pooledRes = pooled.mol.residues.get(i);
+			Residue rebuiltRes = rebuilt.mol.residues.get(i);
+			
+			if (pooledRes.template != rebuiltRes.template || pooledRes.coords.length != rebuiltRes.coords.length) {
+				throw new RuntimeException("pooled molecule for " + conf + " has residue " + pooledRes.fullName
+					+ ", but the rebuilt molecule has " + rebuiltRes.fullName);
+			}
+			
+			for (int j=0; j<rebuiltRes.coords.length; j++) {
+				if (Math.abs(pooledRes.coords[j] - rebuiltRes.coords[j]) > CheckTolerance) {
+					throw new RuntimeException("pooled molecule for " + conf + " doesn't match the rebuilt molecule at residue "
+						+ rebuiltRes.fullName + ", atom " + rebuiltRes.atoms.get(j/3).name);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,277 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.confspace;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Enumerates conformations from another ConfSearch on a background thread,
+ * into a bounded lookahead buffer, so conformation enumeration (e.g., A* search)
+ * can overlap with whatever the caller does with the conformations (e.g., minimization).
+ *
+ * The size of the lookahead buffer adapts to the measured rates of both sides:
+ * the buffer holds enough conformations to keep the caller busy through the slowest recent
+ * enumeration, so long A* expansions don't starve the caller, but a fast enumerator doesn't
+ * run arbitrarily far ahead of a slow caller either.
+ *
+ * Background enumeration starts at the first call to {@link #nextConf}, and runs on a shared pool
+ * of daemon threads only while the buffer isn't full, so idle instances don't hold on to any threads.
+ * The source ConfSearch must not be used by anything else while background enumeration could be running,
+ * i.e. until {@link #stop} or {@link #close} returns.
+ *
+ * Confs already taken from the source but not yet returned by {@link #nextConf} are kept by {@link #stop},
+ * but discarded by {@link #close}, so after closing, the source continues after the discarded confs.
+ */
+public class PrefetchingConfSearch implements ConfSearch, AutoCloseable {
+
+	private static final ExecutorService threads = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), (runnable) -> {
+		Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+		thread.setDaemon(true);
+		thread.setName("ConfSearch-prefetch");
+		return thread;
+	});
+
+	/** weight of the newest sample in the running averages */
+	private static final double RateSmoothing = 0.1;
+
+	/** how quickly the slowest enumeration time is forgotten, per conformation */
+	private static final double StallDecay = 0.99;
+
+	public final ConfSearch source;
+	public final int minLookahead;
+	public final int maxLookahead;
+
+	private final ArrayDeque<ScoredConf> buf = new ArrayDeque<>();
+	private boolean isProducing = false;
+	private boolean isStopping = false;
+	private boolean isExhausted = false;
+	private boolean isClosed = false;
+	private RuntimeException error = null;
+
+	// rate measurements
+	private double enumerateSeconds = Double.NaN;
+	private double stallSeconds = 0.0;
+	private double consumeSeconds = Double.NaN;
+	private long lastReturnNs = -1;
+	private long numStarved = 0;
+	private int lookahead;
+
+	public PrefetchingConfSearch(ConfSearch source) {
+		this(source, 1, 1024);
+	}
+
+	public PrefetchingConfSearch(ConfSearch source, int minLookahead, int maxLookahead) {
+
+		if (minLookahead <= 0 || maxLookahead < minLookahead) {
+			throw new IllegalArgumentException("lookahead must satisfy 0 < min <= max, not " + minLookahead + ", " + maxLookahead);
+		}
+
+		this.source = source;
+		this.minLookahead = minLookahead;
+		this.maxLookahead = maxLookahead;
+		this.lookahead = minLookahead;
+	}
+
+	public ConfSearch getSource() {
+		return source;
+	}
+
+	/** the current size of the lookahead buffer */
+	public synchronized int getLookahead() {
+		return lookahead;
+	}
+
+	/** the number of times the caller had to wait for a conformation */
+	public synchronized long getNumStarved() {
+		return numStarved;
+	}
+
+	@Override
+	public BigInteger getNumConformations() {
+		return source.getNumConformations();
+	}
+
+	@Override
+	public synchronized ScoredConf nextConf() {
+
+		if (isClosed) {
+			return null;
+		}
+
+		long startNs = System.nanoTime();
+
+		// how long did the caller spend on the last conf?
+		if (lastReturnNs >= 0) {
+			consumeSeconds = average(consumeSeconds, (startNs - lastReturnNs)/1e9);
+			updateLookahead();
+		}
+
+		// wait for a conf, if needed
+		if (buf.isEmpty() && !isExhausted && error == null) {
+			numStarved++;
+			startProducingIfNeeded();
+			while (buf.isEmpty() && !isExhausted && error == null && !isClosed) {
+				try {
+					wait();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+			}
+		}
+
+		if (buf.isEmpty() && error != null) {
+			throw error;
+		}
+
+		ScoredConf conf = buf.poll();
+
+		// make room for more confs
+		startProducingIfNeeded();
+
+		lastReturnNs = System.nanoTime();
+		return conf;
+	}
+
+	/**
+	 * Pauses background enumeration, and waits for it to finish.
+	 * Buffered conformations are kept, and enumeration resumes at the next call to {@link #nextConf}.
+	 */
+	public synchronized void stop() {
+		isStopping = true;
+		waitForProducer();
+		isStopping = false;
+	}
+
+	/**
+	 * Stops enumerating conformations, and waits for the background enumeration to finish,
+	 * so the source can safely be used again.
+	 * Any buffered conformations are discarded, and {@link #nextConf} returns null from now on.
+	 */
+	@Override
+	public synchronized void close() {
+		isClosed = true;
+		buf.clear();
+		waitForProducer();
+	}
+
+	private void waitForProducer() {
+		notifyAll();
+		while (isProducing) {
+			try {
+				wait();
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+	}
+
+	private static double average(double avg, double sample) {
+		if (Double.isNaN(avg)) {
+			return sample;
+		}
+		return avg + (sample - avg)*RateSmoothing;
+	}
+
+	private void updateLookahead() {
+
+		// need measurements from both sides first
+		if (Double.isNaN(enumerateSeconds) || Double.isNaN(consumeSeconds)) {
+			return;
+		}
+
+		// buffer enough confs for the caller to work through the slowest recent enumeration
+		double size = 2.0*Math.max(stallSeconds, enumerateSeconds)/Math.max(consumeSeconds, 1e-9);
+		lookahead = (int)Math.max(minLookahead, Math.min(maxLookahead, Math.ceil(size)));
+	}
+
+	private void startProducingIfNeeded() {
+
+		if (isProducing || isStopping || isExhausted || isClosed || error != null || buf.size() >= lookahead) {
+			return;
+		}
+
+		isProducing = true;
+		threads.submit(this::produce);
+	}
+
+	private void produce() {
+		try {
+			while (true) {
+
+				// stop if we're not needed anymore
+				synchronized (this) {
+					if (isClosed || isStopping || buf.size() >= lookahead) {
+						isProducing = false;
+						notifyAll();
+						return;
+					}
+				}
+
+				// enumerate the next conf, without holding the lock
+				long startNs = System.nanoTime();
+				ScoredConf conf = source.nextConf();
+				double seconds = (System.nanoTime() - startNs)/1e9;
+
+				synchronized (this) {
+
+					enumerateSeconds = average(enumerateSeconds, seconds);
+					stallSeconds = Math.max(stallSeconds*StallDecay, seconds);
+
+					if (conf == null) {
+						isExhausted = true;
+						isProducing = false;
+						notifyAll();
+						return;
+					}
+
+					if (!isClosed) {
+						buf.add(conf);
+					}
+					notifyAll();
+				}
+			}
+		} catch (Throwable t) {
+
+			// pass the error to the caller
+			synchronized (this) {
+				error = t instanceof RuntimeException ? (RuntimeException)t : new RuntimeException("can't enumerate conformations", t);
+				isProducing = false;
+				notifyAll();
+			}
+		}
+	}
+}
@@ -579,10 +579,34 @@ public class SimpleConfSpace implements Serializable {
 	 * To increase stability of analysis, each analysis should be conducted
 	 * with a new molecule instance. this completely prevents roundoff error
 	 * from accumulating across separate analyses. 
+	 * 
+	 * See {@link MoleculePool} to reuse molecule instances instead.
 	 */
 	public ParametricMolecule makeMolecule(RCTuple conf) {
 		
-		// make the molecule from the strands (ignore alternates)
+		Molecule mol = makeUnmutatedMolecule();
+		
+		// mutate to the conf templates
+		for (int i=0; i<conf.size(); i++) {
+			
+			Position pos = positions.get(conf.pos.get(i));
+			ResidueConf resConf = pos.resConfs.get(conf.RCs.get(i));
+			Residue res = mol.getResByPDBResNumber(pos.resNum);
+			
+			resConf.updateResidue(pos.strand.templateLib, res);
+			// since we always switch to a new template before starting each minimization,
+			// no need to standardize mutatable res at the beginning of the design
+		}
+		
+		return makeParametricMolecule(mol, conf);
+	}
+	
+	/**
+	 * copy the residues of all the strands into a new molecule (ignoring alternates),
+	 * without applying any residue conformations
+	 */
+	Molecule makeUnmutatedMolecule() {
+		
 		Molecule mol = new Molecule();
 		for (Strand strand : strands) {
 			for (Residue res : strand.mol.residues) {
@@ -594,17 +618,20 @@ public class SimpleConfSpace implements Serializable {
 		}
 		mol.markInterResBonds();
 		
-		// mutate to the conf templates, and figure out what conformational DOFs are specified by the conf
+		return mol;
+	}
+	
+	/**
+	 * make the degrees of freedom for a molecule whose residues already have the conf templates,
+	 * and pose the molecule in the center of the conf voxel
+	 */
+	ParametricMolecule makeParametricMolecule(Molecule mol, RCTuple conf) {
+		
+		// figure out what conformational DOFs are specified by the conf
 		HashSet<String> confDOFNames = new HashSet<>();//names of DOFs specified by the conf
 		for (int i=0; i<conf.size(); i++) {
-			
 			Position pos = positions.get(conf.pos.get(i));
 			ResidueConf resConf = pos.resConfs.get(conf.RCs.get(i));
-			Residue res = mol.getResByPDBResNumber(pos.resNum);
-			
-			resConf.updateResidue(pos.strand.templateLib, res);
-			// since we always switch to a new template before starting each minimization,
-			// no need to standardize mutatable res at the beginning of the design
 			confDOFNames.addAll(resConf.dofBounds.keySet());
 		}
 
@@ -60,8 +60,33 @@ public class TupleMatrixDouble extends AbstractTupleMatrix<Double> {
     
     public TupleMatrixDouble(TupleMatrixDouble other) {
     	super(other);
-    	this.oneBody = other.oneBody.clone();
-    	this.pairwise = other.pairwise.clone();
+    	if (other.oneBody != null) {
+    		this.oneBody = other.oneBody.clone();
+    		this.pairwise = other.pairwise.clone();
+    	} else {
+    		
+    		// the other matrix keeps its values somewhere else (eg a memory-mapped file),
+    		// so copy them through the accessors
+    		int numOneBody = 0;
+    		int numPairwise = 0;
+    		for (int res1=0; res1<getNumPos(); res1++) {
+    			numOneBody += getNumConfAtPos(res1);
+    			for (int res2=0; res2<res1; res2++) {
+    				numPairwise += getNumConfAtPos(res1)*getNumConfAtPos(res2);
+    			}
+    		}
+    		allocate(numOneBody, numPairwise);
+    		for (int res1=0; res1<getNumPos(); res1++) {
+    			for (int i1=0; i1<getNumConfAtPos(res1); i1++) {
+    				oneBody[getOneBodyIndex(res1, i1)] = other.getOneBody(res1, i1);
+    				for (int res2=0; res2<res1; res2++) {
+    					for (int i2=0; i2<getNumConfAtPos(res2); i2++) {
+    						pairwise[getPairwiseIndex(res1, i1, res2, i2)] = other.getPairwise(res1, i1, res2, i2);
+    					}
+    				}
+    			}
+    		}
+    	}
     }
     
     @Override
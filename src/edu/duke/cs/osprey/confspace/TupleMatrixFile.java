@@ -0,0 +1,430 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.confspace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * A flat, little-endian binary file format for tuple matrices (e.g., energy and pruning matrices).
+ * 
+ * Unlike Java serialization, values are stored in the same order the matrices index them in memory,
+ * so the file can be memory-mapped and read directly, eg by {@link edu.duke.cs.osprey.ematrix.MappedEnergyMatrix}.
+ * 
+ * The layout is:
+ * <pre>
+ *  0  long    magic number
+ *  8  int     format version
+ * 12  int     value type (see {@link Type})
+ * 16  int     number of positions
+ * 20  int     (reserved)
+ * 24  double  pruning interval
+ * 32  double  constant term
+ * 40  long    number of one-body values
+ * 48  long    number of pairwise values
+ * 56  long    byte offset of the one-body values
+ * 64  long    byte offset of the pairwise values
+ * 72  int[]   number of RCs at each position
+ * </pre>
+ * followed by the one-body values, then the pairwise values, each section starting on an 8-byte boundary.
+ * 
+ * Higher-order terms are not supported.
+ */
+public class TupleMatrixFile {
+	
+	public static final long Magic = 0x54414d545250534fL; // "OSPRTMAT" as little-endian bytes
+	public static final int Version = 1;
+	
+	public static enum Type {
+		
+		Double(8),
+		Boolean(1);
+		
+		public final int numBytes;
+		
+		private Type(int numBytes) {
+			this.numBytes = numBytes;
+		}
+	}
+	
+	/** max bytes in each mapped region, must be a multiple of 8 so values never straddle regions */
+	private static final long MaxMappedBytes = 1L << 30;
+	
+	private static final int FixedHeaderBytes = 72;
+	
+	public static class Header {
+		
+		public final Type type;
+		public final int numPos;
+		public final int[] numConfAtPos;
+		public final double pruningInterval;
+		public final double constTerm;
+		public final long numOneBody;
+		public final long numPairwise;
+		public final long oneBodyOffset;
+		public final long pairwiseOffset;
+		
+		public Header(Type type, int[] numConfAtPos, double pruningInterval, double constTerm) {
+			
+			this.type = type;
+			this.numPos = numConfAtPos.length;
+			this.numConfAtPos = numConfAtPos.clone();
+			this.pruningInterval = pruningInterval;
+			this.constTerm = constTerm;
+			
+			long numOneBody = 0;
+			long numPairwise = 0;
+			for (int pos1=0; pos1<numPos; pos1++) {
+				numOneBody += numConfAtPos[pos1];
+				for (int pos2=0; pos2<pos1; pos2++) {
+					numPairwise += (long)numConfAtPos[pos1]*numConfAtPos[pos2];
+				}
+			}
+			this.numOneBody = numOneBody;
+			this.numPairwise = numPairwise;
+			
+			this.oneBodyOffset = align(FixedHeaderBytes + Integer.BYTES*numPos);
+			this.pairwiseOffset = align(oneBodyOffset + numOneBody*type.numBytes);
+		}
+		
+		public long getNumBytes() {
+			return pairwiseOffset + numPairwise*type.numBytes;
+		}
+		
+		private static long align(long offset) {
+			return (offset + 7) & ~7L;
+		}
+		
+		public static Header read(FileChannel channel)
+		throws IOException {
+			
+			ByteBuffer buf = readFully(channel, 0, FixedHeaderBytes);
+			if (buf.getLong() != Magic) {
+				throw new IOException("not a tuple matrix file");
+			}
+			int version = buf.getInt();
+			if (version != Version) {
+				throw new IOException("unsupported tuple matrix file version: " + version);
+			}
+			int typeOrdinal = buf.getInt();
+			if (typeOrdinal < 0 || typeOrdinal >= Type.values().length) {
+				throw new IOException("unknown tuple matrix value type: " + typeOrdinal);
+			}
+			Type type = Type.values()[typeOrdinal];
+			int numPos = buf.getInt();
+			buf.getInt(); // reserved
+			double pruningInterval = buf.getDouble();
+			double constTerm = buf.getDouble();
+			long numOneBody = buf.getLong();
+			long numPairwise = buf.getLong();
+			long oneBodyOffset = buf.getLong();
+			long pairwiseOffset = buf.getLong();
+			
+			buf = readFully(channel, FixedHeaderBytes, Integer.BYTES*numPos);
+			int[] numConfAtPos = new int[numPos];
+			for (int i=0; i<numPos; i++) {
+				numConfAtPos[i] = buf.getInt();
+			}
+			
+			// make sure the layout matches what we'd compute
+			Header header = new Header(type, numConfAtPos, pruningInterval, constTerm);
+			if (header.numOneBody != numOneBody || header.numPairwise != numPairwise
+				|| header.oneBodyOffset != oneBodyOffset || header.pairwiseOffset != pairwiseOffset) {
+				throw new IOException("tuple matrix file header is inconsistent");
+			}
+			if (channel.size() < header.getNumBytes()) {
+				throw new IOException("tuple matrix file is truncated: expected " + header.getNumBytes() + " bytes, but found " + channel.size());
+			}
+			return header;
+		}
+		
+		public void write(FileChannel channel)
+		throws IOException {
+			ByteBuffer buf = ByteBuffer.allocate((int)oneBodyOffset).order(ByteOrder.LITTLE_ENDIAN);
+			buf.putLong(Magic);
+			buf.putInt(Version);
+			buf.putInt(type.ordinal());
+			buf.putInt(numPos);
+			buf.putInt(0);
+			buf.putDouble(pruningInterval);
+			buf.putDouble(constTerm);
+			buf.putLong(numOneBody);
+			buf.putLong(numPairwise);
+			buf.putLong(oneBodyOffset);
+			buf.putLong(pairwiseOffset);
+			for (int n : numConfAtPos) {
+				buf.putInt(n);
+			}
+			buf.position(0);
+			writeFully(channel, 0, buf);
+		}
+	}
+	
+	/** Puts the value of one tuple matrix entry into the buffer, in the encoding for the file type */
+	private static interface ValueWriter {
+		void put(ByteBuffer buf, int pos1, int rc1);
+		void put(ByteBuffer buf, int pos1, int rc1, int pos2, int rc2);
+	}
+	
+	public static void write(TupleMatrixDouble matrix, double constTerm, File file) {
+		write(matrix, Type.Double, constTerm, file, new ValueWriter() {
+			
+			@Override
+			public void put(ByteBuffer buf, int pos1, int rc1) {
+				buf.putDouble(matrix.getOneBody(pos1, rc1));
+			}
+			
+			@Override
+			public void put(ByteBuffer buf, int pos1, int rc1, int pos2, int rc2) {
+				buf.putDouble(matrix.getPairwise(pos1, rc1, pos2, rc2));
+			}
+		});
+	}
+	
+	public static void write(TupleMatrixBoolean matrix, File file) {
+		write(matrix, Type.Boolean, 0, file, new ValueWriter() {
+			
+			@Override
+			public void put(ByteBuffer buf, int pos1, int rc1) {
+				buf.put(matrix.getOneBody(pos1, rc1) ? (byte)1 : (byte)0);
+			}
+			
+			@Override
+			public void put(ByteBuffer buf, int pos1, int rc1, int pos2, int rc2) {
+				buf.put(matrix.getPairwise(pos1, rc1, pos2, rc2) ? (byte)1 : (byte)0);
+			}
+		});
+	}
+	
+	private static void write(AbstractTupleMatrix<?> matrix, Type type, double constTerm, File file, ValueWriter writer) {
+		
+		if (matrix.hasHigherOrderTerms() || matrix.hasHigherOrderTuples()) {
+			throw new UnsupportedOperationException("tuple matrix files don't support higher-order terms");
+		}
+		
+		Header header = new Header(type, matrix.getNumConfAtPos(), matrix.getPruningInterval(), constTerm);
+		
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			
+			header.write(channel);
+			
+			// write the values in blocks, in the same order as the in-memory index
+			ByteBuffer buf = ByteBuffer.allocate(1024*1024).order(ByteOrder.LITTLE_ENDIAN);
+			
+			long offset = header.oneBodyOffset;
+			for (int pos1=0; pos1<header.numPos; pos1++) {
+				for (int rc1=0; rc1<header.numConfAtPos[pos1]; rc1++) {
+					writer.put(buf, pos1, rc1);
+					offset = flushIfFull(channel, buf, offset, type);
+				}
+			}
+			offset = flush(channel, buf, offset);
+			
+			// pad to the pairwise section
+			for (long i=offset; i<header.pairwiseOffset; i++) {
+				buf.put((byte)0);
+			}
+			offset = flush(channel, buf, offset);
+			assert (offset == header.pairwiseOffset);
+			
+			for (int pos1=0; pos1<header.numPos; pos1++) {
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc1=0; rc1<header.numConfAtPos[pos1]; rc1++) {
+						for (int rc2=0; rc2<header.numConfAtPos[pos2]; rc2++) {
+							writer.put(buf, pos1, rc1, pos2, rc2);
+							offset = flushIfFull(channel, buf, offset, type);
+						}
+					}
+				}
+			}
+			offset = flush(channel, buf, offset);
+			assert (offset == header.getNumBytes());
+			
+		} catch (IOException ex) {
+			throw new UncheckedIOException("can't write tuple matrix file: " + file.getAbsolutePath(), ex);
+		}
+	}
+	
+	private static long flushIfFull(FileChannel channel, ByteBuffer buf, long offset, Type type)
+	throws IOException {
+		if (buf.remaining() < type.numBytes) {
+			return flush(channel, buf, offset);
+		}
+		return offset;
+	}
+	
+	private static long flush(FileChannel channel, ByteBuffer buf, long offset)
+	throws IOException {
+		buf.flip();
+		offset += writeFully(channel, offset, buf);
+		buf.clear();
+		return offset;
+	}
+	
+	public static Header readHeader(File file) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return Header.read(channel);
+		} catch (IOException ex) {
+			throw new UncheckedIOException("can't read tuple matrix file: " + file.getAbsolutePath(), ex);
+		}
+	}
+	
+	/**
+	 * Memory-maps the values in a tuple matrix file, read-only.
+	 * 
+	 * Values at byte offset i (relative to the start of the file) are in
+	 * region i/{@link #getMappedRegionBytes()}, at position i%{@link #getMappedRegionBytes()}.
+	 */
+	public static ByteBuffer[] map(File file, Header header) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			
+			long numBytes = header.getNumBytes();
+			int numRegions = (int)((numBytes + MaxMappedBytes - 1)/MaxMappedBytes);
+			ByteBuffer[] regions = new ByteBuffer[numRegions];
+			for (int i=0; i<numRegions; i++) {
+				long start = i*MaxMappedBytes;
+				long size = Math.min(MaxMappedBytes, numBytes - start);
+				MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+				region.order(ByteOrder.LITTLE_ENDIAN);
+				regions[i] = region;
+			}
+			return regions;
+			
+			// NOTE: the mappings stay valid after the channel is closed
+			
+		} catch (IOException ex) {
+			throw new UncheckedIOException("can't map tuple matrix file: " + file.getAbsolutePath(), ex);
+		}
+	}
+	
+	public static long getMappedRegionBytes() {
+		return MaxMappedBytes;
+	}
+	
+	/** Reads the values in a tuple matrix file into a heap matrix */
+	public static void read(File file, TupleMatrixDouble matrix) {
+		read(file, Type.Double, matrix, (buf, offset, pos1, rc1) -> {
+			matrix.setOneBody(pos1, rc1, buf.getDouble(offset));
+		}, (buf, offset, pos1, rc1, pos2, rc2) -> {
+			matrix.setPairwise(pos1, rc1, pos2, rc2, buf.getDouble(offset));
+		});
+	}
+	
+	/** Reads the values in a tuple matrix file into a heap matrix */
+	public static void read(File file, TupleMatrixBoolean matrix) {
+		read(file, Type.Boolean, matrix, (buf, offset, pos1, rc1) -> {
+			matrix.setOneBody(pos1, rc1, buf.get(offset) != 0);
+		}, (buf, offset, pos1, rc1, pos2, rc2) -> {
+			matrix.setPairwise(pos1, rc1, pos2, rc2, buf.get(offset) != 0);
+		});
+	}
+	
+	private static interface OneBodyReader {
+		void read(ByteBuffer buf, int offset, int pos1, int rc1);
+	}
+	
+	private static interface PairwiseReader {
+		void read(ByteBuffer buf, int offset, int pos1, int rc1, int pos2, int rc2);
+	}
+	
+	private static void read(File file, Type type, AbstractTupleMatrix<?> matrix, OneBodyReader oneBodyReader, PairwiseReader pairwiseReader) {
+		
+		Header header = readHeader(file);
+		if (header.type != type) {
+			throw new IllegalArgumentException("tuple matrix file has " + header.type + " values, not " + type);
+		}
+		checkShape(header, matrix);
+		
+		ByteBuffer[] regions = map(file, header);
+		
+		long offset = header.oneBodyOffset;
+		for (int pos1=0; pos1<header.numPos; pos1++) {
+			for (int rc1=0; rc1<header.numConfAtPos[pos1]; rc1++) {
+				oneBodyReader.read(regions[(int)(offset/MaxMappedBytes)], (int)(offset % MaxMappedBytes), pos1, rc1);
+				offset += type.numBytes;
+			}
+		}
+		
+		offset = header.pairwiseOffset;
+		for (int pos1=0; pos1<header.numPos; pos1++) {
+			for (int pos2=0; pos2<pos1; pos2++) {
+				for (int rc1=0; rc1<header.numConfAtPos[pos1]; rc1++) {
+					for (int rc2=0; rc2<header.numConfAtPos[pos2]; rc2++) {
+						pairwiseReader.read(regions[(int)(offset/MaxMappedBytes)], (int)(offset % MaxMappedBytes), pos1, rc1, pos2, rc2);
+						offset += type.numBytes;
+					}
+				}
+			}
+		}
+	}
+	
+	public static void checkShape(Header header, AbstractTupleMatrix<?> matrix) {
+		if (header.numPos != matrix.getNumPos()) {
+			throw new IllegalArgumentException("tuple matrix file has " + header.numPos + " positions, but the matrix has " + matrix.getNumPos());
+		}
+		for (int pos=0; pos<header.numPos; pos++) {
+			if (header.numConfAtPos[pos] != matrix.getNumConfAtPos(pos)) {
+				throw new IllegalArgumentException("tuple matrix file has " + header.numConfAtPos[pos] + " RCs at position " + pos
+					+ ", but the matrix has " + matrix.getNumConfAtPos(pos));
+			}
+		}
+	}
+	
+	private static ByteBuffer readFully(FileChannel channel, long offset, int size)
+	throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, offset + buf.position()) < 0) {
+				throw new IOException("unexpected end of tuple matrix file");
+			}
+		}
+		buf.flip();
+		return buf;
+	}
+	
+	private static int writeFully(FileChannel channel, long offset, ByteBuffer buf)
+	throws IOException {
+		int numBytes = 0;
+		while (buf.hasRemaining()) {
+			numBytes += channel.write(buf, offset + numBytes);
+		}
+		return numBytes;
+	}
+}
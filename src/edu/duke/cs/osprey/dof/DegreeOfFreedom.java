@@ -34,6 +34,7 @@ package edu.duke.cs.osprey.dof;
 
 import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.structure.Residue;
+import edu.duke.cs.osprey.structure.Residues;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.List;
@@ -77,6 +78,14 @@ public abstract class DegreeOfFreedom implements Serializable {
     }
     
     public abstract DOFBlock getBlock();//return the DOF block for a DOF (return null if none)
+    
+    
+    //Derivative of an energy with respect to this DOF, at the current DOF value,
+    //given the gradient of the energy with respect to the atom coordinates of each residue
+    //(atomGradients[i] is laid out like residues.get(i).coords)
+    //Returns null if this DOF can't compute its derivative analytically
+    //(then minimizers should estimate it numerically instead)
+    public Double calcEnergyDerivative(Residues residues, double[][] atomGradients) { return null; }
 
     
     public abstract String getName();//make a name for this DOF
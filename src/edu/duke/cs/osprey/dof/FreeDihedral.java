@@ -34,6 +34,7 @@ package edu.duke.cs.osprey.dof;
 
 import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.structure.Residue;
+import edu.duke.cs.osprey.structure.Residues;
 import edu.duke.cs.osprey.tools.Protractor;
 import edu.duke.cs.osprey.tools.RigidBodyMotion;
 
@@ -137,6 +138,41 @@ public class FreeDihedral extends DegreeOfFreedom {
         curVal = angleDegrees;
     }
     
+    @Override
+    public Double calcEnergyDerivative(Residues residues, double[][] atomGradients) {
+        
+        // atoms outside of the energy function don't contribute to the energy
+        Integer resIndex = residues.findIndex(res);
+        if (resIndex == null) {
+            return 0.0;
+        }
+        double[] gradient = atomGradients[resIndex];
+        
+        // a positive dihedral change rotates the moved atoms about the 2nd->3rd atom axis (see DihedralRotation),
+        // so the derivative is the torque of the atomic gradients about that axis
+        updateDihedralCoords();
+        double[] center = dihedralCoords[2];
+        double ux = center[0] - dihedralCoords[1][0];
+        double uy = center[1] - dihedralCoords[1][1];
+        double uz = center[2] - dihedralCoords[1][2];
+        double len = Math.sqrt(ux*ux + uy*uy + uz*uz);
+        
+        double torque = 0;
+        for (int index : res.template.getDihedralRotatedAtoms(dihedralNum)) {
+            int i3 = index*3;
+            double px = res.coords[i3] - center[0];
+            double py = res.coords[i3 + 1] - center[1];
+            double pz = res.coords[i3 + 2] - center[2];
+            double gx = gradient[i3];
+            double gy = gradient[i3 + 1];
+            double gz = gradient[i3 + 2];
+            torque += ux*(py*gz - pz*gy) + uy*(pz*gx - px*gz) + uz*(px*gy - py*gx);
+        }
+        
+        // DOF values are in degrees
+        return Math.toRadians(torque/len);
+    }
+    
     @Override
     public Residue getResidue() {
         return res;
@@ -34,6 +34,7 @@ package edu.duke.cs.osprey.dof;
 
 import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.structure.Residue;
+import edu.duke.cs.osprey.structure.Residues;
 import edu.duke.cs.osprey.tools.RotationMatrix;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -155,6 +156,87 @@ public class MoveableStrand implements Serializable, DOFBlock {
     }
     
     
+    public double[] getRotationCenter(){
+        //rotations are performed about the initial center plus the current translation
+        return new double[] {
+            initCenter[0] + curTrans[0],
+            initCenter[1] + curTrans[1],
+            initCenter[2] + curTrans[2]
+        };
+    }
+    
+    
+    public double[] getRotationAxis(int angleNum){
+        //the current axis of infinitesimal rotation for one of the angles
+        //curRotMatrix = rot3*rot2*rot1, so a change in angle k rotates the strand
+        //about the axis of rot k, after it's been rotated by all the later rotations
+        double[] axis;
+        switch(angleNum){
+            case 0:
+                axis = new double[] {1, 0, 0};
+                axis = new RotationMatrix(0, 1, 0, curAngles[1], false).rotateVector(axis);
+                return new RotationMatrix(0, 0, 1, curAngles[2], false).rotateVector(axis);
+            case 1:
+                axis = new double[] {0, 1, 0};
+                return new RotationMatrix(0, 0, 1, curAngles[2], false).rotateVector(axis);
+            case 2:
+                return new double[] {0, 0, 1};
+            default:
+                throw new IllegalArgumentException("invalid strand rotation angle number: " + angleNum);
+        }
+    }
+    
+    
+    double calcRotationDerivative(int angleNum, Residues residues, double[][] atomGradients){
+        //every strand atom moves with the rigid rotation (including atoms moved by dihedrals),
+        //so the derivative is the torque of the atomic gradients about the rotation axis
+        double[] axis = getRotationAxis(angleNum);
+        double[] center = getRotationCenter();
+        double torque = 0;
+        for(Residue curRes : res){
+            
+            //atoms outside of the energy function don't contribute to the energy
+            Integer resIndex = residues.findIndex(curRes);
+            if(resIndex == null)
+                continue;
+            double[] gradient = atomGradients[resIndex];
+            
+            int resNumAtoms = curRes.atoms.size();
+            for(int atomNum=0; atomNum<resNumAtoms; atomNum++){
+                int i3 = 3*atomNum;
+                double px = curRes.coords[i3] - center[0];
+                double py = curRes.coords[i3+1] - center[1];
+                double pz = curRes.coords[i3+2] - center[2];
+                double gx = gradient[i3];
+                double gy = gradient[i3+1];
+                double gz = gradient[i3+2];
+                torque += axis[0]*(py*gz - pz*gy) + axis[1]*(pz*gx - px*gz) + axis[2]*(px*gy - py*gx);
+            }
+        }
+        
+        //angles are in degrees
+        return Math.toRadians(torque);
+    }
+    
+    
+    double calcTranslationDerivative(int coordNum, Residues residues, double[][] atomGradients){
+        //every strand atom moves with the translation, so just sum the gradients along the coordinate
+        double deriv = 0;
+        for(Residue curRes : res){
+            
+            Integer resIndex = residues.findIndex(curRes);
+            if(resIndex == null)
+                continue;
+            double[] gradient = atomGradients[resIndex];
+            
+            int resNumAtoms = curRes.atoms.size();
+            for(int atomNum=0; atomNum<resNumAtoms; atomNum++)
+                deriv += gradient[3*atomNum+coordNum];
+        }
+        return deriv;
+    }
+    
+    
     public static double[] getStrandDOFBounds(DegreeOfFreedom strandDOF){
         //What are the bounds on this strand rigid-motion DOF?
         if(strandDOF instanceof StrandRotation){
@@ -33,6 +33,7 @@
 package edu.duke.cs.osprey.dof;
 
 import edu.duke.cs.osprey.structure.Residue;
+import edu.duke.cs.osprey.structure.Residues;
 import edu.duke.cs.osprey.tools.RigidBodyMotion;
 import edu.duke.cs.osprey.tools.RotationMatrix;
 import edu.duke.cs.osprey.tools.VectorAlgebra;
@@ -73,6 +74,11 @@ public class StrandRotation extends DegreeOfFreedom {
             motion.transform(res.coords);
     }
     
+    @Override
+    public Double calcEnergyDerivative(Residues residues, double[][] atomGradients) {
+        return strand.calcRotationDerivative(angleNum, residues, atomGradients);
+    }
+    
     public MoveableStrand getMoveableStrand(){
         return strand;
     }
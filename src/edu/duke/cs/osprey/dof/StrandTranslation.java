@@ -33,6 +33,7 @@
 package edu.duke.cs.osprey.dof;
 
 import edu.duke.cs.osprey.structure.Residue;
+import edu.duke.cs.osprey.structure.Residues;
 
 /**
  *
@@ -67,6 +68,11 @@ public class StrandTranslation extends DegreeOfFreedom {
         strand.curTrans[coordNum] = paramVal;
     }
     
+    @Override
+    public Double calcEnergyDerivative(Residues residues, double[][] atomGradients) {
+        return strand.calcTranslationDerivative(coordNum, residues, atomGradients);
+    }
+    
     public MoveableStrand getMoveableStrand(){
         return strand;
     }
@@ -58,6 +58,28 @@ public class EnergyMatrix extends TupleMatrixDouble implements FragmentEnergies
 	throws CantWriteException {
 		ObjectIO.write(emat, file);
 	}
+	
+	/**
+	 * write the energy matrix in the binary {@link TupleMatrixFile} format,
+	 * which can be memory-mapped by {@link MappedEnergyMatrix}
+	 */
+	public static void writeBinary(EnergyMatrix emat, File file) {
+		TupleMatrixFile.write(emat, emat.getConstTerm(), file);
+	}
+	
+	/** read an energy matrix in the binary {@link TupleMatrixFile} format onto the heap */
+	public static EnergyMatrix readBinary(File file) {
+		TupleMatrixFile.Header header = TupleMatrixFile.readHeader(file);
+		EnergyMatrix emat = new EnergyMatrix(header.numPos, header.numConfAtPos, header.pruningInterval);
+		TupleMatrixFile.read(file, emat);
+		emat.setConstTerm(header.constTerm);
+		return emat;
+	}
+	
+	/** map an energy matrix in the binary {@link TupleMatrixFile} format, without reading it onto the heap */
+	public static MappedEnergyMatrix mapBinary(File file) {
+		return MappedEnergyMatrix.open(file);
+	}
 
 	private double constTerm = 0;
     
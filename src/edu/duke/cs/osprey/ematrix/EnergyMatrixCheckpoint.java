@@ -0,0 +1,521 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.ematrix;
+
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.SimpleConfSpace;
+import edu.duke.cs.osprey.confspace.Strand;
+import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
+import edu.duke.cs.osprey.energy.ResidueInteractions;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.structure.Residue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+
+/**
+ * An append-only file of energy matrix entries, written as the entries are calculated,
+ * so a long energy matrix calculation can resume after a crash.
+ * 
+ * Entries are keyed by a hash of everything that determines the fragment energy:
+ * the residue confs in the fragment (template, rotamer, DOF bounds), the residue interactions
+ * (including weights and offsets), and the templates and coordinates of all the interacting residues.
+ * Positions and RC indices are not part of the key, so entries survive edits to the conf space,
+ * like adding or removing positions or residue types.
+ * 
+ * The file starts with a header (magic number, format version, and a hash of the energy calculator settings),
+ * followed by any number of chunks. Each chunk has a count, that many (key, energy) records,
+ * and a CRC32 checksum. A chunk that was only partially written (e.g., after a crash)
+ * is discarded when the file is read again.
+ */
+public class EnergyMatrixCheckpoint implements AutoCloseable {
+	
+	public static final long Magic = 0x4f5350454d415443L; // "OSPEMATC"
+	public static final int Version = 1;
+	
+	private static final int HeaderBytes = Long.BYTES + Integer.BYTES + Long.BYTES;
+	private static final int RecordBytes = Long.BYTES + Double.BYTES;
+	private static final int MaxChunkSize = 1 << 24;
+	private static final long ForceIntervalMs = 1000;
+	
+	public final File file;
+	public final ConfEnergyCalculator confEcalc;
+	
+	private final long settingsHash;
+	private final Map<String,Residue> residuesByNum = new HashMap<>();
+	private final Map<String,Long> residueHashes = new ConcurrentHashMap<>();
+	
+	private final Map<Long,Double> loaded = new HashMap<>();
+	private final Map<Long,Double> current = new HashMap<>();
+	private int numReused = 0;
+	private boolean isUsed = false;
+	
+	private FileChannel channel;
+	private long lastForceMs = 0;
+	
+	public EnergyMatrixCheckpoint(File file, ConfEnergyCalculator confEcalc) {
+		
+		this.file = file;
+		this.confEcalc = confEcalc;
+		
+		settingsHash = hashSettings(confEcalc);
+		for (Strand strand : confEcalc.confSpace.strands) {
+			for (Residue res : strand.mol.residues) {
+				residuesByNum.put(res.getPDBResNumber(), res);
+			}
+		}
+		
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			read();
+		} catch (IOException ex) {
+			throw new UncheckedIOException("can't open energy matrix checkpoint: " + file.getAbsolutePath(), ex);
+		}
+	}
+	
+	/** the number of entries read from the file */
+	public int getNumLoaded() {
+		return loaded.size();
+	}
+	
+	/** the number of entries read from the file that were used by the current conf space */
+	public int getNumReused() {
+		return numReused;
+	}
+	
+	/** safe to call from multiple threads */
+	public long makeKey(RCTuple frag, ResidueInteractions inters) {
+		
+		// combine the fragment and the interactions without depending on their order
+		long fragHash = 0;
+		for (int i=0; i<frag.size(); i++) {
+			SimpleConfSpace.Position pos = confEcalc.confSpace.positions.get(frag.pos.get(i));
+			fragHash += hashResConf(pos, pos.resConfs.get(frag.RCs.get(i)));
+		}
+		
+		long intersHash = 0;
+		for (ResidueInteractions.Pair pair : inters) {
+			long hash = hashString(pair.resNum1);
+			hash = mix(hash, hashString(pair.resNum2));
+			hash = mix(hash, Double.doubleToLongBits(pair.weight));
+			hash = mix(hash, Double.doubleToLongBits(pair.offset));
+			intersHash += mix(hash, 0);
+		}
+		
+		long residuesHash = 0;
+		for (String resNum : inters.getResidueNumbers()) {
+			residuesHash += hashResidue(resNum);
+		}
+		
+		return mix(mix(mix(settingsHash, fragHash), intersHash), residuesHash);
+	}
+	
+	/**
+	 * returns the energy for the key, if it was read from the file
+	 * and marks it as used by the current conf space
+	 */
+	public synchronized Double get(long key) {
+		isUsed = true;
+		Double energy = loaded.get(key);
+		if (energy != null && current.put(key, energy) == null) {
+			numReused++;
+		}
+		return energy;
+	}
+	
+	public synchronized boolean contains(long key) {
+		return loaded.containsKey(key);
+	}
+	
+	/** appends a chunk of entries to the file */
+	public synchronized void write(long[] keys, double[] energies, int size) {
+		
+		if (size <= 0) {
+			return;
+		}
+		isUsed = true;
+		
+		ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES + size*RecordBytes + Long.BYTES);
+		buf.putInt(size);
+		for (int i=0; i<size; i++) {
+			buf.putLong(keys[i]);
+			buf.putDouble(energies[i]);
+			current.put(keys[i], energies[i]);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), 0, buf.position());
+		buf.putLong(crc.getValue());
+		buf.flip();
+		
+		try {
+			
+			long pos = channel.size();
+			while (buf.hasRemaining()) {
+				pos += channel.write(buf, pos);
+			}
+			
+			// don't force the OS to sync every chunk, but don't let too much time go by either
+			long nowMs = System.currentTimeMillis();
+			if (nowMs - lastForceMs >= ForceIntervalMs) {
+				channel.force(false);
+				lastForceMs = nowMs;
+			}
+			
+		} catch (IOException ex) {
+			throw new UncheckedIOException("can't write energy matrix checkpoint: " + file.getAbsolutePath(), ex);
+		}
+	}
+	
+	/**
+	 * Closes the file. If the checkpoint was used, but some entries in the file weren't
+	 * used by the current conf space, the file is rewritten with only the used entries.
+	 */
+	@Override
+	public synchronized void close() {
+		
+		if (channel == null) {
+			return;
+		}
+		
+		try {
+			
+			channel.force(false);
+			channel.close();
+			channel = null;
+			
+			int numStale = loaded.size() - numReused;
+			if (isUsed && numStale > 0) {
+				compact();
+			}
+			
+		} catch (IOException ex) {
+			throw new UncheckedIOException("can't close energy matrix checkpoint: " + file.getAbsolutePath(), ex);
+		}
+	}
+	
+	private void read()
+	throws IOException {
+		
+		long size = channel.size();
+		if (size > 0 && size < HeaderBytes) {
+			moveAside("it has an incomplete header");
+			return;
+		}
+		if (size >= HeaderBytes) {
+			
+			ByteBuffer header = ByteBuffer.allocate(HeaderBytes);
+			readFully(header, 0);
+			long magic = header.getLong();
+			int version = header.getInt();
+			long fileSettingsHash = header.getLong();
+			
+			if (magic == Magic && version == Version && fileSettingsHash == settingsHash) {
+				
+				// read chunks until we run out of good ones
+				long pos = HeaderBytes;
+				while (pos + Integer.BYTES <= size) {
+					
+					ByteBuffer count = ByteBuffer.allocate(Integer.BYTES);
+					readFully(count, pos);
+					int n = count.getInt();
+					long chunkBytes = Integer.BYTES + (long)n*RecordBytes + Long.BYTES;
+					if (n <= 0 || n > MaxChunkSize || pos + chunkBytes > size) {
+						break;
+					}
+					
+					ByteBuffer chunk = ByteBuffer.allocate((int)chunkBytes);
+					readFully(chunk, pos);
+					CRC32 crc = new CRC32();
+					crc.update(chunk.array(), 0, (int)chunkBytes - Long.BYTES);
+					if (crc.getValue() != chunk.getLong((int)chunkBytes - Long.BYTES)) {
+						break;
+					}
+					
+					chunk.position(Integer.BYTES);
+					for (int i=0; i<n; i++) {
+						loaded.put(chunk.getLong(), chunk.getDouble());
+					}
+					pos += chunkBytes;
+				}
+				
+				// drop any partially-written chunk at the end
+				if (pos < size) {
+					System.out.println("WARNING: discarding " + (size - pos) + " bytes of incomplete energy matrix checkpoint");
+					channel.truncate(pos);
+				}
+				
+				System.out.println("read " + loaded.size() + " energy matrix entries from checkpoint: " + file.getAbsolutePath());
+				return;
+			}
+			
+			if (magic != Magic) {
+				moveAside("it's not an energy matrix checkpoint");
+			} else if (version != Version) {
+				moveAside("it's from a different version of the checkpoint format");
+			} else {
+				moveAside("it was made with different energy calculator or forcefield settings");
+			}
+			return;
+		}
+		
+		// start a new file
+		writeHeader(channel);
+	}
+	
+	/**
+	 * Don't ever delete a checkpoint we can't use: it could be hours of work
+	 * that was just opened with the wrong settings, so keep it around under a new name.
+	 */
+	private void moveAside(String reason)
+	throws IOException {
+		
+		File aside = new File(file.getAbsolutePath() + ".unused");
+		for (int i=1; aside.exists(); i++) {
+			aside = new File(file.getAbsolutePath() + ".unused" + i);
+		}
+		
+		channel.close();
+		Files.move(file.toPath(), aside.toPath());
+		System.out.println("WARNING: can't use energy matrix checkpoint " + file.getAbsolutePath() + " because " + reason
+			+ ", moved it to " + aside.getAbsolutePath() + " and will start a new one");
+		
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		writeHeader(channel);
+	}
+	
+	private void readFully(ByteBuffer buf, long pos)
+	throws IOException {
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, pos);
+			if (n < 0) {
+				throw new IOException("unexpected end of file");
+			}
+			pos += n;
+		}
+		buf.flip();
+	}
+	
+	private void writeHeader(FileChannel channel)
+	throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HeaderBytes);
+		header.putLong(Magic);
+		header.putInt(Version);
+		header.putLong(settingsHash);
+		header.flip();
+		long pos = 0;
+		while (header.hasRemaining()) {
+			pos += channel.write(header, pos);
+		}
+	}
+	
+	private void compact()
+	throws IOException {
+		
+		File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+		try (FileChannel tmpChannel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			
+			this.channel = tmpChannel;
+			writeHeader(tmpChannel);
+			
+			long[] keys = new long[Math.min(current.size(), MaxChunkSize)];
+			double[] energies = new double[keys.length];
+			int size = 0;
+			for (Map.Entry<Long,Double> entry : new HashMap<>(current).entrySet()) {
+				keys[size] = entry.getKey();
+				energies[size] = entry.getValue();
+				size++;
+				if (size == keys.length) {
+					write(keys, energies, size);
+					size = 0;
+				}
+			}
+			write(keys, energies, size);
+			tmpChannel.force(false);
+			
+		} finally {
+			this.channel = null;
+		}
+		
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	// these hashes are also used to fingerprint conf spaces elsewhere, e.g. PfuncResultsDB
+
+	public static long hashResConf(SimpleConfSpace.Position pos, SimpleConfSpace.ResidueConf resConf) {
+		long hash = hashString(pos.resNum);
+		hash = mix(hash, hashString(resConf.template.name));
+		hash = mix(hash, resConf.type.letter);
+		hash = mix(hash, resConf.rotamerIndex == null ? -1 : resConf.rotamerIndex);
+		for (Map.Entry<String,double[]> entry : new TreeMap<>(resConf.dofBounds).entrySet()) {
+			hash = mix(hash, hashString(entry.getKey()));
+			hash = mix(hash, Double.doubleToLongBits(entry.getValue()[0]));
+			hash = mix(hash, Double.doubleToLongBits(entry.getValue()[1]));
+		}
+		return mix(hash, 0);
+	}
+	
+	private long hashResidue(String resNum) {
+		return residueHashes.computeIfAbsent(resNum, (key) -> {
+			Residue res = residuesByNum.get(key);
+			if (res == null) {
+				return hashString(key);
+			}
+			return hashResidue(res);
+		});
+	}
+	
+	public static long hashResidue(Residue res) {
+		long hash = hashString(res.fullName);
+		hash = mix(hash, hashString(res.template == null ? "" : res.template.name));
+		for (double coord : res.coords) {
+			hash = mix(hash, Double.doubleToLongBits(coord));
+		}
+		return mix(hash, 0);
+	}
+	
+	public static long hashSettings(ConfEnergyCalculator confEcalc) {
+		
+		long hash = hashString(confEcalc.getClass().getName());
+		if (confEcalc.ecalc != null) {
+			hash = mix(hash, hashString(confEcalc.ecalc.type.name()));
+			hash = mix(hash, confEcalc.ecalc.isMinimizing ? 1 : 0);
+			hash = mix(hash, hashString(String.valueOf(confEcalc.ecalc.infiniteWellEnergy)));
+			hash = mix(hash, hashString(String.valueOf(confEcalc.ecalc.alwaysResolveClashesEnergy)));
+			
+			hash = mix(hash, hashForcefieldParams(confEcalc.ecalc.resPairCache.ffparams));
+		}
+		return hash;
+	}
+
+	/**
+	 * Hashes every forcefield parameter, including the parameter tables read from the forcefield
+	 * and solvation files, so any change that could change an energy changes the hash.
+	 */
+	public static long hashForcefieldParams(ForcefieldParams ffparams) {
+		return hashFields(ffparams);
+	}
+
+	private static long hashFields(Object obj) {
+
+		if (obj == null) {
+			return mix(0, -1);
+		}
+
+		// collect the instance fields of the whole class hierarchy, in a stable order
+		List<Field> fields = new ArrayList<>();
+		for (Class<?> c = obj.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+					fields.add(field);
+				}
+			}
+		}
+		fields.sort(Comparator.comparing((Field field) -> field.getDeclaringClass().getName()).thenComparing(Field::getName));
+
+		long hash = hashString(obj.getClass().getName());
+		for (Field field : fields) {
+			field.setAccessible(true);
+			try {
+				hash = mix(hash, hashString(field.getName()));
+				hash = mix(hash, hashValue(field.get(obj)));
+			} catch (IllegalAccessException ex) {
+				throw new RuntimeException("can't hash forcefield field " + field, ex);
+			}
+		}
+		return hash;
+	}
+
+	private static long hashValue(Object val) {
+		if (val == null) {
+			return mix(0, -1);
+		} else if (val instanceof Double || val instanceof Float) {
+			return Double.doubleToLongBits(((Number)val).doubleValue());
+		} else if (val instanceof Number) {
+			return ((Number)val).longValue();
+		} else if (val instanceof Boolean) {
+			return (Boolean)val ? 1 : 0;
+		} else if (val instanceof Character) {
+			return (Character)val;
+		} else if (val instanceof String) {
+			return hashString((String)val);
+		} else if (val instanceof Enum) {
+			return hashString(((Enum<?>)val).name());
+		} else if (val.getClass().isArray()) {
+			int n = Array.getLength(val);
+			long hash = mix(0, n);
+			for (int i=0; i<n; i++) {
+				hash = mix(hash, hashValue(Array.get(val, i)));
+			}
+			return hash;
+		} else {
+			// nested parameter objects, e.g. the EEF1 params
+			return hashFields(val);
+		}
+	}
+	
+	public static long hashString(String s) {
+		// 64-bit FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		for (int i=0; i<s.length(); i++) {
+			hash ^= s.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+	
+	public static long mix(long hash, long val) {
+		// splitmix64 finalizer
+		long z = hash*31 + val + 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30))*0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27))*0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
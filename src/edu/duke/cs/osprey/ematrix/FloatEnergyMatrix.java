@@ -0,0 +1,212 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.ematrix;
+
+import edu.duke.cs.osprey.confspace.SimpleConfSpace;
+
+import java.util.ArrayList;
+
+
+/**
+ * An energy matrix that stores energies in single precision, to halve the memory
+ * (and cache traffic) of the pairwise energies for large designs.
+ * 
+ * Energies are rounded to floats in a configurable direction. Use {@link Rounding#Down}
+ * when the energies are lower bounds (e.g., for A* scoring of minimized energies), so bounds
+ * computed from the rounded energies are still valid.
+ */
+public class FloatEnergyMatrix extends EnergyMatrix {
+	
+	private static final long serialVersionUID = 3380458711203537816L;
+	
+	public static enum Rounding {
+		
+		/** round to the nearest float, no bound guarantees */
+		Nearest {
+			@Override
+			public float round(double val) {
+				return (float)val;
+			}
+		},
+		
+		/** round to the nearest float that isn't greater than the energy, for lower bounds */
+		Down {
+			@Override
+			public float round(double val) {
+				float f = (float)val;
+				if (f > val) {
+					f = Math.nextDown(f);
+				}
+				return f;
+			}
+		},
+		
+		/** round to the nearest float that isn't less than the energy, for upper bounds */
+		Up {
+			@Override
+			public float round(double val) {
+				float f = (float)val;
+				if (f < val) {
+					f = Math.nextUp(f);
+				}
+				return f;
+			}
+		};
+		
+		public abstract float round(double val);
+		
+		public Rounding opposite() {
+			switch (this) {
+				case Down: return Up;
+				case Up: return Down;
+				default: return this;
+			}
+		}
+	}
+	
+	private Rounding rounding;
+	private float[] oneBody;
+	private float[] pairwise;
+	
+	public FloatEnergyMatrix(SimpleConfSpace confSpace, Rounding rounding) {
+		super(confSpace);
+		this.rounding = rounding;
+	}
+	
+	public FloatEnergyMatrix(int numPos, int[] numRCsAtPos, double pruningInterval, Rounding rounding) {
+		super(numPos, numRCsAtPos, pruningInterval);
+		this.rounding = rounding;
+	}
+	
+	/** copy (and round) all the energies of another energy matrix */
+	public FloatEnergyMatrix(EnergyMatrix other, Rounding rounding) {
+		this(other.getNumPos(), other.getNumConfAtPos().clone(), other.getPruningInterval(), rounding);
+		
+		if (other.hasHigherOrderTerms() || other.hasHigherOrderTuples()) {
+			throw new UnsupportedOperationException("float energy matrices don't support higher-order terms");
+		}
+		
+		setConstTerm(other.getConstTerm());
+		for (int pos1=0; pos1<getNumPos(); pos1++) {
+			for (int rc1=0; rc1<getNumConfAtPos(pos1); rc1++) {
+				oneBody[getOneBodyIndex(pos1, rc1)] = rounding.round(other.getEnergy(pos1, rc1));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<getNumConfAtPos(pos2); rc2++) {
+						pairwise[getPairwiseIndex(pos1, rc1, pos2, rc2)] = rounding.round(other.getEnergy(pos1, rc1, pos2, rc2));
+					}
+				}
+			}
+		}
+	}
+	
+	public Rounding getRounding() {
+		return rounding;
+	}
+	
+	@Override
+	protected void allocate(int numOneBody, int numPairwise) {
+		oneBody = new float[numOneBody];
+		pairwise = new float[numPairwise];
+	}
+	
+	@Override
+	public double getEnergy(int pos, int rc) {
+		return oneBody[getOneBodyIndex(pos, rc)];
+	}
+	
+	@Override
+	public double getEnergy(int pos1, int rc1, int pos2, int rc2) {
+		return pairwise[getPairwiseIndex(pos1, rc1, pos2, rc2)];
+	}
+	
+	@Override
+	public Double getOneBody(int pos, int rc) {
+		return getEnergy(pos, rc);
+	}
+	
+	@Override
+	public void setOneBody(int pos, int rc, Double val) {
+		oneBody[getOneBodyIndex(pos, rc)] = rounding.round(val);
+	}
+	
+	@Override
+	public void setOneBody(int pos, ArrayList<Double> val) {
+		for (int rc=0; rc<getNumConfAtPos(pos); rc++) {
+			setOneBody(pos, rc, val.get(rc));
+		}
+	}
+	
+	@Override
+	public Double getPairwise(int pos1, int rc1, int pos2, int rc2) {
+		return getEnergy(pos1, rc1, pos2, rc2);
+	}
+	
+	@Override
+	public void setPairwise(int pos1, int rc1, int pos2, int rc2, Double val) {
+		pairwise[getPairwiseIndex(pos1, rc1, pos2, rc2)] = rounding.round(val);
+	}
+	
+	@Override
+	public void setPairwise(int pos1, int pos2, ArrayList<ArrayList<Double>> val) {
+		for (int rc1=0; rc1<getNumConfAtPos(pos1); rc1++) {
+			for (int rc2=0; rc2<getNumConfAtPos(pos2); rc2++) {
+				setPairwise(pos1, rc1, pos2, rc2, val.get(rc1).get(rc2));
+			}
+		}
+	}
+	
+	@Override
+	public void negate() {
+		for (int i=0; i<oneBody.length; i++) {
+			oneBody[i] = -oneBody[i];
+		}
+		for (int i=0; i<pairwise.length; i++) {
+			pairwise[i] = -pairwise[i];
+		}
+		
+		// lower bounds became upper bounds and vice versa
+		rounding = rounding.opposite();
+	}
+	
+	@Override
+	public double sum() {
+		double sum = 0.0;
+		for (int i=0; i<oneBody.length; i++) {
+			sum += oneBody[i];
+		}
+		for (int i=0; i<pairwise.length; i++) {
+			sum += pairwise[i];
+		}
+		return sum;
+	}
+}
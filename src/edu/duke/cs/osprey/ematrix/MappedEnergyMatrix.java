@@ -0,0 +1,215 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.ematrix;
+
+import edu.duke.cs.osprey.confspace.HigherTupleFinder;
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.TupleMatrixFile;
+import edu.duke.cs.osprey.confspace.TupleTree;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+
+/**
+ * A read-only energy matrix backed by a memory-mapped {@link TupleMatrixFile}.
+ * 
+ * Opening the matrix only reads the header, and energies are paged in by the OS as they're used.
+ * Several processes that map the same file share one copy of the energies in the page cache.
+ * 
+ * Every accessor reads from the mapped file, and every mutator throws {@link UnsupportedOperationException}.
+ * To get a modifiable copy on the heap, use {@link EnergyMatrix#EnergyMatrix(EnergyMatrix)}.
+ */
+public class MappedEnergyMatrix extends EnergyMatrix {
+	
+	private static final long serialVersionUID = -4106419270758016223L;
+	
+	public final File file;
+	
+	private final transient ByteBuffer[] regions;
+	private final long regionBytes;
+	private final long oneBodyOffset;
+	private final long pairwiseOffset;
+	
+	public static MappedEnergyMatrix open(File file) {
+		
+		TupleMatrixFile.Header header = TupleMatrixFile.readHeader(file);
+		if (header.type != TupleMatrixFile.Type.Double) {
+			throw new IllegalArgumentException("tuple matrix file has " + header.type + " values, not energies");
+		}
+		
+		return new MappedEnergyMatrix(file, header, TupleMatrixFile.map(file, header));
+	}
+	
+	private MappedEnergyMatrix(File file, TupleMatrixFile.Header header, ByteBuffer[] regions) {
+		super(header.numPos, header.numConfAtPos, header.pruningInterval);
+		super.setConstTerm(header.constTerm);
+		
+		this.file = file;
+		this.regions = regions;
+		this.regionBytes = TupleMatrixFile.getMappedRegionBytes();
+		this.oneBodyOffset = header.oneBodyOffset;
+		this.pairwiseOffset = header.pairwiseOffset;
+	}
+	
+	@Override
+	protected void allocate(int numOneBody, int numPairwise) {
+		// don't allocate anything, the energies are in the mapped file
+	}
+	
+	private double read(long offset) {
+		return regions[(int)(offset/regionBytes)].getDouble((int)(offset % regionBytes));
+	}
+	
+	@Override
+	public double getEnergy(int pos, int rc) {
+		return read(oneBodyOffset + (long)Double.BYTES*getOneBodyIndex(pos, rc));
+	}
+	
+	@Override
+	public double getEnergy(int pos1, int rc1, int pos2, int rc2) {
+		return read(pairwiseOffset + (long)Double.BYTES*getPairwiseIndex(pos1, rc1, pos2, rc2));
+	}
+	
+	@Override
+	public Double getOneBody(int pos, int rc) {
+		return getEnergy(pos, rc);
+	}
+	
+	@Override
+	public Double getPairwise(int pos1, int rc1, int pos2, int rc2) {
+		return getEnergy(pos1, rc1, pos2, rc2);
+	}
+	
+	@Override
+	public double sum() {
+		double sum = 0.0;
+		for (int pos1=0; pos1<getNumPos(); pos1++) {
+			for (int rc1=0; rc1<getNumConfAtPos(pos1); rc1++) {
+				sum += getEnergy(pos1, rc1);
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<getNumConfAtPos(pos2); rc2++) {
+						sum += getEnergy(pos1, rc1, pos2, rc2);
+					}
+				}
+			}
+		}
+		return sum;
+	}
+	
+	private UnsupportedOperationException readOnly() {
+		return new UnsupportedOperationException("memory-mapped energy matrices are read-only");
+	}
+	
+	@Override
+	public void setOneBody(int pos, int rc, Double val) {
+		throw readOnly();
+	}
+	
+	@Override
+	public void setOneBody(int pos, ArrayList<Double> val) {
+		throw readOnly();
+	}
+	
+	@Override
+	public void setPairwise(int pos1, int rc1, int pos2, int rc2, Double val) {
+		throw readOnly();
+	}
+	
+	@Override
+	public void setPairwise(int pos1, int pos2, ArrayList<ArrayList<Double>> val) {
+		throw readOnly();
+	}
+	
+	@Override
+	public void setConstTerm(double val) {
+		throw readOnly();
+	}
+	
+	@Override
+	public void negate() {
+		throw readOnly();
+	}
+	
+	@Override
+	public void fill(Double val) {
+		throw readOnly();
+	}
+	
+	@Override
+	public void fill(Iterator<Double> val) {
+		throw readOnly();
+	}
+	
+	@Override
+	public void fill(double[] vals) {
+		throw readOnly();
+	}
+	
+	@Override
+	public void setTupleValue(RCTuple tup, Double val) {
+		throw readOnly();
+	}
+	
+	@Override
+	public void setHigherOrder(RCTuple tup, Double val) {
+		throw readOnly();
+	}
+	
+	@Override
+	public void setHigherOrderTerms(int res1, int conf1, int res2, int conf2, HigherTupleFinder<Double> val) {
+		throw readOnly();
+	}
+	
+	@Override
+	public TupleTree<Double> getOrMakeHigherOrderTuples(int pos1, int rc1, int pos2, int rc2) {
+		throw readOnly();
+	}
+	
+	@Override
+	public void setPruningInterval(double val) {
+		throw readOnly();
+	}
+	
+	@Override
+	public void seteRefMat(ReferenceEnergies val) {
+		throw readOnly();
+	}
+	
+	/** the mapped regions can't be serialized, so serialize a copy on the heap instead */
+	private Object writeReplace() {
+		return new EnergyMatrix(this);
+	}
+}
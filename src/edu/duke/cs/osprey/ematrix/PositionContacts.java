@@ -0,0 +1,297 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.ematrix;
+
+import edu.duke.cs.osprey.confspace.MoleculePool;
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.SimpleConfSpace;
+import edu.duke.cs.osprey.confspace.StrandFlex;
+import edu.duke.cs.osprey.dof.FreeDihedral;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.structure.Atom;
+import edu.duke.cs.osprey.structure.AtomNeighbors;
+import edu.duke.cs.osprey.structure.Residue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Finds which pairs of design positions are close enough to interact, using the geometry
+ * of the conformation space before any energies are calculated.
+ * 
+ * Every position gets a bounding sphere centered on its alpha carbon that contains every atom of
+ * every residue conformation at that position. Continuous sidechain dihedrals grow the sphere by
+ * the farthest any atom could move when the dihedrals rotate to the edges of their voxels.
+ * Two positions are in contact if their spheres come within the cutoff distance of each other.
+ * 
+ * For position pairs that aren't in contact, the magnitude of the pairwise energy is bounded
+ * using the closest possible atom distance and the largest charges and van der Waals parameters
+ * at each position. Positions on strands with backbone flexibility are always considered in contact.
+ */
+public class PositionContacts {
+	
+	public final SimpleConfSpace confSpace;
+	public final ForcefieldParams ffparams;
+	public final double cutoff;
+	
+	private final int numPos;
+	private final double[] centers; // x, y, z for each position
+	private final double[] radii;
+	private final boolean[] isMobile;
+	private final int[] maxNumAtoms;
+	private final double[] maxCharges;
+	private final double[] maxVdwRadii;
+	private final double[] maxVdwEpsilons;
+	
+	// indexed by position pair, pos2 < pos1
+	private final boolean[] isInContact;
+	private final double[] errorBounds;
+	private int numContacts;
+	private double totalErrorBound;
+	
+	public PositionContacts(SimpleConfSpace confSpace, ForcefieldParams ffparams, double cutoff) {
+		
+		if (ffparams.solvationForcefield == ForcefieldParams.SolvationForcefield.EEF1 && cutoff < ForcefieldParams.solvCutoff) {
+			throw new IllegalArgumentException("contact cutoff (" + cutoff + ") must be at least the EEF1 solvation cutoff (" + ForcefieldParams.solvCutoff + ")");
+		}
+		if (ffparams.solvationForcefield == ForcefieldParams.SolvationForcefield.PoissonBoltzmann) {
+			throw new IllegalArgumentException("can't bound long-range Poisson-Boltzmann solvation energies");
+		}
+		
+		this.confSpace = confSpace;
+		this.ffparams = ffparams;
+		this.cutoff = cutoff;
+		
+		numPos = confSpace.positions.size();
+		centers = new double[numPos*3];
+		radii = new double[numPos];
+		isMobile = new boolean[numPos];
+		maxNumAtoms = new int[numPos];
+		maxCharges = new double[numPos];
+		maxVdwRadii = new double[numPos];
+		maxVdwEpsilons = new double[numPos];
+		
+		// reuse one molecule for all the residue conformations, rather than copying the whole molecule for each one
+		MoleculePool molPool = new MoleculePool(confSpace);
+		for (SimpleConfSpace.Position pos : confSpace.positions) {
+			analyzePosition(pos, molPool);
+		}
+		
+		isInContact = new boolean[numPos*(numPos - 1)/2];
+		errorBounds = new double[isInContact.length];
+		numContacts = 0;
+		totalErrorBound = 0;
+		for (int pos1=0; pos1<numPos; pos1++) {
+			for (int pos2=0; pos2<pos1; pos2++) {
+				int i = getIndex(pos1, pos2);
+				if (isMobile[pos1] || isMobile[pos2] || getMinDist(pos1, pos2) <= cutoff) {
+					isInContact[i] = true;
+					numContacts++;
+				} else {
+					errorBounds[i] = calcErrorBound(pos1, pos2);
+					totalErrorBound += errorBounds[i];
+				}
+			}
+		}
+	}
+	
+	private void analyzePosition(SimpleConfSpace.Position pos, MoleculePool molPool) {
+		
+		// backbone flexibility can move residues anywhere, so don't try to bound it
+		for (StrandFlex flex : confSpace.strandFlex.get(pos.strand)) {
+			if (!(flex instanceof StrandFlex.None)) {
+				isMobile[pos.index] = true;
+			}
+		}
+		
+		// the backbone doesn't move, so use the wild-type alpha carbon as the center
+		Residue wtRes = pos.strand.mol.getResByPDBResNumber(pos.resNum);
+		double[] center = wtRes.getCoordsByAtomName("CA");
+		if (center == null) {
+			center = new double[] { 0, 0, 0 };
+			int numAtoms = wtRes.coords.length/3;
+			for (int i=0; i<wtRes.coords.length; i++) {
+				center[i % 3] += wtRes.coords[i]/numAtoms;
+			}
+		}
+		System.arraycopy(center, 0, centers, pos.index*3, 3);
+		
+		ForcefieldParams.NBParams nbparams = new ForcefieldParams.NBParams();
+		for (SimpleConfSpace.ResidueConf rc : pos.resConfs) {
+			
+			Residue res = molPool.makeMolecule(new RCTuple(pos.index, rc.index)).mol.getResByPDBResNumber(pos.resNum);
+			
+			double rcRadius = 0;
+			for (int i=0; i<res.coords.length; i+=3) {
+				double dx = res.coords[i] - center[0];
+				double dy = res.coords[i + 1] - center[1];
+				double dz = res.coords[i + 2] - center[2];
+				rcRadius = Math.max(rcRadius, Math.sqrt(dx*dx + dy*dy + dz*dz));
+			}
+			
+			// rotating a dihedral by theta moves each atom at most d*theta, where d is the distance
+			// from the atom to the rotation axis, and since rotations preserve those distances,
+			// the displacements from all the dihedrals just add up
+			Map<String,Integer> dihedralsByName = new HashMap<>();
+			for (int d=0; d<res.template.numDihedrals; d++) {
+				dihedralsByName.put(new FreeDihedral(res, d).getName(), d);
+			}
+			for (Map.Entry<String,double[]> entry : rc.dofBounds.entrySet()) {
+				double halfWidth = Math.toRadians(entry.getValue()[1] - entry.getValue()[0])/2;
+				if (halfWidth <= 0) {
+					continue;
+				}
+				Integer d = dihedralsByName.get(entry.getKey());
+				if (d == null) {
+					// not a sidechain dihedral, don't know how to bound it
+					isMobile[pos.index] = true;
+					continue;
+				}
+				rcRadius += halfWidth*getMaxDistToAxis(res, d);
+			}
+			
+			radii[pos.index] = Math.max(radii[pos.index], rcRadius);
+			maxNumAtoms[pos.index] = Math.max(maxNumAtoms[pos.index], res.atoms.size());
+			
+			for (Atom atom : res.atoms) {
+				maxCharges[pos.index] = Math.max(maxCharges[pos.index], Math.abs(atom.charge));
+				if (ffparams.getNonBondedParameters(atom, AtomNeighbors.Type.NONBONDED, nbparams)) {
+					maxVdwRadii[pos.index] = Math.max(maxVdwRadii[pos.index], nbparams.r);
+					maxVdwEpsilons[pos.index] = Math.max(maxVdwEpsilons[pos.index], Math.abs(nbparams.epsilon));
+				}
+			}
+		}
+	}
+	
+	private static double getMaxDistToAxis(Residue res, int dihedral) {
+		
+		int[] atoms = res.template.getDihedralDefiningAtoms(dihedral);
+		double[] c = res.coords;
+		int a = atoms[1]*3;
+		int b = atoms[2]*3;
+		
+		// unit vector along the rotation axis
+		double ux = c[b] - c[a];
+		double uy = c[b + 1] - c[a + 1];
+		double uz = c[b + 2] - c[a + 2];
+		double len = Math.sqrt(ux*ux + uy*uy + uz*uz);
+		ux /= len;
+		uy /= len;
+		uz /= len;
+		
+		double maxDist = 0;
+		for (int atom : res.template.getDihedralRotatedAtoms(dihedral)) {
+			double vx = c[atom*3] - c[a];
+			double vy = c[atom*3 + 1] - c[a + 1];
+			double vz = c[atom*3 + 2] - c[a + 2];
+			
+			// distance to the axis is the length of the cross product with the unit axis
+			double cx = vy*uz - vz*uy;
+			double cy = vz*ux - vx*uz;
+			double cz = vx*uy - vy*ux;
+			maxDist = Math.max(maxDist, Math.sqrt(cx*cx + cy*cy + cz*cz));
+		}
+		return maxDist;
+	}
+	
+	private double calcErrorBound(int pos1, int pos2) {
+		
+		double r = getMinDist(pos1, pos2);
+		
+		// atom pairs past the non-bonded cutoff have no energy at all
+		if (r >= ffparams.nonbondedCutoff) {
+			return 0;
+		}
+		
+		// bound the magnitude of each energy term for any atom pair at least r apart
+		// (solvation is already zero, since r is past the EEF1 cutoff)
+		double elec = ForcefieldParams.coulombConstant/ffparams.dielectric*maxCharges[pos1]*maxCharges[pos2];
+		if (ffparams.distDepDielect) {
+			elec /= r*r;
+		} else {
+			elec /= r;
+		}
+		
+		double epsilon = Math.sqrt(maxVdwEpsilons[pos1]*maxVdwEpsilons[pos2]);
+		double radiusSum = (maxVdwRadii[pos1] + maxVdwRadii[pos2])*ffparams.vdwMultiplier;
+		double r6 = Math.pow(radiusSum/r, 6);
+		double vdw = epsilon*(r6*r6 + 2*r6);
+		
+		return (double)maxNumAtoms[pos1]*maxNumAtoms[pos2]*(elec + vdw);
+	}
+	
+	private int getIndex(int pos1, int pos2) {
+		if (pos2 > pos1) {
+			int swap = pos1;
+			pos1 = pos2;
+			pos2 = swap;
+		} else if (pos1 == pos2) {
+			throw new IllegalArgumentException("can't pair position " + pos1 + " with itself");
+		}
+		return pos1*(pos1 - 1)/2 + pos2;
+	}
+	
+	/** the closest any atoms at the two positions could be, in angstroms */
+	public double getMinDist(int pos1, int pos2) {
+		double dx = centers[pos1*3] - centers[pos2*3];
+		double dy = centers[pos1*3 + 1] - centers[pos2*3 + 1];
+		double dz = centers[pos1*3 + 2] - centers[pos2*3 + 2];
+		return Math.max(0, Math.sqrt(dx*dx + dy*dy + dz*dz) - radii[pos1] - radii[pos2]);
+	}
+	
+	public boolean isInContact(int pos1, int pos2) {
+		return isInContact[getIndex(pos1, pos2)];
+	}
+	
+	/** bound on the magnitude of any pairwise energy between the two positions, or 0 if they're in contact */
+	public double getErrorBound(int pos1, int pos2) {
+		return errorBounds[getIndex(pos1, pos2)];
+	}
+	
+	public int getNumContacts() {
+		return numContacts;
+	}
+	
+	public int getNumPairs() {
+		return isInContact.length;
+	}
+	
+	/**
+	 * bound on the magnitude of the total pairwise energy of any conformation
+	 * between all the position pairs that aren't in contact
+	 */
+	public double getTotalErrorBound() {
+		return totalErrorBound;
+	}
+}
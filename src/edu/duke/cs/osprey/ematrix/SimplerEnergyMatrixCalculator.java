@@ -35,12 +35,15 @@ package edu.duke.cs.osprey.ematrix;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.confspace.SimpleConfSpace;
 import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
 import edu.duke.cs.osprey.energy.EnergyCalculator;
+import edu.duke.cs.osprey.energy.EnergyPartition;
 import edu.duke.cs.osprey.energy.ResInterGen;
+import edu.duke.cs.osprey.energy.ResidueInteractions;
 import edu.duke.cs.osprey.tools.ObjectIO;
 import edu.duke.cs.osprey.tools.Progress;
 
@@ -72,6 +75,38 @@ public class SimplerEnergyMatrixCalculator {
 		 */
 		private File cacheFile = null;
 		
+		/**
+		 * Path to file where energy matrix entries should be saved as they are calculated.
+		 * 
+		 * If the calculation is interrupted, the next calculation will resume where the last one left off.
+		 * Entries are also reused after the conformation space changes, as long as their residue templates,
+		 * rotamers, and interactions are the same. See {@link EnergyMatrixCheckpoint} for details.
+		 */
+		private File checkpointFile = null;
+		
+		/**
+		 * True to calculate the energy matrix with a pipeline.
+		 * 
+		 * Instead of building all the fragments on the main thread, each task builds its own
+		 * fragments (and reads the checkpoint for them), so the main thread only hands out ranges of the matrix.
+		 * Each range covers distinct entries of the matrix, so tasks write their energies into the matrix directly.
+		 * Only the progress updates are serialized.
+		 * Batch sizes are chosen from the measured cost of fragment energies, rather than from a fixed threshold.
+		 * Runs on the conformation energy calculator's task executor.
+		 */
+		private boolean isPipelined = false;
+		
+		/**
+		 * Distance (in angstroms) beyond which pairs of design positions are not calculated or stored.
+		 * 
+		 * Before any energies are calculated, position pairs whose residue conformations can never
+		 * come within this distance of each other are found from the geometry of the conformation space
+		 * (see {@link PositionContacts}). Their pairwise energies are skipped and the energy matrix
+		 * is a {@link SparseEnergyMatrix} that reports a bound on the skipped energy.
+		 * The default of infinity calculates all pairs. Requires the traditional energy partition.
+		 */
+		private double sparseCutoff = Double.POSITIVE_INFINITY;
+		
 		public Builder(SimpleConfSpace confSpace, EnergyCalculator ecalc) {
 			this(new ConfEnergyCalculator.Builder(confSpace, ecalc).build());
 		}
@@ -85,17 +120,38 @@ public class SimplerEnergyMatrixCalculator {
 			return this;
 		}
 		
+		public Builder setCheckpointFile(File val) {
+			checkpointFile = val;
+			return this;
+		}
+		
+		public Builder setPipelined(boolean val) {
+			isPipelined = val;
+			return this;
+		}
+		
+		public Builder setSparseCutoff(double val) {
+			sparseCutoff = val;
+			return this;
+		}
+		
 		public SimplerEnergyMatrixCalculator build() {
-			return new SimplerEnergyMatrixCalculator(confEcalc, cacheFile);
+			return new SimplerEnergyMatrixCalculator(confEcalc, cacheFile, checkpointFile, isPipelined, sparseCutoff);
 		}
 	}
 	
 	public final ConfEnergyCalculator confEcalc;
 	public final File cacheFile;
+	public final File checkpointFile;
+	public final boolean isPipelined;
+	public final double sparseCutoff;
 
-	private SimplerEnergyMatrixCalculator(ConfEnergyCalculator confEcalc, File cacheFile) {
+	private SimplerEnergyMatrixCalculator(ConfEnergyCalculator confEcalc, File cacheFile, File checkpointFile, boolean isPipelined, double sparseCutoff) {
 		this.confEcalc = confEcalc;
 		this.cacheFile = cacheFile;
+		this.checkpointFile = checkpointFile;
+		this.isPipelined = isPipelined;
+		this.sparseCutoff = sparseCutoff;
 	}
 	
 	/**
@@ -119,12 +175,104 @@ public class SimplerEnergyMatrixCalculator {
 	private EnergyMatrix reallyCalcEnergyMatrix() {
 		
 		// allocate the new matrix
-		EnergyMatrix emat = new EnergyMatrix(confEcalc.confSpace);
+		EnergyMatrix emat;
+		if (Double.isFinite(sparseCutoff)) {
+			emat = makeSparseEnergyMatrix();
+		} else {
+			emat = new EnergyMatrix(confEcalc.confSpace);
+		}
+		
+		if (checkpointFile != null) {
+			try (EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(checkpointFile, confEcalc)) {
+				calcEntries(emat, checkpoint);
+			}
+		} else {
+			calcEntries(emat, null);
+		}
+		
+		return emat;
+	}
+	
+	private SparseEnergyMatrix makeSparseEnergyMatrix() {
+		
+		if (confEcalc.epart != EnergyPartition.Traditional) {
+			throw new IllegalArgumentException("sparse energy matrices need the " + EnergyPartition.Traditional + " energy partition, not " + confEcalc.epart);
+		}
+		if (confEcalc.ecalc == null) {
+			throw new IllegalArgumentException("sparse energy matrices need a forcefield energy calculator");
+		}
+		
+		PositionContacts contacts = new PositionContacts(confEcalc.confSpace, confEcalc.ecalc.resPairCache.ffparams, sparseCutoff);
+		System.out.println(String.format("Found %d contacts among %d position pairs within %.1f A, skipped pairwise energy is bounded by %.6f",
+			contacts.getNumContacts(), contacts.getNumPairs(), sparseCutoff, contacts.getTotalErrorBound()
+		));
+		return new SparseEnergyMatrix(confEcalc.confSpace, contacts);
+	}
+	
+	private static boolean isSkipped(EnergyMatrix emat, int pos1, int pos2) {
+		return emat instanceof SparseEnergyMatrix && !((SparseEnergyMatrix)emat).isStored(pos1, pos2);
+	}
+	
+	private static long countPairs(EnergyMatrix emat) {
+		long count = 0;
+		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+			for (int pos2=0; pos2<pos1; pos2++) {
+				if (!isSkipped(emat, pos1, pos2)) {
+					count += emat.getNumConfAtPos(pos1)*emat.getNumConfAtPos(pos2);
+				}
+			}
+		}
+		return count;
+	}
+	
+	private void calcEntries(EnergyMatrix emat, EnergyMatrixCheckpoint checkpoint) {
+		
+		if (isPipelined) {
+			calcEntriesPipelined(emat, checkpoint);
+			return;
+		}
 		
 		// count how much work there is to do (roughly based on number of residue pairs)
 		final int singleCost = confEcalc.makeSingleInters(0, 0).size();
 		final int pairCost = confEcalc.makePairInters(0, 0, 0, 0).size();
-		Progress progress = new Progress(confEcalc.confSpace.getNumResConfs()*singleCost + confEcalc.confSpace.getNumResConfPairs()*pairCost);
+		long numPairs = countPairs(emat);
+		long totalCost = confEcalc.confSpace.getNumResConfs()*singleCost + numPairs*pairCost;
+		
+		// reuse any entries we already have in the checkpoint
+		if (checkpoint != null) {
+			int numReused = 0;
+			for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+				for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+					
+					RCTuple frag = new RCTuple(pos1, rc1);
+					Double energy = checkpoint.get(checkpoint.makeKey(frag, confEcalc.makeSingleInters(pos1, rc1)));
+					if (energy != null) {
+						emat.setOneBody(pos1, rc1, energy);
+						totalCost -= singleCost;
+						numReused++;
+					}
+					
+					for (int pos2=0; pos2<pos1; pos2++) {
+						if (isSkipped(emat, pos1, pos2)) {
+							continue;
+						}
+						for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+							
+							frag = new RCTuple(pos1, rc1, pos2, rc2);
+							energy = checkpoint.get(checkpoint.makeKey(frag, confEcalc.makePairInters(pos1, rc1, pos2, rc2)));
+							if (energy != null) {
+								emat.setPairwise(pos1, rc1, pos2, rc2, energy);
+								totalCost -= pairCost;
+								numReused++;
+							}
+						}
+					}
+				}
+			}
+			System.out.println("Reused " + numReused + " energy matrix entries from checkpoint");
+		}
+		
+		Progress progress = new Progress(totalCost);
 		
 		// some fragments can be big and some can be small
 		// try minimize thread sync overhead by not sending a bunch of small fragments in all separate tasks
@@ -132,37 +280,38 @@ public class SimplerEnergyMatrixCalculator {
 		class Batch {
 			
 			List<RCTuple> fragments = new ArrayList<>();
+			List<ResidueInteractions> inters = new ArrayList<>();
+			List<Long> keys = new ArrayList<>();
 			int cost = 0;
 			
-			void addSingle(int pos, int rc) {
-				fragments.add(new RCTuple(pos, rc));
+			void addSingle(RCTuple frag, ResidueInteractions inters, Long key) {
+				add(frag, inters, key);
 				cost += singleCost;
 			}
 			
-			void addPair(int pos1, int rc1, int pos2, int rc2) {
-				fragments.add(new RCTuple(pos1, rc1, pos2, rc2));
+			void addPair(RCTuple frag, ResidueInteractions inters, Long key) {
+				add(frag, inters, key);
 				cost += pairCost;
 			}
 			
+			private void add(RCTuple frag, ResidueInteractions inters, Long key) {
+				this.fragments.add(frag);
+				this.inters.add(inters);
+				this.keys.add(key);
+			}
+			
 			void submitTask() {
 				confEcalc.tasks.submit(
 					() -> {
 						
 						// calculate all the fragment energies
 						List<Double> energies = new ArrayList<>();
-						for (RCTuple frag : fragments) {
-							if (frag.size() == 1) {
-								energies.add(confEcalc.calcSingleEnergy(frag).energy);
-							} else {
-								energies.add(confEcalc.calcPairEnergy(frag).energy);
-							}
+						for (int i=0; i<fragments.size(); i++) {
+							energies.add(confEcalc.calcFragEnergy(fragments.get(i), inters.get(i)));
 						}
 						
-						return energies;
-					},
-					(List<Double> energies) -> {
-						
 						// update the energy matrix
+						// (batches have distinct entries, so they don't need to take turns)
 						for (int i=0; i<fragments.size(); i++) {
 							RCTuple frag = fragments.get(i);
 							if (frag.size() == 1) {
@@ -172,6 +321,21 @@ public class SimplerEnergyMatrixCalculator {
 							}
 						}
 						
+						return energies;
+					},
+					(List<Double> energies) -> {
+						
+						// save the entries, in case we need to resume later
+						if (checkpoint != null) {
+							long[] chunkKeys = new long[fragments.size()];
+							double[] chunkEnergies = new double[fragments.size()];
+							for (int i=0; i<fragments.size(); i++) {
+								chunkKeys[i] = keys.get(i);
+								chunkEnergies[i] = energies.get(i);
+							}
+							checkpoint.write(chunkKeys, chunkEnergies, fragments.size());
+						}
+						
 						progress.incrementProgress(cost);
 					}
 				);
@@ -207,19 +371,32 @@ public class SimplerEnergyMatrixCalculator {
 		Batcher batcher = new Batcher();
 		
 		// batch all the singles and pairs
-		System.out.println("Calculating energy matrix with " + (confEcalc.confSpace.getNumResConfs() + confEcalc.confSpace.getNumResConfPairs()) + " entries...");
+		System.out.println("Calculating energy matrix with " + (confEcalc.confSpace.getNumResConfs() + numPairs) + " entries...");
 		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
 			for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
 				
 				// singles
-				batcher.getBatch().addSingle(pos1, rc1);
-				batcher.submitIfFull();
+				RCTuple frag = new RCTuple(pos1, rc1);
+				ResidueInteractions inters = confEcalc.makeSingleInters(pos1, rc1);
+				Long key = checkpoint != null ? checkpoint.makeKey(frag, inters) : null;
+				if (key == null || !checkpoint.contains(key)) {
+					batcher.getBatch().addSingle(frag, inters, key);
+					batcher.submitIfFull();
+				}
 				
 				// pairs
 				for (int pos2=0; pos2<pos1; pos2++) {
+					if (isSkipped(emat, pos1, pos2)) {
+						continue;
+					}
 					for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
-						batcher.getBatch().addPair(pos1, rc1, pos2, rc2);
-						batcher.submitIfFull();
+						frag = new RCTuple(pos1, rc1, pos2, rc2);
+						inters = confEcalc.makePairInters(pos1, rc1, pos2, rc2);
+						key = checkpoint != null ? checkpoint.makeKey(frag, inters) : null;
+						if (key == null || !checkpoint.contains(key)) {
+							batcher.getBatch().addPair(frag, inters, key);
+							batcher.submitIfFull();
+						}
 					}
 				}
 			}
@@ -227,8 +404,185 @@ public class SimplerEnergyMatrixCalculator {
 		
 		batcher.submit();
 		confEcalc.tasks.waitForFinish();
+	}
+	
+	/** how long each pipeline batch should take, roughly */
+	private static final long TargetBatchNs = 50*1000*1000; // 50 ms
+	
+	private static int getBatchSize(int fragCost, LongAdder measuredNs, LongAdder measuredCost) {
 		
-		return emat;
+		fragCost = Math.max(1, fragCost);
+		
+		// until we have measurements, use the old fixed cost threshold
+		long cost = measuredCost.sum();
+		if (cost <= 0) {
+			return Math.max(1, 100/fragCost);
+		}
+		
+		double nsPerFrag = (double)measuredNs.sum()/cost*fragCost;
+		return (int)Math.max(1, Math.min(Integer.MAX_VALUE, TargetBatchNs/nsPerFrag));
+	}
+	
+	private void calcEntriesPipelined(EnergyMatrix emat, EnergyMatrixCheckpoint checkpoint) {
+		
+		// count how much work there is to do (roughly based on number of residue pairs)
+		final int singleCost = confEcalc.makeSingleInters(0, 0).size();
+		final int pairCost = confEcalc.makePairInters(0, 0, 0, 0).size();
+		long numPairs = countPairs(emat);
+		long totalCost = confEcalc.confSpace.getNumResConfs()*singleCost + numPairs*pairCost;
+		Progress progress = new Progress(totalCost);
+		
+		// keep track of how long fragments take, so we can size the batches
+		LongAdder measuredNs = new LongAdder();
+		LongAdder measuredCost = new LongAdder();
+		
+		// a contiguous range of entries in the (pos1,pos2) block of the matrix, pos1 == pos2 means singles
+		class Batch {
+			
+			final int pos1;
+			final int pos2;
+			final int start;
+			final int stop;
+			
+			Batch(int pos1, int pos2, int start, int stop) {
+				this.pos1 = pos1;
+				this.pos2 = pos2;
+				this.start = start;
+				this.stop = stop;
+			}
+			
+			boolean isSingles() {
+				return pos1 == pos2;
+			}
+			
+			int size() {
+				return stop - start;
+			}
+			
+			int getFragCost() {
+				return isSingles() ? singleCost : pairCost;
+			}
+			
+			int getRC1(int i) {
+				return isSingles() ? i : i/emat.getNumConfAtPos(pos2);
+			}
+			
+			int getRC2(int i) {
+				return isSingles() ? 0 : i%emat.getNumConfAtPos(pos2);
+			}
+			
+			double[] calc() {
+				
+				long startNs = System.nanoTime();
+				
+				double[] energies = new double[size()];
+				long[] keys = checkpoint != null ? new long[size()] : null;
+				boolean[] isCalculated = new boolean[size()];
+				int numCalculated = 0;
+				
+				for (int i=start; i<stop; i++) {
+					
+					int rc1 = getRC1(i);
+					int rc2 = getRC2(i);
+					
+					RCTuple frag;
+					ResidueInteractions inters;
+					if (isSingles()) {
+						frag = new RCTuple(pos1, rc1);
+						inters = confEcalc.makeSingleInters(pos1, rc1);
+					} else {
+						frag = new RCTuple(pos1, rc1, pos2, rc2);
+						inters = confEcalc.makePairInters(pos1, rc1, pos2, rc2);
+					}
+					
+					// reuse the entry from the checkpoint if we can
+					Double energy = null;
+					if (checkpoint != null) {
+						keys[i - start] = checkpoint.makeKey(frag, inters);
+						energy = checkpoint.get(keys[i - start]);
+					}
+					
+					if (energy == null) {
+						energy = confEcalc.calcFragEnergy(frag, inters);
+						isCalculated[i - start] = true;
+						numCalculated++;
+					}
+					
+					energies[i - start] = energy;
+					
+					// batches have distinct entries, so write them into the matrix right away
+					if (isSingles()) {
+						emat.setOneBody(pos1, rc1, energy);
+					} else {
+						emat.setPairwise(pos1, rc1, pos2, rc2, energy);
+					}
+				}
+				
+				// only count calculated entries towards the batch size estimate
+				if (numCalculated > 0) {
+					measuredNs.add(System.nanoTime() - startNs);
+					measuredCost.add((long)numCalculated*getFragCost());
+				}
+				
+				// save the entries, in case we need to resume later
+				if (checkpoint != null && numCalculated > 0) {
+					long[] calculatedKeys = new long[numCalculated];
+					double[] calculatedEnergies = new double[numCalculated];
+					int n = 0;
+					for (int i=0; i<size(); i++) {
+						if (isCalculated[i]) {
+							calculatedKeys[n] = keys[i];
+							calculatedEnergies[n] = energies[i];
+							n++;
+						}
+					}
+					checkpoint.write(calculatedKeys, calculatedEnergies, numCalculated);
+				}
+				
+				return energies;
+			}
+			
+			void reportProgress() {
+				progress.incrementProgress(size()*getFragCost());
+			}
+		}
+		
+		System.out.println("Calculating energy matrix with " + (confEcalc.confSpace.getNumResConfs() + numPairs) + " entries using a pipeline...");
+		
+		// carve the matrix into batches as we go, so each batch can be sized by the latest measurements
+		// the task executor blocks submissions while the workers are busy, so the batch sizes keep up with the measurements
+		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+			for (int pos2=0; pos2<=pos1; pos2++) {
+				
+				int numEntries;
+				int fragCost;
+				if (pos2 == pos1) {
+					numEntries = emat.getNumConfAtPos(pos1);
+					fragCost = singleCost;
+				} else if (isSkipped(emat, pos1, pos2)) {
+					continue;
+				} else {
+					numEntries = emat.getNumConfAtPos(pos1)*emat.getNumConfAtPos(pos2);
+					fragCost = pairCost;
+				}
+				
+				int start = 0;
+				while (start < numEntries) {
+					int stop = (int)Math.min(numEntries, (long)start + getBatchSize(fragCost, measuredNs, measuredCost));
+					Batch batch = new Batch(pos1, pos2, start, stop);
+					confEcalc.tasks.submit(
+						() -> batch.calc(),
+						(double[] energies) -> batch.reportProgress()
+					);
+					start = stop;
+				}
+			}
+		}
+		confEcalc.tasks.waitForFinish();
+		
+		if (checkpoint != null) {
+			System.out.println("Reused " + checkpoint.getNumReused() + " energy matrix entries from checkpoint");
+		}
 	}
 	
 	
@@ -0,0 +1,221 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.ematrix;
+
+import edu.duke.cs.osprey.confspace.SimpleConfSpace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ * An energy matrix that only stores pairwise energies for position pairs that are in contact.
+ * 
+ * Pairwise energies for all the other position pairs are reported as the lower bound
+ * {@code -}{@link PositionContacts#getErrorBound(int, int)}, so conformation energies
+ * from this matrix never overestimate the dense matrix and A* bounds stay admissible.
+ * Compared to the dense matrix, the total pairwise energy of any conformation is
+ * underestimated by at most twice {@link #getErrorBound()}.
+ * Memory for the pairwise energies scales with the number of contacts,
+ * rather than the square of the number of positions.
+ */
+public class SparseEnergyMatrix extends EnergyMatrix {
+	
+	private static final long serialVersionUID = -5290318563947181067L;
+	
+	private double[] oneBody;
+	private double[][] pairwise; // one block per position pair, null if not stored
+	private double[] pairErrorBounds; // one per position pair, 0 if stored
+	private double errorBound = 0.0;
+	
+	public SparseEnergyMatrix(SimpleConfSpace confSpace, PositionContacts contacts) {
+		super(confSpace);
+		
+		for (int pos1=0; pos1<getNumPos(); pos1++) {
+			for (int pos2=0; pos2<pos1; pos2++) {
+				if (contacts.isInContact(pos1, pos2)) {
+					pairwise[getPairwiseIndex(pos1, pos2)] = new double[getNumConfAtPos(pos1)*getNumConfAtPos(pos2)];
+				} else {
+					pairErrorBounds[getPairwiseIndex(pos1, pos2)] = contacts.getErrorBound(pos1, pos2);
+				}
+			}
+		}
+		errorBound = contacts.getTotalErrorBound();
+	}
+	
+	@Override
+	protected void allocate(int numOneBody, int numPairwise) {
+		oneBody = new double[numOneBody];
+		pairwise = new double[getNumPos()*(getNumPos() - 1)/2][];
+		pairErrorBounds = new double[pairwise.length];
+	}
+	
+	/** true if pairwise energies between the two positions are stored in the matrix */
+	public boolean isStored(int pos1, int pos2) {
+		return pairwise[getPairwiseIndex(pos1, pos2)] != null;
+	}
+	
+	/** the number of position pairs whose pairwise energies are stored in the matrix */
+	public int getNumStoredPairs() {
+		int count = 0;
+		for (double[] block : pairwise) {
+			if (block != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/** bound on the magnitude of the total energy of the missing pairwise energies for any conformation */
+	public double getErrorBound() {
+		return errorBound;
+	}
+	
+	private int getBlockIndex(int pos1, int rc1, int pos2, int rc2) {
+		if (pos2 > pos1) {
+			return getNumConfAtPos(pos1)*rc2 + rc1;
+		}
+		return getNumConfAtPos(pos2)*rc1 + rc2;
+	}
+	
+	private synchronized double[] allocateBlock(int pos1, int pos2) {
+		int index = getPairwiseIndex(pos1, pos2);
+		if (pairwise[index] == null) {
+			
+			// entries we haven't set yet should still read as the lower bound
+			double[] block = new double[getNumConfAtPos(pos1)*getNumConfAtPos(pos2)];
+			Arrays.fill(block, -pairErrorBounds[index]);
+			pairwise[index] = block;
+		}
+		return pairwise[index];
+	}
+	
+	@Override
+	public double getEnergy(int pos, int rc) {
+		return oneBody[getOneBodyIndex(pos, rc)];
+	}
+	
+	@Override
+	public double getEnergy(int pos1, int rc1, int pos2, int rc2) {
+		int index = getPairwiseIndex(pos1, pos2);
+		double[] block = pairwise[index];
+		if (block == null) {
+			return -pairErrorBounds[index];
+		}
+		return block[getBlockIndex(pos1, rc1, pos2, rc2)];
+	}
+	
+	@Override
+	public Double getOneBody(int pos, int rc) {
+		return getEnergy(pos, rc);
+	}
+	
+	@Override
+	public void setOneBody(int pos, int rc, Double val) {
+		oneBody[getOneBodyIndex(pos, rc)] = val;
+	}
+	
+	@Override
+	public void setOneBody(int pos, ArrayList<Double> val) {
+		for (int rc=0; rc<getNumConfAtPos(pos); rc++) {
+			setOneBody(pos, rc, val.get(rc));
+		}
+	}
+	
+	@Override
+	public Double getPairwise(int pos1, int rc1, int pos2, int rc2) {
+		return getEnergy(pos1, rc1, pos2, rc2);
+	}
+	
+	@Override
+	public void setPairwise(int pos1, int rc1, int pos2, int rc2, Double val) {
+		int index = getPairwiseIndex(pos1, pos2);
+		double[] block = pairwise[index];
+		if (block == null) {
+			
+			// don't store the lower bound for missing blocks
+			if (val == -pairErrorBounds[index]) {
+				return;
+			}
+			block = allocateBlock(pos1, pos2);
+		}
+		block[getBlockIndex(pos1, rc1, pos2, rc2)] = val;
+	}
+	
+	@Override
+	public void setPairwise(int pos1, int pos2, ArrayList<ArrayList<Double>> val) {
+		for (int rc1=0; rc1<getNumConfAtPos(pos1); rc1++) {
+			for (int rc2=0; rc2<getNumConfAtPos(pos2); rc2++) {
+				setPairwise(pos1, rc1, pos2, rc2, val.get(rc1).get(rc2));
+			}
+		}
+	}
+	
+	/** skipped pairs keep reporting their lower bound, since it bounds the magnitude of the energy */
+	@Override
+	public void negate() {
+		for (int i=0; i<oneBody.length; i++) {
+			oneBody[i] = -oneBody[i];
+		}
+		for (double[] block : pairwise) {
+			if (block != null) {
+				for (int i=0; i<block.length; i++) {
+					block[i] = -block[i];
+				}
+			}
+		}
+	}
+	
+	@Override
+	public double sum() {
+		double sum = 0.0;
+		for (int i=0; i<oneBody.length; i++) {
+			sum += oneBody[i];
+		}
+		for (double[] block : pairwise) {
+			if (block != null) {
+				for (int i=0; i<block.length; i++) {
+					sum += block[i];
+				}
+			}
+		}
+		for (int pos1=0; pos1<getNumPos(); pos1++) {
+			for (int pos2=0; pos2<pos1; pos2++) {
+				if (!isStored(pos1, pos2)) {
+					sum -= pairErrorBounds[getPairwiseIndex(pos1, pos2)]*getNumConfAtPos(pos1)*getNumConfAtPos(pos2);
+				}
+			}
+		}
+		return sum;
+	}
+}
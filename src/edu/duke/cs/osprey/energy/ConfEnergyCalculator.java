@@ -69,6 +69,22 @@ public class ConfEnergyCalculator {
 		private SimpleReferenceEnergies eref = null;
 		private boolean addResEntropy = false;
 		
+		/**
+		 * Reuse one molecule per thread for energy calculations that only return the energy,
+		 * instead of building a new molecule for every calculation.
+		 * 
+		 * See {@link MoleculePool} for details.
+		 */
+		private boolean usePooledMolecules = false;
+		
+		/**
+		 * Start minimizing each conformation from the best DOF values found so far
+		 * for its residue conformations, instead of from the voxel center.
+		 * 
+		 * See {@link WarmStartCache} for details.
+		 */
+		private boolean useWarmStarts = false;
+		
 		public Builder(SimpleConfSpace confSpace, EnergyCalculator ecalc) {
 			this.confSpace  = confSpace;
 			this.ecalc = ecalc;
@@ -89,8 +105,20 @@ public class ConfEnergyCalculator {
 			return this;
 		}
 		
+		public Builder setPooledMolecules(boolean val) {
+			this.usePooledMolecules = val;
+			return this;
+		}
+		
+		public Builder setWarmStarts(boolean val) {
+			this.useWarmStarts = val;
+			return this;
+		}
+		
 		public ConfEnergyCalculator build() {
-			return new ConfEnergyCalculator(confSpace, ecalc, epart, eref, addResEntropy);
+			return new ConfEnergyCalculator(confSpace, ecalc, ecalc.tasks, epart, eref, addResEntropy, usePooledMolecules,
+				useWarmStarts ? new WarmStartCache(confSpace) : null
+			);
 		}
 	}
 	
@@ -100,7 +128,10 @@ public class ConfEnergyCalculator {
 	public final SimpleReferenceEnergies eref;
 	public final boolean addResEntropy;
 	public final TaskExecutor tasks;
+	public final boolean usePooledMolecules;
+	public final WarmStartCache warmStarts;
 
+	protected final MoleculePool moleculePool;
 	protected final AtomicLong numCalculations = new AtomicLong(0L);
 	protected final AtomicLong numConfDBReads = new AtomicLong(0L);
 
@@ -113,12 +144,23 @@ public class ConfEnergyCalculator {
 	}
 
 	protected ConfEnergyCalculator(SimpleConfSpace confSpace, EnergyCalculator ecalc, TaskExecutor tasks, EnergyPartition epart, SimpleReferenceEnergies eref, boolean addResEntropy) {
+		this(confSpace, ecalc, tasks, epart, eref, addResEntropy, false);
+	}
+
+	protected ConfEnergyCalculator(SimpleConfSpace confSpace, EnergyCalculator ecalc, TaskExecutor tasks, EnergyPartition epart, SimpleReferenceEnergies eref, boolean addResEntropy, boolean usePooledMolecules) {
+		this(confSpace, ecalc, tasks, epart, eref, addResEntropy, usePooledMolecules, null);
+	}
+
+	protected ConfEnergyCalculator(SimpleConfSpace confSpace, EnergyCalculator ecalc, TaskExecutor tasks, EnergyPartition epart, SimpleReferenceEnergies eref, boolean addResEntropy, boolean usePooledMolecules, WarmStartCache warmStarts) {
 		this.confSpace = confSpace;
 		this.ecalc = ecalc;
 		this.epart = epart;
 		this.eref = eref;
 		this.addResEntropy = addResEntropy;
 		this.tasks = tasks;
+		this.usePooledMolecules = usePooledMolecules;
+		this.moleculePool = usePooledMolecules ? new MoleculePool(confSpace) : null;
+		this.warmStarts = warmStarts;
 	}
 
 	protected ConfEnergyCalculator(ConfEnergyCalculator other) {
@@ -126,7 +168,7 @@ public class ConfEnergyCalculator {
 	}
 
 	public ConfEnergyCalculator(ConfEnergyCalculator other, EnergyCalculator ecalc) {
-		this(other.confSpace, ecalc, other.epart, other.eref, other.addResEntropy);
+		this(other.confSpace, ecalc, ecalc.tasks, other.epart, other.eref, other.addResEntropy, other.usePooledMolecules, other.warmStarts);
 	}
 
 	/**
@@ -205,7 +247,37 @@ public class ConfEnergyCalculator {
 	public EnergyCalculator.EnergiedParametricMolecule calcEnergy(RCTuple frag, ResidueInteractions inters) {
 		numCalculations.incrementAndGet();
 		ParametricMolecule bpmol = confSpace.makeMolecule(frag);
-		return ecalc.calcEnergy(bpmol, inters);
+		return calcEnergy(frag, bpmol, inters);
+	}
+
+	private EnergyCalculator.EnergiedParametricMolecule calcEnergy(RCTuple frag, ParametricMolecule pmol, ResidueInteractions inters) {
+
+		if (warmStarts == null || !ecalc.isMinimizing) {
+			return ecalc.calcEnergy(pmol, inters);
+		}
+
+		EnergyCalculator.EnergiedParametricMolecule epmol = ecalc.calcEnergy(pmol, inters, warmStarts.makeStart(frag, pmol));
+		warmStarts.update(frag, epmol);
+		return epmol;
+	}
+
+	/**
+	 * Calculate the energy of a molecule fragment generated from a conformation space,
+	 * without keeping the molecule pose.
+	 * 
+	 * If pooled molecules are enabled, the fragment is posed in this thread's pooled molecule
+	 * instead of a new molecule.
+	 * 
+	 * @param frag The assignments of the conformation space
+	 * @param inters The residue interactions
+	 * @return The energy of the resulting molecule fragment
+	 */
+	public double calcFragEnergy(RCTuple frag, ResidueInteractions inters) {
+		if (moleculePool == null) {
+			return calcEnergy(frag, inters).energy;
+		}
+		numCalculations.incrementAndGet();
+		return calcEnergy(frag, moleculePool.makeMolecule(frag), inters).energy;
 	}
 
 	/**
@@ -256,7 +328,7 @@ public class ConfEnergyCalculator {
 
 		// no confDB? just compute the energy
 		if (table == null) {
-			return calcEnergy(frag, inters).energy;
+			return calcFragEnergy(frag, inters);
 		}
 
 		// check the confDB for the energy
@@ -268,7 +340,7 @@ public class ConfEnergyCalculator {
 		}
 
 		// cache miss, compute the energy
-		double energy = calcEnergy(frag, inters).energy;
+		double energy = calcFragEnergy(frag, inters);
 
 		// update the ConfDB
 		table.setUpperBound(conf, energy, TimeTools.getTimestampNs());
@@ -309,7 +381,8 @@ public class ConfEnergyCalculator {
 	 * @return The conformation with attached energy
 	 */
 	public EnergiedConf calcEnergy(ScoredConf conf) {
-		return new EnergiedConf(conf, calcEnergy(new RCTuple(conf.getAssignments())).energy);
+		RCTuple frag = new RCTuple(conf.getAssignments());
+		return new EnergiedConf(conf, calcFragEnergy(frag, makeFragInters(frag)));
 	}
 
 	/**
@@ -354,7 +427,7 @@ public class ConfEnergyCalculator {
 	 * @return The conformation with attached energy
 	 */
 	public EnergiedConf calcEnergy(ScoredConf conf, ResidueInteractions inters) {
-		return new EnergiedConf(conf, calcEnergy(new RCTuple(conf.getAssignments()), inters).energy);
+		return new EnergiedConf(conf, calcFragEnergy(new RCTuple(conf.getAssignments()), inters));
 	}
 
 	/**
@@ -54,6 +54,7 @@ import edu.duke.cs.osprey.gpu.cuda.kernels.ResidueForcefieldEnergyCuda;
 import edu.duke.cs.osprey.gpu.opencl.GpuQueuePool;
 import edu.duke.cs.osprey.minimization.CCDMinimizer;
 import edu.duke.cs.osprey.minimization.CudaCCDMinimizer;
+import edu.duke.cs.osprey.minimization.LBFGSMinimizer;
 import edu.duke.cs.osprey.minimization.Minimizer;
 import edu.duke.cs.osprey.minimization.MoleculeObjectiveFunction;
 import edu.duke.cs.osprey.minimization.ObjectiveFunction;
@@ -294,6 +295,24 @@ public class EnergyCalculator implements AutoCleanable {
 				}};
 			}
 		},
+		CpuLBFGS {
+
+			@Override
+			public boolean isSupported() {
+				return true;
+			}
+
+			@Override
+			public Context makeContext(Parallelism parallelism, ResPairCache resPairCache) {
+
+				// same energy function as Cpu, but minimize all the dofs at once using analytic gradients
+				return new Context() {{
+					numStreams = parallelism.numThreads;
+					efuncs = (interactions, mol) -> new ResidueForcefieldEnergy(resPairCache, interactions, mol);
+					minimizers = (f) -> new LBFGSMinimizer(f);
+				}};
+			}
+		},
 		Cuda {
 			
 			@Override
@@ -585,6 +604,19 @@ public class EnergyCalculator implements AutoCleanable {
 	 * @return The calculated energy and the associated molecule pose
 	 */
 	public EnergiedParametricMolecule calcEnergy(ParametricMolecule pmol, ResidueInteractions inters) {
+		return calcEnergy(pmol, inters, null);
+	}
+
+	/**
+	 * Version of {@link #calcEnergy(ParametricMolecule,ResidueInteractions)} that starts
+	 * minimization at the specified degrees of freedom instead of the center of the voxel.
+	 *
+	 * @param pmol The molecule
+	 * @param inters Residue interactions for the energy function
+	 * @param start Starting values for the degrees of freedom, or null to start at the center of the voxel
+	 * @return The calculated energy and the associated molecule pose
+	 */
+	public EnergiedParametricMolecule calcEnergy(ParametricMolecule pmol, ResidueInteractions inters, DoubleMatrix1D start) {
 		
 		// short circuit: no inters, no energy!
 		if (inters.size() <= 0) {
@@ -598,9 +630,14 @@ public class EnergyCalculator implements AutoCleanable {
 			}
 		}
 
-		// start at the center of the voxel
-		DoubleMatrix1D x = DoubleFactory1D.dense.make(pmol.dofs.size());
-		pmol.dofBounds.getCenter(x);
+		// start at the center of the voxel, unless we were told otherwise
+		DoubleMatrix1D x;
+		if (start != null) {
+			x = start.copy();
+		} else {
+			x = DoubleFactory1D.dense.make(pmol.dofs.size());
+			pmol.dofBounds.getCenter(x);
+		}
 
 		if (alwaysResolveClashesEnergy != null) {
 
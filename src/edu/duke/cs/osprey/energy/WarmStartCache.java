@@ -0,0 +1,203 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.energy;
+
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+import edu.duke.cs.osprey.confspace.ParametricMolecule;
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.SimpleConfSpace;
+import edu.duke.cs.osprey.structure.Residue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Remembers where the residue DOFs ended up after minimizing conformations,
+ * so minimizations of similar conformations can start there instead of at the voxel center.
+ * 
+ * Optima are kept per residue conformation (ie, per position and RC), and only the optimum from the
+ * lowest-energy conformation containing that residue conformation is kept.
+ * When a new conformation is minimized, DOFs of residue conformations we've seen before start at their
+ * remembered optima, and all other DOFs (including strand DOFs, which aren't owned by any one position)
+ * start at the center of their voxels.
+ * 
+ * Minimization is local, so warm-started minimizations can find different local minima than
+ * minimizations that start at the voxel center. Minimized energies are still valid upper bounds
+ * on the voxel minimum though.
+ * 
+ * Only full conformations are tracked, since energies of fragments of different sizes aren't comparable.
+ */
+public class WarmStartCache {
+
+	private static class Optimum {
+
+		final double energy;
+		final double[] dofValues;
+
+		Optimum(double energy, double[] dofValues) {
+			this.energy = energy;
+			this.dofValues = dofValues;
+		}
+	}
+
+	public final SimpleConfSpace confSpace;
+
+	private final Optimum[][] optima;
+	private final AtomicLong numWarmStarts = new AtomicLong(0L);
+
+	public WarmStartCache(SimpleConfSpace confSpace) {
+
+		this.confSpace = confSpace;
+
+		optima = new Optimum[confSpace.positions.size()][];
+		for (SimpleConfSpace.Position pos : confSpace.positions) {
+			optima[pos.index] = new Optimum[pos.resConfs.size()];
+		}
+	}
+
+	/** returns true if minimizations of this fragment can be warm-started */
+	public boolean isTracked(RCTuple frag) {
+		return frag.size() == confSpace.positions.size();
+	}
+
+	/**
+	 * Make a starting point for minimizing the fragment.
+	 * 
+	 * @return the starting DOF values, or null if we don't know anything better than the voxel center
+	 */
+	public DoubleMatrix1D makeStart(RCTuple frag, ParametricMolecule pmol) {
+
+		if (!isTracked(frag) || pmol.dofs.isEmpty()) {
+			return null;
+		}
+
+		DoubleMatrix1D x = DoubleFactory1D.dense.make(pmol.dofs.size());
+		pmol.dofBounds.getCenter(x);
+
+		boolean isWarm = false;
+		for (int i=0; i<frag.size(); i++) {
+
+			Optimum optimum = get(frag.pos.get(i), frag.RCs.get(i));
+			if (optimum == null) {
+				continue;
+			}
+
+			List<Integer> indices = getDofIndices(pmol, confSpace.positions.get(frag.pos.get(i)));
+			if (indices.size() != optimum.dofValues.length) {
+				continue;
+			}
+
+			for (int j=0; j<indices.size(); j++) {
+				int d = indices.get(j);
+				x.set(d, Math.max(pmol.dofBounds.getMin(d), Math.min(pmol.dofBounds.getMax(d), optimum.dofValues[j])));
+			}
+			isWarm = true;
+		}
+
+		if (!isWarm) {
+			return null;
+		}
+
+		numWarmStarts.incrementAndGet();
+		return x;
+	}
+
+	/**
+	 * Remember the DOF optima of a minimized fragment, if its energy beats the optima we already have.
+	 */
+	public void update(RCTuple frag, EnergyCalculator.EnergiedParametricMolecule epmol) {
+
+		if (!isTracked(frag) || epmol.params == null || !Double.isFinite(epmol.energy)) {
+			return;
+		}
+
+		for (int i=0; i<frag.size(); i++) {
+
+			int pos = frag.pos.get(i);
+			int rc = frag.RCs.get(i);
+
+			List<Integer> indices = getDofIndices(epmol.pmol, confSpace.positions.get(pos));
+			if (indices.isEmpty()) {
+				continue;
+			}
+
+			double[] dofValues = new double[indices.size()];
+			for (int j=0; j<indices.size(); j++) {
+				dofValues[j] = epmol.params.get(indices.get(j));
+			}
+
+			synchronized (optima[pos]) {
+				Optimum optimum = optima[pos][rc];
+				if (optimum == null || epmol.energy < optimum.energy) {
+					optima[pos][rc] = new Optimum(epmol.energy, dofValues);
+				}
+			}
+		}
+	}
+
+	private Optimum get(int pos, int rc) {
+		synchronized (optima[pos]) {
+			return optima[pos][rc];
+		}
+	}
+
+	private static List<Integer> getDofIndices(ParametricMolecule pmol, SimpleConfSpace.Position pos) {
+		List<Integer> indices = new ArrayList<>();
+		for (int d=0; d<pmol.dofs.size(); d++) {
+			Residue res = pmol.dofs.get(d).getResidue();
+			if (res != null && res.getPDBResNumber().equals(pos.resNum)) {
+				indices.add(d);
+			}
+		}
+		return indices;
+	}
+
+	/** returns the number of minimizations that started from at least one remembered optimum */
+	public long getNumWarmStarts() {
+		return numWarmStarts.get();
+	}
+
+	public void clear() {
+		for (int pos=0; pos<optima.length; pos++) {
+			synchronized (optima[pos]) {
+				for (int rc=0; rc<optima[pos].length; rc++) {
+					optima[pos][rc] = null;
+				}
+			}
+		}
+		numWarmStarts.set(0);
+	}
+}
@@ -117,6 +117,27 @@ public class ForcefieldParams implements Serializable {
     @Deprecated
     public double shellDistCutoff = Double.POSITIVE_INFINITY; //distance cutoff for interactions (angstroms)
     public SolvationForcefield solvationForcefield = SolvationForcefield.EEF1;
+
+    /**
+     * Distance cutoff for electrostatics and van der Waals atom pair terms (angstroms).
+     * Atom pairs farther apart than this contribute no electrostatics or vdW energy.
+     * EEF1 solvation always uses its own cutoff of {@link #solvCutoff}, even if this cutoff is shorter.
+     * The default of infinity computes every atom pair, which is exact.
+     * Currently only used by {@link ResidueForcefieldEnergy}.
+     */
+    public double nonbondedCutoff = Double.POSITIVE_INFINITY;
+
+    /**
+     * Width of the region inside {@link #nonbondedCutoff} (angstroms) where electrostatics and van der Waals
+     * energies are smoothly switched off, so the energy and its derivatives stay continuous at the cutoff.
+     */
+    public double nonbondedSwitchWidth = 2.0;
+
+    /**
+     * Extra distance (angstroms) beyond {@link #nonbondedCutoff} that atom pairs are kept in the neighbor list.
+     * Bigger values mean the list is rebuilt less often during minimization, but holds more atom pairs.
+     */
+    public double neighborListSkin = 2.0;
     
     public enum Forcefield {
         
@@ -274,6 +295,9 @@ public class ForcefieldParams implements Serializable {
         hVDW = other.hVDW;
         shellDistCutoff = other.shellDistCutoff;
         solvationForcefield = other.solvationForcefield;
+        nonbondedCutoff = other.nonbondedCutoff;
+        nonbondedSwitchWidth = other.nonbondedSwitchWidth;
+        neighborListSkin = other.neighborListSkin;
     }
     
     
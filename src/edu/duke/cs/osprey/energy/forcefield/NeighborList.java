@@ -0,0 +1,240 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.energy.forcefield;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import edu.duke.cs.osprey.energy.forcefield.ResPairCache.ResPair;
+import edu.duke.cs.osprey.structure.Residue;
+
+/**
+ * A Verlet-style neighbor list for the atom pairs of a {@link ResidueForcefieldEnergy}.
+ *
+ * The list keeps every atom pair that was closer than the cutoff plus a skin distance
+ * when the list was built. As long as no atom has moved more than half the skin since then,
+ * every atom pair that's currently inside the cutoff must be in the list, so energies
+ * computed from the list are exactly the same as energies computed from all the atom pairs.
+ * When an atom does move too far (e.g., during minimization), the list is rebuilt automatically.
+ *
+ * Residue pairs whose bounding spheres are farther apart than the cutoff plus the skin
+ * are skipped entirely, without looking at any of their atom pairs.
+ */
+public class NeighborList {
+
+	public final double cutoff;
+	public final double skin;
+
+	private final ResPair[] resPairs;
+	private final Map<ResPair,Integer> resPairIndices;
+
+	// per residue info, indexed like the residues in the res pairs
+	private final Residue[] residues;
+	private final double[][] snapshots;
+	private final double[] spheres; // x, y, z, radius
+
+	// per res pair info
+	private final int[][] atomPairs;
+	private final int[] numAtomPairs;
+
+	private long numBuilds = 0;
+
+	public NeighborList(ResPair[] resPairs, int numResidues, double cutoff, double skin) {
+
+		this.cutoff = cutoff;
+		this.skin = skin;
+		this.resPairs = resPairs;
+
+		resPairIndices = new IdentityHashMap<>();
+		for (int i=0; i<resPairs.length; i++) {
+			resPairIndices.put(resPairs[i], i);
+		}
+
+		residues = new Residue[numResidues];
+		for (ResPair pair : resPairs) {
+			residues[pair.resIndex1] = pair.res1;
+			residues[pair.resIndex2] = pair.res2;
+		}
+		snapshots = new double[numResidues][];
+		spheres = new double[numResidues*4];
+
+		atomPairs = new int[resPairs.length][];
+		numAtomPairs = new int[resPairs.length];
+	}
+
+	public long getNumBuilds() {
+		return numBuilds;
+	}
+
+	/**
+	 * Returns the indices (into {@link ResPairCache.AtomPairInfo#flags}) of the atom pairs in the list for this res pair.
+	 * Only the first {@link #getNumAtomPairs} indices are valid.
+	 */
+	public int[] getAtomPairs(ResPair pair) {
+		return atomPairs[resPairIndices.get(pair)];
+	}
+
+	public int getNumAtomPairs(ResPair pair) {
+		return numAtomPairs[resPairIndices.get(pair)];
+	}
+
+	/**
+	 * Rebuilds the list if any atom has moved too far since the last build.
+	 */
+	public void update() {
+		if (numBuilds == 0 || hasMovedTooFar()) {
+			build();
+		}
+	}
+
+	private boolean hasMovedTooFar() {
+
+		double maxDist2 = skin*skin/4;
+
+		for (int i=0; i<residues.length; i++) {
+			Residue res = residues[i];
+			if (res == null) {
+				continue;
+			}
+			double[] coords = res.coords;
+			double[] snapshot = snapshots[i];
+			if (snapshot.length != coords.length) {
+				return true;
+			}
+			for (int j=0; j<coords.length; j+=3) {
+				double dx = coords[j] - snapshot[j];
+				double dy = coords[j + 1] - snapshot[j + 1];
+				double dz = coords[j + 2] - snapshot[j + 2];
+				if (dx*dx + dy*dy + dz*dz > maxDist2) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	public void build() {
+
+		// take snapshots of the coords and compute bounding spheres
+		for (int i=0; i<residues.length; i++) {
+			Residue res = residues[i];
+			if (res == null) {
+				continue;
+			}
+			if (snapshots[i] == null || snapshots[i].length != res.coords.length) {
+				snapshots[i] = new double[res.coords.length];
+			}
+			System.arraycopy(res.coords, 0, snapshots[i], 0, res.coords.length);
+			calcBoundingSphere(res.coords, spheres, i*4);
+		}
+
+		double listDist = cutoff + skin;
+		double listDist2 = listDist*listDist;
+
+		for (int i=0; i<resPairs.length; i++) {
+			ResPair pair = resPairs[i];
+			ResPairCache.AtomPairInfo info = pair.info;
+
+			// can the residues possibly get close enough to interact?
+			double sphereDist = getDist(spheres, pair.resIndex1*4, spheres, pair.resIndex2*4)
+				- spheres[pair.resIndex1*4 + 3]
+				- spheres[pair.resIndex2*4 + 3];
+			if (sphereDist > listDist) {
+				numAtomPairs[i] = 0;
+				continue;
+			}
+
+			// collect the nearby atom pairs
+			if (atomPairs[i] == null || atomPairs[i].length < info.numAtomPairs) {
+				atomPairs[i] = new int[info.numAtomPairs];
+			}
+			int[] indices = atomPairs[i];
+			int num = 0;
+			double[] coords1 = pair.res1.coords;
+			double[] coords2 = pair.res2.coords;
+			for (int j=0; j<info.numAtomPairs; j++) {
+				long flags = info.flags[j];
+				int atomOffset2 = (int)(flags & 0xffff);
+				flags >>= 16;
+				int atomOffset1 = (int)(flags & 0xffff);
+				if (getDist2(coords1, atomOffset1, coords2, atomOffset2) < listDist2) {
+					indices[num++] = j;
+				}
+			}
+			numAtomPairs[i] = num;
+		}
+
+		numBuilds++;
+	}
+
+	private static void calcBoundingSphere(double[] coords, double[] out, int offset) {
+
+		int numAtoms = coords.length/3;
+		if (numAtoms == 0) {
+			Arrays.fill(out, offset, offset + 4, 0.0);
+			return;
+		}
+
+		// use the centroid as the center, it's not the smallest sphere, but it's close enough
+		double x = 0;
+		double y = 0;
+		double z = 0;
+		for (int i=0; i<coords.length; i+=3) {
+			x += coords[i];
+			y += coords[i + 1];
+			z += coords[i + 2];
+		}
+		out[offset] = x/numAtoms;
+		out[offset + 1] = y/numAtoms;
+		out[offset + 2] = z/numAtoms;
+
+		double maxDist2 = 0;
+		for (int i=0; i<coords.length; i+=3) {
+			maxDist2 = Math.max(maxDist2, getDist2(coords, i, out, offset));
+		}
+		out[offset + 3] = Math.sqrt(maxDist2);
+	}
+
+	private static double getDist2(double[] a, int aoffset, double[] b, int boffset) {
+		double dx = a[aoffset] - b[boffset];
+		double dy = a[aoffset + 1] - b[boffset + 1];
+		double dz = a[aoffset + 2] - b[boffset + 2];
+		return dx*dx + dy*dy + dz*dz;
+	}
+
+	private static double getDist(double[] a, int aoffset, double[] b, int boffset) {
+		return Math.sqrt(getDist2(a, aoffset, b, boffset));
+	}
+}
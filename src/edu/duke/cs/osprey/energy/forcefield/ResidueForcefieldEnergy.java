@@ -33,6 +33,7 @@
 package edu.duke.cs.osprey.energy.forcefield;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -59,6 +60,9 @@ public class ResidueForcefieldEnergy implements EnergyFunction.DecomposableByDof
 	
 	private double coulombFactor;
 	private double scaledCoulombFactor;
+
+	/** only used when {@link ForcefieldParams#nonbondedCutoff} is finite */
+	private transient NeighborList neighborList = null;
 	
 	public ResidueForcefieldEnergy(ResPairCache resPairCache, ResidueInteractions inters, Molecule mol) {
 		this(resPairCache, inters, mol.residues);
@@ -101,6 +105,37 @@ public class ResidueForcefieldEnergy implements EnergyFunction.DecomposableByDof
 		scaledCoulombFactor = coulombFactor*resPairCache.ffparams.forcefld.coulombScaling;
 	}
 
+	public boolean hasCutoff() {
+		return Double.isFinite(resPairCache.ffparams.nonbondedCutoff);
+	}
+
+	/**
+	 * Returns the neighbor list, or null if the forcefield has no non-bonded cutoff
+	 */
+	public NeighborList getNeighborList() {
+		if (neighborList == null && hasCutoff()) {
+			neighborList = new NeighborList(
+				resPairs,
+				residues.size(),
+				getNeighborListCutoff(),
+				resPairCache.ffparams.neighborListSkin
+			);
+		}
+		return neighborList;
+	}
+
+	/**
+	 * The non-bonded cutoff only applies to electrostatics and vdW, so EEF1 still needs
+	 * all the atom pairs within its own cutoff, even if the non-bonded cutoff is shorter.
+	 */
+	private double getNeighborListCutoff() {
+		double cutoff = resPairCache.ffparams.nonbondedCutoff;
+		if (resPairCache.ffparams.solvationForcefield == SolvationForcefield.EEF1) {
+			cutoff = Math.max(cutoff, ForcefieldParams.solvCutoff);
+		}
+		return cutoff;
+	}
+
 	public ResidueForcefieldEnergy makeSubset(ResidueInteractions.Pair pair) {
 		return makeSubset(new ResidueInteractions(pair));
 	}
@@ -124,6 +159,11 @@ public class ResidueForcefieldEnergy implements EnergyFunction.DecomposableByDof
 		if (isBroken) {
 			return Double.POSITIVE_INFINITY;
 		}
+
+		// use the neighbor list if there's a cutoff
+		if (hasCutoff()) {
+			return getEnergyCutoff(resPairs);
+		}
 		
 		// copy stuff to the stack/registers, to improve CPU cache performance
 		boolean useHEs = resPairCache.ffparams.hElect;
@@ -252,6 +292,320 @@ public class ResidueForcefieldEnergy implements EnergyFunction.DecomposableByDof
 		return energy;
 	}
 
+	private double getEnergyCutoff(ResPair[] resPairs) {
+
+		// NOTE: like getEnergy(), this function gets hammered a lot!
+		// the atom pair loop is the same, except only for atom pairs in the neighbor list,
+		// and with a switching function near the cutoff
+
+		NeighborList neighborList = getNeighborList();
+		neighborList.update();
+
+		// copy stuff to the stack/registers, to improve CPU cache performance
+		boolean useHEs = resPairCache.ffparams.hElect;
+		boolean useHvdW = resPairCache.ffparams.hVDW;
+		double coulombFactor = this.coulombFactor;
+		double scaledCoulombFactor = this.scaledCoulombFactor;
+		boolean distDepDielect = resPairCache.ffparams.distDepDielect;
+		boolean useEEF1 = resPairCache.ffparams.solvationForcefield == SolvationForcefield.EEF1;
+		double listCutoff2 = neighborList.cutoff*neighborList.cutoff;
+		double cutoff = resPairCache.ffparams.nonbondedCutoff;
+		double cutoff2 = cutoff*cutoff;
+		double switchOn = Math.max(0.0, cutoff - resPairCache.ffparams.nonbondedSwitchWidth);
+		double switchOn2 = switchOn*switchOn;
+		double switchDenom = 1.0/((cutoff2 - switchOn2)*(cutoff2 - switchOn2)*(cutoff2 - switchOn2));
+
+		double energy = 0;
+
+		for (int i=0; i<resPairs.length; i++) {
+			ResPair pair = resPairs[i];
+
+			// copy pair values/references to the stack/registers
+			double[] coords1 = pair.res1.coords;
+			double[] coords2 = pair.res2.coords;
+			long[] flags = pair.info.flags;
+			double[] precomputed = pair.info.precomputed;
+			int numPrecomputed = pair.info.numPrecomputedPerAtomPair;
+			int[] atomPairs = neighborList.getAtomPairs(pair);
+			int numAtomPairs = neighborList.getNumAtomPairs(pair);
+
+			double resPairEnergy = 0;
+
+			// for each nearby atom pair...
+			for (int k=0; k<numAtomPairs; k++) {
+				int j = atomPairs[k];
+
+				// read the flags
+				// NOTE: this is efficient, but destructive to the val
+				long atomPairFlags = flags[j];
+				int atomOffset2 = (int)(atomPairFlags & 0xffff);
+				atomPairFlags >>= 16;
+				int atomOffset1 = (int)(atomPairFlags & 0xffff);
+				atomPairFlags >>= 46;
+				boolean isHeavyPair = (atomPairFlags & 0x1) == 0x1;
+				atomPairFlags >>= 1;
+				boolean is14Bonded = (atomPairFlags & 0x1) == 0x1;
+
+				// get the radius
+				double r2;
+				{
+					double d;
+					d = coords1[atomOffset1] - coords2[atomOffset2];
+					r2 = d*d;
+					d = coords1[atomOffset1 + 1] - coords2[atomOffset2 + 1];
+					r2 += d*d;
+					d = coords1[atomOffset1 + 2] - coords2[atomOffset2 + 2];
+					r2 += d*d;
+				}
+
+				// skip pairs outside all the cutoffs
+				if (r2 >= listCutoff2) {
+					continue;
+				}
+				double r = Math.sqrt(r2);
+
+				int pos = j*numPrecomputed;
+
+				// electrostatics and vdW, if inside the non-bonded cutoff
+				if (r2 < cutoff2) {
+
+					double pairEnergy = 0;
+
+					// electrostatics
+					if (isHeavyPair || useHEs) {
+						double charge = precomputed[pos];
+						double factor = is14Bonded ? scaledCoulombFactor : coulombFactor;
+						if (distDepDielect) {
+							pairEnergy += factor*charge/r2;
+						} else {
+							pairEnergy += factor*charge/r;
+						}
+					}
+
+					// van der Waals
+					if (isHeavyPair || useHvdW) {
+						double Aij = precomputed[pos + 1];
+						double Bij = precomputed[pos + 2];
+						double r6 = r2*r2*r2;
+						double r12 = r6*r6;
+						pairEnergy += Aij/r12 - Bij/r6;
+					}
+
+					// switching function
+					if (r2 > switchOn2) {
+						double d = cutoff2 - r2;
+						pairEnergy *= d*d*(cutoff2 + 2*r2 - 3*switchOn2)*switchDenom;
+					}
+
+					resPairEnergy += pairEnergy;
+				}
+				pos += 3;
+
+				// solvation
+				if (useEEF1 && isHeavyPair && r2 < ForcefieldParams.solvCutoff2) {
+
+					double radius1 = precomputed[pos++];
+					double lambda1 = precomputed[pos++];
+					double alpha1 = precomputed[pos++];
+					double radius2 = precomputed[pos++];
+					double lambda2 = precomputed[pos++];
+					double alpha2 = precomputed[pos++];
+
+					// compute solvation energy
+					double Xij = (r - radius1)/lambda1;
+					double Xji = (r - radius2)/lambda2;
+					resPairEnergy -= (alpha1*Math.exp(-Xij*Xij) + alpha2*Math.exp(-Xji*Xji))/r2;
+				}
+			}
+
+			// apply weights and offsets
+			energy += (resPairEnergy + pair.offset + pair.solvEnergy)*pair.weight;
+		}
+
+		return energy;
+	}
+
+	/**
+	 * Allocates space for the atom gradients computed by {@link #getEnergyAndGradient(double[][])}
+	 */
+	public double[][] makeAtomGradients() {
+		double[][] gradients = new double[residues.size()][];
+		for (int i=0; i<residues.size(); i++) {
+			gradients[i] = new double[residues.get(i).coords.length];
+		}
+		return gradients;
+	}
+
+	/**
+	 * Computes the energy, along with the gradient of the energy with respect to the atom coordinates.
+	 *
+	 * The gradients are indexed by residue in {@link #residues}, and laid out like {@link Residue#coords}.
+	 * Any previous values in the gradients are overwritten.
+	 */
+	public double getEnergyAndGradient(double[][] gradients) {
+
+		for (double[] gradient : gradients) {
+			Arrays.fill(gradient, 0.0);
+		}
+
+		// check broken-ness first. easy peasy
+		if (isBroken) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		// copy stuff to the stack/registers, like getEnergy()
+		boolean useHEs = resPairCache.ffparams.hElect;
+		boolean useHvdW = resPairCache.ffparams.hVDW;
+		double coulombFactor = this.coulombFactor;
+		double scaledCoulombFactor = this.scaledCoulombFactor;
+		boolean distDepDielect = resPairCache.ffparams.distDepDielect;
+		boolean useEEF1 = resPairCache.ffparams.solvationForcefield == SolvationForcefield.EEF1;
+
+		// use the neighbor list and the switching function if there's a cutoff
+		NeighborList neighborList = getNeighborList();
+		double listCutoff2 = Double.POSITIVE_INFINITY;
+		double cutoff2 = Double.POSITIVE_INFINITY;
+		double switchOn2 = Double.POSITIVE_INFINITY;
+		double switchDenom = 0.0;
+		if (neighborList != null) {
+			neighborList.update();
+			listCutoff2 = neighborList.cutoff*neighborList.cutoff;
+			double cutoff = resPairCache.ffparams.nonbondedCutoff;
+			double switchOn = Math.max(0.0, cutoff - resPairCache.ffparams.nonbondedSwitchWidth);
+			cutoff2 = cutoff*cutoff;
+			switchOn2 = switchOn*switchOn;
+			switchDenom = 1.0/((cutoff2 - switchOn2)*(cutoff2 - switchOn2)*(cutoff2 - switchOn2));
+		}
+
+		double energy = 0;
+
+		for (int i=0; i<resPairs.length; i++) {
+			ResPair pair = resPairs[i];
+
+			double[] coords1 = pair.res1.coords;
+			double[] coords2 = pair.res2.coords;
+			double[] gradient1 = gradients[pair.resIndex1];
+			double[] gradient2 = gradients[pair.resIndex2];
+			long[] flags = pair.info.flags;
+			double[] precomputed = pair.info.precomputed;
+			int numPrecomputed = pair.info.numPrecomputedPerAtomPair;
+			int[] atomPairs = null;
+			int numAtomPairs = pair.info.numAtomPairs;
+			if (neighborList != null) {
+				atomPairs = neighborList.getAtomPairs(pair);
+				numAtomPairs = neighborList.getNumAtomPairs(pair);
+			}
+
+			double resPairEnergy = 0;
+
+			for (int k=0; k<numAtomPairs; k++) {
+				int j = atomPairs != null ? atomPairs[k] : k;
+
+				// read the flags
+				long atomPairFlags = flags[j];
+				int atomOffset2 = (int)(atomPairFlags & 0xffff);
+				atomPairFlags >>= 16;
+				int atomOffset1 = (int)(atomPairFlags & 0xffff);
+				atomPairFlags >>= 46;
+				boolean isHeavyPair = (atomPairFlags & 0x1) == 0x1;
+				atomPairFlags >>= 1;
+				boolean is14Bonded = (atomPairFlags & 0x1) == 0x1;
+
+				// get the radius
+				double dx = coords1[atomOffset1] - coords2[atomOffset2];
+				double dy = coords1[atomOffset1 + 1] - coords2[atomOffset2 + 1];
+				double dz = coords1[atomOffset1 + 2] - coords2[atomOffset2 + 2];
+				double r2 = dx*dx + dy*dy + dz*dz;
+				if (r2 >= listCutoff2) {
+					continue;
+				}
+				double r = Math.sqrt(r2);
+
+				int pos = j*numPrecomputed;
+
+				// accumulate the energy, and its derivative with respect to the radius
+				double pairEnergy = 0;
+				double dEdr = 0;
+
+				// electrostatics and vdW, if inside the non-bonded cutoff
+				if (r2 < cutoff2) {
+
+					// electrostatics
+					if (isHeavyPair || useHEs) {
+						double charge = precomputed[pos];
+						double factor = is14Bonded ? scaledCoulombFactor : coulombFactor;
+						if (distDepDielect) {
+							double e = factor*charge/r2;
+							pairEnergy += e;
+							dEdr -= 2*e/r;
+						} else {
+							double e = factor*charge/r;
+							pairEnergy += e;
+							dEdr -= e/r;
+						}
+					}
+
+					// van der Waals
+					if (isHeavyPair || useHvdW) {
+						double Aij = precomputed[pos + 1];
+						double Bij = precomputed[pos + 2];
+						double r6 = r2*r2*r2;
+						double r12 = r6*r6;
+						pairEnergy += Aij/r12 - Bij/r6;
+						dEdr += (6*Bij/r6 - 12*Aij/r12)/r;
+					}
+
+					// switching function
+					if (r2 > switchOn2) {
+						double d = cutoff2 - r2;
+						double q = cutoff2 + 2*r2 - 3*switchOn2;
+						double switching = d*d*q*switchDenom;
+						double dSwitchingdr = 2*r*(2*d*d - 2*d*q)*switchDenom;
+						dEdr = dEdr*switching + pairEnergy*dSwitchingdr;
+						pairEnergy *= switching;
+					}
+				}
+				pos += 3;
+
+				// solvation
+				if (useEEF1 && isHeavyPair && r2 < ForcefieldParams.solvCutoff2) {
+
+					double radius1 = precomputed[pos++];
+					double lambda1 = precomputed[pos++];
+					double alpha1 = precomputed[pos++];
+					double radius2 = precomputed[pos++];
+					double lambda2 = precomputed[pos++];
+					double alpha2 = precomputed[pos++];
+
+					double Xij = (r - radius1)/lambda1;
+					double Xji = (r - radius2)/lambda2;
+					double term1 = alpha1*Math.exp(-Xij*Xij);
+					double term2 = alpha2*Math.exp(-Xji*Xji);
+					pairEnergy -= (term1 + term2)/r2;
+					dEdr += (2*Xij/lambda1*term1 + 2*Xji/lambda2*term2)/r2 + 2*(term1 + term2)/(r2*r);
+				}
+
+				resPairEnergy += pairEnergy;
+
+				// chain rule: dE/dx1 = dE/dr*(x1 - x2)/r, and dE/dx2 = -dE/dx1
+				double g = dEdr*pair.weight/r;
+				gradient1[atomOffset1] += g*dx;
+				gradient1[atomOffset1 + 1] += g*dy;
+				gradient1[atomOffset1 + 2] += g*dz;
+				gradient2[atomOffset2] -= g*dx;
+				gradient2[atomOffset2 + 1] -= g*dy;
+				gradient2[atomOffset2 + 2] -= g*dz;
+			}
+
+			// apply weights and offsets
+			energy += (resPairEnergy + pair.offset + pair.solvEnergy)*pair.weight;
+		}
+
+		return energy;
+	}
+
+	// NOTE: the energy breakdown functions below always use every atom pair, even if there's a non-bonded cutoff
+
 	public double getElectrostaticsEnergy() {
 		return getElectrostaticsEnergy(resPairs);
 	}
@@ -155,6 +155,7 @@ public abstract class AssignmentsSerializer {
 	
 	public final RCs rcs;
 	public final Encoding encoding;
+	public final int numBytes;
 	public final EntrySize entrySize;
 
 	protected AssignmentsSerializer(RCs rcs, int numBytes) {
@@ -168,12 +169,20 @@ public abstract class AssignmentsSerializer {
 			}
 		}
 		encoding = Encoding.pickBest(maxVal);
-		entrySize = EntrySize.findBigEnoughSizeFor(rcs.getNumPos()*encoding.numBytes + numBytes);
+		this.numBytes = rcs.getNumPos()*encoding.numBytes + numBytes;
+		entrySize = EntrySize.findBigEnoughSizeFor(this.numBytes);
 	}
 	
 	public EntrySize getEntrySize() {
 		return entrySize;
 	}
+
+	/**
+	 * Returns the exact number of bytes needed for each entry, without any padding
+	 */
+	public int getNumBytes() {
+		return numBytes;
+	}
 	
 	protected void writeAssignments(int[] assignments, ByteBuffer buf) {
 
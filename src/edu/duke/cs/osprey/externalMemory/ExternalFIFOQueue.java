@@ -0,0 +1,230 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.externalMemory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import edu.duke.cs.tpie.Cleaner;
+import edu.duke.cs.tpie.Cleaner.Cleanable;
+import edu.duke.cs.tpie.Cleaner.GarbageDetectable;
+
+/**
+ * A pure-Java FIFO queue that spills to external memory, without needing the TPIE native library.
+ *
+ * New entries are serialized into an in-memory ring buffer. When the buffer can't grow any more
+ * within the internal memory limit (see {@link ExternalMemory#setInternalLimit}),
+ * the unread entries are written to disk as a segment. Entries are read from the oldest
+ * segment first, and from the in-memory buffer once all the segments are used up.
+ */
+public class ExternalFIFOQueue<T> implements Queue.FIFO<T>, GarbageDetectable {
+
+	public static interface Serializer<T> {
+
+		/** the maximum number of bytes written by {@link #serialize} */
+		int getNumBytes();
+
+		void serialize(T val, ByteBuffer buf);
+		T deserialize(ByteBuffer buf);
+	}
+
+	private static final int MinCapacity = 1024;
+
+	private static class Storage implements Cleanable {
+
+		final ArrayDeque<RecordFile> segments = new ArrayDeque<>();
+		long reservedBytes = 0;
+
+		@Override
+		public void clean() {
+			for (RecordFile segment : segments) {
+				segment.clean();
+			}
+			segments.clear();
+			ExternalMemory.releaseInternalBytes(reservedBytes);
+			reservedBytes = 0;
+		}
+	}
+
+	public final Serializer<T> serializer;
+
+	private final int recordBytes;
+	private final Storage storage;
+
+	// the in-memory ring buffer, the unread records start at index head and wrap around the end
+	private int capacity = 0;
+	private ByteBuffer buf = null;
+	private int head = 0;
+	private int count = 0;
+
+	private long segmentsSize = 0;
+
+	public ExternalFIFOQueue(Serializer<T> serializer) {
+
+		ExternalMemory.checkInternalLimitSet();
+
+		this.serializer = serializer;
+		this.recordBytes = serializer.getNumBytes();
+
+		// NOTE: the cleaner only gets the storage, so it doesn't hold a strong reference to this
+		storage = new Storage();
+		Cleaner.addCleaner(this, storage);
+	}
+
+	@Override
+	public void push(T val) {
+
+		// make room in memory if needed
+		if (count == capacity) {
+			if (!grow()) {
+				spill();
+			}
+		}
+
+		buf.position(index(count)*recordBytes);
+		serializer.serialize(val, buf);
+		count++;
+	}
+
+	/** converts an offset from the head into an index in the ring buffer */
+	private int index(int offset) {
+		int i = head + offset;
+		if (i >= capacity) {
+			i -= capacity;
+		}
+		return i;
+	}
+
+	@Override
+	public T peek() {
+		if (!storage.segments.isEmpty()) {
+			return serializer.deserialize(storage.segments.peekFirst().peek());
+		} else if (count > 0) {
+			buf.position(head*recordBytes);
+			return serializer.deserialize(buf);
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public void pop() {
+		if (!storage.segments.isEmpty()) {
+			RecordFile segment = storage.segments.peekFirst();
+			segment.pop();
+			segmentsSize--;
+			if (segment.isEmpty()) {
+				storage.segments.removeFirst();
+				segment.clean();
+			}
+		} else if (count > 0) {
+			head = index(1);
+			count--;
+		} else {
+			throw new IllegalStateException("queue is empty");
+		}
+	}
+
+	@Override
+	public long size() {
+		return segmentsSize + count;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int getNumSegments() {
+		return storage.segments.size();
+	}
+
+	/** copies the unread records, oldest first */
+	private void copyUnread(ByteBuffer dst) {
+		ByteBuffer src = buf.duplicate();
+		int numToEnd = Math.min(count, capacity - head);
+		src.limit((head + numToEnd)*recordBytes);
+		src.position(head*recordBytes);
+		dst.put(src);
+		src.limit((count - numToEnd)*recordBytes);
+		src.position(0);
+		dst.put(src);
+	}
+
+	private boolean grow() {
+
+		// try to double the in-memory buffer, if there's room under the internal memory limit
+		int newCapacity = capacity == 0 ? MinCapacity : (int)Math.min((long)capacity*2, Integer.MAX_VALUE/Math.max(recordBytes, 1));
+		if (newCapacity <= capacity) {
+			return false;
+		}
+		long newBytes = (long)(newCapacity - capacity)*recordBytes;
+
+		// always allow the minimum capacity, so we can make progress no matter what
+		if (capacity == 0) {
+			ExternalMemory.forceReserveInternalBytes(newBytes);
+		} else if (!ExternalMemory.reserveInternalBytes(newBytes)) {
+			return false;
+		}
+		storage.reservedBytes += newBytes;
+
+		// unwrap the unread records into the front of the new buffer
+		ByteBuffer newBuf = ByteBuffer.allocate(newCapacity*recordBytes);
+		if (buf != null) {
+			copyUnread(newBuf);
+		}
+		buf = newBuf;
+		head = 0;
+		capacity = newCapacity;
+		return true;
+	}
+
+	private void spill() {
+
+		// write the unread records to a new segment
+		RecordFile segment = new RecordFile(ExternalMemory.getTempDir(), recordBytes);
+		ByteBuffer record = buf.duplicate();
+		for (int i=0; i<count; i++) {
+			int index = index(i);
+			record.limit((index + 1)*recordBytes);
+			record.position(index*recordBytes);
+			segment.append().put(record);
+		}
+		segment.finishWriting();
+		storage.segments.addLast(segment);
+		segmentsSize += segment.getNumRecords();
+
+		head = 0;
+		count = 0;
+	}
+}
@@ -36,12 +36,50 @@ import edu.duke.cs.osprey.tools.MathTools;
 import edu.duke.cs.tpie.TPIE;
 
 import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ExternalMemory {
-	
+
+	public static enum Backend {
+
+		/** Use the TPIE native library, via JNI */
+		TPIE,
+
+		/**
+		 * Use the pure-Java queues (e.g., {@link ExternalPriorityQueue}, {@link ExternalFIFOQueue}),
+		 * which need no native libraries.
+		 */
+		Java
+	}
+
+	public static interface Block {
+		void run();
+	}
+
+	private static Backend backend = Backend.TPIE;
 	private static boolean limitSet = false;
 	private static File tempDir = null;
 
+	// book-keeping for the Java backend
+	private static long internalLimitBytes = 0;
+	private static final AtomicLong internalBytes = new AtomicLong(0);
+	private static final AtomicLong externalBytes = new AtomicLong(0);
+
+	/**
+	 * Choose which implementation of external memory to use.
+	 * Must be called before {@link #setInternalLimit(int)}.
+	 */
+	public static void setBackend(Backend val) {
+		if (limitSet) {
+			throw new IllegalStateException("can't change external memory backend after the internal memory limit has been set");
+		}
+		backend = val;
+	}
+
+	public static Backend getBackend() {
+		return backend;
+	}
+
 	/**
 	 * Set the maximum amount of internal memory (eg, RAM) to use for
 	 * large data structures. External memory-aware data structures will
@@ -55,10 +93,25 @@ public class ExternalMemory {
 			System.err.println("WARNING: Internal memory limit already set, ignoring additional request.");
 			return;
 		}
-		TPIE.start(mib);
+		switch (backend) {
+			case TPIE:
+				TPIE.start(mib);
+			break;
+			case Java:
+				internalLimitBytes = mib*1024L*1024L;
+			break;
+		}
 		limitSet = true;
 		setDefaultTempDir();
 	}
+
+	/**
+	 * Same as {@link #setInternalLimit(int)}, but choose the backend too.
+	 */
+	public static void setInternalLimit(int mib, Backend backend) {
+		setBackend(backend);
+		setInternalLimit(mib);
+	}
 	
 	/**
 	 * Throw a {@link InternalMemoryLimitNotSetException} if the internal memory limit has not yet been set by {@link #setInternalLimit(int)}.
@@ -103,7 +156,9 @@ public class ExternalMemory {
 		}
 
 		tempDir = new File(dir);
-		TPIE.setTempDir(dir);
+		if (backend == Backend.TPIE) {
+			TPIE.setTempDir(dir);
+		}
 	}
 	
 	/**
@@ -120,8 +175,26 @@ public class ExternalMemory {
 			dirFile.mkdirs();
 		}
 
-		tempDir = new File(dir);
-		TPIE.setTempDir(dir, subdir);
+		if (backend == Backend.TPIE) {
+			tempDir = new File(dir);
+			TPIE.setTempDir(dir, subdir);
+		} else {
+			File subdirFile = new File(dir, subdir);
+			if (!subdirFile.exists()) {
+				subdirFile.mkdirs();
+			}
+			tempDir = subdirFile;
+		}
+	}
+
+	/**
+	 * Return the directory where external memory is stored, or the JVM default temp dir if none was set.
+	 */
+	public static File getTempDir() {
+		if (tempDir == null) {
+			return new File(System.getProperty("java.io.tmpdir"));
+		}
+		return tempDir;
 	}
 	
 	/**
@@ -139,7 +212,60 @@ public class ExternalMemory {
 		if (!limitSet) {
 			return 0;
 		}
-		return TPIE.getExternalBytes();
+		switch (backend) {
+			case TPIE: return TPIE.getExternalBytes();
+			case Java: return externalBytes.get();
+			default: throw new Error("unknown backend: " + backend);
+		}
+	}
+
+	/**
+	 * Try to reserve some of the internal memory for a Java backend data structure.
+	 *
+	 * @return true if the memory was reserved, false if that would exceed the internal memory limit
+	 */
+	public static boolean reserveInternalBytes(long numBytes) {
+		while (true) {
+			long oldBytes = internalBytes.get();
+			long newBytes = oldBytes + numBytes;
+			if (newBytes > internalLimitBytes) {
+				return false;
+			}
+			if (internalBytes.compareAndSet(oldBytes, newBytes)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Reserve some of the internal memory for a Java backend data structure, even if it exceeds the limit.
+	 * Data structures need a little internal memory no matter what to make progress.
+	 */
+	public static void forceReserveInternalBytes(long numBytes) {
+		internalBytes.addAndGet(numBytes);
+	}
+
+	public static void releaseInternalBytes(long numBytes) {
+		// NOTE: data structures left over from an earlier use() could release bytes after the reset,
+		// so don't let the count go negative
+		internalBytes.updateAndGet((bytes) -> Math.max(0, bytes - numBytes));
+	}
+
+	/**
+	 * Return the number of bytes of internal memory currently reserved by Java backend data structures.
+	 */
+	public static long getInternalBytes() {
+		return internalBytes.get();
+	}
+
+	static void addExternalBytes(long numBytes) {
+		externalBytes.updateAndGet((bytes) -> Math.max(0, bytes + numBytes));
+	}
+
+	/** forget about all the memory reserved by the Java backend, so each use starts with the full limit */
+	private static void resetJavaUsage() {
+		internalBytes.set(0);
+		externalBytes.set(0);
 	}
 
 	public static String getUsageReport() {
@@ -163,9 +289,12 @@ public class ExternalMemory {
 	 * and you won't have to call it manually.
 	 */
 	public static void cleanup() {
-		TPIE.stop();
+		if (backend == Backend.TPIE) {
+			TPIE.stop();
+		}
 		limitSet = false;
 		tempDir = null;
+		resetJavaUsage();
 	}
 	
 	/**
@@ -187,4 +316,33 @@ public class ExternalMemory {
 			tempDir = null;
 		}
 	}
+
+	/**
+	 * Same as {@link #use(int, TPIE.Block)}, but choose the backend too.
+	 */
+	public static void use(int internalMiB, Backend backend, Block block) {
+		Backend oldBackend = ExternalMemory.backend;
+		setBackend(backend);
+		try {
+			switch (backend) {
+				case TPIE:
+					use(internalMiB, block::run);
+				break;
+				case Java:
+					limitSet = true;
+					internalLimitBytes = internalMiB*1024L*1024L;
+					resetJavaUsage();
+					setDefaultTempDir();
+					block.run();
+				break;
+			}
+		} finally {
+			limitSet = false;
+			tempDir = null;
+			if (backend == Backend.Java) {
+				resetJavaUsage();
+			}
+			ExternalMemory.backend = oldBackend;
+		}
+	}
 }
@@ -0,0 +1,379 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.externalMemory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.duke.cs.tpie.Cleaner;
+import edu.duke.cs.tpie.Cleaner.Cleanable;
+import edu.duke.cs.tpie.Cleaner.GarbageDetectable;
+
+/**
+ * A pure-Java min-priority queue that spills to external memory, without needing the TPIE native library.
+ *
+ * New entries go into an in-memory heap of serialized records. When the heap can't grow
+ * any more within the internal memory limit (see {@link ExternalMemory#setInternalLimit}),
+ * the entries are written to disk in sorted order as a run. The top of the queue is the best
+ * of the heap top and the heads of all the runs, so runs are only ever read sequentially.
+ *
+ * Runs are merged like a log-structured merge tree: runs are grouped into levels by size
+ * (each level holds runs about {@link #MergeFanIn} times bigger than the level below), and when
+ * a level collects {@link #MergeFanIn} runs, only those runs are merged into one run on the next level up.
+ * So each entry is merged O(log n) times, and there are only ever a few runs per level.
+ */
+public class ExternalPriorityQueue<T> implements Queue<T>, GarbageDetectable {
+
+	public static interface Serializer<T> {
+
+		/** the maximum number of bytes written by {@link #serialize} */
+		int getNumBytes();
+
+		/** writes the value to the buffer and returns its priority (lower priorities come out first) */
+		double serialize(T val, ByteBuffer buf);
+
+		T deserialize(double priority, ByteBuffer buf);
+	}
+
+	private static final int MinCapacity = 1024;
+	/** how many runs of about the same size to merge at once */
+	public static final int MergeFanIn = 8;
+	private static final int MergeFanInBits = 3; // log2(MergeFanIn)
+	private static final int NoSource = -2;
+	private static final int MemorySource = -1;
+
+	private static class Storage implements Cleanable {
+
+		final List<RecordFile> runs = new ArrayList<>();
+		long reservedBytes = 0;
+
+		@Override
+		public void clean() {
+			for (RecordFile run : runs) {
+				run.clean();
+			}
+			runs.clear();
+			ExternalMemory.releaseInternalBytes(reservedBytes);
+			reservedBytes = 0;
+		}
+	}
+
+	public final Serializer<T> serializer;
+
+	private final int payloadBytes;
+	private final int recordBytes;
+	private final Storage storage;
+
+	// the in-memory heap: keys and slots of serialized payloads
+	private int capacity = 0;
+	private ByteBuffer slab = null;
+	private double[] heapKeys = null;
+	private int[] heapSlots = null;
+	private int heapSize = 0;
+	private int[] freeSlots = null;
+	private int numFreeSlots = 0;
+
+	private long runsSize = 0;
+
+	public ExternalPriorityQueue(Serializer<T> serializer) {
+
+		ExternalMemory.checkInternalLimitSet();
+
+		this.serializer = serializer;
+
+		payloadBytes = serializer.getNumBytes();
+		recordBytes = Double.BYTES + payloadBytes;
+
+		// NOTE: the cleaner only gets the storage, so it doesn't hold a strong reference to this
+		storage = new Storage();
+		Cleaner.addCleaner(this, storage);
+	}
+
+	@Override
+	public void push(T val) {
+
+		// make room in memory if needed
+		if (numFreeSlots == 0) {
+			if (!grow()) {
+				spill();
+			}
+		}
+
+		// serialize the value into a free slot
+		int slot = freeSlots[--numFreeSlots];
+		slab.position(slot*payloadBytes);
+		double key = serializer.serialize(val, slab);
+
+		// sift up
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heapKeys[parent] <= key) {
+				break;
+			}
+			heapKeys[i] = heapKeys[parent];
+			heapSlots[i] = heapSlots[parent];
+			i = parent;
+		}
+		heapKeys[i] = key;
+		heapSlots[i] = slot;
+	}
+
+	@Override
+	public T peek() {
+
+		int source = findTop();
+		if (source == NoSource) {
+			return null;
+		} else if (source == MemorySource) {
+			slab.position(heapSlots[0]*payloadBytes);
+			return serializer.deserialize(heapKeys[0], slab);
+		} else {
+			ByteBuffer buf = storage.runs.get(source).peek();
+			double key = buf.getDouble();
+			return serializer.deserialize(key, buf);
+		}
+	}
+
+	@Override
+	public void pop() {
+
+		int source = findTop();
+		if (source == NoSource) {
+			throw new IllegalStateException("queue is empty");
+		} else if (source == MemorySource) {
+			popMemory();
+		} else {
+			RecordFile run = storage.runs.get(source);
+			run.pop();
+			runsSize--;
+			if (run.isEmpty()) {
+				storage.runs.remove(source);
+				run.clean();
+			}
+		}
+	}
+
+	@Override
+	public long size() {
+		return heapSize + runsSize;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int getNumRuns() {
+		return storage.runs.size();
+	}
+
+	private int findTop() {
+
+		int source = NoSource;
+		double bestKey = Double.POSITIVE_INFINITY;
+
+		if (heapSize > 0) {
+			source = MemorySource;
+			bestKey = heapKeys[0];
+		}
+
+		for (int i=0; i<storage.runs.size(); i++) {
+			double key = storage.runs.get(i).peek().getDouble();
+			if (source == NoSource || key < bestKey) {
+				source = i;
+				bestKey = key;
+			}
+		}
+
+		return source;
+	}
+
+	private void popMemory() {
+
+		// free the top slot
+		freeSlots[numFreeSlots++] = heapSlots[0];
+
+		heapSize--;
+		if (heapSize == 0) {
+			return;
+		}
+
+		// move the last entry to the top and sift down
+		double key = heapKeys[heapSize];
+		int slot = heapSlots[heapSize];
+		int i = 0;
+		int half = heapSize >>> 1;
+		while (i < half) {
+			int child = 2*i + 1;
+			int right = child + 1;
+			if (right < heapSize && heapKeys[right] < heapKeys[child]) {
+				child = right;
+			}
+			if (key <= heapKeys[child]) {
+				break;
+			}
+			heapKeys[i] = heapKeys[child];
+			heapSlots[i] = heapSlots[child];
+			i = child;
+		}
+		heapKeys[i] = key;
+		heapSlots[i] = slot;
+	}
+
+	private boolean grow() {
+
+		// try to double the in-memory heap, if there's room under the internal memory limit
+		int newCapacity = capacity == 0 ? MinCapacity : (int)Math.min((long)capacity*2, Integer.MAX_VALUE/Math.max(payloadBytes, 1));
+		if (newCapacity <= capacity) {
+			return false;
+		}
+		long newBytes = (long)(newCapacity - capacity)*(payloadBytes + Double.BYTES + Integer.BYTES*2);
+
+		// always allow the minimum capacity, so we can make progress no matter what
+		if (capacity == 0) {
+			ExternalMemory.forceReserveInternalBytes(newBytes);
+		} else if (!ExternalMemory.reserveInternalBytes(newBytes)) {
+			return false;
+		}
+		storage.reservedBytes += newBytes;
+
+		ByteBuffer newSlab = ByteBuffer.allocate(newCapacity*payloadBytes);
+		if (slab != null) {
+			slab.clear();
+			newSlab.put(slab);
+		}
+		slab = newSlab;
+
+		double[] newHeapKeys = new double[newCapacity];
+		int[] newHeapSlots = new int[newCapacity];
+		int[] newFreeSlots = new int[newCapacity];
+		if (heapKeys != null) {
+			System.arraycopy(heapKeys, 0, newHeapKeys, 0, heapSize);
+			System.arraycopy(heapSlots, 0, newHeapSlots, 0, heapSize);
+			System.arraycopy(freeSlots, 0, newFreeSlots, 0, numFreeSlots);
+		}
+		heapKeys = newHeapKeys;
+		heapSlots = newHeapSlots;
+		freeSlots = newFreeSlots;
+
+		// add the new slots to the free list
+		for (int slot=newCapacity - 1; slot>=capacity; slot--) {
+			freeSlots[numFreeSlots++] = slot;
+		}
+
+		capacity = newCapacity;
+		return true;
+	}
+
+	private void spill() {
+
+		// write the in-memory entries to a new run, in sorted order
+		RecordFile run = new RecordFile(ExternalMemory.getTempDir(), recordBytes);
+		ByteBuffer payload = slab.duplicate();
+		while (heapSize > 0) {
+			ByteBuffer buf = run.append();
+			buf.putDouble(heapKeys[0]);
+			int offset = heapSlots[0]*payloadBytes;
+			payload.limit(offset + payloadBytes);
+			payload.position(offset);
+			buf.put(payload);
+			popMemory();
+		}
+		run.finishWriting();
+		storage.runs.add(run);
+		runsSize += run.getNumRecords();
+
+		// merge full levels, which might fill up the next level too
+		while (true) {
+			List<RecordFile> level = findFullLevel();
+			if (level == null) {
+				break;
+			}
+			mergeRuns(level);
+		}
+	}
+
+	private static int getLevel(RecordFile run) {
+		long n = Math.max(1, run.getNumRemaining());
+		return (63 - Long.numberOfLeadingZeros(n))/MergeFanInBits;
+	}
+
+	/** returns the runs of a level that has at least {@link #MergeFanIn} runs, or null if no level is full */
+	private List<RecordFile> findFullLevel() {
+		int[] levelSizes = new int[64/MergeFanInBits + 1];
+		for (RecordFile run : storage.runs) {
+			int level = getLevel(run);
+			if (++levelSizes[level] >= MergeFanIn) {
+				List<RecordFile> runs = new ArrayList<>();
+				for (RecordFile other : storage.runs) {
+					if (getLevel(other) == level) {
+						runs.add(other);
+					}
+				}
+				return runs;
+			}
+		}
+		return null;
+	}
+
+	private void mergeRuns(List<RecordFile> runs) {
+
+		// merge the runs into one bigger run
+		RecordFile merged = new RecordFile(ExternalMemory.getTempDir(), recordBytes);
+		while (!runs.isEmpty()) {
+
+			// find the run with the best head
+			int best = 0;
+			double bestKey = runs.get(0).peek().getDouble();
+			for (int i=1; i<runs.size(); i++) {
+				double key = runs.get(i).peek().getDouble();
+				if (key < bestKey) {
+					best = i;
+					bestKey = key;
+				}
+			}
+
+			RecordFile run = runs.get(best);
+			run.transferTo(merged);
+			if (run.isEmpty()) {
+				runs.remove(best);
+				storage.runs.remove(run);
+				run.clean();
+			}
+		}
+		merged.finishWriting();
+		storage.runs.add(merged);
+	}
+}
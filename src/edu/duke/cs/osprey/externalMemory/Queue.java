@@ -275,8 +275,26 @@ public interface Queue<T> {
 	
 	public static class ExternalFIFOFactory<T> implements Factory.FIFO<T> {
 		
+		/**
+		 * Makes an external FIFO queue using the current {@link ExternalMemory.Backend}.
+		 * The Java backend needs a serializer that also implements {@link ExternalFIFOQueue.Serializer}.
+		 */
 		@SafeVarargs
+		@SuppressWarnings("unchecked")
 		public static <T> Queue.FIFO<T> of(SerializingFIFOQueue.Serializer<T> serializer, T ... vals) {
+
+			if (ExternalMemory.getBackend() == ExternalMemory.Backend.Java) {
+				if (!(serializer instanceof ExternalFIFOQueue.Serializer)) {
+					throw new IllegalArgumentException("the Java external memory backend needs a serializer that implements "
+						+ ExternalFIFOQueue.Serializer.class.getName());
+				}
+				Queue.FIFO<T> q = new ExternalFIFOQueue<>((ExternalFIFOQueue.Serializer<T>)serializer);
+				for (T val : vals) {
+					q.push(val);
+				}
+				return q;
+			}
+
 			return new Queue.FIFO<T>() {
 				
 				private SerializingFIFOQueue<T> q;
@@ -331,8 +349,24 @@ public interface Queue<T> {
 	
 	public static class ExternalPriorityFactory<T> implements Factory<T> {
 		
+		/**
+		 * Makes an external priority queue using the current {@link ExternalMemory.Backend}.
+		 * The Java backend needs a serializer that also implements {@link ExternalPriorityQueue.Serializer}.
+		 */
 		@SafeVarargs
+		@SuppressWarnings("unchecked")
 		public static <T> Queue<T> of(SerializingDoublePriorityQueue.Serializer<T> serializer, T ... vals) {
+
+			if (ExternalMemory.getBackend() == ExternalMemory.Backend.Java) {
+				if (!(serializer instanceof ExternalPriorityQueue.Serializer)) {
+					throw new IllegalArgumentException("the Java external memory backend needs a serializer that implements "
+						+ ExternalPriorityQueue.Serializer.class.getName());
+				}
+				Queue<T> q = new ExternalPriorityQueue<>((ExternalPriorityQueue.Serializer<T>)serializer);
+				q.pushAll(vals);
+				return q;
+			}
+
 			return new Queue<T>() {
 				
 				private SerializingDoublePriorityQueue<T> q;
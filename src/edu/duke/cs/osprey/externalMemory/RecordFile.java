@@ -0,0 +1,224 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.externalMemory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import edu.duke.cs.tpie.Cleaner.Cleanable;
+
+/**
+ * A temporary file of fixed-width records, written once sequentially and then read once sequentially.
+ *
+ * Writes go through a buffer to the file channel, and reads use read-only memory-mapped windows,
+ * so both directions run at the sequential bandwidth of the disk.
+ *
+ * The file is deleted when it's cleaned, or when the JVM exits, whichever comes first.
+ */
+public class RecordFile implements Cleanable {
+
+	private static final int WriteBufferBytes = 1024*1024; // 1 MiB
+	private static final long ReadWindowBytes = 64L*1024*1024; // 64 MiB
+
+	public final int recordBytes;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private ByteBuffer writeBuf;
+	private long numRecords;
+	private boolean isWriting;
+
+	private MappedByteBuffer readBuf;
+	private long readWindowStart;
+	private long readWindowSize;
+	private long numRead;
+
+	public RecordFile(File dir, int recordBytes) {
+
+		this.recordBytes = recordBytes;
+
+		try {
+			file = File.createTempFile("osprey-", ".records", dir);
+			file.deleteOnExit();
+			raf = new RandomAccessFile(file, "rw");
+			channel = raf.getChannel();
+		} catch (IOException ex) {
+			throw new RuntimeException("can't create record file in " + dir, ex);
+		}
+
+		// round the write buffer down to a whole number of records
+		writeBuf = ByteBuffer.allocateDirect(Math.max(1, WriteBufferBytes/recordBytes)*recordBytes);
+		numRecords = 0;
+		isWriting = true;
+
+		readBuf = null;
+		readWindowStart = 0;
+		readWindowSize = 0;
+		numRead = 0;
+	}
+
+	/**
+	 * Returns a buffer with space for exactly one more record.
+	 * The caller must write exactly {@link #recordBytes} bytes.
+	 */
+	public ByteBuffer append() {
+
+		if (!isWriting) {
+			throw new IllegalStateException("record file is already finished writing");
+		}
+
+		if (writeBuf.remaining() < recordBytes) {
+			flush();
+		}
+		numRecords++;
+		return writeBuf;
+	}
+
+	/**
+	 * Writes out any buffered records. No more records can be appended after this.
+	 */
+	public void finishWriting() {
+		if (isWriting) {
+			flush();
+			writeBuf = null;
+			isWriting = false;
+			ExternalMemory.addExternalBytes(getNumBytes());
+		}
+	}
+
+	private void flush() {
+		writeBuf.flip();
+		try {
+			while (writeBuf.hasRemaining()) {
+				channel.write(writeBuf);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("can't write to record file " + file, ex);
+		}
+		writeBuf.clear();
+	}
+
+	public long getNumRecords() {
+		return numRecords;
+	}
+
+	public long getNumRemaining() {
+		return numRecords - numRead;
+	}
+
+	public long getNumBytes() {
+		return numRecords*recordBytes;
+	}
+
+	public boolean isEmpty() {
+		return numRead >= numRecords;
+	}
+
+	/**
+	 * Returns a buffer positioned at the start of the next unread record,
+	 * or null if all the records have been read.
+	 */
+	public ByteBuffer peek() {
+
+		if (isWriting) {
+			throw new IllegalStateException("record file must be finished writing before reading");
+		}
+
+		if (isEmpty()) {
+			return null;
+		}
+
+		// do we need to map the next window?
+		long recordStart = numRead*recordBytes;
+		if (readBuf == null || recordStart >= readWindowStart + readWindowSize) {
+			readWindowStart = recordStart;
+			readWindowSize = Math.min(
+				Math.max(1, ReadWindowBytes/recordBytes)*recordBytes,
+				getNumBytes() - readWindowStart
+			);
+			try {
+				readBuf = channel.map(FileChannel.MapMode.READ_ONLY, readWindowStart, readWindowSize);
+			} catch (IOException ex) {
+				throw new RuntimeException("can't map record file " + file, ex);
+			}
+		}
+
+		readBuf.position((int)(recordStart - readWindowStart));
+		return readBuf;
+	}
+
+	/**
+	 * Moves on to the next record.
+	 */
+	public void pop() {
+		if (isEmpty()) {
+			throw new IllegalStateException("no more records");
+		}
+		numRead++;
+	}
+
+	/**
+	 * Copies the next unread record to the end of another record file, and moves on to the next record.
+	 */
+	public void transferTo(RecordFile other) {
+
+		assert (other.recordBytes == recordBytes);
+
+		ByteBuffer src = peek();
+		ByteBuffer dst = other.append();
+		int limit = src.limit();
+		src.limit(src.position() + recordBytes);
+		dst.put(src);
+		src.limit(limit);
+		pop();
+	}
+
+	@Override
+	public void clean() {
+		readBuf = null;
+		try {
+			channel.close();
+			raf.close();
+		} catch (IOException ex) {
+			// don't care, we're deleting the file anyway
+		}
+		if (file.delete() && !isWriting) {
+			ExternalMemory.addExternalBytes(-getNumBytes());
+		}
+	}
+}
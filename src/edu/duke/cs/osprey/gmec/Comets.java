@@ -18,6 +18,13 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -377,7 +384,11 @@ public class Comets {
 			confTree = confTrees.make(() -> state.confTreeFactory.apply(rcs));
 		}
 
-		void refineBounds(ConfDB.ConfTable confTable) {
+		/**
+		 * @param minimizationBudget limits the number of minimizations in flight across all states,
+		 *                           or null for no limit
+		 */
+		void refineBounds(ConfDB.ConfTable confTable, Semaphore minimizationBudget) {
 
 			// already complete? no need to do more work
 			if (gmec != null) {
@@ -407,20 +418,55 @@ public class Comets {
 				return;
 			}
 
-			for (ConfSearch.ScoredConf conf : confs) {
+			// several states can share a task executor, so wait for our own tasks rather than the whole executor
+			CountDownLatch numPending = new CountDownLatch(confs.size());
+			AtomicReference<Throwable> failure = new AtomicReference<>(null);
 
-				// refine the upper bound
-				state.confEcalc.calcEnergyAsync(conf, confTable, econf -> {
+			for (ConfSearch.ScoredConf conf : confs) {
 
-					// NOTE: don't need to lock here, since the main thread is waiting
+				// wait for room in the global minimization budget, if needed
+				if (minimizationBudget != null) {
+					minimizationBudget.acquireUninterruptibly();
+				}
 
-					if (minEnergyConf == null || econf.getEnergy() < minEnergyConf.getEnergy()) {
-						minEnergyConf = econf;
+				// refine the upper bound
+				state.confEcalc.tasks.submit(
+					() -> {
+						try {
+							return state.confEcalc.calcEnergy(conf, confTable);
+						} catch (Throwable t) {
+							// the listener won't get called, so finish the conf here
+							failure.compareAndSet(null, t);
+							numPending.countDown();
+							throw t;
+						} finally {
+							if (minimizationBudget != null) {
+								minimizationBudget.release();
+							}
+						}
+					},
+					econf -> {
+						try {
+							synchronized (this) {
+								if (minEnergyConf == null || econf.getEnergy() < minEnergyConf.getEnergy()) {
+									minEnergyConf = econf;
+								}
+							}
+						} finally {
+							numPending.countDown();
+						}
 					}
-				});
+				);
 			}
 
-			state.confEcalc.tasks.waitForFinish();
+			try {
+				numPending.await();
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+			if (failure.get() != null) {
+				throw new RuntimeException("can't minimize conformation for state " + state.name, failure.get());
+			}
 
 			// do we know the GMEC yet?
 			ConfSearch.ScoredConf maxScoreConf = confs.get(confs.size() - 1);
@@ -498,9 +544,17 @@ public class Comets {
 
 			// refine the GMEC bounds for each state
 			for (State state : states) {
-				statesConfs.get(state).refineBounds(confDBs.tables.get(state));
+				statesConfs.get(state).refineBounds(confDBs.tables.get(state), minimizationBudget);
 			}
 
+			return calcScore();
+		}
+
+		/**
+		 * returns the score for the sequence node, based on the current GMEC bounds for each state
+		 */
+		double calcScore() {
+
 			// if any constraints are violated, score the node +inf,
 			// so it never gets enumerated again by A*
 			for (LME constraint : constraints) {
@@ -580,6 +634,39 @@ public class Comets {
 		 */
 		private Integer minNumConfTrees = null;
 
+		/**
+		 * Directory in which to checkpoint conformation trees that aren't protected by {@link #minNumConfTrees}.
+		 *
+		 * Checkpointed trees are written to disk and released, instead of being left to the garbage collector,
+		 * and are read back from disk when needed again, so their A* search doesn't have to be repeated.
+		 * Only used when {@link #minNumConfTrees} is set, and only for {@link edu.duke.cs.osprey.astar.conf.ConfAStarTree} instances.
+		 */
+		private File confTreeCheckpointDir = null;
+
+		/**
+		 * The number of the best sequences in the A* queue to refine at once.
+		 *
+		 * Sequences are refined on a separate thread each, so more sequences can keep
+		 * the state energy calculators busy while other sequences wait on their conformation trees.
+		 * Refining sequences other than the best one is speculative work, but never changes the results.
+		 */
+		private int numSequencesInParallel = 1;
+
+		/**
+		 * True to refine the GMEC bounds for all the states of a sequence at once, rather than one state after another.
+		 *
+		 * Each state submits its minimizations to the task pool of its own {@link State#confEcalc},
+		 * so states with separate energy calculators can minimize concurrently.
+		 */
+		private boolean refineStatesInParallel = false;
+
+		/**
+		 * The maximum number of conformation minimizations in flight at once, across all states and sequences.
+		 *
+		 * Defaults to null, which means no limit, other than the parallelism of each state's energy calculator.
+		 */
+		private Integer maxMinimizationsInFlight = null;
+
 		private boolean printToConsole = true;
 
 		/** File to which to log sequences as they are found */
@@ -614,6 +701,26 @@ public class Comets {
 			return this;
 		}
 
+		public Builder setConfTreeCheckpointDir(File val) {
+			confTreeCheckpointDir = val;
+			return this;
+		}
+
+		public Builder setNumSequencesInParallel(int val) {
+			numSequencesInParallel = val;
+			return this;
+		}
+
+		public Builder setRefineStatesInParallel(boolean val) {
+			refineStatesInParallel = val;
+			return this;
+		}
+
+		public Builder setMaxMinimizationsInFlight(Integer val) {
+			maxMinimizationsInFlight = val;
+			return this;
+		}
+
 		public Builder setPrintToConsole(boolean val) {
 			printToConsole = val;
 			return this;
@@ -625,7 +732,13 @@ public class Comets {
 		}
 
 		public Comets build() {
-			return new Comets(objective, constraints, objectiveWindowSize, objectiveWindowMax, maxSimultaneousMutations, minNumConfTrees, printToConsole, logFile);
+			if (numSequencesInParallel < 1) {
+				throw new IllegalArgumentException("numSequencesInParallel must be at least 1");
+			}
+			if (maxMinimizationsInFlight != null && maxMinimizationsInFlight < 1) {
+				throw new IllegalArgumentException("maxMinimizationsInFlight must be at least 1, or null for no limit");
+			}
+			return new Comets(objective, constraints, objectiveWindowSize, objectiveWindowMax, maxSimultaneousMutations, minNumConfTrees, confTreeCheckpointDir, numSequencesInParallel, refineStatesInParallel, maxMinimizationsInFlight, printToConsole, logFile);
 		}
 	}
 
@@ -636,6 +749,10 @@ public class Comets {
 	public final double objectiveWindowMax;
 	public final int maxSimultaneousMutations;
 	public final Integer minNumConfTrees;
+	public final File confTreeCheckpointDir;
+	public final int numSequencesInParallel;
+	public final boolean refineStatesInParallel;
+	public final Integer maxMinimizationsInFlight;
 	public final boolean printToConsole;
 	public final File logFile;
 
@@ -644,8 +761,9 @@ public class Comets {
 
 	private final Map<StateConfs.Key,StateConfs> stateConfsCache = new HashMap<>();
 	private final ConfSearchCache confTrees;
+	private final Semaphore minimizationBudget;
 
-	private Comets(LME objective, List<LME> constraints, double objectiveWindowSize, double objectiveWindowMax, int maxSimultaneousMutations, Integer minNumConfTrees, boolean printToConsole, File logFile) {
+	private Comets(LME objective, List<LME> constraints, double objectiveWindowSize, double objectiveWindowMax, int maxSimultaneousMutations, Integer minNumConfTrees, File confTreeCheckpointDir, int numSequencesInParallel, boolean refineStatesInParallel, Integer maxMinimizationsInFlight, boolean printToConsole, File logFile) {
 
 		this.objective = objective;
 		this.constraints = constraints;
@@ -653,6 +771,10 @@ public class Comets {
 		this.objectiveWindowMax = objectiveWindowMax;
 		this.maxSimultaneousMutations = maxSimultaneousMutations;
 		this.minNumConfTrees = minNumConfTrees;
+		this.confTreeCheckpointDir = confTreeCheckpointDir;
+		this.numSequencesInParallel = numSequencesInParallel;
+		this.refineStatesInParallel = refineStatesInParallel;
+		this.maxMinimizationsInFlight = maxMinimizationsInFlight;
 		this.printToConsole = printToConsole;
 		this.logFile = logFile;
 
@@ -678,7 +800,13 @@ public class Comets {
 				.collect(Collectors.toList())
 		);
 
-		confTrees = new ConfSearchCache(minNumConfTrees);
+		confTrees = new ConfSearchCache(minNumConfTrees, confTreeCheckpointDir);
+
+		if (maxMinimizationsInFlight != null) {
+			minimizationBudget = new Semaphore(maxMinimizationsInFlight);
+		} else {
+			minimizationBudget = null;
+		}
 
 		log("sequence space has %s sequences\n%s", formatBig(new RTs(seqSpace).getNumSequences()), seqSpace);
 	}
@@ -721,8 +849,12 @@ public class Comets {
 		);
 		log("");
 
-		// open the ConfDBs if needed
-		try (ConfDBs confDBs = new ConfDBs()) {
+		// open the ConfDBs if needed, and start the refinement threads if needed
+		try (ConfDBs confDBs = new ConfDBs();
+			ParallelRefiner refiner = numSequencesInParallel > 1 || refineStatesInParallel
+				? new ParallelRefiner(numSequencesInParallel*(refineStatesInParallel ? states.size() : 1))
+				: null
+		) {
 
 			while (true) {
 
@@ -733,24 +865,13 @@ public class Comets {
 				}
 
 				// did we exhaust the sequences in the window?
-				if (node.getScore() > objectiveWindowMax || (!infos.isEmpty() && node.getScore() > infos.get(0).objective + objectiveWindowSize)) {
+				if (!isInWindow(node, infos)) {
 					log("\nCOMETS exiting early: exhausted all conformations in energy window");
 					break;
 				}
 
 				// how are the conf trees here looking?
-				SeqConfs confs = (SeqConfs)node.getData();
-				if (confs == null) {
-
-					log("Discovered promising sequence: %s   objective lower bound: %12.6f",
-						node.makeSequence(seqSpace),
-						node.getScore()
-					);
-
-					// don't have them yet, make them
-					confs = new SeqConfs(node);
-					node.setData(confs);
-				}
+				SeqConfs confs = getConfs(node);
 
 				// is this sequence finished already?
 				if (confs.hasAllGMECs()) {
@@ -765,6 +886,40 @@ public class Comets {
 						break;
 					}
 
+				} else if (refiner != null) {
+
+					// sequence needs more work, refine a few of the best sequences at once
+					List<SeqAStarNode> nodes = new ArrayList<>();
+					nodes.add(node);
+					while (nodes.size() < numSequencesInParallel) {
+
+						SeqAStarNode nextNode = seqTree.nextLeafNode();
+						if (nextNode == null) {
+							break;
+						}
+
+						// stop at the first sequence that doesn't need refinement,
+						// and leave it in the tree so it gets handled in order
+						if (!isInWindow(nextNode, infos) || getConfs(nextNode).hasAllGMECs()) {
+							seqTree.add(nextNode);
+							break;
+						}
+
+						nodes.add(nextNode);
+					}
+					refiner.refine(nodes, confDBs);
+
+					// catch-and-release
+					for (SeqAStarNode refinedNode : nodes) {
+
+						if (refinedNode.getScore() == Double.POSITIVE_INFINITY) {
+							// constraint violated, prune this conf
+							continue;
+						}
+
+						seqTree.add(refinedNode);
+					}
+
 				} else {
 
 					// sequence needs more work, catch-and-release
@@ -791,6 +946,103 @@ public class Comets {
 		return infos;
 	}
 
+	private boolean isInWindow(SeqAStarNode node, List<SequenceInfo> infos) {
+		return node.getScore() <= objectiveWindowMax
+			&& (infos.isEmpty() || node.getScore() <= infos.get(0).objective + objectiveWindowSize);
+	}
+
+	private SeqConfs getConfs(SeqAStarNode node) {
+
+		SeqConfs confs = (SeqConfs)node.getData();
+		if (confs == null) {
+
+			log("Discovered promising sequence: %s   objective lower bound: %12.6f",
+				node.makeSequence(seqSpace),
+				node.getScore()
+			);
+
+			// don't have them yet, make them
+			confs = new SeqConfs(node);
+			node.setData(confs);
+		}
+		return confs;
+	}
+
+	private class ParallelRefiner implements AutoCloseable {
+
+		final ExecutorService threads;
+
+		ParallelRefiner(int numThreads) {
+			threads = Executors.newFixedThreadPool(numThreads, (runnable) -> {
+				Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+				thread.setDaemon(true);
+				thread.setName("Comets-refine");
+				return thread;
+			});
+		}
+
+		@Override
+		public void close() {
+			threads.shutdownNow();
+		}
+
+		/**
+		 * Refines the GMEC bounds for all the sequence nodes at once, then re-scores the nodes.
+		 *
+		 * Sequences that share a state's sub-sequence also share the state's conformations,
+		 * so each set of state conformations is refined only once, to keep a single thread on it.
+		 */
+		void refine(List<SeqAStarNode> nodes, ConfDBs confDBs) {
+
+			// collect the distinct state conformations to refine
+			Set<StateConfs> statesConfs = new LinkedHashSet<>();
+			for (SeqAStarNode node : nodes) {
+				statesConfs.addAll(((SeqConfs)node.getData()).statesConfs.values());
+			}
+
+			List<Future<?>> futures = new ArrayList<>();
+			if (refineStatesInParallel) {
+
+				for (StateConfs stateConfs : statesConfs) {
+					futures.add(threads.submit(() -> stateConfs.refineBounds(confDBs.tables.get(stateConfs.state), minimizationBudget)));
+				}
+
+			} else {
+
+				// refine the states one after another, but still refine the sequences in parallel
+				for (SeqAStarNode node : nodes) {
+					List<StateConfs> nodeStatesConfs = new ArrayList<>();
+					for (State state : states) {
+						StateConfs stateConfs = ((SeqConfs)node.getData()).statesConfs.get(state);
+						if (statesConfs.remove(stateConfs)) {
+							nodeStatesConfs.add(stateConfs);
+						}
+					}
+					futures.add(threads.submit(() -> {
+						for (StateConfs stateConfs : nodeStatesConfs) {
+							stateConfs.refineBounds(confDBs.tables.get(stateConfs.state), minimizationBudget);
+						}
+					}));
+				}
+			}
+
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				} catch (ExecutionException ex) {
+					throw new RuntimeException("can't refine COMETS sequence", ex.getCause());
+				}
+			}
+
+			// update the node scores
+			for (SeqAStarNode node : nodes) {
+				node.setHScore(((SeqConfs)node.getData()).calcScore());
+			}
+		}
+	}
+
 	private void log(String msg, Object ... args) {
 		if (printToConsole) {
 			edu.duke.cs.osprey.tools.Log.log(msg, args);
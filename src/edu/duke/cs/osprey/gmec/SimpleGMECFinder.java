@@ -38,6 +38,7 @@ import edu.duke.cs.osprey.confspace.ConfDB;
 import edu.duke.cs.osprey.confspace.ConfSearch;
 import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
 import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
+import edu.duke.cs.osprey.confspace.PrefetchingConfSearch;
 import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
 import edu.duke.cs.osprey.externalMemory.EnergiedConfFIFOSerializer;
 import edu.duke.cs.osprey.externalMemory.EnergiedConfPrioritySerializer;
@@ -100,6 +101,12 @@ public class SimpleGMECFinder {
 		 * design state and resume the calculation close to where it was aborted. Set a file to turn on the conf DB.
 		 */
 		protected File confDB = null;
+
+		/**
+		 * True to enumerate conformations on a background thread, ahead of when they're needed,
+		 * so A* search overlaps with minimization. See {@link PrefetchingConfSearch}.
+		 */
+		protected boolean prefetchConfs = false;
 		
 		public Builder(ConfSearch search, ConfEnergyCalculator confEcalc) {
 			this.search = search;
@@ -147,6 +154,11 @@ public class SimpleGMECFinder {
 			return this;
 		}
 
+		public Builder setPrefetchConfs(boolean val) {
+			prefetchConfs = val;
+			return this;
+		}
+
 		public SimpleGMECFinder build() {
 			return new SimpleGMECFinder(
 				search,
@@ -157,7 +169,8 @@ public class SimpleGMECFinder {
 				printIntermediateConfsToConsole,
 				printToConsole,
 				useExternalMemory,
-				confDB
+				confDB,
+				prefetchConfs
 			);
 		}
 	}
@@ -169,6 +182,7 @@ public class SimpleGMECFinder {
 	public final ConfPrinter consolePrinter;
 	public final boolean printIntermediateConfsToConsole;
 	public final boolean printToConsole;
+	public final boolean prefetchConfs;
 	
 	private final Queue.Factory.FIFO<ScoredConf> scoredFifoFactory;
 	private final Queue.Factory.FIFO<EnergiedConf> energiedFifoFactory;
@@ -176,6 +190,10 @@ public class SimpleGMECFinder {
 	private final File confDBFile;
 
 	protected SimpleGMECFinder(ConfSearch search, ConfEnergyCalculator confEcalc, ConfPruner pruner, ConfPrinter logPrinter, ConfPrinter consolePrinter, boolean printIntermediateConfsToConsole, boolean printToConsole, boolean useExternalMemory, File confDBFile) {
+		this(search, confEcalc, pruner, logPrinter, consolePrinter, printIntermediateConfsToConsole, printToConsole, useExternalMemory, confDBFile, false);
+	}
+
+	protected SimpleGMECFinder(ConfSearch search, ConfEnergyCalculator confEcalc, ConfPruner pruner, ConfPrinter logPrinter, ConfPrinter consolePrinter, boolean printIntermediateConfsToConsole, boolean printToConsole, boolean useExternalMemory, File confDBFile, boolean prefetchConfs) {
 		this.search = search;
 		this.confEcalc = confEcalc;
 		this.pruner = pruner;
@@ -184,6 +202,7 @@ public class SimpleGMECFinder {
 		this.printIntermediateConfsToConsole = printIntermediateConfsToConsole;
 		this.printToConsole = printToConsole;
 		this.confDBFile = confDBFile;
+		this.prefetchConfs = prefetchConfs;
 		
 		if (useExternalMemory) {
 			RCs rcs = new RCs(confEcalc.confSpace);
@@ -209,6 +228,18 @@ public class SimpleGMECFinder {
 	
 	public Queue.FIFO<EnergiedConf> find(double energyWindowSize) {
 
+		if (!prefetchConfs) {
+			return find(search, energyWindowSize);
+		}
+
+		// run A* on a background thread while we minimize
+		try (PrefetchingConfSearch prefetcher = new PrefetchingConfSearch(search)) {
+			return find(prefetcher, energyWindowSize);
+		}
+	}
+
+	private Queue.FIFO<EnergiedConf> find(ConfSearch search, double energyWindowSize) {
+
 		// start searching for the min score conf
 		log("Searching for min score conformation...");
 		Stopwatch minScoreStopwatch = new Stopwatch().start();
@@ -450,6 +481,8 @@ public class SimpleGMECFinder {
 			}
 		} else if (confSearch instanceof ConfSearch.MultiSplitter.Stream) {
 			setErangeProgress(((ConfSearch.MultiSplitter.Stream)confSearch).getSource(), erange);
+		} else if (confSearch instanceof PrefetchingConfSearch) {
+			setErangeProgress(((PrefetchingConfSearch)confSearch).getSource(), erange);
 		}
 	}
 	
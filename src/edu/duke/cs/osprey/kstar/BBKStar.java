@@ -32,6 +32,7 @@
 
 package edu.duke.cs.osprey.kstar;
 
+import edu.duke.cs.osprey.astar.conf.ConfSearchCache;
 import edu.duke.cs.osprey.astar.conf.RCs;
 import edu.duke.cs.osprey.confspace.*;
 import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
@@ -43,6 +44,10 @@ import edu.duke.cs.osprey.tools.MathTools;
 import java.io.File;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -74,6 +79,44 @@ public class BBKStar {
 			 */
 			private int numConfsPerBatch = 8;
 
+			/**
+			 * The number of the best nodes in the sequence tree to refine at the same time.
+			 *
+			 * Nodes refined together share the conf energy calculators' task executors,
+			 * so energy calculations for all of them compete for the same threads.
+			 * Refining more than one node lets multi-sequence bounds and single-sequence partition functions
+			 * make progress in parallel, rather than waiting on the single best node.
+			 * Sequences are still reported in order, only once they reach the top of the tree.
+			 */
+			private int numNodesInParallel = 1;
+
+			/**
+			 * The minimum number of partition function conformation trees to keep in memory at once.
+			 *
+			 * Defaults to null, which means keep all trees in memory at once.
+			 * Positive values keep at least that number of the most recently-used trees in memory,
+			 * and other trees may be deleted by the JVM's garbage collector, or checkpointed to disk
+			 * if {@link #confTreeCheckpointDir} is set.
+			 */
+			private Integer minNumConfTrees = null;
+
+			/**
+			 * Directory in which to checkpoint conformation trees that aren't protected by {@link #minNumConfTrees}.
+			 *
+			 * Checkpointed trees are written to disk and released, and are read back from disk
+			 * when their sequence returns to the top of the tree, so their A* search doesn't have to be repeated.
+			 */
+			private File confTreeCheckpointDir = null;
+
+			/**
+			 * The most bytes of heap memory to use for partition function conformation trees.
+			 *
+			 * Defaults to null, which means no limit. When the estimated size of the trees in memory
+			 * goes over the limit, the trees least likely to be useful again are released,
+			 * regardless of {@link #minNumConfTrees}. See {@link ConfSearchCache} for details.
+			 */
+			private Long maxConfTreeBytes = null;
+
 			public Builder setNumBestSequences(int val) {
 				numBestSequences = val;
 				return this;
@@ -84,17 +127,51 @@ public class BBKStar {
 				return this;
 			}
 
+			public Builder setNumNodesInParallel(int val) {
+				if (val <= 0) {
+					throw new IllegalArgumentException("number of nodes in parallel must be at least 1");
+				}
+				numNodesInParallel = val;
+				return this;
+			}
+
+			public Builder setMinNumConfTrees(Integer val) {
+				minNumConfTrees = val;
+				return this;
+			}
+
+			public Builder setConfTreeCheckpointDir(File val) {
+				confTreeCheckpointDir = val;
+				return this;
+			}
+
+			public Builder setMaxConfTreeBytes(Long val) {
+				maxConfTreeBytes = val;
+				return this;
+			}
+
 			public Settings build() {
-				return new Settings(numBestSequences, numConfsPerBatch);
+				if (confTreeCheckpointDir != null && minNumConfTrees == null && maxConfTreeBytes == null) {
+					throw new IllegalArgumentException("conf tree checkpoints need a minimum number of conf trees or a heap budget for conf trees");
+				}
+				return new Settings(numBestSequences, numConfsPerBatch, numNodesInParallel, minNumConfTrees, confTreeCheckpointDir, maxConfTreeBytes);
 			}
 		}
 
 		public final int numBestSequences;
 		public final int numConfsPerBatch;
+		public final int numNodesInParallel;
+		public final Integer minNumConfTrees;
+		public final File confTreeCheckpointDir;
+		public final Long maxConfTreeBytes;
 
-		public Settings(int numBestSequences, int numConfsPerBatch) {
+		public Settings(int numBestSequences, int numConfsPerBatch, int numNodesInParallel, Integer minNumConfTrees, File confTreeCheckpointDir, Long maxConfTreeBytes) {
 			this.numBestSequences = numBestSequences;
 			this.numConfsPerBatch = numConfsPerBatch;
+			this.numNodesInParallel = numNodesInParallel;
+			this.minNumConfTrees = minNumConfTrees;
+			this.confTreeCheckpointDir = confTreeCheckpointDir;
+			this.maxConfTreeBytes = maxConfTreeBytes;
 		}
 	}
 
@@ -363,6 +440,13 @@ public class BBKStar {
 		}
 
 		private PartitionFunction makePfunc(Map<Sequence,PartitionFunction> pfuncCache, ConfSpaceInfo info, ConfDB confdb) {
+			// nodes can be made on different threads, so only one thread at a time gets to use the cache (and the conf DB)
+			synchronized (pfuncCache) {
+				return makePfuncSynchronized(pfuncCache, info, confdb);
+			}
+		}
+
+		private PartitionFunction makePfuncSynchronized(Map<Sequence,PartitionFunction> pfuncCache, ConfSpaceInfo info, ConfDB confdb) {
 
 			// filter the global sequence to this conf space
 			Sequence sequence = this.sequence.filter(info.confSpace.seqSpace);
@@ -373,6 +457,17 @@ public class BBKStar {
 				return pfunc;
 			}
 
+			// maybe a previous run already computed this pfunc?
+			if (pfuncResultsDB != null) {
+				PartitionFunction.Result result = pfuncResultsDB.get(info.confEcalcMinimized, info.confSearchFactoryMinimized::make)
+					.getReusable(sequence, kstarSettings.epsilon, info.stabilityThreshold);
+				if (result != null) {
+					pfunc = new PfuncResultsDB.StoredPfunc(result);
+					pfuncCache.put(sequence, pfunc);
+					return pfunc;
+				}
+			}
+
 			// cache miss, need to compute the partition function
 
 			// make the partition function
@@ -385,7 +480,12 @@ public class BBKStar {
 			if (kstarSettings.useExternalMemory) {
 				PartitionFunction.WithExternalMemory.setOrThrow(pfunc, true, rcs);
 			}
-			ConfSearch astar = info.confSearchFactoryMinimized.make(rcs);
+			ConfSearch astar;
+			if (confTrees != null) {
+				astar = confTrees.make(() -> info.confSearchFactoryMinimized.make(rcs));
+			} else {
+				astar = info.confSearchFactoryMinimized.make(rcs);
+			}
 			pfunc.init(astar, rcs.getNumConformations(), kstarSettings.epsilon);
 			pfunc.setStabilityThreshold(info.stabilityThreshold);
 
@@ -409,7 +509,7 @@ public class BBKStar {
 
 			// refine the pfuncs if needed
 			if (protein.getStatus().canContinue()) {
-				protein.compute(bbkstarSettings.numConfsPerBatch);
+				refine(protein, BBKStar.this.protein);
 
 				// tank the sequence if the unbound protein is unstable
 				if (protein.getStatus() == PartitionFunction.Status.Unstable) {
@@ -420,7 +520,7 @@ public class BBKStar {
 			}
 
 			if (ligand.getStatus().canContinue()) {
-				ligand.compute(bbkstarSettings.numConfsPerBatch);
+				refine(ligand, BBKStar.this.ligand);
 
 				// tank the sequence if the unbound ligand is unstable
 				if (ligand.getStatus() == PartitionFunction.Status.Unstable) {
@@ -431,7 +531,7 @@ public class BBKStar {
 			}
 
 			if (complex.getStatus().canContinue()) {
-				complex.compute(bbkstarSettings.numConfsPerBatch);
+				refine(complex, BBKStar.this.complex);
 			}
 
 			// update the score
@@ -448,13 +548,13 @@ public class BBKStar {
 
 			// refine the pfuncs until done
 			while (protein.getStatus().canContinue()) {
-				protein.compute(bbkstarSettings.numConfsPerBatch);
+				refine(protein, BBKStar.this.protein);
 			}
 			while (ligand.getStatus().canContinue()) {
-				ligand.compute(bbkstarSettings.numConfsPerBatch);
+				refine(ligand, BBKStar.this.ligand);
 			}
 			while (complex.getStatus().canContinue()) {
-				complex.compute(bbkstarSettings.numConfsPerBatch);
+				refine(complex, BBKStar.this.complex);
 			}
 
 			// update the score
@@ -463,6 +563,28 @@ public class BBKStar {
 			return kstarScore;
 		}
 
+		private void refine(PartitionFunction pfunc, ConfSpaceInfo info) {
+
+			// sequences can share pfuncs (e.g., the same protein sequence for different ligand sequences)
+			// so don't let nodes refined in parallel refine the same pfunc at the same time
+			// NOTE: don't lock the pfunc itself, its listener thread needs that monitor while compute() waits
+			synchronized (getRefineLock(pfunc)) {
+
+				// another node might have finished this pfunc while we waited
+				if (!pfunc.getStatus().canContinue()) {
+					return;
+				}
+
+				pfunc.compute(bbkstarSettings.numConfsPerBatch);
+
+				// save finished pfuncs for later runs
+				if (pfuncResultsDB != null && !pfunc.getStatus().canContinue()) {
+					pfuncResultsDB.get(info.confEcalcMinimized, info.confSearchFactoryMinimized::make)
+						.put(sequence.filter(info.confSpace.seqSpace), pfunc.makeResult());
+				}
+			}
+		}
+
 		public KStarScore makeKStarScore() {
 			return new KStarScore(protein.makeResult(), ligand.makeResult(), complex.makeResult());
 		}
@@ -508,10 +630,15 @@ public class BBKStar {
 	/** Optional and overridable settings for BBK* */
 	public final Settings bbkstarSettings;
 
-	// TODO: caching these will keep lots of A* trees in memory. is that a problem? (oh yes, it definitely is)
+	// NOTE: caching these will keep lots of A* trees in memory, unless the trees are managed by confTrees
 	private final Map<Sequence,PartitionFunction> proteinPfuncs;
 	private final Map<Sequence,PartitionFunction> ligandPfuncs;
 	private final Map<Sequence,PartitionFunction> complexPfuncs;
+	private final ConfSearchCache confTrees;
+
+	private PfuncResultsDB pfuncResultsDB = null;
+	private ParallelRefiner refiner = null;
+	private final Map<PartitionFunction,Object> refineLocks = Collections.synchronizedMap(new IdentityHashMap<>());
 
 	public BBKStar(SimpleConfSpace protein, SimpleConfSpace ligand, SimpleConfSpace complex, KStar.Settings kstarSettings, Settings bbkstarSettings) {
 
@@ -530,6 +657,23 @@ public class BBKStar {
 		proteinPfuncs = new HashMap<>();
 		ligandPfuncs = new HashMap<>();
 		complexPfuncs = new HashMap<>();
+
+		if (bbkstarSettings.minNumConfTrees != null || bbkstarSettings.maxConfTreeBytes != null) {
+			confTrees = new ConfSearchCache(bbkstarSettings.minNumConfTrees, bbkstarSettings.confTreeCheckpointDir, bbkstarSettings.maxConfTreeBytes);
+		} else {
+			confTrees = null;
+		}
+	}
+
+	/**
+	 * Returns hit, miss, and memory statistics for the partition function conformation trees,
+	 * or null if the trees aren't managed by a {@link ConfSearchCache}.
+	 */
+	public ConfSearchCache.Stats getConfTreeStats() {
+		if (confTrees == null) {
+			return null;
+		}
+		return confTrees.getStats();
 	}
 
 	public Iterable<ConfSpaceInfo> confSpaceInfos() {
@@ -561,12 +705,16 @@ public class BBKStar {
 
 		List<KStar.ScoredSequence> scoredSequences = new ArrayList<>();
 
-		// open the conf databases if needed
+		// open the conf databases and the pfunc results cache if needed
 		try (ConfDB.DBs confDBs = new ConfDB.DBs()
-			 .add(protein.confSpace, protein.confDBFile)
+			.setWriteBehind(kstarSettings.confDBWriteBehindMs)
+			.setBackend(kstarSettings.confDBBackend)
+			.add(protein.confSpace, protein.confDBFile)
 			.add(ligand.confSpace, ligand.confDBFile)
-			.add(complex.confSpace, complex.confDBFile)
+			.add(complex.confSpace, complex.confDBFile);
+			PfuncResultsDB pfuncResultsDB = PfuncResultsDB.makeIfNeeded(kstarSettings.pfuncResultsFile)
 		) {
+			this.pfuncResultsDB = pfuncResultsDB;
 
 			// calculate wild-type first
 			if (complex.confSpace.seqSpace.containsWildTypeSequence()) {
@@ -590,6 +738,9 @@ public class BBKStar {
 
 			// start the BBK* tree with the root node
 			PriorityQueue<Node> tree = new PriorityQueue<>();
+			if (bbkstarSettings.numNodesInParallel > 1) {
+				refiner = new ParallelRefiner(bbkstarSettings.numNodesInParallel);
+			}
 			tree.add(new MultiSequenceNode(complex.confSpace.makeUnassignedSequence(), confDBs));
 
 			// start searching the tree
@@ -600,6 +751,17 @@ public class BBKStar {
 				// get the next node
 				Node node = tree.poll();
 
+				// refine a few of the best nodes at once if needed
+				if (refiner != null && needsRefinement(node)) {
+					List<Node> nodes = new ArrayList<>();
+					nodes.add(node);
+					while (nodes.size() < bbkstarSettings.numNodesInParallel && !tree.isEmpty() && needsRefinement(tree.peek())) {
+						nodes.add(tree.poll());
+					}
+					tree.addAll(refiner.refine(nodes));
+					continue;
+				}
+
 				if (node instanceof SingleSequenceNode) {
 					SingleSequenceNode ssnode = (SingleSequenceNode)node;
 
@@ -650,11 +812,86 @@ public class BBKStar {
 					throw new Error("BBK* ended, but the tree isn't empty and we didn't return enough sequences. This is a bug.");
 				}
 			}
+
+			if (confTrees != null && kstarSettings.showPfuncProgress) {
+				System.out.println(confTrees.getStats());
+			}
+		} finally {
+			this.pfuncResultsDB = null;
+			if (refiner != null) {
+				refiner.threads.shutdownNow();
+				refiner = null;
+			}
+			refineLocks.clear();
 		}
 
 		return scoredSequences;
 	}
 
+	private Object getRefineLock(PartitionFunction pfunc) {
+		return refineLocks.computeIfAbsent(pfunc, (key) -> new Object());
+	}
+
+	private static boolean needsRefinement(Node node) {
+		return node instanceof MultiSequenceNode
+			|| ((SingleSequenceNode)node).getStatus() == PfuncsStatus.Estimating;
+	}
+
+	private class ParallelRefiner {
+
+		final ExecutorService threads;
+
+		ParallelRefiner(int numThreads) {
+			threads = Executors.newFixedThreadPool(numThreads, (runnable) -> {
+				Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+				thread.setDaemon(true);
+				thread.setName("BBKStar-nodes");
+				return thread;
+			});
+		}
+
+		/**
+		 * Expands the multi-sequence nodes, then estimates the scores of their children
+		 * and refines the single-sequence nodes, all at once.
+		 * Returns the nodes that should go back in the tree.
+		 */
+		List<Node> refine(List<Node> nodes) {
+
+			// expand the multi-sequence nodes first, so all the children can be scored in parallel too
+			List<Node> nodesToScore = new ArrayList<>();
+			for (Node node : nodes) {
+				if (node instanceof MultiSequenceNode) {
+					nodesToScore.addAll(((MultiSequenceNode)node).makeChildren());
+				} else {
+					nodesToScore.add(node);
+				}
+			}
+
+			List<Future<?>> futures = new ArrayList<>();
+			for (Node node : nodesToScore) {
+				futures.add(threads.submit(node::estimateScore));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				} catch (ExecutionException ex) {
+					throw new RuntimeException("can't refine BBK* node", ex.getCause());
+				}
+			}
+
+			// keep all the nodes that are still useful
+			List<Node> usefulNodes = new ArrayList<>();
+			for (Node node : nodesToScore) {
+				if (!node.isUnboundUnstable) {
+					usefulNodes.add(node);
+				}
+			}
+			return usefulNodes;
+		}
+	}
+
 	private void reportSequence(SingleSequenceNode ssnode, List<KStar.ScoredSequence> scoredSequences) {
 
 		KStarScore kstarScore = ssnode.makeKStarScore();
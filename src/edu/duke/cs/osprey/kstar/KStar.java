@@ -37,10 +37,12 @@ import edu.duke.cs.osprey.confspace.*;
 import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
 import edu.duke.cs.osprey.kstar.pfunc.BoltzmannCalculator;
 import edu.duke.cs.osprey.kstar.pfunc.PartitionFunction;
+import edu.duke.cs.osprey.kstar.pfunc.PfuncResultsDB;
 
 import java.io.File;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.*;
 
 
 /**
@@ -103,6 +105,39 @@ public class KStar {
 			 */
 			private boolean useExternalMemory = false;
 
+			/**
+			 * The number of sequences whose partition functions are computed at the same time.
+			 *
+			 * The partition functions for all sequences share the conf energy calculators' task executors,
+			 * so when many small partition functions would otherwise leave most of the threads idle,
+			 * computing a few sequences at once keeps them busy. Scores are still reported in sequence order.
+			 * The wild-type sequence is always computed first, on its own.
+			 */
+			private int numConcurrentSequences = 1;
+
+			/**
+			 * File in which to save finished partition function results, so later runs
+			 * on the same conformation spaces can reuse them. See {@link PfuncResultsDB}.
+			 *
+			 * Set to null to disable the cache.
+			 */
+			private File pfuncResultsFile = null;
+
+			/**
+			 * How often (in milliseconds) buffered conformation energies are written to the conf DBs.
+			 *
+			 * When positive, energies are buffered in memory and written to disk by a background thread,
+			 * so partition function calculations don't wait on disk I/O. At most about this much work
+			 * is lost if the JVM crashes. When zero, every energy is written to disk immediately.
+			 * See {@link ConfDB#ConfDB(SimpleConfSpace,File,long)}.
+			 */
+			private long confDBWriteBehindMs = 0;
+
+			/**
+			 * How the conf DBs store conformations. See {@link ConfDB.Backend}.
+			 */
+			private ConfDB.Backend confDBBackend = ConfDB.Backend.MapDB;
+
 			public Builder setEpsilon(double val) {
 				epsilon = val;
 				return this;
@@ -152,8 +187,37 @@ public class KStar {
 				return this;
 			}
 
+			public Builder setNumConcurrentSequences(int val) {
+				if (val <= 0) {
+					throw new IllegalArgumentException("number of concurrent sequences must be at least 1");
+				}
+				numConcurrentSequences = val;
+				return this;
+			}
+
+			public Builder setPfuncResultsFile(File val) {
+				pfuncResultsFile = val;
+				return this;
+			}
+
+			public Builder setConfDBWriteBehindMs(long val) {
+				if (val < 0) {
+					throw new IllegalArgumentException("conf DB write-behind interval must be non-negative");
+				}
+				confDBWriteBehindMs = val;
+				return this;
+			}
+
+			public Builder setConfDBBackend(ConfDB.Backend val) {
+				confDBBackend = val;
+				return this;
+			}
+
 			public Settings build() {
-				return new Settings(epsilon, stabilityThreshold, maxSimultaneousMutations, scoreWriters, showPfuncProgress, useExternalMemory);
+				if (useExternalMemory && numConcurrentSequences > 1) {
+					throw new IllegalArgumentException("external memory can't be used with concurrent sequences");
+				}
+				return new Settings(epsilon, stabilityThreshold, maxSimultaneousMutations, scoreWriters, showPfuncProgress, useExternalMemory, numConcurrentSequences, pfuncResultsFile, confDBWriteBehindMs, confDBBackend);
 			}
 		}
 
@@ -163,15 +227,23 @@ public class KStar {
 		public final KStarScoreWriter.Writers scoreWriters;
 		public final boolean showPfuncProgress;
 		public final boolean useExternalMemory;
+		public final int numConcurrentSequences;
+		public final File pfuncResultsFile;
+		public final long confDBWriteBehindMs;
+		public final ConfDB.Backend confDBBackend;
 
 
-		public Settings(double epsilon, Double stabilityThreshold, int maxSimultaneousMutations, KStarScoreWriter.Writers scoreWriters, boolean dumpPfuncConfs, boolean useExternalMemory) {
+		public Settings(double epsilon, Double stabilityThreshold, int maxSimultaneousMutations, KStarScoreWriter.Writers scoreWriters, boolean dumpPfuncConfs, boolean useExternalMemory, int numConcurrentSequences, File pfuncResultsFile, long confDBWriteBehindMs, ConfDB.Backend confDBBackend) {
 			this.epsilon = epsilon;
 			this.stabilityThreshold = stabilityThreshold;
 			this.maxSimultaneousMutations = maxSimultaneousMutations;
 			this.scoreWriters = scoreWriters;
 			this.showPfuncProgress = dumpPfuncConfs;
 			this.useExternalMemory = useExternalMemory;
+			this.numConcurrentSequences = numConcurrentSequences;
+			this.pfuncResultsFile = pfuncResultsFile;
+			this.confDBWriteBehindMs = confDBWriteBehindMs;
+			this.confDBBackend = confDBBackend;
 		}
 	}
 
@@ -218,7 +290,10 @@ public class KStar {
 		public final ConfSpaceType type;
 		public final String id;
 
-		public final Map<Sequence,PartitionFunction.Result> pfuncResults = new HashMap<>();
+		public final Map<Sequence,PartitionFunction.Result> pfuncResults = new ConcurrentHashMap<>();
+
+		// pfuncs being computed right now, so concurrent sequences don't compute the same one twice
+		private final Map<Sequence,CompletableFuture<PartitionFunction.Result>> pendingResults = new ConcurrentHashMap<>();
 
 		public ConfEnergyCalculator confEcalc = null;
 		public ConfSearchFactory confSearchFactory = null;
@@ -241,6 +316,7 @@ public class KStar {
 
 		public void clear() {
 			pfuncResults.clear();
+			pendingResults.clear();
 		}
 
 		public PartitionFunction.Result calcPfunc(int sequenceIndex, BigDecimal stabilityThreshold, ConfDB confDB) {
@@ -253,13 +329,49 @@ public class KStar {
 				return result;
 			}
 
-			// cache miss, need to compute the partition function
+			// cache miss, is another sequence already computing this pfunc?
+			CompletableFuture<PartitionFunction.Result> pending = new CompletableFuture<>();
+			CompletableFuture<PartitionFunction.Result> otherPending = pendingResults.putIfAbsent(sequence, pending);
+			if (otherPending != null) {
+				try {
+					return otherPending.get();
+				} catch (InterruptedException | ExecutionException ex) {
+					throw new RuntimeException("can't get partition function for sequence: " + sequence, ex);
+				}
+			}
+
+			// nope, need to compute the partition function
+			try {
+				result = calcPfunc(sequence, stabilityThreshold, confDB);
+				pending.complete(result);
+				return result;
+			} catch (RuntimeException | Error ex) {
+				pending.completeExceptionally(ex);
+				throw ex;
+			}
+		}
+
+		private PartitionFunction.Result calcPfunc(Sequence sequence, BigDecimal stabilityThreshold, ConfDB confDB) {
+
+			// maybe a previous run already computed this pfunc?
+			PfuncResultsDB.ConfSpaceResults storedResults = null;
+			if (pfuncResultsDB != null) {
+				storedResults = pfuncResultsDB.get(confEcalc, confSearchFactory::make);
+				PartitionFunction.Result result = storedResults.getReusable(sequence, settings.epsilon, stabilityThreshold);
+				if (result != null) {
+					pfuncResults.put(sequence, result);
+					return result;
+				}
+			}
 
 			// make the partition function
 			PartitionFunction pfunc = PartitionFunction.makeBestFor(confEcalc);
 			pfunc.setReportProgress(settings.showPfuncProgress);
 			if (confDB != null) {
-				PartitionFunction.WithConfTable.setOrThrow(pfunc, confDB.getSequence(sequence));
+				// the conf DB keeps its sequence tables in a plain map
+				synchronized (confDB) {
+					PartitionFunction.WithConfTable.setOrThrow(pfunc, confDB.getSequence(sequence));
+				}
 			}
 			RCs rcs = sequence.makeRCs(confSpace);
 			if (settings.useExternalMemory) {
@@ -273,18 +385,11 @@ public class KStar {
 			pfunc.compute();
 
 			// save the result
-			result = pfunc.makeResult();
+			PartitionFunction.Result result = pfunc.makeResult();
 			pfuncResults.put(sequence, result);
-
-			/* HACKHACK: we're done using the A* tree, pfunc, etc
-				and normally the garbage collector will clean them up,
-				along with their off-heap resources (e.g. TPIE data structures).
-				Except the garbage collector might not do it right away.
-				If we try to allocate more off-heap resources before these get cleaned up,
-				we might run out. So poke the garbage collector now and try to get
-				it to clean up the off-heap resources right away.
-			*/
-			Runtime.getRuntime().gc();
+			if (storedResults != null) {
+				storedResults.put(sequence, result);
+			}
 
 			return result;
 		}
@@ -311,6 +416,7 @@ public class KStar {
 	public final Settings settings;
 
 	private List<Sequence> sequences;
+	private PfuncResultsDB pfuncResultsDB = null;
 
 	public KStar(SimpleConfSpace protein, SimpleConfSpace ligand, SimpleConfSpace complex, Settings settings) {
 		this.settings = settings;
@@ -385,12 +491,16 @@ public class KStar {
 		settings.scoreWriters.writeHeader();
 		// TODO: progress bar?
 
-		// open the conf databases if needed
+		// open the conf databases and the pfunc results cache if needed
 		try (ConfDB.DBs confDBs = new ConfDB.DBs()
+			.setWriteBehind(settings.confDBWriteBehindMs)
+			.setBackend(settings.confDBBackend)
 			.add(protein.confSpace, protein.confDBFile)
 			.add(ligand.confSpace, ligand.confDBFile)
-			.add(complex.confSpace, complex.confDBFile)
+			.add(complex.confSpace, complex.confDBFile);
+			PfuncResultsDB pfuncResultsDB = PfuncResultsDB.makeIfNeeded(settings.pfuncResultsFile)
 		) {
+			this.pfuncResultsDB = pfuncResultsDB;
 			ConfDB proteinConfDB = confDBs.get(protein.confSpace);
 			ConfDB ligandConfDB = confDBs.get(ligand.confSpace);
 			ConfDB complexConfDB = confDBs.get(complex.confSpace);
@@ -402,16 +512,19 @@ public class KStar {
 				ligand.calcPfunc(0, BigDecimal.ZERO, ligandConfDB),
 				complex.calcPfunc(0, BigDecimal.ZERO, complexConfDB)
 			);
-			BigDecimal proteinStabilityThreshold = null;
-			BigDecimal ligandStabilityThreshold = null;
+			final BigDecimal proteinStabilityThreshold;
+			final BigDecimal ligandStabilityThreshold;
 			if (settings.stabilityThreshold != null) {
 				BigDecimal stabilityThresholdFactor = new BoltzmannCalculator(PartitionFunction.decimalPrecision).calc(settings.stabilityThreshold);
 				proteinStabilityThreshold = wildTypeScore.protein.values.calcLowerBound().multiply(stabilityThresholdFactor);
 				ligandStabilityThreshold = wildTypeScore.ligand.values.calcLowerBound().multiply(stabilityThresholdFactor);
+			} else {
+				proteinStabilityThreshold = null;
+				ligandStabilityThreshold = null;
 			}
 
 			// compute all the partition functions and K* scores for the rest of the sequences
-			for (int i=1; i<n; i++) {
+			SequencePfuncs pfuncs = (i) -> {
 
 				// get the pfuncs, with short circuits as needed
 				final PartitionFunction.Result proteinResult = protein.calcPfunc(i, proteinStabilityThreshold, proteinConfDB);
@@ -429,10 +542,77 @@ public class KStar {
 					}
 				}
 
-				scorer.score(i, proteinResult, ligandResult, complexResult);
+				return new PartitionFunction.Result[] { proteinResult, ligandResult, complexResult };
+			};
+			if (settings.numConcurrentSequences > 1) {
+				calcConcurrently(1, n, pfuncs, scorer);
+			} else {
+				for (int i=1; i<n; i++) {
+					PartitionFunction.Result[] results = pfuncs.calc(i);
+					scorer.score(i, results[0], results[1], results[2]);
+				}
 			}
+		} finally {
+			this.pfuncResultsDB = null;
 		}
 
 		return scores;
 	}
+
+	private static interface SequencePfuncs {
+		/** returns the protein, ligand, and complex pfunc results, in that order */
+		PartitionFunction.Result[] calc(int sequenceNumber);
+	}
+
+	/**
+	 * Computes the pfuncs for sequences [start,stop) on a few threads at once,
+	 * but scores the sequences in order, as soon as each prefix of the sequences is done.
+	 */
+	private void calcConcurrently(int start, int stop, SequencePfuncs pfuncs, Scorer scorer) {
+
+		ExecutorService threads = Executors.newFixedThreadPool(settings.numConcurrentSequences, (runnable) -> {
+			Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+			thread.setDaemon(true);
+			thread.setName("KStar-sequences");
+			return thread;
+		});
+		try {
+
+			Map<Integer,PartitionFunction.Result[]> finished = new HashMap<>();
+			int[] nextSequenceNumber = { start };
+
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i=start; i<stop; i++) {
+				final int sequenceNumber = i;
+				futures.add(threads.submit(() -> {
+
+					PartitionFunction.Result[] results = pfuncs.calc(sequenceNumber);
+
+					// score all the sequences we can, in order
+					synchronized (finished) {
+						finished.put(sequenceNumber, results);
+						while (finished.containsKey(nextSequenceNumber[0])) {
+							PartitionFunction.Result[] next = finished.remove(nextSequenceNumber[0]);
+							scorer.score(nextSequenceNumber[0], next[0], next[1], next[2]);
+							nextSequenceNumber[0]++;
+						}
+					}
+				}));
+			}
+
+			// wait for everything to finish, and pass along any exceptions
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				} catch (ExecutionException ex) {
+					throw new RuntimeException("can't compute sequence partition functions", ex.getCause());
+				}
+			}
+
+		} finally {
+			threads.shutdownNow();
+		}
+	}
 }
@@ -15,6 +15,7 @@ import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
 import edu.duke.cs.osprey.kstar.pfunc.BoltzmannCalculator;
 import edu.duke.cs.osprey.kstar.pfunc.LowerBoundCalculator;
 import edu.duke.cs.osprey.kstar.pfunc.PartitionFunction;
+import edu.duke.cs.osprey.kstar.pfunc.PfuncResultsDB;
 import edu.duke.cs.osprey.kstar.pfunc.UpperBoundCalculator;
 import edu.duke.cs.osprey.tools.HashCalculator;
 import edu.duke.cs.osprey.tools.MathTools;
@@ -242,6 +243,7 @@ public class MSKStar {
 	private class ConfDBs extends ConfDB.DBs {
 
 		public Map<State,ConfDB.ConfTable> tables = new HashMap<>();
+		public final PfuncResultsDB pfuncResults = PfuncResultsDB.makeIfNeeded(pfuncResultsFile);
 
 		public ConfDBs() {
 
@@ -258,6 +260,14 @@ public class MSKStar {
 				}
 			}
 		}
+
+		@Override
+		public void clean() {
+			super.clean();
+			if (pfuncResults != null) {
+				pfuncResults.clean();
+			}
+		}
 	}
 
 	/**
@@ -302,11 +312,25 @@ public class MSKStar {
 		PartitionFunction pfunc = null;
 		PartitionFunction.Result pfuncResult = null;
 
-		StateConfs(Sequence sequence, State state, double epsilon, ConfDB.ConfTable confTable, ConfSearchCache confTrees) {
+		final PfuncResultsDB.ConfSpaceResults storedResults;
+
+		StateConfs(Sequence sequence, State state, double epsilon, ConfDB.ConfTable confTable, ConfSearchCache confTrees, PfuncResultsDB pfuncResultsDB) {
 
 			this.state = state;
 			this.sequence = sequence;
 
+			// maybe a previous run already computed this pfunc?
+			if (pfuncResultsDB != null) {
+				storedResults = pfuncResultsDB.get(state.confEcalc, state.confTreeFactory);
+				pfuncResult = storedResults.getReusable(sequence, epsilon, null);
+				if (pfuncResult != null) {
+					pfuncResult.values.calcFreeEnergyBounds(freeEnergyBounds);
+					return;
+				}
+			} else {
+				storedResults = null;
+			}
+
 			// init pfunc calculation
 			pfunc = PartitionFunction.makeBestFor(state.confEcalc);
 			RCs rcs = sequence.makeRCs(state.confSpace);
@@ -335,6 +359,9 @@ public class MSKStar {
 			// are we there yet?
 			if (!pfunc.getStatus().canContinue()) {
 				pfuncResult = pfunc.makeResult();
+				if (storedResults != null) {
+					storedResults.put(sequence, pfuncResult);
+				}
 
 				// release the resources used by the pfunc (e.g., the memory for the A* tree)
 				pfunc = null;
@@ -365,7 +392,7 @@ public class MSKStar {
 				StateConfs.Key key = new StateConfs.Key(sequence, state);
 				StateConfs stateConfs = stateConfsCache.get(key);
 				if (stateConfs == null) {
-					stateConfs = new StateConfs(sequence, state, epsilon, confDBs.tables.get(state), confTrees);
+					stateConfs = new StateConfs(sequence, state, epsilon, confDBs.tables.get(state), confTrees, confDBs.pfuncResults);
 					stateConfsCache.put(key, stateConfs);
 				}
 
@@ -477,11 +504,26 @@ public class MSKStar {
 		 */
 		private Integer minNumConfTrees = null;
 
+		/**
+		 * Directory in which to checkpoint conformation trees that aren't protected by {@link #minNumConfTrees}.
+		 *
+		 * Checkpointed trees are written to disk and released, instead of being left to the garbage collector,
+		 * and are read back from disk when needed again, so their A* search doesn't have to be repeated.
+		 * Only used when {@link #minNumConfTrees} is set, and only for {@link edu.duke.cs.osprey.astar.conf.ConfAStarTree} instances.
+		 */
+		private File confTreeCheckpointDir = null;
+
 		private boolean printToConsole = true;
 
 		/** File to which to log sequences as they are found */
 		private File logFile = null;
 
+		/**
+		 * File in which to save finished partition function results, so later runs
+		 * on the same states can reuse them. See {@link PfuncResultsDB}.
+		 */
+		private File pfuncResultsFile = null;
+
 		public Builder(LMFE objective) {
 			this.objective = objective;
 		}
@@ -516,6 +558,11 @@ public class MSKStar {
 			return this;
 		}
 
+		public Builder setConfTreeCheckpointDir(File val) {
+			confTreeCheckpointDir = val;
+			return this;
+		}
+
 		public Builder setPrintToConsole(boolean val) {
 			printToConsole = val;
 			return this;
@@ -526,8 +573,13 @@ public class MSKStar {
 			return this;
 		}
 
+		public Builder setPfuncResultsFile(File val) {
+			pfuncResultsFile = val;
+			return this;
+		}
+
 		public MSKStar build() {
-			return new MSKStar(objective, constraints, epsilon, objectiveWindowSize, objectiveWindowMax, maxSimultaneousMutations, minNumConfTrees, printToConsole, logFile);
+			return new MSKStar(objective, constraints, epsilon, objectiveWindowSize, objectiveWindowMax, maxSimultaneousMutations, minNumConfTrees, confTreeCheckpointDir, printToConsole, logFile, pfuncResultsFile);
 		}
 	}
 
@@ -539,8 +591,10 @@ public class MSKStar {
 	public final double objectiveWindowMax;
 	public final int maxSimultaneousMutations;
 	public final Integer minNumConfTrees;
+	public final File confTreeCheckpointDir;
 	public final boolean printToConsole;
 	public final File logFile;
+	public final File pfuncResultsFile;
 
 	public final List<State> states;
 	public final SeqSpace seqSpace;
@@ -548,7 +602,7 @@ public class MSKStar {
 	private final Map<StateConfs.Key,StateConfs> stateConfsCache = new HashMap<>();
 	private final ConfSearchCache confTrees;
 
-	private MSKStar(LMFE objective, List<LMFE> constraints, double epsilon, double objectiveWindowSize, double objectiveWindowMax, int maxSimultaneousMutations, Integer minNumConfTrees, boolean printToConsole, File logFile) {
+	private MSKStar(LMFE objective, List<LMFE> constraints, double epsilon, double objectiveWindowSize, double objectiveWindowMax, int maxSimultaneousMutations, Integer minNumConfTrees, File confTreeCheckpointDir, boolean printToConsole, File logFile, File pfuncResultsFile) {
 
 		this.objective = objective;
 		this.constraints = constraints;
@@ -557,8 +611,10 @@ public class MSKStar {
 		this.objectiveWindowMax = objectiveWindowMax;
 		this.maxSimultaneousMutations = maxSimultaneousMutations;
 		this.minNumConfTrees = minNumConfTrees;
+		this.confTreeCheckpointDir = confTreeCheckpointDir;
 		this.printToConsole = printToConsole;
 		this.logFile = logFile;
+		this.pfuncResultsFile = pfuncResultsFile;
 
 		// collect all the states from the objective,constraints
 		Set<State> statesSet = new LinkedHashSet<>();
@@ -582,7 +638,7 @@ public class MSKStar {
 				.collect(Collectors.toList())
 		);
 
-		confTrees = new ConfSearchCache(minNumConfTrees);
+		confTrees = new ConfSearchCache(minNumConfTrees, confTreeCheckpointDir);
 
 		log("sequence space has %s sequences\n%s", formatBig(new RTs(seqSpace).getNumSequences()), seqSpace);
 	}
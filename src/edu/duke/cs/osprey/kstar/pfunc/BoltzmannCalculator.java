@@ -36,15 +36,18 @@ import java.math.BigDecimal;
 import java.math.MathContext;
 
 import edu.duke.cs.osprey.energy.PoissonBoltzmannEnergy;
+import edu.duke.cs.osprey.tools.BigExp;
 import edu.duke.cs.osprey.tools.ExpFunction;
 
 public class BoltzmannCalculator {
 	
 	public static double constRT = PoissonBoltzmannEnergy.constRT;
 
+	public final MathContext mathContext;
 	public final ExpFunction e;
 
 	public BoltzmannCalculator(MathContext mathContext) {
+		this.mathContext = mathContext;
 		e = new ExpFunction(mathContext);
 	}
 	
@@ -55,4 +58,80 @@ public class BoltzmannCalculator {
 	public double freeEnergy(BigDecimal z) {
 		return -constRT*e.log(z).doubleValue();
 	}
+
+	/** like {@link #calc(double)}, but with double precision, and much faster */
+	public BigExp calcBigExp(double energy) {
+		return new BigExp().setExp(-energy/constRT);
+	}
+
+	public double freeEnergy(BigExp z) {
+		return -constRT*z.ln();
+	}
+
+	/**
+	 * Computes the sum of the Boltzmann weights of the first n energies.
+	 *
+	 * Only the weight of the lowest energy is computed in high precision. The other weights
+	 * are computed relative to it in a tight loop over primitive doubles, so the sum doesn't
+	 * allocate anything per energy. The relative sum is rounded up by more than its worst-case
+	 * floating-point error, so the result never underestimates the exact sum.
+	 */
+	public BigDecimal calcSum(double[] energies, int n) {
+
+		if (n <= 0) {
+			return BigDecimal.ZERO;
+		}
+
+		double minEnergy = min(energies, n);
+		if (!Double.isFinite(minEnergy)) {
+
+			// can't compute relative weights, so sum them one at a time
+			BigDecimal sum = BigDecimal.ZERO;
+			for (int i=0; i<n; i++) {
+				sum = sum.add(calc(energies[i]), mathContext);
+			}
+			return sum;
+		}
+
+		return calc(minEnergy).multiply(BigDecimal.valueOf(sumRelativeWeights(energies, n, minEnergy)), mathContext);
+	}
+
+	/** like {@link #calcSum(double[], int)}, but with double precision, and much faster */
+	public BigExp calcSumBigExp(double[] energies, int n) {
+
+		if (n <= 0) {
+			return new BigExp(0.0);
+		}
+
+		double minEnergy = min(energies, n);
+		if (!Double.isFinite(minEnergy)) {
+			BigExp sum = new BigExp(0.0);
+			for (int i=0; i<n; i++) {
+				sum.add(calcBigExp(energies[i]));
+			}
+			return sum;
+		}
+
+		return calcBigExp(minEnergy).mult(sumRelativeWeights(energies, n, minEnergy));
+	}
+
+	private static double min(double[] energies, int n) {
+		double min = energies[0];
+		for (int i=1; i<n; i++) {
+			min = Math.min(min, energies[i]);
+		}
+		return min;
+	}
+
+	private static double sumRelativeWeights(double[] energies, int n, double minEnergy) {
+
+		// every relative weight is in (0,1], so the sum is in [1,n]
+		double sum = 0.0;
+		for (int i=0; i<n; i++) {
+			sum += Math.exp((minEnergy - energies[i])/constRT);
+		}
+
+		// each term and each addition can be off by a couple ulps, so round up past that
+		return sum*(1.0 + 4.0*(n + 1)*Math.ulp(1.0));
+	}
 }
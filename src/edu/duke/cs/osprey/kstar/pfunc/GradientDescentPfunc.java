@@ -35,14 +35,19 @@ package edu.duke.cs.osprey.kstar.pfunc;
 import edu.duke.cs.osprey.astar.conf.RCs;
 import edu.duke.cs.osprey.confspace.ConfDB;
 import edu.duke.cs.osprey.confspace.ConfSearch;
+import edu.duke.cs.osprey.confspace.PrefetchingConfSearch;
 import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
 import edu.duke.cs.osprey.externalMemory.ExternalMemory;
+import edu.duke.cs.osprey.parallelism.CounterSignal;
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
 import edu.duke.cs.osprey.tools.*;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
 
@@ -66,20 +71,10 @@ import java.util.function.Supplier;
  */
 public class GradientDescentPfunc implements PartitionFunction.WithConfTable, PartitionFunction.WithExternalMemory {
 
-	private static class State {
+	private static abstract class State<W> {
 
-		BigDecimal numConfs;
-
-		// upper bound (score axis) vars
 		long numScoredConfs = 0;
-		BigDecimal upperScoreWeightSum = BigDecimal.ZERO;
-		BigDecimal minUpperScoreWeight = MathTools.BigPositiveInfinity;
-
-		// lower bound (energy axis) vars
 		long numEnergiedConfs = 0;
-		BigDecimal lowerScoreWeightSum = BigDecimal.ZERO;
-		BigDecimal energyWeightSum = BigDecimal.ZERO;
-		BigDecimal minLowerScoreWeight = MathTools.BigPositiveInfinity;
 
 		// estimate of inital rates
 		// (values here aren't super imporant since they get tuned during execution,
@@ -91,10 +86,236 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 		double dEnergy = -1.0;
 		double dScore = -1.0;
 
-		State(BigInteger numConfs) {
+		/** computes the Boltzmann weight of an energy, called by worker threads */
+		abstract W calcWeight(double energy);
+
+		/** computes the sum of the Boltzmann weights of the first n energies, called by worker threads */
+		abstract W calcWeightSum(double[] energies, int n);
+
+		abstract void addEnergy(W scoreWeight, W energyWeight);
+		abstract void addScores(W scoreWeightSum, W minScoreWeight);
+
+		abstract double calcDelta();
+		abstract BigDecimal getLowerBound();
+		abstract BigDecimal getUpperBound();
+		abstract boolean isStable(BigDecimal stabilityThreshold);
+		abstract boolean hasLowEnergies();
+
+		boolean epsilonReached(double targetEpsilon) {
+			return calcDelta() <= targetEpsilon;
+		}
+
+		// striped aggregation support
+		// (weight arithmetic that never modifies its arguments, so partials can be shared between threads)
+		abstract W zero();
+		abstract W infinity();
+		abstract W plus(W a, W b);
+		abstract W min(W a, W b);
+		abstract void setTotals(W energyWeightSum, W lowerScoreWeightSum, W minLowerScoreWeight, W upperScoreWeightSum, W minUpperScoreWeight);
+
+		long numScoreBatches = 0;
+		double energySeconds = 0.0;
+		double scoreSeconds = 0.0;
+
+		final List<Stripe<W>> stripes = new CopyOnWriteArrayList<>();
+		final ThreadLocal<Stripe<W>> localStripe = ThreadLocal.withInitial(() -> {
+			Stripe<W> stripe = new Stripe<>(new Partial<>(zero(), infinity()));
+			stripes.add(stripe);
+			return stripe;
+		});
+
+		/** folds an energy into the calling worker's stripe, called by worker threads */
+		void addEnergyToStripe(W scoreWeight, W energyWeight, double seconds) {
+			Stripe<W> stripe = localStripe.get();
+			Partial<W> p = stripe.partial;
+			stripe.partial = new Partial<>(
+				p.numEnergiedConfs + 1,
+				p.energySeconds + seconds,
+				plus(p.energyWeightSum, energyWeight),
+				plus(p.lowerScoreWeightSum, scoreWeight),
+				min(p.minLowerScoreWeight, scoreWeight),
+				p.numScoredConfs,
+				p.numScoreBatches,
+				p.scoreSeconds,
+				p.upperScoreWeightSum,
+				p.minUpperScoreWeight
+			);
+		}
+
+		/** folds a batch of scores into the calling worker's stripe, called by worker threads */
+		void addScoresToStripe(W scoreWeightSum, W minScoreWeight, int numScores, double seconds) {
+			Stripe<W> stripe = localStripe.get();
+			Partial<W> p = stripe.partial;
+			stripe.partial = new Partial<>(
+				p.numEnergiedConfs,
+				p.energySeconds,
+				p.energyWeightSum,
+				p.lowerScoreWeightSum,
+				p.minLowerScoreWeight,
+				p.numScoredConfs + numScores,
+				p.numScoreBatches + 1,
+				p.scoreSeconds + seconds,
+				plus(p.upperScoreWeightSum, scoreWeightSum),
+				min(p.minUpperScoreWeight, minScoreWeight)
+			);
+		}
+
+		/**
+		 * Replaces the totals with the sum over a snapshot of all the stripes.
+		 * Never blocks the workers. Each stripe is read exactly once, so the snapshot
+		 * always includes whole results only.
+		 * @return false if no results have arrived since the last merge
+		 */
+		boolean mergeStripes() {
+
+			// take the snapshot
+			List<Partial<W>> partials = new ArrayList<>(stripes.size());
+			long numEnergiedConfs = 0;
+			long numScoredConfs = 0;
+			for (Stripe<W> stripe : stripes) {
+				Partial<W> p = stripe.partial;
+				partials.add(p);
+				numEnergiedConfs += p.numEnergiedConfs;
+				numScoredConfs += p.numScoredConfs;
+			}
+
+			// counts only ever go up, so if they didn't change, nothing did
+			if (numEnergiedConfs == this.numEnergiedConfs && numScoredConfs == this.numScoredConfs) {
+				return false;
+			}
+
+			long numScoreBatches = 0;
+			double energySeconds = 0.0;
+			double scoreSeconds = 0.0;
+			W energyWeightSum = zero();
+			W lowerScoreWeightSum = zero();
+			W minLowerScoreWeight = infinity();
+			W upperScoreWeightSum = zero();
+			W minUpperScoreWeight = infinity();
+			for (Partial<W> p : partials) {
+				numScoreBatches += p.numScoreBatches;
+				energySeconds += p.energySeconds;
+				scoreSeconds += p.scoreSeconds;
+				energyWeightSum = plus(energyWeightSum, p.energyWeightSum);
+				lowerScoreWeightSum = plus(lowerScoreWeightSum, p.lowerScoreWeightSum);
+				minLowerScoreWeight = min(minLowerScoreWeight, p.minLowerScoreWeight);
+				upperScoreWeightSum = plus(upperScoreWeightSum, p.upperScoreWeightSum);
+				minUpperScoreWeight = min(minUpperScoreWeight, p.minUpperScoreWeight);
+			}
+
+			this.numEnergiedConfs = numEnergiedConfs;
+			this.numScoredConfs = numScoredConfs;
+			this.numScoreBatches = numScoreBatches;
+			this.energySeconds = energySeconds;
+			this.scoreSeconds = scoreSeconds;
+			setTotals(energyWeightSum, lowerScoreWeightSum, minLowerScoreWeight, upperScoreWeightSum, minUpperScoreWeight);
+
+			// use the average rates of the workers
+			if (numEnergiedConfs > 0 && energySeconds > 0.0) {
+				energyOps = numEnergiedConfs/energySeconds;
+			}
+			if (numScoredConfs > 0 && scoreSeconds > 0.0) {
+				scoreOps = numScoredConfs/scoreSeconds;
+			}
+
+			return true;
+		}
+	}
+
+	/** running totals for one worker, never modified after construction */
+	private static class Partial<W> {
+
+		final long numEnergiedConfs;
+		final double energySeconds;
+		final W energyWeightSum;
+		final W lowerScoreWeightSum;
+		final W minLowerScoreWeight;
+
+		final long numScoredConfs;
+		final long numScoreBatches;
+		final double scoreSeconds;
+		final W upperScoreWeightSum;
+		final W minUpperScoreWeight;
+
+		Partial(W zero, W infinity) {
+			this(0, 0.0, zero, zero, infinity, 0, 0, 0.0, zero, infinity);
+		}
+
+		Partial(long numEnergiedConfs, double energySeconds, W energyWeightSum, W lowerScoreWeightSum, W minLowerScoreWeight,
+				long numScoredConfs, long numScoreBatches, double scoreSeconds, W upperScoreWeightSum, W minUpperScoreWeight) {
+			this.numEnergiedConfs = numEnergiedConfs;
+			this.energySeconds = energySeconds;
+			this.energyWeightSum = energyWeightSum;
+			this.lowerScoreWeightSum = lowerScoreWeightSum;
+			this.minLowerScoreWeight = minLowerScoreWeight;
+			this.numScoredConfs = numScoredConfs;
+			this.numScoreBatches = numScoreBatches;
+			this.scoreSeconds = scoreSeconds;
+			this.upperScoreWeightSum = upperScoreWeightSum;
+			this.minUpperScoreWeight = minUpperScoreWeight;
+		}
+	}
+
+	/**
+	 * One worker's accumulator. Only its worker thread writes it,
+	 * so publishing a new partial is just a volatile write, no locks or CAS loops needed.
+	 */
+	private static class Stripe<W> {
+
+		volatile Partial<W> partial;
+
+		Stripe(Partial<W> partial) {
+			this.partial = partial;
+		}
+	}
+
+	private static class DecimalState extends State<BigDecimal> {
+
+		final BoltzmannCalculator bcalc = new BoltzmannCalculator(PartitionFunction.decimalPrecision);
+
+		BigDecimal numConfs;
+
+		// upper bound (score axis) vars
+		BigDecimal upperScoreWeightSum = BigDecimal.ZERO;
+		BigDecimal minUpperScoreWeight = MathTools.BigPositiveInfinity;
+
+		// lower bound (energy axis) vars
+		BigDecimal lowerScoreWeightSum = BigDecimal.ZERO;
+		BigDecimal energyWeightSum = BigDecimal.ZERO;
+		BigDecimal minLowerScoreWeight = MathTools.BigPositiveInfinity;
+
+		DecimalState(BigInteger numConfs) {
 			this.numConfs = new BigDecimal(numConfs);
 		}
 
+		@Override
+		BigDecimal calcWeight(double energy) {
+			return bcalc.calc(energy);
+		}
+
+		@Override
+		BigDecimal calcWeightSum(double[] energies, int n) {
+			return bcalc.calcSum(energies, n);
+		}
+
+		@Override
+		void addEnergy(BigDecimal scoreWeight, BigDecimal energyWeight) {
+			energyWeightSum = energyWeightSum.add(energyWeight);
+			lowerScoreWeightSum = lowerScoreWeightSum.add(scoreWeight);
+			if (MathTools.isLessThan(scoreWeight, minLowerScoreWeight)) {
+				minLowerScoreWeight = scoreWeight;
+			}
+		}
+
+		@Override
+		void addScores(BigDecimal scoreWeightSum, BigDecimal minScoreWeight) {
+			upperScoreWeightSum = upperScoreWeightSum.add(scoreWeightSum);
+			if (MathTools.isLessThan(minScoreWeight, minUpperScoreWeight)) {
+				minUpperScoreWeight = minScoreWeight;
+			}
+		}
+
+		@Override
 		double calcDelta() {
 			BigDecimal upperBound = getUpperBound();
 			if (MathTools.isZero(upperBound) || MathTools.isInf(upperBound)) {
@@ -108,10 +329,12 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 				.doubleValue();
 		}
 
+		@Override
 		public BigDecimal getLowerBound() {
 			return energyWeightSum;
 		}
 
+		@Override
 		public BigDecimal getUpperBound() {
 			return new BigMath(PartitionFunction.decimalPrecision)
 
@@ -130,18 +353,45 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 				.get();
 		}
 
-		boolean epsilonReached(double targetEpsilon) {
-			return calcDelta() <= targetEpsilon;
-		}
-
+		@Override
 		boolean isStable(BigDecimal stabilityThreshold) {
 			return numEnergiedConfs <= 0 || stabilityThreshold == null || MathTools.isGreaterThanOrEqual(getUpperBound(), stabilityThreshold);
 		}
 
+		@Override
 		boolean hasLowEnergies() {
 			return MathTools.isGreaterThan(minLowerScoreWeight,  BigDecimal.ZERO);
 		}
 
+		@Override
+		BigDecimal zero() {
+			return BigDecimal.ZERO;
+		}
+
+		@Override
+		BigDecimal infinity() {
+			return MathTools.BigPositiveInfinity;
+		}
+
+		@Override
+		BigDecimal plus(BigDecimal a, BigDecimal b) {
+			return a.add(b);
+		}
+
+		@Override
+		BigDecimal min(BigDecimal a, BigDecimal b) {
+			return MathTools.isLessThan(b, a) ? b : a;
+		}
+
+		@Override
+		void setTotals(BigDecimal energyWeightSum, BigDecimal lowerScoreWeightSum, BigDecimal minLowerScoreWeight, BigDecimal upperScoreWeightSum, BigDecimal minUpperScoreWeight) {
+			this.energyWeightSum = energyWeightSum;
+			this.lowerScoreWeightSum = lowerScoreWeightSum;
+			this.minLowerScoreWeight = minLowerScoreWeight;
+			this.upperScoreWeightSum = upperScoreWeightSum;
+			this.minUpperScoreWeight = minUpperScoreWeight;
+		}
+
 		@Override
 		public String toString() {
 			return String.format("upper: count %d  sum %e  min %e     lower: count %d  score sum %e  energy sum %e",
@@ -151,6 +401,157 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 		}
 	}
 
+	/**
+	 * Same bookkeeping as {@link DecimalState}, but with double-precision {@link BigExp} weights,
+	 * which are updated in-place, so adding weights doesn't allocate anything
+	 */
+	private static class BigExpState extends State<BigExp> {
+
+		final BoltzmannCalculator bcalc = new BoltzmannCalculator(PartitionFunction.decimalPrecision);
+
+		final BigExp numConfs;
+
+		// upper bound (score axis) vars
+		final BigExp upperScoreWeightSum = new BigExp(0.0);
+		final BigExp minUpperScoreWeight = new BigExp(Double.POSITIVE_INFINITY);
+
+		// lower bound (energy axis) vars
+		final BigExp lowerScoreWeightSum = new BigExp(0.0);
+		final BigExp energyWeightSum = new BigExp(0.0);
+		final BigExp minLowerScoreWeight = new BigExp(Double.POSITIVE_INFINITY);
+
+		// scratch space
+		private final BigExp upperBound = new BigExp();
+		private final BigExp numUnscoredConfs = new BigExp();
+		private final BigExp delta = new BigExp();
+		private BigDecimal stabilityThreshold = null;
+		private BigExp stabilityThresholdExp = null;
+
+		BigExpState(BigInteger numConfs) {
+			this.numConfs = new BigExp(new BigDecimal(numConfs));
+		}
+
+		@Override
+		BigExp calcWeight(double energy) {
+			return bcalc.calcBigExp(energy);
+		}
+
+		@Override
+		BigExp calcWeightSum(double[] energies, int n) {
+			return bcalc.calcSumBigExp(energies, n);
+		}
+
+		@Override
+		void addEnergy(BigExp scoreWeight, BigExp energyWeight) {
+			energyWeightSum.add(energyWeight);
+			lowerScoreWeightSum.add(scoreWeight);
+			if (scoreWeight.lessThan(minLowerScoreWeight)) {
+				minLowerScoreWeight.set(scoreWeight);
+			}
+		}
+
+		@Override
+		void addScores(BigExp scoreWeightSum, BigExp minScoreWeight) {
+			upperScoreWeightSum.add(scoreWeightSum);
+			if (minScoreWeight.lessThan(minUpperScoreWeight)) {
+				minUpperScoreWeight.set(minScoreWeight);
+			}
+		}
+
+		BigExp calcUpperBound() {
+
+			// unscored bound
+			numUnscoredConfs.set(numConfs).sub((double)numScoredConfs);
+			if (numUnscoredConfs.isZero()) {
+				upperBound.set(0.0);
+			} else {
+				upperBound.set(numUnscoredConfs).mult(minUpperScoreWeight);
+			}
+
+			return upperBound
+
+				// with scored bound
+				.add(upperScoreWeightSum)
+
+				// but replace weights that have energies
+				.sub(lowerScoreWeightSum)
+				.add(energyWeightSum);
+		}
+
+		@Override
+		double calcDelta() {
+			BigExp upperBound = calcUpperBound();
+			if (upperBound.isZero() || upperBound.isInfinite()) {
+				return 1.0;
+			}
+			return delta.set(upperBound).sub(energyWeightSum).div(upperBound).doubleValue();
+		}
+
+		@Override
+		public BigDecimal getLowerBound() {
+			return energyWeightSum.toBigDecimal(PartitionFunction.decimalPrecision);
+		}
+
+		@Override
+		public BigDecimal getUpperBound() {
+			return calcUpperBound().toBigDecimal(PartitionFunction.decimalPrecision);
+		}
+
+		@Override
+		boolean isStable(BigDecimal stabilityThreshold) {
+			if (numEnergiedConfs <= 0 || stabilityThreshold == null) {
+				return true;
+			}
+			if (stabilityThreshold != this.stabilityThreshold) {
+				this.stabilityThreshold = stabilityThreshold;
+				this.stabilityThresholdExp = new BigExp(stabilityThreshold);
+			}
+			return calcUpperBound().compareTo(stabilityThresholdExp) >= 0;
+		}
+
+		@Override
+		boolean hasLowEnergies() {
+			return minLowerScoreWeight.signum() > 0;
+		}
+
+		@Override
+		BigExp zero() {
+			return new BigExp(0.0);
+		}
+
+		@Override
+		BigExp infinity() {
+			return new BigExp(Double.POSITIVE_INFINITY);
+		}
+
+		@Override
+		BigExp plus(BigExp a, BigExp b) {
+			return new BigExp(a).add(b);
+		}
+
+		@Override
+		BigExp min(BigExp a, BigExp b) {
+			return b.lessThan(a) ? b : a;
+		}
+
+		@Override
+		void setTotals(BigExp energyWeightSum, BigExp lowerScoreWeightSum, BigExp minLowerScoreWeight, BigExp upperScoreWeightSum, BigExp minUpperScoreWeight) {
+			this.energyWeightSum.set(energyWeightSum);
+			this.lowerScoreWeightSum.set(lowerScoreWeightSum);
+			this.minLowerScoreWeight.set(minLowerScoreWeight);
+			this.upperScoreWeightSum.set(upperScoreWeightSum);
+			this.minUpperScoreWeight.set(minUpperScoreWeight);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("upper: count %d  sum %s  min %s     lower: count %d  score sum %s  energy sum %s",
+				numScoredConfs, upperScoreWeightSum, minUpperScoreWeight,
+				numEnergiedConfs, lowerScoreWeightSum, energyWeightSum
+			);
+		}
+	}
+
 	private static enum Step {
 		None,
 		Score,
@@ -167,11 +568,15 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 	private Stopwatch stopwatch = new Stopwatch().start();
 	private ConfSearch scoreConfs = null;
 	private ConfSearch energyConfs = null;
-	private BoltzmannCalculator bcalc = new BoltzmannCalculator(PartitionFunction.decimalPrecision);
+	private boolean useBigExp = false;
+	private boolean useStripes = false;
+	private boolean prefetchConfs = false;
+	private boolean isStriped = false;
+	private PrefetchingConfSearch prefetcher = null;
 
 	private Status status = null;
 	private Values values = null;
-	private State state = null;
+	private State<?> state = null;
 
 	private boolean hasEnergyConfs = true;
 	private boolean hasScoreConfs = true;
@@ -186,6 +591,11 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 	private PfuncSurface surf = null;
 	private PfuncSurface.Trace trace = null;
 
+	// several pfuncs can share one task executor (e.g., K* sequences computed concurrently),
+	// so keep track of our own tasks rather than waiting for the whole executor
+	private final CounterSignal pendingTasks = new CounterSignal(0, (numPending) -> numPending <= 0);
+	private final AtomicReference<Throwable> taskFailure = new AtomicReference<>(null);
+
 	public GradientDescentPfunc(ConfEnergyCalculator ecalc) {
 		this.ecalc = ecalc;
 	}
@@ -232,6 +642,36 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 		this.rcs = rcs;
 	}
 
+	/**
+	 * True to track Boltzmann weights with double-precision {@link BigExp} arithmetic instead of {@link BigDecimal}.
+	 * Bookkeeping for each conformation is then much cheaper and doesn't allocate, so the listener thread
+	 * holds the lock for much less time. Partition function values are still reported as {@link BigDecimal}s,
+	 * but with only double precision. Takes effect at the next call to init().
+	 */
+	public void setUseBigExp(boolean val) {
+		useBigExp = val;
+	}
+
+	/**
+	 * True to have worker threads fold their results into per-worker accumulators directly,
+	 * instead of handing them to the {@link edu.duke.cs.osprey.parallelism.TaskExecutor} listener thread.
+	 * The main thread merges the accumulators on demand before choosing each step, so workers never wait
+	 * on the pfunc lock. Helps when many threads would otherwise queue up behind the listener thread.
+	 * Takes effect at the next call to init().
+	 */
+	public void setUseStripedAggregation(boolean val) {
+		useStripes = val;
+	}
+
+	/**
+	 * True to enumerate energy conformations on a background thread, ahead of when they're needed,
+	 * so A* search overlaps with minimization. See {@link PrefetchingConfSearch}.
+	 * Takes effect at the next call to init().
+	 */
+	public void setPrefetchConfs(boolean val) {
+		prefetchConfs = val;
+	}
+
 	public void traceTo(PfuncSurface val) {
 		surf = val;
 	}
@@ -241,6 +681,11 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 
 		init(numConfsBeforePruning, targetEpsilon);
 
+		if (prefetchConfs) {
+			prefetcher = new PrefetchingConfSearch(confSearch);
+			confSearch = prefetcher;
+		}
+
 		// split the confs between the upper and lower bounds
 		ConfSearch.Splitter confsSplitter = new ConfSearch.Splitter(confSearch, useExternalMemory, rcs);
 		scoreConfs = confsSplitter.first;
@@ -253,7 +698,12 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 		init(numConfsBeforePruning, targetEpsilon);
 
 		this.scoreConfs = upperBoundConfs;
-		this.energyConfs = lowerBoundConfs;
+		if (prefetchConfs) {
+			prefetcher = new PrefetchingConfSearch(lowerBoundConfs);
+			this.energyConfs = prefetcher;
+		} else {
+			this.energyConfs = lowerBoundConfs;
+		}
 	}
 
 	private void init(BigInteger numConfsBeforePruning, double targetEpsilon) {
@@ -262,11 +712,18 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 			throw new IllegalArgumentException("target epsilon must be greater than zero");
 		}
 
+		closePrefetcher();
+
 		this.targetEpsilon = targetEpsilon;
 
 		// init state
 		status = Status.Estimating;
-		state = new State(numConfsBeforePruning);
+		if (useBigExp) {
+			state = new BigExpState(numConfsBeforePruning);
+		} else {
+			state = new DecimalState(numConfsBeforePruning);
+		}
+		isStriped = useStripes;
 		values = Values.makeFullRange();
 		// don't explicitly check the pruned confs, just lump them together with the un-enumerated confs
 		values.pstar = BigDecimal.ZERO;
@@ -303,6 +760,9 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 			// which way should we step, and how far?
 			Step step = Step.None;
 			int numScores = 0;
+			if (isStriped) {
+				mergeStripes(state);
+			}
 			synchronized (this) { // don't race the listener thread
 
 				// should we even keep stepping?
@@ -355,71 +815,31 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 
 					numConfsEnergied++;
 
-					class EnergyResult {
-						ConfSearch.EnergiedConf econf;
-						BigDecimal scoreWeight;
-						BigDecimal energyWeight;
-						Stopwatch stopwatch = new Stopwatch();
-					}
-
-					ecalc.tasks.submit(
-						() -> {
-							// compute one energy and weights (and time it)
-							EnergyResult result = new EnergyResult();
-							result.stopwatch.start();
-							result.econf = ecalc.calcEnergy(conf, confTable);
-							result.scoreWeight = bcalc.calc(result.econf.getScore());
-							result.energyWeight = bcalc.calc(result.econf.getEnergy());
-							result.stopwatch.stop();
-							return result;
-						},
-						(result) -> {
-							onEnergy(result.econf, result.scoreWeight, result.energyWeight, result.stopwatch.getTimeS());
-						}
-					);
+					submitEnergy(state, conf);
 
 					break;
 				}
 
 				case Score: {
 
-					// gather the scores
-					List<ConfSearch.ScoredConf> confs = new ArrayList<>();
-					for (int i=0; i<numScores; i++) {
-
-						// get the next score conf, if any
-						ConfSearch.ScoredConf conf = scoreConfs.nextConf();
-						if (conf != null) {
-							numScoreConfsEnumerated++;
-						}
-						if (conf == null || conf.getScore() == Double.POSITIVE_INFINITY) {
-							hasScoreConfs = false;
-							break;
-						}
-
-						confs.add(conf);
+					// gather the scores in bulk
+					double[] scores = new double[numScores];
+					int numScoresEnumerated = scoreConfs.nextConfs(numScores, scores);
+					numScoreConfsEnumerated += numScoresEnumerated;
+					if (numScoresEnumerated < numScores) {
+						hasScoreConfs = false;
 					}
 
-					class ScoreResult {
-						List<BigDecimal> scoreWeights = new ArrayList<>();
-						Stopwatch stopwatch = new Stopwatch();
+					// keep only the finite scores
+					int numFiniteScores = 0;
+					while (numFiniteScores < numScoresEnumerated && scores[numFiniteScores] != Double.POSITIVE_INFINITY) {
+						numFiniteScores++;
+					}
+					if (numFiniteScores < numScoresEnumerated) {
+						hasScoreConfs = false;
 					}
 
-					ecalc.tasks.submit(
-						() -> {
-							// compute the weights (and time it)
-							ScoreResult result = new ScoreResult();
-							result.stopwatch.start();
-							for (ConfSearch.ScoredConf conf : confs) {
-								result.scoreWeights.add(bcalc.calc(conf.getScore()));
-							}
-							result.stopwatch.stop();
-							return result;
-						},
-						(result) -> {
-							onScores(result.scoreWeights, result.stopwatch.getTimeS());
-						}
-					);
+					submitScores(state, scores, numFiniteScores);
 
 					break;
 				}
@@ -432,7 +852,10 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 		}
 
 		// wait for all the scores and energies to come in
-		ecalc.tasks.waitForFinish();
+		waitForTasks();
+		if (isStriped) {
+			mergeStripes(state);
+		}
 
 		// update the pfunc values from the state
 		values.qstar = state.getLowerBound();
@@ -464,24 +887,143 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 		if (!state.isStable(stabilityThreshold)) {
 			status = Status.Unstable;
 		}
+
+		// don't enumerate confs in the background between calls to compute(),
+		// the conf trees could be used (or checkpointed) by someone else in the meantime
+		if (prefetcher != null) {
+			if (status.canContinue()) {
+				prefetcher.stop();
+			} else {
+				closePrefetcher();
+			}
+		}
 	}
 
-	private void onEnergy(ConfSearch.EnergiedConf econf, BigDecimal scoreWeight, BigDecimal energyWeight, double seconds) {
+	private void closePrefetcher() {
+		if (prefetcher != null) {
+			prefetcher.close();
+			prefetcher = null;
+		}
+	}
+
+	private <W> void submitEnergy(State<W> state, ConfSearch.ScoredConf conf) {
+
+		class EnergyResult {
+			ConfSearch.EnergiedConf econf;
+			W scoreWeight;
+			W energyWeight;
+			Stopwatch stopwatch = new Stopwatch();
+		}
+
+		submit(
+			() -> {
+				// compute one energy and weights (and time it)
+				EnergyResult result = new EnergyResult();
+				result.stopwatch.start();
+				result.econf = ecalc.calcEnergy(conf, confTable);
+				result.scoreWeight = state.calcWeight(result.econf.getScore());
+				result.energyWeight = state.calcWeight(result.econf.getEnergy());
+				result.stopwatch.stop();
+				if (isStriped) {
+					state.addEnergyToStripe(result.scoreWeight, result.energyWeight, result.stopwatch.getTimeS());
+				}
+				return result;
+			},
+			(result) -> {
+				if (isStriped) {
+					onConf(result.econf);
+				} else {
+					onEnergy(state, result.econf, result.scoreWeight, result.energyWeight, result.stopwatch.getTimeS());
+				}
+			}
+		);
+	}
+
+	private <W> void submitScores(State<W> state, double[] scores, int numScores) {
+
+		class ScoreResult {
+			W scoreWeightSum;
+			W minScoreWeight;
+			Stopwatch stopwatch = new Stopwatch();
+		}
+
+		submit(
+			() -> {
+				// compute the weights (and time it)
+				ScoreResult result = new ScoreResult();
+				result.stopwatch.start();
+				result.scoreWeightSum = state.calcWeightSum(scores, numScores);
+				if (numScores > 0) {
+					double maxScore = scores[0];
+					for (int i=1; i<numScores; i++) {
+						maxScore = Math.max(maxScore, scores[i]);
+					}
+					result.minScoreWeight = state.calcWeight(maxScore);
+				} else {
+					result.minScoreWeight = state.infinity();
+				}
+				result.stopwatch.stop();
+				if (isStriped) {
+					state.addScoresToStripe(result.scoreWeightSum, result.minScoreWeight, numScores, result.stopwatch.getTimeS());
+				}
+				return result;
+			},
+			(result) -> {
+				if (!isStriped) {
+					onScores(state, result.scoreWeightSum, result.minScoreWeight, numScores, result.stopwatch.getTimeS());
+				}
+			}
+		);
+	}
+
+	private <T> void submit(TaskExecutor.Task<T> task, TaskExecutor.TaskListener<T> listener) {
+		pendingTasks.offset(1);
+		ecalc.tasks.submit(
+			() -> {
+				try {
+					return task.run();
+				} catch (Throwable t) {
+					// the listener won't get called, so finish the task here
+					taskFailure.compareAndSet(null, t);
+					pendingTasks.offset(-1);
+					throw t;
+				}
+			},
+			(result) -> {
+				try {
+					listener.onFinished(result);
+				} catch (Throwable t) {
+					taskFailure.compareAndSet(null, t);
+					throw t;
+				} finally {
+					pendingTasks.offset(-1);
+				}
+			}
+		);
+	}
+
+	private void waitForTasks() {
+		while (!pendingTasks.isSignaled()) {
+			pendingTasks.waitForSignal(100);
+		}
+		Throwable t = taskFailure.getAndSet(null);
+		if (t != null) {
+			throw new RuntimeException("a partition function task failed", t);
+		}
+	}
+
+	private <W> void onEnergy(State<W> state, ConfSearch.EnergiedConf econf, W scoreWeight, W energyWeight, double seconds) {
 
 		synchronized (this) { // don't race the main thread
 
 			// update the state
-			state.energyWeightSum = state.energyWeightSum.add(energyWeight);
-			state.lowerScoreWeightSum = state.lowerScoreWeightSum.add(scoreWeight);
+			state.addEnergy(scoreWeight, energyWeight);
 			state.numEnergiedConfs++;
 			state.energyOps = 1.0/seconds;
-			if (MathTools.isLessThan(scoreWeight, state.minLowerScoreWeight)) {
-				state.minLowerScoreWeight = scoreWeight;
-			}
 
 			// set the slope for the energy axis
 			double delta = state.calcDelta();
-			state.dEnergy = calcSlope(delta, state.prevDelta, state.dScore);
+			state.dEnergy = calcSlope(delta - state.prevDelta, state.dScore);
 			state.prevDelta = delta;
 
 			// the other direction could be different now, let's be more likely to explore it
@@ -506,29 +1048,96 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 			}
 		}
 
+		onConf(econf);
+	}
+
+	private void onConf(ConfSearch.EnergiedConf econf) {
+
 		// report confs if needed
 		if (confListener != null) {
 			confListener.onConf(econf);
 		}
 	}
 
-	private void onScores(List<BigDecimal> scoreWeights, double seconds) {
+	private <W> void mergeStripes(State<W> state) {
+
+		synchronized (this) {
+
+			long numEnergiedConfs = state.numEnergiedConfs;
+			long numScoreBatches = state.numScoreBatches;
+			double energySeconds = state.energySeconds;
+			double scoreSeconds = state.scoreSeconds;
+
+			if (!state.mergeStripes()) {
+				return;
+			}
+
+			long numEnergies = state.numEnergiedConfs - numEnergiedConfs;
+			long numBatches = state.numScoreBatches - numScoreBatches;
+
+			// results from both axes could have arrived since the last merge,
+			// so split the change in delta between the axes by the time the workers spent on each
+			double delta = state.calcDelta();
+			double change = delta - state.prevDelta;
+			double energyFraction;
+			if (numBatches == 0) {
+				energyFraction = 1.0;
+			} else if (numEnergies == 0) {
+				energyFraction = 0.0;
+			} else {
+				double seconds = (state.energySeconds - energySeconds) + (state.scoreSeconds - scoreSeconds);
+				energyFraction = seconds > 0.0 ? (state.energySeconds - energySeconds)/seconds : 0.5;
+			}
+
+			// set the slopes per step, like the listener would have
+			double dEnergy = state.dEnergy;
+			double dScore = state.dScore;
+			if (numEnergies > 0) {
+				state.dEnergy = calcSlope(change*energyFraction/numEnergies, dScore);
+			}
+			if (numBatches > 0) {
+				state.dScore = calcSlope(change*(1.0 - energyFraction)/numBatches, dEnergy);
+			}
+			state.prevDelta = delta;
+
+			// if only one axis moved, the other direction could be different now, let's be more likely to explore it
+			if (numBatches == 0) {
+				state.dScore *= 2.0;
+			} else if (numEnergies == 0) {
+				state.dEnergy *= 2.0;
+			}
+
+			// report progress if needed
+			if (isReportingProgress && numEnergies > 0) {
+				System.out.println(String.format("confs:%4d, bounds:[%12e,%12e], delta:%.6f, time:%10s, heapMem:%s, extMem:%s",
+					state.numEnergiedConfs,
+					state.getLowerBound().doubleValue(), state.getUpperBound().doubleValue(),
+					delta,
+					stopwatch.getTime(2),
+					JvmMem.getOldPool(),
+					ExternalMemory.getUsageReport()
+				));
+			}
+
+			// update the trace if needed
+			if (trace != null) {
+				trace.step(state.numScoredConfs, state.numEnergiedConfs, delta);
+			}
+		}
+	}
+
+	private <W> void onScores(State<W> state, W scoreWeightSum, W minScoreWeight, int numScores, double seconds) {
 
 		synchronized (this) { // don't race the main thread
 
 			// update the state
-			for (BigDecimal weight : scoreWeights) {
-				state.upperScoreWeightSum = state.upperScoreWeightSum.add(weight);
-				if (MathTools.isLessThan(weight, state.minUpperScoreWeight)) {
-					state.minUpperScoreWeight = weight;
-				}
-			}
-			state.numScoredConfs += scoreWeights.size();
-			state.scoreOps = scoreWeights.size()/seconds;
+			state.addScores(scoreWeightSum, minScoreWeight);
+			state.numScoredConfs += numScores;
+			state.scoreOps = numScores/seconds;
 
 			// set the slope for the score axis
 			double delta = state.calcDelta();
-			state.dScore = calcSlope(delta, state.prevDelta, state.dEnergy);
+			state.dScore = calcSlope(delta - state.prevDelta, state.dEnergy);
 			state.prevDelta = delta;
 
 			// the other direction could be different now, let's be more likely to explore it
@@ -541,10 +1150,9 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfTable, Pa
 		}
 	}
 
-	private static double calcSlope(double delta, double prevDelta, double otherSlope) {
+	private static double calcSlope(double slope, double otherSlope) {
 
-		double slope = delta - prevDelta;
-		// NOTE: this should be 0 or less
+		// NOTE: the slope should be 0 or less
 
 		// is the slope totally flat?
 		if (slope >= 0.0) {
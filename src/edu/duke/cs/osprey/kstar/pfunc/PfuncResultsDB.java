@@ -0,0 +1,459 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.kstar.pfunc;
+
+import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
+import edu.duke.cs.osprey.astar.conf.RCs;
+import edu.duke.cs.osprey.confspace.ConfSearch;
+import edu.duke.cs.osprey.confspace.Sequence;
+import edu.duke.cs.osprey.confspace.SimpleConfSpace;
+import edu.duke.cs.osprey.confspace.Strand;
+import edu.duke.cs.osprey.confspace.StrandFlex;
+import edu.duke.cs.osprey.ematrix.EnergyMatrixCheckpoint;
+import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
+import edu.duke.cs.osprey.minimization.ObjectiveFunction;
+import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.structure.Residue;
+import edu.duke.cs.osprey.tools.AutoCleanable;
+import edu.duke.cs.osprey.tools.MathTools;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+
+/**
+ * A persistent store of finished partition function results, so later runs
+ * (e.g., with a different epsilon or mutation limit) don't have to compute them again.
+ *
+ * Results are keyed by a fingerprint of the conformation space and energy function
+ * (see {@link #makeFingerprint(ConfEnergyCalculator)}), by a fingerprint of the pruning used by the
+ * conformation search (see {@link #makePruningFingerprint(SimpleConfSpace, Function)}), and by the sequence,
+ * so one file can hold results for many conf spaces.
+ *
+ * A stored result is reused if it's at least as accurate as the requested epsilon, if its conformations
+ * ran out, or if its upper bound shows the sequence is unstable under the requested stability threshold.
+ * Otherwise, the partition function is computed again, which goes much faster when the conf space
+ * also has a {@link edu.duke.cs.osprey.confspace.ConfDB}, since the conformation energies are cached there.
+ */
+public class PfuncResultsDB implements AutoCleanable {
+
+	public static PfuncResultsDB makeIfNeeded(File file) {
+
+		// no file? db not needed
+		if (file == null) {
+			return null;
+		}
+
+		return new PfuncResultsDB(file);
+	}
+
+	public static class Entry {
+
+		public final PartitionFunction.Status status;
+		public final PartitionFunction.Values values;
+		public final int numConfs;
+
+		/** the epsilon the partition function was computed to, ie the effective epsilon of the values */
+		public final double epsilon;
+
+		public Entry(PartitionFunction.Result result) {
+			this(result.status, result.values, result.numConfs);
+		}
+
+		public Entry(PartitionFunction.Status status, PartitionFunction.Values values, int numConfs) {
+			this.status = status;
+			this.values = values;
+			this.numConfs = numConfs;
+			this.epsilon = values.getEffectiveEpsilon();
+		}
+
+		public PartitionFunction.Result makeResult(PartitionFunction.Status status) {
+			return new PartitionFunction.Result(status, values, numConfs);
+		}
+	}
+
+	/** a partition function that was already computed, so there's nothing left to do */
+	public static class StoredPfunc implements PartitionFunction {
+
+		public final Result result;
+
+		public StoredPfunc(Result result) {
+			this.result = result;
+		}
+
+		@Override
+		public void setReportProgress(boolean val) {
+			// nothing to report
+		}
+
+		@Override
+		public void setConfListener(ConfListener val) {
+			// no confs to listen to
+		}
+
+		@Override
+		public void init(ConfSearch confSearch, BigInteger numConfsBeforePruning, double targetEpsilon) {
+			throw new UnsupportedOperationException("stored partition functions are already computed");
+		}
+
+		@Override
+		public Status getStatus() {
+			return result.status;
+		}
+
+		@Override
+		public Values getValues() {
+			return result.values;
+		}
+
+		@Override
+		public int getParallelism() {
+			return 1;
+		}
+
+		@Override
+		public int getNumConfsEvaluated() {
+			return result.numConfs;
+		}
+
+		@Override
+		public void compute(int maxNumConfs) {
+			// already done
+		}
+
+		@Override
+		public Result makeResult() {
+			return result;
+		}
+	}
+
+	/** the results for one conf space, energy function, and pruning */
+	public class ConfSpaceResults {
+
+		public final ConfEnergyCalculator confEcalc;
+
+		/** null if the pruning is unknown, in which case no results are stored or reused */
+		public final Long pruningFingerprint;
+
+		public final long fingerprint;
+
+		private ConfSpaceResults(ConfEnergyCalculator confEcalc, Long pruningFingerprint) {
+			this.confEcalc = confEcalc;
+			this.pruningFingerprint = pruningFingerprint;
+			long fingerprint = makeFingerprint(confEcalc);
+			if (pruningFingerprint != null) {
+				fingerprint = EnergyMatrixCheckpoint.mix(fingerprint, pruningFingerprint);
+			}
+			this.fingerprint = fingerprint;
+		}
+
+		private String makeKey(Sequence sequence) {
+			return String.format("%016x/%s", fingerprint, sequence.toString(Sequence.Renderer.Assignment));
+		}
+
+		public Entry get(Sequence sequence) {
+			if (pruningFingerprint == null) {
+				return null;
+			}
+			byte[] bytes;
+			synchronized (PfuncResultsDB.this) {
+				bytes = entries.get(makeKey(sequence));
+			}
+			if (bytes == null) {
+				return null;
+			}
+			return readEntry(bytes);
+		}
+
+		/**
+		 * Returns a stored result that a partition function computed with these settings
+		 * could have returned, or null if the partition function needs to be computed.
+		 */
+		public PartitionFunction.Result getReusable(Sequence sequence, double epsilon, BigDecimal stabilityThreshold) {
+
+			Entry entry = get(sequence);
+			if (entry == null) {
+				return null;
+			}
+
+			// would the pfunc have been unstable?
+			if (stabilityThreshold != null && MathTools.isLessThan(entry.values.calcUpperBound(), stabilityThreshold)) {
+				return entry.makeResult(PartitionFunction.Status.Unstable);
+			}
+
+			// is the result accurate enough?
+			if (entry.epsilon <= epsilon
+				&& entry.status != PartitionFunction.Status.Unstable
+				&& entry.status != PartitionFunction.Status.Aborted) {
+				return entry.makeResult(PartitionFunction.Status.Estimated);
+			}
+
+			// running out of things to compute doesn't depend on epsilon
+			if (entry.status == PartitionFunction.Status.OutOfConformations
+				|| entry.status == PartitionFunction.Status.OutOfLowEnergies) {
+				return entry.makeResult(entry.status);
+			}
+
+			return null;
+		}
+
+		/**
+		 * Saves a finished partition function result. Unfinished or aborted results are ignored,
+		 * and so are results less accurate than the one already stored.
+		 */
+		public void put(Sequence sequence, PartitionFunction.Result result) {
+
+			if (result.status.canContinue() || result.status == PartitionFunction.Status.Aborted) {
+				return;
+			}
+
+			// we can't tell which conformations the result covers, so don't save it
+			if (pruningFingerprint == null) {
+				return;
+			}
+
+			Entry entry = new Entry(result);
+			String key = makeKey(sequence);
+			synchronized (PfuncResultsDB.this) {
+
+				// don't replace a better result with a worse one
+				byte[] oldBytes = entries.get(key);
+				if (oldBytes != null && readEntry(oldBytes).epsilon < entry.epsilon) {
+					return;
+				}
+
+				entries.put(key, writeEntry(entry));
+				db.commit();
+			}
+		}
+	}
+
+	public final File file;
+
+	private final DB db;
+	private final HTreeMap<String,byte[]> entries;
+	private final Map<ConfEnergyCalculator,ConfSpaceResults> confSpaceResults = new IdentityHashMap<>();
+
+	public PfuncResultsDB(File file) {
+
+		this.file = file;
+
+		db = DBMaker.fileDB(file)
+			.transactionEnable() // turn on wite-ahead log, so the db survives JVM crashes
+			.closeOnJvmShutdown()
+			.make();
+		entries = db.hashMap("pfuncResults")
+			.keySerializer(Serializer.STRING)
+			.valueSerializer(Serializer.BYTE_ARRAY)
+			.createOrOpen();
+	}
+
+	/**
+	 * Get the results for the conf space and energy function, where conformations are enumerated
+	 * by conf searches from the factory. Each energy calculator should always be used with the same factory.
+	 */
+	public synchronized ConfSpaceResults get(ConfEnergyCalculator confEcalc, Function<RCs,? extends ConfSearch> confSearchFactory) {
+		return confSpaceResults.computeIfAbsent(confEcalc, (key) ->
+			new ConfSpaceResults(confEcalc, makePruningFingerprint(confEcalc.confSpace, confSearchFactory))
+		);
+	}
+
+	public synchronized long getNumEntries() {
+		return entries.sizeLong();
+	}
+
+	@Override
+	public synchronized void clean() {
+		if (!db.isClosed()) {
+			db.commit();
+			db.close();
+		}
+	}
+
+	/**
+	 * Hashes everything about the conf space and energy function that affects the partition function value:
+	 * the residue confs at each position, the reference energies, the templates and coordinates
+	 * of all the residues in the strands, the strand flexibility, and the forcefield settings.
+	 */
+	public static long makeFingerprint(ConfEnergyCalculator confEcalc) {
+
+		SimpleConfSpace confSpace = confEcalc.confSpace;
+
+		long hash = EnergyMatrixCheckpoint.hashSettings(confEcalc);
+		hash = EnergyMatrixCheckpoint.mix(hash, EnergyMatrixCheckpoint.hashString(confEcalc.epart.name()));
+		hash = EnergyMatrixCheckpoint.mix(hash, confEcalc.addResEntropy ? 1 : 0);
+
+		for (SimpleConfSpace.Position pos : confSpace.positions) {
+			for (SimpleConfSpace.ResidueConf resConf : pos.resConfs) {
+				hash = EnergyMatrixCheckpoint.mix(hash, EnergyMatrixCheckpoint.hashResConf(pos, resConf));
+				if (confEcalc.eref != null) {
+					hash = EnergyMatrixCheckpoint.mix(hash, Double.doubleToLongBits(confEcalc.eref.getOffset(confSpace, pos.index, resConf.index)));
+				}
+			}
+		}
+
+		for (Strand strand : confSpace.strands) {
+			for (Residue res : strand.mol.residues) {
+				hash = EnergyMatrixCheckpoint.mix(hash, EnergyMatrixCheckpoint.hashResidue(res));
+			}
+			for (StrandFlex flex : confSpace.strandFlex.get(strand)) {
+				hash = EnergyMatrixCheckpoint.mix(hash, EnergyMatrixCheckpoint.hashString(flex.getClass().getName()));
+				ObjectiveFunction.DofBounds bounds = flex.makeBounds(strand);
+				for (int d=0; d<bounds.size(); d++) {
+					hash = EnergyMatrixCheckpoint.mix(hash, Double.doubleToLongBits(bounds.getMin(d)));
+					hash = EnergyMatrixCheckpoint.mix(hash, Double.doubleToLongBits(bounds.getMax(d)));
+				}
+			}
+		}
+
+		hash = EnergyMatrixCheckpoint.mix(hash, Double.doubleToLongBits(confSpace.shellDist));
+
+		return hash;
+	}
+
+	/**
+	 * Hashes the pruning applied by conf searches from the factory: the residue confs left at each position,
+	 * and the pruned pairs between them, so results computed over different sets of conformations get different keys.
+	 *
+	 * Returns null if the conf searches don't expose all of their pruning (e.g., they're not A* trees,
+	 * they prune dynamically, or they prune higher-order tuples), since then results can't be safely reused.
+	 */
+	public static Long makePruningFingerprint(SimpleConfSpace confSpace, Function<RCs,? extends ConfSearch> confSearchFactory) {
+
+		// make a conf search over the whole conf space, so we can see its pruning
+		ConfSearch confSearch = confSearchFactory.apply(new RCs(confSpace));
+		if (!(confSearch instanceof ConfAStarTree)) {
+			return null;
+		}
+		ConfAStarTree tree = (ConfAStarTree)confSearch;
+		if (tree.pruner != null) {
+			return null;
+		}
+		RCs rcs = tree.rcs;
+		PruningMatrix pmat = rcs.getPruneMat();
+		if (pmat != null && pmat.hasHigherOrderTuples()) {
+			return null;
+		}
+
+		long hash = EnergyMatrixCheckpoint.mix(0, rcs.getNumPos());
+		for (int pos=0; pos<rcs.getNumPos(); pos++) {
+			hash = EnergyMatrixCheckpoint.mix(hash, rcs.getNum(pos));
+			for (int rc : rcs.get(pos)) {
+				hash = EnergyMatrixCheckpoint.mix(hash, rc);
+			}
+		}
+
+		if (pmat != null) {
+			for (int pos1=0; pos1<rcs.getNumPos(); pos1++) {
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc1 : rcs.get(pos1)) {
+						for (int rc2 : rcs.get(pos2)) {
+							if (pmat.getPairwise(pos1, rc1, pos2, rc2)) {
+								hash = EnergyMatrixCheckpoint.mix(hash, pos1);
+								hash = EnergyMatrixCheckpoint.mix(hash, rc1);
+								hash = EnergyMatrixCheckpoint.mix(hash, pos2);
+								hash = EnergyMatrixCheckpoint.mix(hash, rc2);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		return EnergyMatrixCheckpoint.mix(hash, 0);
+	}
+
+	private static byte[] writeEntry(Entry entry) {
+		try {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(buf);
+			out.writeUTF(entry.status.name());
+			writeBig(out, entry.values.qstar);
+			writeBig(out, entry.values.qprime);
+			writeBig(out, entry.values.pstar);
+			out.writeInt(entry.numConfs);
+			out.flush();
+			return buf.toByteArray();
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private static Entry readEntry(byte[] bytes) {
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			PartitionFunction.Status status = PartitionFunction.Status.valueOf(in.readUTF());
+			PartitionFunction.Values values = new PartitionFunction.Values();
+			values.qstar = readBig(in);
+			values.qprime = readBig(in);
+			values.pstar = readBig(in);
+			int numConfs = in.readInt();
+			return new Entry(status, values, numConfs);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private static void writeBig(DataOutput out, BigDecimal val)
+	throws IOException {
+		// BigDecimal can't encode infinities or NaN, so write the magic values as strings instead
+		if (val == MathTools.BigPositiveInfinity) {
+			out.writeUTF("+inf");
+		} else if (val == MathTools.BigNegativeInfinity) {
+			out.writeUTF("-inf");
+		} else if (val == MathTools.BigNaN) {
+			out.writeUTF("nan");
+		} else {
+			out.writeUTF(val.toString());
+		}
+	}
+
+	private static BigDecimal readBig(DataInput in)
+	throws IOException {
+		String val = in.readUTF();
+		switch (val) {
+			case "+inf": return MathTools.BigPositiveInfinity;
+			case "-inf": return MathTools.BigNegativeInfinity;
+			case "nan": return MathTools.BigNaN;
+			default: return new BigDecimal(val);
+		}
+	}
+}
@@ -0,0 +1,269 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.minimization;
+
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+
+/**
+ * Bound-constrained limited-memory quasi-Newton minimizer (in the style of L-BFGS-B).
+ *
+ * Instead of a line search for each DOF like {@link SimpleCCDMinimizer}, each iteration takes one step
+ * along a quasi-Newton direction for all the DOFs at once, using the gradient from
+ * {@link ObjectiveFunction#getValueAndGradient}, so far fewer energy evaluations are needed
+ * when the objective function can compute its gradient analytically.
+ *
+ * DOF bounds are handled by projection: DOFs at a bound whose gradient points out of the bounds are held fixed
+ * for the iteration, the search direction is computed for the remaining free DOFs,
+ * and the backtracking line search projects trial points back into the bounds.
+ */
+public class LBFGSMinimizer implements Minimizer.Reusable {
+
+	private static final int MaxIterations = 200;
+	private static final int NumCorrections = 8;
+	private static final int MaxLineSearchSteps = 30;
+	private static final double ArmijoFactor = 1e-4;
+	private static final double ConvergenceThreshold = 1e-6; // energy improvement per iteration
+	private static final double GradientThreshold = 1e-4; // max projected gradient component
+
+	private ObjectiveFunction f;
+	private ObjectiveFunction.DofBounds bounds;
+
+	public LBFGSMinimizer() {
+		// nothing to do
+	}
+
+	public LBFGSMinimizer(ObjectiveFunction f) {
+		init(f);
+	}
+
+	@Override
+	public void init(ObjectiveFunction f) {
+		this.f = f;
+		this.bounds = new ObjectiveFunction.DofBounds(f.getConstraints());
+	}
+
+	@Override
+	public Minimizer.Result minimizeFromCenter() {
+		return minimizeFrom(f.getDOFsCenter());
+	}
+
+	@Override
+	public Minimizer.Result minimizeFrom(DoubleMatrix1D startx) {
+
+		int n = f.getNumDOFs();
+		DoubleMatrix1D x = startx.copy();
+		bounds.clamp(x);
+
+		// nothing to minimize? just evaluate the energy
+		if (n == 0) {
+			return new Minimizer.Result(x, f.getValue(x));
+		}
+
+		DoubleMatrix1D g = DoubleFactory1D.dense.make(n);
+		DoubleMatrix1D nextx = DoubleFactory1D.dense.make(n);
+		DoubleMatrix1D nextg = DoubleFactory1D.dense.make(n);
+		double fx = f.getValueAndGradient(x, g);
+
+		// no point in minimizing broken conformations
+		if (!Double.isFinite(fx)) {
+			f.setDOFs(x);
+			return new Minimizer.Result(x, fx);
+		}
+
+		// correction pairs, in a ring buffer
+		double[][] s = new double[NumCorrections][n];
+		double[][] y = new double[NumCorrections][n];
+		double[] rho = new double[NumCorrections];
+		double[] a = new double[NumCorrections];
+		int numCorrections = 0;
+		int newest = -1;
+
+		boolean[] isFree = new boolean[n];
+		double[] p = new double[n];
+
+		for (int iter=0; iter<MaxIterations; iter++) {
+
+			// hold DOFs at their bounds if the gradient pushes them out,
+			// and check the projected gradient for convergence
+			double maxProjectedGradient = 0;
+			for (int d=0; d<n; d++) {
+				double xd = x.get(d);
+				double gd = g.get(d);
+				isFree[d] = bounds.getMin(d) < bounds.getMax(d)
+					&& !(xd <= bounds.getMin(d) && gd > 0)
+					&& !(xd >= bounds.getMax(d) && gd < 0);
+				if (isFree[d]) {
+					maxProjectedGradient = Math.max(maxProjectedGradient, Math.abs(gd));
+				}
+			}
+			if (maxProjectedGradient < GradientThreshold) {
+				break;
+			}
+
+			// compute the quasi-Newton direction with the two-loop recursion, over just the free DOFs
+			for (int d=0; d<n; d++) {
+				p[d] = isFree[d] ? -g.get(d) : 0.0;
+			}
+			for (int k=0; k<numCorrections; k++) {
+				int i = Math.floorMod(newest - k, NumCorrections);
+				a[i] = rho[i]*dot(s[i], p, isFree);
+				axpy(-a[i], y[i], p, isFree);
+			}
+			if (numCorrections > 0) {
+				double gamma = dot(s[newest], y[newest], isFree)/dot(y[newest], y[newest], isFree);
+				if (gamma > 0 && Double.isFinite(gamma)) {
+					for (int d=0; d<n; d++) {
+						p[d] *= gamma;
+					}
+				}
+			}
+			for (int k=numCorrections - 1; k>=0; k--) {
+				int i = Math.floorMod(newest - k, NumCorrections);
+				double b = rho[i]*dot(y[i], p, isFree);
+				axpy(a[i] - b, s[i], p, isFree);
+			}
+
+			// make sure we're going downhill, otherwise forget the curvature and fall back to steepest descent
+			double slope = 0;
+			for (int d=0; d<n; d++) {
+				slope += p[d]*g.get(d);
+			}
+			if (!(slope < 0)) {
+				numCorrections = 0;
+				slope = 0;
+				for (int d=0; d<n; d++) {
+					p[d] = isFree[d] ? -g.get(d) : 0.0;
+					slope -= p[d]*p[d];
+				}
+			}
+
+			// without any curvature info yet, don't step farther than the usual initial step sizes
+			double step = 1.0;
+			if (numCorrections == 0) {
+				for (int d=0; d<n; d++) {
+					if (isFree[d]) {
+						double maxStep = f.getInitStepSize(d);
+						if (Math.abs(p[d])*step > maxStep) {
+							step = maxStep/Math.abs(p[d]);
+						}
+					}
+				}
+			}
+
+			// backtracking line search, projected into the bounds
+			double nextfx = Double.NaN;
+			boolean foundStep = false;
+			for (int i=0; i<MaxLineSearchSteps; i++) {
+
+				double decrease = 0;
+				for (int d=0; d<n; d++) {
+					double xd = x.get(d);
+					double nextxd = isFree[d] ? bounds.clamp(d, xd + step*p[d]) : xd;
+					nextx.set(d, nextxd);
+					decrease += g.get(d)*(nextxd - xd);
+				}
+
+				nextfx = f.getValueAndGradient(nextx, nextg);
+
+				// NOTE: comparisons with NaN are false, so this rejects NaN energies too
+				if (nextfx <= fx + ArmijoFactor*decrease) {
+					foundStep = true;
+					break;
+				}
+
+				step /= 2;
+			}
+			if (!foundStep) {
+
+				// bad curvature info? try again with steepest descent
+				if (numCorrections > 0) {
+					numCorrections = 0;
+					continue;
+				}
+
+				break;
+			}
+
+			// save the correction pair, if it has positive curvature
+			int next = (newest + 1) % NumCorrections;
+			double sy = 0;
+			double yy = 0;
+			for (int d=0; d<n; d++) {
+				s[next][d] = nextx.get(d) - x.get(d);
+				y[next][d] = nextg.get(d) - g.get(d);
+				sy += s[next][d]*y[next][d];
+				yy += y[next][d]*y[next][d];
+			}
+			if (sy > 1e-10*yy) {
+				rho[next] = 1.0/sy;
+				newest = next;
+				numCorrections = Math.min(numCorrections + 1, NumCorrections);
+			}
+
+			// take the step
+			double improvement = fx - nextfx;
+			x.assign(nextx);
+			g.assign(nextg);
+			fx = nextfx;
+
+			if (improvement < ConvergenceThreshold) {
+				break;
+			}
+		}
+
+		// update the protein conf, one last time
+		// and report the energy the same way the other minimizers do
+		fx = f.getValue(x);
+
+		return new Minimizer.Result(x, fx);
+	}
+
+	private static double dot(double[] a, double[] b, boolean[] mask) {
+		double sum = 0;
+		for (int d=0; d<a.length; d++) {
+			if (mask[d]) {
+				sum += a[d]*b[d];
+			}
+		}
+		return sum;
+	}
+
+	private static void axpy(double alpha, double[] x, double[] y, boolean[] mask) {
+		for (int d=0; d<x.length; d++) {
+			if (mask[d]) {
+				y[d] += alpha*x[d];
+			}
+		}
+	}
+}
@@ -39,6 +39,7 @@ import java.util.List;
 import cern.colt.matrix.DoubleMatrix1D;
 import edu.duke.cs.osprey.confspace.ParametricMolecule;
 import edu.duke.cs.osprey.energy.EnergyFunction;
+import edu.duke.cs.osprey.energy.forcefield.ResidueForcefieldEnergy;
 
 public class MoleculeObjectiveFunction implements ObjectiveFunction {
 	
@@ -48,6 +49,8 @@ public class MoleculeObjectiveFunction implements ObjectiveFunction {
 	public final EnergyFunction efunc;
 	public final List<EnergyFunction> efuncsByDof;
 	public final DoubleMatrix1D curDOFVals;
+
+	private transient double[][] atomGradients = null;
 	
 	public MoleculeObjectiveFunction(ParametricMolecule pmol, EnergyFunction efunc) {
 		this.pmol = pmol;
@@ -125,6 +128,42 @@ public class MoleculeObjectiveFunction implements ObjectiveFunction {
 		return efunc.getEnergy();
 	}
 
+	/**
+	 * Computes the gradient analytically, from the atomic gradients of {@link ResidueForcefieldEnergy}
+	 * and {@link edu.duke.cs.osprey.dof.DegreeOfFreedom#calcEnergyDerivative}.
+	 * Other energy functions, and DOFs without analytic derivatives, fall back to numerical estimates.
+	 */
+	@Override
+	public double getValueAndGradient(DoubleMatrix1D x, DoubleMatrix1D gradient) {
+
+		if (!(efunc instanceof ResidueForcefieldEnergy)) {
+			return ObjectiveFunction.super.getValueAndGradient(x, gradient);
+		}
+		ResidueForcefieldEnergy ffefunc = (ResidueForcefieldEnergy)efunc;
+
+		setDOFs(x);
+		if (atomGradients == null) {
+			atomGradients = ffefunc.makeAtomGradients();
+		}
+		double fx = ffefunc.getEnergyAndGradient(atomGradients);
+
+		// no useful gradient for broken conformations
+		if (!Double.isFinite(fx)) {
+			gradient.assign(0.0);
+			return fx;
+		}
+
+		for (int d=0; d<x.size(); d++) {
+			Double deriv = pmol.dofs.get(d).calcEnergyDerivative(ffefunc.residues, atomGradients);
+			if (deriv == null) {
+				deriv = estimateDerivative(d, x.get(d));
+			}
+			gradient.set(d, deriv);
+		}
+
+		return fx;
+	}
+
 	@Override
 	public double getInitStepSize(int d) {
 		return MoleculeModifierAndScorer.getInitStepSize(pmol.dofs.get(d));
@@ -74,6 +74,32 @@ public interface ObjectiveFunction extends Serializable {
     public double getValue(DoubleMatrix1D x);
     //public DoubleMatrix1D getGradient(DoubleMatrix1D x);
 
+	/**
+	 * Returns the value at a given point, and writes the gradient at that point into gradient.
+	 *
+	 * By default, the gradient is estimated with central differences of {@link #getValForDOF},
+	 * so objective functions that can compute gradients analytically should override this.
+	 */
+	default double getValueAndGradient(DoubleMatrix1D x, DoubleMatrix1D gradient) {
+		double fx = getValue(x);
+		for (int d=0; d<getNumDOFs(); d++) {
+			gradient.set(d, estimateDerivative(d, x.get(d)));
+		}
+		return fx;
+	}
+
+	/**
+	 * Estimates the derivative along one DOF at xd with central differences,
+	 * then sets the DOF back to xd.
+	 */
+	default double estimateDerivative(int d, double xd) {
+		final double h = 1e-4;
+		double fplus = getValForDOF(d, xd + h);
+		double fminus = getValForDOF(d, xd - h);
+		setDOF(d, xd);
+		return (fplus - fminus)/(2*h);
+	}
+
     //Value at a given value for a given DOF,
     //and, for efficiency, possibly omitting energy terms that don't depend on that DOF
     //Other DOFs kept as they are currently set
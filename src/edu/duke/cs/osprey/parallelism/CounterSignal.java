@@ -60,6 +60,10 @@ public class CounterSignal {
 		}
 	}
 	
+	public synchronized boolean isSignaled() {
+		return condition.shouldSignal(count);
+	}
+	
 	public synchronized void offset(int delta) {
 		count += delta;
 		if (condition.shouldSignal(count)) {
@@ -32,6 +32,7 @@
 
 package edu.duke.cs.osprey.pruning;
 
+import java.io.File;
 import java.math.BigInteger;
 import java.util.*;
 
@@ -80,6 +81,19 @@ public class PruningMatrix extends TupleMatrixBoolean {
     	super(numPos, numAllowedAtPos, pruningInterval, false);
     }
 
+	/** write the pruning matrix in the binary {@link TupleMatrixFile} format */
+	public static void writeBinary(PruningMatrix pmat, File file) {
+		TupleMatrixFile.write(pmat, file);
+	}
+
+	/** read a pruning matrix in the binary {@link TupleMatrixFile} format */
+	public static PruningMatrix readBinary(File file) {
+		TupleMatrixFile.Header header = TupleMatrixFile.readHeader(file);
+		PruningMatrix pmat = new PruningMatrix(header.numPos, header.numConfAtPos, header.pruningInterval);
+		TupleMatrixFile.read(file, pmat);
+		return pmat;
+	}
+
     @Override
 	public Boolean getTuple(RCTuple tuple) {
 		Boolean val = super.getTuple(tuple);
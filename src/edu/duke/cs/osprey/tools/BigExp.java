@@ -0,0 +1,368 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.tools;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+
+/**
+ * A mutable floating point number with a double mantissa and a long (base 2) exponent,
+ * for numbers far outside the range of a double (like Boltzmann-weighted partition function values),
+ * but without the allocation and arithmetic costs of {@link BigDecimal}.
+ * 
+ * The value is fp*2^exp, where the magnitude of fp is always in [1,2), unless the value is
+ * zero, infinite, or NaN, in which case fp holds that value directly and exp is zero.
+ * Precision is that of a double (about 16 decimal digits), which is plenty for bounds
+ * that only need to be accurate to a relative epsilon.
+ * 
+ * All the arithmetic methods modify this number in-place and return it, so expressions can be chained.
+ */
+public class BigExp implements Comparable<BigExp> {
+	
+	private static final double Ln2 = Math.log(2.0);
+	private static final double Log10Of2 = Math.log10(2.0);
+	private static final double Log2Of10 = Math.log(10.0)/Ln2;
+	
+	// scalb() can't shift farther than this without under/overflowing a double anyway
+	private static final long MaxShift = 2100;
+	
+	// the largest exponent BigDecimal.pow() accepts
+	private static final int MaxBigPow = 999999999;
+	private static final BigDecimal BigTwo = BigDecimal.valueOf(2);
+	private static final BigDecimal BigHalf = new BigDecimal("0.5");
+	
+	public double fp;
+	public long exp;
+	
+	public BigExp() {
+		this(0.0);
+	}
+	
+	public BigExp(double val) {
+		set(val);
+	}
+	
+	public BigExp(double fp, long exp) {
+		set(fp, exp);
+	}
+	
+	public BigExp(BigExp other) {
+		set(other);
+	}
+	
+	public BigExp(BigDecimal val) {
+		set(val);
+	}
+	
+	public BigExp set(double val) {
+		return set(val, 0);
+	}
+	
+	public BigExp set(double fp, long exp) {
+		this.fp = fp;
+		this.exp = exp;
+		return normalize();
+	}
+	
+	public BigExp set(BigExp other) {
+		this.fp = other.fp;
+		this.exp = other.exp;
+		return this;
+	}
+	
+	public BigExp set(BigDecimal val) {
+		
+		if (val == MathTools.BigPositiveInfinity) {
+			return set(Double.POSITIVE_INFINITY);
+		} else if (val == MathTools.BigNegativeInfinity) {
+			return set(Double.NEGATIVE_INFINITY);
+		} else if (val == MathTools.BigNaN) {
+			return set(Double.NaN);
+		}
+		
+		// val = unscaled*10^-scale
+		// take the top bits of the unscaled value, since it could be way bigger than a double
+		BigInteger unscaled = val.unscaledValue();
+		int shift = Math.max(0, unscaled.abs().bitLength() - 62);
+		set(unscaled.shiftRight(shift).doubleValue(), shift);
+		
+		// then apply the decimal scale, splitting 10^-scale into an integer and fractional power of 2
+		double log2 = -val.scale()*Log2Of10;
+		long intLog2 = (long)Math.floor(log2);
+		fp *= Math.pow(2.0, log2 - intLog2);
+		exp += intLog2;
+		return normalize();
+	}
+	
+	/** sets this number to e^x */
+	public BigExp setExp(double x) {
+		
+		if (!Double.isFinite(x)) {
+			return set(Math.exp(x));
+		}
+		
+		// e^x = 2^(x/ln2), split into integer and fractional powers of 2
+		double log2 = x/Ln2;
+		long intLog2 = (long)Math.floor(log2);
+		fp = Math.exp(x - intLog2*Ln2);
+		exp = intLog2;
+		return normalize();
+	}
+	
+	private BigExp normalize() {
+		if (fp == 0.0 || !Double.isFinite(fp)) {
+			exp = 0;
+		} else {
+			int e = Math.getExponent(fp);
+			if (e < Double.MIN_EXPONENT) {
+				// subnormal, scale it up first
+				fp *= 0x1p54;
+				exp -= 54;
+				e = Math.getExponent(fp);
+			}
+			fp = Math.scalb(fp, -e);
+			exp += e;
+		}
+		return this;
+	}
+	
+	public boolean isZero() {
+		return fp == 0.0;
+	}
+	
+	public boolean isInfinite() {
+		return Double.isInfinite(fp);
+	}
+	
+	public boolean isNaN() {
+		return Double.isNaN(fp);
+	}
+	
+	private boolean isSpecial() {
+		return fp == 0.0 || !Double.isFinite(fp);
+	}
+	
+	public BigExp add(BigExp other) {
+		return add(other.fp, other.exp);
+	}
+	
+	public BigExp add(double val) {
+		if (val == 0.0 || !Double.isFinite(val)) {
+			return add(val, 0);
+		}
+		int e = Math.getExponent(val);
+		return add(Math.scalb(val, -e), e);
+	}
+	
+	private BigExp add(double otherFp, long otherExp) {
+		
+		if (isSpecial() || otherFp == 0.0 || !Double.isFinite(otherFp)) {
+			// no exponents to align, just do the double arithmetic
+			if (otherFp == 0.0) {
+				return this;
+			} else if (fp == 0.0) {
+				fp = otherFp;
+				exp = otherExp;
+				return this;
+			}
+			fp += otherFp;
+			return normalize();
+		}
+		
+		// align the exponents, the smaller number might not even matter
+		long diff = otherExp - exp;
+		if (diff >= 0) {
+			if (diff > MaxShift) {
+				fp = otherFp;
+				exp = otherExp;
+				return this;
+			}
+			fp = Math.scalb(fp, (int)-diff) + otherFp;
+			exp = otherExp;
+		} else {
+			if (-diff > MaxShift) {
+				return this;
+			}
+			fp += Math.scalb(otherFp, (int)diff);
+		}
+		return normalize();
+	}
+	
+	public BigExp sub(BigExp other) {
+		return add(-other.fp, other.exp);
+	}
+	
+	public BigExp sub(double val) {
+		return add(-val);
+	}
+	
+	/** zero times infinity is zero, like {@link MathTools#bigMultiply} */
+	public BigExp mult(BigExp other) {
+		if ((fp == 0.0 && !other.isNaN()) || (other.fp == 0.0 && !isNaN())) {
+			return set(0.0);
+		}
+		fp *= other.fp;
+		exp += other.exp;
+		return normalize();
+	}
+	
+	public BigExp mult(double val) {
+		if ((fp == 0.0 && !Double.isNaN(val)) || (val == 0.0 && !isNaN())) {
+			return set(0.0);
+		}
+		fp *= val;
+		return normalize();
+	}
+	
+	public BigExp div(BigExp other) {
+		fp /= other.fp;
+		exp -= other.exp;
+		return normalize();
+	}
+	
+	public BigExp div(double val) {
+		fp /= val;
+		return normalize();
+	}
+	
+	public int signum() {
+		return (int)Math.signum(fp);
+	}
+	
+	@Override
+	public int compareTo(BigExp other) {
+		
+		if (isNaN() || other.isNaN()) {
+			return Double.compare(fp, other.fp);
+		}
+		
+		// different signs (or zeros) are easy
+		int sign = signum();
+		int otherSign = other.signum();
+		if (sign != otherSign || sign == 0) {
+			return Integer.compare(sign, otherSign);
+		}
+		
+		// same sign, compare magnitudes
+		int cmp;
+		if (isInfinite() || other.isInfinite()) {
+			cmp = Double.compare(Math.abs(fp), Math.abs(other.fp));
+		} else if (exp != other.exp) {
+			cmp = Long.compare(exp, other.exp);
+		} else {
+			cmp = Double.compare(Math.abs(fp), Math.abs(other.fp));
+		}
+		return sign*cmp;
+	}
+	
+	public boolean greaterThan(BigExp other) {
+		return compareTo(other) > 0;
+	}
+	
+	public boolean lessThan(BigExp other) {
+		return compareTo(other) < 0;
+	}
+	
+	/** the natural log of this number */
+	public double ln() {
+		if (isSpecial()) {
+			return Math.log(fp);
+		}
+		return Math.log(fp) + exp*Ln2;
+	}
+	
+	/** the value as a double, which could overflow to infinity or underflow to zero */
+	public double doubleValue() {
+		if (isSpecial()) {
+			return fp;
+		}
+		return Math.scalb(fp, (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, exp)));
+	}
+	
+	public BigDecimal toBigDecimal(MathContext mathContext) {
+		if (fp == Double.POSITIVE_INFINITY) {
+			return MathTools.BigPositiveInfinity;
+		} else if (fp == Double.NEGATIVE_INFINITY) {
+			return MathTools.BigNegativeInfinity;
+		} else if (isNaN()) {
+			return MathTools.BigNaN;
+		} else if (fp == 0.0) {
+			return BigDecimal.ZERO;
+		}
+		
+		// BigDecimal keeps its decimal exponent in an int, so make sure ours fits
+		if (Math.abs(exp)*Log10Of2 + mathContext.getPrecision() + 1 >= Integer.MAX_VALUE) {
+			throw new ArithmeticException("2^" + exp + " is outside the range of BigDecimal");
+		}
+		
+		// BigDecimal.pow() only takes exponents up to MaxBigPow, so scale in chunks
+		// halving is exact in decimal, so negative exponents don't need any division
+		BigDecimal base = exp >= 0 ? BigTwo : BigHalf;
+		BigDecimal out = new BigDecimal(fp);
+		for (long remaining = Math.abs(exp); remaining > 0;) {
+			int chunk = (int)Math.min(remaining, MaxBigPow);
+			out = out.multiply(base.pow(chunk, mathContext), mathContext);
+			remaining -= chunk;
+		}
+		return out.round(mathContext);
+	}
+	
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof BigExp && equals((BigExp)other);
+	}
+	
+	public boolean equals(BigExp other) {
+		return this.fp == other.fp && this.exp == other.exp;
+	}
+	
+	@Override
+	public int hashCode() {
+		return Double.hashCode(fp)*31 + Long.hashCode(exp);
+	}
+	
+	@Override
+	public String toString() {
+		if (isSpecial()) {
+			return Double.toString(fp);
+		}
+		
+		// convert to base 10 for humans
+		double log10 = Math.log10(Math.abs(fp)) + exp*Log10Of2;
+		long exp10 = (long)Math.floor(log10);
+		double mantissa = Math.signum(fp)*Math.pow(10.0, log10 - exp10);
+		return String.format("%.6fe%+d", mantissa, exp10);
+	}
+}
@@ -35,6 +35,7 @@ package edu.duke.cs.osprey.tools;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public enum IntEncoding {
 
@@ -52,6 +53,16 @@ public enum IntEncoding {
 			throws IOException {
 			return in.readUnsignedByte();
 		}
+
+		@Override
+		public void put(ByteBuffer buf, int index, int val) {
+			buf.put(index, (byte)val);
+		}
+
+		@Override
+		public int get(ByteBuffer buf, int index) {
+			return buf.get(index) & 0xff;
+		}
 	},
 	Short(2, 32767) {
 
@@ -66,6 +77,16 @@ public enum IntEncoding {
 			throws IOException {
 			return in.readUnsignedShort();
 		}
+
+		@Override
+		public void put(ByteBuffer buf, int index, int val) {
+			buf.putShort(index, (short)val);
+		}
+
+		@Override
+		public int get(ByteBuffer buf, int index) {
+			return buf.getShort(index) & 0xffff;
+		}
 	},
 	Int(4, Integer.MAX_VALUE) {
 
@@ -80,6 +101,16 @@ public enum IntEncoding {
 			throws IOException {
 			return in.readInt();
 		}
+
+		@Override
+		public void put(ByteBuffer buf, int index, int val) {
+			buf.putInt(index, val);
+		}
+
+		@Override
+		public int get(ByteBuffer buf, int index) {
+			return buf.getInt(index);
+		}
 	};
 
 	public final int numBytes;
@@ -104,4 +135,10 @@ public enum IntEncoding {
 
 	public abstract void write(DataOutput out, int val) throws IOException;
 	public abstract int read(DataInput in) throws IOException;
+
+	/** absolute put, like {@link ByteBuffer#putInt(int,int)} */
+	public abstract void put(ByteBuffer buf, int index, int val);
+
+	/** absolute get, like {@link ByteBuffer#getInt(int)} */
+	public abstract int get(ByteBuffer buf, int index);
 }
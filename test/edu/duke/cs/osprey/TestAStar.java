@@ -61,7 +61,9 @@ import edu.duke.cs.osprey.confspace.ConfSearch;
 import edu.duke.cs.osprey.confspace.SearchProblem;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.externalMemory.ExternalMemory;
+import edu.duke.cs.osprey.parallelism.Parallelism;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -540,6 +542,75 @@ public class TestAStar extends TestBase {
 		});
 	}
 
+	@Test
+	public void testExternalMemoryJava() {
+		SearchProblem search = makeSearchProblemDagkContinuous();
+
+		ExternalMemory.use(16, ExternalMemory.Backend.Java, () -> {
+			ConfAStarTree tree = new ConfAStarTree.Builder(search.emat, search.pruneMat)
+				.setTraditional()
+				.useExternalMemory()
+				.build();
+
+			checkDagkContinuous(tree, search);
+		});
+	}
+
+	// NODE ARENA TESTS
+
+	@Test
+	public void testDagkContinuousNodeArena() {
+		SearchProblem search = makeSearchProblemDagkContinuous();
+
+		ConfAStarTree tree = new ConfAStarTree.Builder(search.emat, search.pruneMat)
+			.setTraditional()
+			.useNodeArena()
+			.build();
+
+		checkDagkContinuous(tree, search);
+	}
+
+	// BATCHED EXPANSION TESTS
+
+	@Test
+	public void testDagkContinuousBatchedExpansion() {
+		SearchProblem search = makeSearchProblemDagkContinuous();
+
+		ConfAStarTree tree = new ConfAStarTree.Builder(search.emat, search.pruneMat)
+			.setTraditional()
+			.setExpansionBatchSize(8)
+			.build();
+		tree.setParallelism(Parallelism.makeCpu(4));
+
+		checkDagkContinuous(tree, search);
+	}
+
+	@Test
+	public void batchedExpansionOrder() {
+
+		SearchProblem search = makeSearchProblemDagkRigid();
+
+		// get the first bunch of confs in order, one node at a time
+		List<ConfSearch.ScoredConf> expectedConfs = new ArrayList<>();
+		ConfAStarTree tree = new ConfAStarTree.Builder(search.emat, search.pruneMat)
+			.setMPLP()
+			.build();
+		for (int i=0; i<100; i++) {
+			expectedConfs.add(tree.nextConf());
+		}
+
+		// batched expansion should give the same scores in the same order
+		tree = new ConfAStarTree.Builder(search.emat, search.pruneMat)
+			.setMPLP()
+			.setExpansionBatchSize(16)
+			.build();
+		tree.setParallelism(Parallelism.makeCpu(4));
+		for (ConfSearch.ScoredConf expectedConf : expectedConfs) {
+			ConfSearch.ScoredConf conf = tree.nextConf();
+			assertThat(conf.getScore(), isAbsolutely(expectedConf.getScore(), 1e-10));
+		}
+	}
+
 	@Test
 	public void optimization() {
 
@@ -0,0 +1,181 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.astar;
+
+import static edu.duke.cs.osprey.astar.Matchers.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
+import edu.duke.cs.osprey.astar.conf.ConfIndex;
+import edu.duke.cs.osprey.astar.conf.arena.ArenaConfAStarNode;
+import edu.duke.cs.osprey.astar.conf.arena.ArenaQueue;
+import edu.duke.cs.osprey.astar.conf.arena.NodeArena;
+
+public class TestArenaConfAStarNode {
+
+	@Test
+	public void indexRoot() {
+
+		ArenaConfAStarNode node = new ArenaConfAStarNode(new NodeArena());
+
+		ConfIndex confIndex = new ConfIndex(5);
+		node.index(confIndex);
+
+		assertThat(confIndex.node, is(node));
+		assertThat(confIndex.numPos, is(5));
+		assertThat(confIndex.numDefined, is(0));
+		assertThat(confIndex.numUndefined, is(5));
+		assertThat(confIndex.undefinedPos, startsWith(new int[] { 0, 1, 2, 3, 4 }));
+	}
+
+	@Test
+	public void indexChild30() {
+
+		ArenaConfAStarNode node = new ArenaConfAStarNode(new NodeArena())
+			.assign(3, 6)
+			.assign(0, 5);
+
+		ConfIndex confIndex = new ConfIndex(5);
+		node.index(confIndex);
+
+		assertThat(confIndex.node, is(node));
+		assertThat(confIndex.numPos, is(5));
+		assertThat(confIndex.numDefined, is(2));
+		assertThat(confIndex.definedPos, startsWith(0, 3));
+		assertThat(confIndex.definedRCs, startsWith(5, 6));
+		assertThat(confIndex.numUndefined, is(3));
+		assertThat(confIndex.undefinedPos, startsWith(1, 2, 4));
+		assertThat(node.makeConf(5), is(new int[] { 5, -1, -1, 6, -1 }));
+	}
+
+	@Test
+	public void indexChild43210() {
+
+		ArenaConfAStarNode node = new ArenaConfAStarNode(new NodeArena())
+			.assign(4, 2)
+			.assign(3, 6)
+			.assign(2, 9)
+			.assign(1, 7)
+			.assign(0, 5);
+
+		ConfIndex confIndex = new ConfIndex(5);
+		node.index(confIndex);
+
+		assertThat(confIndex.node, is(node));
+		assertThat(confIndex.numPos, is(5));
+		assertThat(confIndex.numDefined, is(5));
+		assertThat(confIndex.definedPos, startsWith(0, 1, 2, 3, 4));
+		assertThat(confIndex.definedRCs, startsWith(5, 7, 9, 6, 2));
+		assertThat(confIndex.numUndefined, is(0));
+	}
+
+	@Test
+	public void queueOrder() {
+
+		NodeArena arena = new NodeArena();
+		ArenaQueue queue = new ArenaQueue(arena);
+		ArenaConfAStarNode root = new ArenaConfAStarNode(arena);
+
+		// push nodes in a scrambled score order, enough to grow the heap a few times
+		int n = 5000;
+		for (int i=0; i<n; i++) {
+			ArenaConfAStarNode node = root.assign(0, i % 7);
+			node.setGScore((i*7919) % n);
+			node.setHScore(0.5);
+			queue.push(node);
+		}
+		assertThat(queue.size(), is((long)n));
+
+		// nodes should come out in order, with their assignments intact
+		for (int i=0; i<n; i++) {
+			ConfAStarNode node = queue.poll();
+			assertThat(node.getScore(), is(i + 0.5));
+			assertThat(node.getLevel(), is(1));
+			int[] conf = node.makeConf(1);
+			assertThat(conf[0], is(both(greaterThanOrEqualTo(0)).and(lessThan(7))));
+		}
+		assertThat(queue.isEmpty(), is(true));
+		assertThat(queue.poll(), is(nullValue()));
+	}
+
+	@Test
+	public void assignConcurrently() {
+
+		NodeArena arena = new NodeArena();
+		ArenaConfAStarNode root = new ArenaConfAStarNode(arena);
+
+		// assign children of the unstored root on many threads at once, like parallel expansion does
+		int numThreads = 8;
+		int numChildren = 1000;
+		ArenaConfAStarNode[][] children = new ArenaConfAStarNode[numThreads][numChildren];
+		List<Thread> threads = new ArrayList<>();
+		for (int t=0; t<numThreads; t++) {
+			final int ft = t;
+			threads.add(new Thread(() -> {
+				for (int i=0; i<numChildren; i++) {
+					children[ft][i] = root.assign(0, i % 7);
+				}
+			}));
+		}
+		threads.forEach((thread) -> thread.start());
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		// the root should only be stored once, and all the children should point to it
+		assertThat(arena.size(), is(1));
+		for (ArenaConfAStarNode[] threadChildren : children) {
+			for (ArenaConfAStarNode child : threadChildren) {
+				assertThat(child.store(), is(greaterThan(root.getId())));
+			}
+		}
+		for (ArenaConfAStarNode[] threadChildren : children) {
+			for (ArenaConfAStarNode child : threadChildren) {
+				ConfIndex confIndex = new ConfIndex(1);
+				child.index(confIndex);
+				assertThat(confIndex.numDefined, is(1));
+			}
+		}
+		assertThat(root.getId(), is(0));
+	}
+}
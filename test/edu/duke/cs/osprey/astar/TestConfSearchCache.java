@@ -3,6 +3,7 @@ package edu.duke.cs.osprey.astar;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import edu.duke.cs.osprey.TestBase.TempFile;
 import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
 import edu.duke.cs.osprey.astar.conf.ConfSearchCache;
 import edu.duke.cs.osprey.astar.conf.RCs;
@@ -13,11 +14,17 @@ import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.ematrix.SimplerEnergyMatrixCalculator;
 import edu.duke.cs.osprey.energy.EnergyCalculator;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.externalMemory.ExternalMemory;
 import edu.duke.cs.osprey.parallelism.Parallelism;
 import edu.duke.cs.osprey.structure.PDBIO;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -186,4 +193,259 @@ public class TestConfSearchCache {
 		assertThat(tree2.isProtected(), is(false));
 		assertThat(tree3.isProtected(), is(true));
 	}
+
+	@Test
+	public void checkpointedCapacity() {
+
+		List<ConfSearch.ScoredConf> expectedConfs = new ConfAStarTree.Builder(emat, rcs)
+			.setTraditional()
+			.build()
+			.nextConfs(Double.POSITIVE_INFINITY);
+
+		try (TempFile checkpointDir = new TempFile("confTrees.checkpoints")) {
+
+			// make a cache with one tree in memory, and the rest on disk
+			ConfSearchCache cache = new ConfSearchCache(1, checkpointDir);
+			ConfSearchCache.Entry tree1 = cache.make(() ->
+				new ConfAStarTree.Builder(emat, rcs)
+					.setTraditional()
+					.build()
+			);
+			ConfSearchCache.Entry tree2 = cache.make(() ->
+				new ConfAStarTree.Builder(emat, rcs)
+					.setTraditional()
+					.build()
+			);
+			assertThat(tree1.isProtected(), is(false));
+			assertThat(tree1.isCheckpointed(), is(true));
+			assertThat(tree2.isProtected(), is(true));
+			assertThat(tree2.isCheckpointed(), is(false));
+
+			// alternate between the trees, so each one gets checkpointed and restored many times
+			for (ConfSearch.ScoredConf expectedConf : expectedConfs) {
+
+				ConfSearch.ScoredConf conf1 = tree1.nextConf();
+				assertThat(tree1.isCheckpointed(), is(false));
+				assertThat(tree2.isCheckpointed(), is(true));
+
+				ConfSearch.ScoredConf conf2 = tree2.nextConf();
+				assertThat(tree1.isCheckpointed(), is(true));
+				assertThat(tree2.isCheckpointed(), is(false));
+
+				// confs with tied scores can come out in any order, so just check the scores
+				assertThat(conf1.getScore(), is(expectedConf.getScore()));
+				assertThat(conf2.getScore(), is(expectedConf.getScore()));
+			}
+
+			assertThat(tree1.nextConf(), is(nullValue()));
+			assertThat(tree2.nextConf(), is(nullValue()));
+
+			// exhausted trees shouldn't leave any checkpoints behind
+			assertThat(checkpointDir.list().length, is(0));
+		}
+	}
+
+	@Test
+	public void checkpointedCapacityBoundedTrees() {
+
+		List<ConfSearch.ScoredConf> expectedConfs = new ConfAStarTree.Builder(emat, rcs)
+			.setTraditional()
+			.build()
+			.nextConfs(Double.POSITIVE_INFINITY);
+
+		try (TempFile checkpointDir = new TempFile("confTrees.checkpoints")) {
+
+			// SMA* trees can't write checkpoints, so they should just be released to the GC instead
+			ConfSearchCache cache = new ConfSearchCache(1, checkpointDir);
+			ConfSearchCache.Entry tree1 = cache.make(() ->
+				new ConfAStarTree.Builder(emat, rcs)
+					.setMaxNumNodes(1000)
+					.setTraditional()
+					.build()
+			);
+			ConfSearchCache.Entry tree2 = cache.make(() ->
+				new ConfAStarTree.Builder(emat, rcs)
+					.setMaxNumNodes(1000)
+					.setTraditional()
+					.build()
+			);
+			assertThat(tree1.isProtected(), is(false));
+			assertThat(tree1.isCheckpointed(), is(false));
+
+			for (int i=0; i<10; i++) {
+				assertThat(tree1.nextConf().getScore(), is(expectedConfs.get(i).getScore()));
+				assertThat(tree2.nextConf().getScore(), is(expectedConfs.get(i).getScore()));
+				assertThat(tree1.isCheckpointed(), is(false));
+				assertThat(tree2.isCheckpointed(), is(false));
+			}
+			assertThat(checkpointDir.list().length, is(0));
+		}
+	}
+
+	@Test
+	public void restoredFrontierSize() {
+
+		List<ConfSearch.ScoredConf> expectedConfs = new ConfAStarTree.Builder(emat, rcs)
+			.setTraditional()
+			.build()
+			.nextConfs(Double.POSITIVE_INFINITY);
+
+		ConfAStarTree tree = new ConfAStarTree.Builder(emat, rcs)
+			.setTraditional()
+			.build();
+		for (int i=0; i<5; i++) {
+			assertThat(tree.nextConf().getScore(), is(expectedConfs.get(i).getScore()));
+		}
+		assertThat(tree.supportsFrontierCheckpoints(), is(true));
+
+		// checkpoint the tree and restore it into a new one
+		ConfAStarTree restored = new ConfAStarTree.Builder(emat, rcs)
+			.setTraditional()
+			.build();
+		try {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			tree.writeFrontier(new DataOutputStream(buf));
+			restored.readFrontier(new DataInputStream(new ByteArrayInputStream(buf.toByteArray())));
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+
+		// the restored nodes should share ancestors, so they shouldn't take more space than the originals
+		assertThat(restored.estimateNumBytes(), lessThanOrEqualTo(tree.estimateNumBytes()));
+
+		for (int i=5; i<expectedConfs.size(); i++) {
+			assertThat(restored.nextConf().getScore(), is(expectedConfs.get(i).getScore()));
+		}
+		assertThat(restored.nextConf(), is(nullValue()));
+	}
+
+	@Test
+	public void externalMemoryTreesDontCheckpoint() {
+		ExternalMemory.use(16, ExternalMemory.Backend.Java, () -> {
+			ConfAStarTree tree = new ConfAStarTree.Builder(emat, rcs)
+				.setTraditional()
+				.useExternalMemory()
+				.build();
+			assertThat(tree.supportsFrontierCheckpoints(), is(false));
+		});
+	}
+
+	@Test
+	public void heapBudget() {
+
+		List<ConfSearch.ScoredConf> expectedConfs = new ConfAStarTree.Builder(emat, rcs)
+			.setTraditional()
+			.build()
+			.nextConfs(Double.POSITIVE_INFINITY);
+
+		// make a cache with a budget too small for more than one tree
+		ConfSearchCache cache = new ConfSearchCache(null, null, 1L);
+		ConfSearchCache.Entry tree1 = cache.make(() ->
+			new ConfAStarTree.Builder(emat, rcs)
+				.setTraditional()
+				.build()
+		);
+		ConfSearchCache.Entry tree2 = cache.make(() ->
+			new ConfAStarTree.Builder(emat, rcs)
+				.setTraditional()
+				.build()
+		);
+
+		assertThat(tree1.nextConf(), is(expectedConfs.get(0)));
+		assertThat(tree1.isProtected(), is(true));
+
+		assertThat(tree2.nextConf(), is(expectedConfs.get(0)));
+		assertThat(tree1.isProtected(), is(false));
+		assertThat(tree2.isProtected(), is(true));
+
+		// force re-instantiation of the released tree
+		tree1.clearRefs();
+		for (int i=1; i<10; i++) {
+			assertThat(tree1.nextConf(), is(expectedConfs.get(i)));
+		}
+		assertThat(tree1.isProtected(), is(true));
+		assertThat(tree2.isProtected(), is(false));
+
+		ConfSearchCache.Stats stats = cache.getStats();
+		assertThat(stats.numMisses, is(1L));
+		assertThat(stats.numRebuilds, is(1L));
+		assertThat(stats.numRestores, is(0L));
+		assertThat(stats.numHits, is(10L));
+		assertThat(stats.numEvictions, is(3L));
+		assertThat(stats.heapBytes, greaterThan(0L));
+	}
+
+	@Test
+	public void heapBudgetBoundedTrees() {
+
+		List<ConfSearch.ScoredConf> expectedConfs = new ConfAStarTree.Builder(emat, rcs)
+			.setTraditional()
+			.build()
+			.nextConfs(Double.POSITIVE_INFINITY);
+
+		try (TempFile checkpointDir = new TempFile("confTrees.checkpoints")) {
+
+			// a budget too small for more than one tree, but SMA* trees can't be checkpointed
+			ConfSearchCache cache = new ConfSearchCache(null, checkpointDir, 1L);
+			ConfSearchCache.Entry tree1 = cache.make(() ->
+				new ConfAStarTree.Builder(emat, rcs)
+					.setMaxNumNodes(1000)
+					.setTraditional()
+					.build()
+			);
+			ConfSearchCache.Entry tree2 = cache.make(() ->
+				new ConfAStarTree.Builder(emat, rcs)
+					.setMaxNumNodes(1000)
+					.setTraditional()
+					.build()
+			);
+
+			for (int i=0; i<10; i++) {
+				assertThat(tree1.nextConf().getScore(), is(expectedConfs.get(i).getScore()));
+				assertThat(tree2.nextConf().getScore(), is(expectedConfs.get(i).getScore()));
+			}
+			assertThat(tree1.isCheckpointed(), is(false));
+			assertThat(tree2.isCheckpointed(), is(false));
+			assertThat(cache.getStats().numEvictions, greaterThan(0L));
+			assertThat(checkpointDir.list().length, is(0));
+		}
+	}
+
+	@Test
+	public void bulkScores() {
+
+		List<ConfSearch.ScoredConf> expectedConfs = new ConfAStarTree.Builder(emat, rcs)
+			.setTraditional()
+			.build()
+			.nextConfs(Double.POSITIVE_INFINITY);
+
+		ConfSearchCache cache = new ConfSearchCache(1);
+		ConfSearchCache.Entry tree = cache.make(() ->
+			new ConfAStarTree.Builder(emat, rcs)
+				.setTraditional()
+				.build()
+		);
+
+		// get the scores in batches, and force re-instantiation in the middle
+		double[] scores = new double[10];
+		assertThat(tree.nextConfs(10, scores), is(10));
+		for (int i=0; i<10; i++) {
+			assertThat(scores[i], is(expectedConfs.get(i).getScore()));
+		}
+
+		tree.clearRefs();
+
+		assertThat(tree.nextConfs(10, scores), is(10));
+		for (int i=0; i<10; i++) {
+			assertThat(scores[i], is(expectedConfs.get(10 + i).getScore()));
+		}
+
+		// only 7 confs left
+		assertThat(tree.nextConfs(10, scores), is(7));
+		for (int i=0; i<7; i++) {
+			assertThat(scores[i], is(expectedConfs.get(20 + i).getScore()));
+		}
+		assertThat(tree.nextConfs(10, scores), is(0));
+		assertThat(tree.nextConf(), is(nullValue()));
+	}
 }
@@ -49,7 +49,15 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
 public class TestConfDB {
@@ -84,7 +92,15 @@ public class TestConfDB {
 	}
 
 	private ConfDB openDB() {
-		return new ConfDB(confSpace, file);
+		return openDB(0);
+	}
+
+	private ConfDB openDB(long writeBehindMs) {
+		return openDB(writeBehindMs, ConfDB.Backend.MapDB);
+	}
+
+	private ConfDB openDB(long writeBehindMs, ConfDB.Backend backend) {
+		return new ConfDB(confSpace, file, writeBehindMs, backend);
 	}
 
 	private void cleanDB() {
@@ -92,6 +108,16 @@ public class TestConfDB {
 			file.delete();
 		}
 		assertThat(file.exists(), is(false));
+
+		// and any log files
+		File[] logFiles = file.getAbsoluteFile().getParentFile().listFiles((dir, name) ->
+			name.startsWith(file.getName() + ".") && name.endsWith(".log")
+		);
+		if (logFiles != null) {
+			for (File logFile : logFiles) {
+				logFile.delete();
+			}
+		}
 	}
 
 	private void withDB(Consumer<ConfDB> block) {
@@ -108,8 +134,16 @@ public class TestConfDB {
 	}
 
 	private void withDBTwice(Consumer<ConfDB> block1, Consumer<ConfDB> block2) {
+		withDBTwice(0, block1, block2);
+	}
+
+	private void withDBTwice(long writeBehindMs, Consumer<ConfDB> block1, Consumer<ConfDB> block2) {
+		withDBTwice(writeBehindMs, ConfDB.Backend.MapDB, block1, block2);
+	}
+
+	private void withDBTwice(long writeBehindMs, ConfDB.Backend backend, Consumer<ConfDB> block1, Consumer<ConfDB> block2) {
 		cleanDB();
-		ConfDB db = openDB();
+		ConfDB db = openDB(writeBehindMs, backend);
 		try {
 			block1.accept(db);
 			db.close();
@@ -120,7 +154,7 @@ public class TestConfDB {
 			cleanDB();
 			return;
 		}
-		db = openDB();
+		db = openDB(0, backend);
 		try {
 			block2.accept(db);
 		} finally {
@@ -822,4 +856,373 @@ public class TestConfDB {
 			assertThat(table.getConfsByLowerBound(6.0).iterator().hasNext(), is(false));
 		});
 	}
+
+	@Test
+	public void writeBehindReadBuffered() {
+
+		String tableId = "foo";
+
+		// use a long interval so the write-behind thread never runs during the test
+		withDBTwice(60*60*1000, (db) -> {
+
+			ConfDB.ConfTable table = db.new ConfTable(tableId);
+			table.setUpperBound(new int[] { 7, 9, 8 }, 3.2, 54L);
+			table.setLowerBound(new int[] { 1, 2, 3 }, 1.5, 40L);
+			table.setUpperBound(new int[] { 1, 2, 3 }, 7.9, 42L);
+			table.flush();
+
+			// reads should see the buffered updates, even from other tables with the same id
+			assertConf(table.get(new int[] { 1, 2, 3 }), new int[] { 1, 2, 3 }, 1.5, 40L, 7.9, 42L);
+			assertConfUpper(db.new ConfTable(tableId).get(new int[] { 7, 9, 8 }), new int[] { 7, 9, 8 }, 3.2, 54L);
+			assertThat(table.get(new int[] { 4, 0, 5 }), is(nullValue()));
+
+			// so should iteration and the energy indices
+			assertThat(table.size(), is(2L));
+			assertThat(table.upperBounds(), contains(3.2, 7.9));
+
+			// and updates after a drain should replace the old index entries
+			table.setUpperBound(new int[] { 7, 9, 8 }, 2.3, 69L);
+			assertThat(table.upperBounds(), contains(2.3, 7.9));
+
+		}, (db) -> {
+
+			// closing should have written everything
+			Iterator<ConfDB.Conf> confs = db.new ConfTable(tableId).iterator();
+			assertConf(confs.next(), new int[] { 1, 2, 3 }, 1.5, 40L, 7.9, 42L);
+			assertConfUpper(confs.next(), new int[] { 7, 9, 8 }, 2.3, 69L);
+			assertThat(confs.hasNext(), is(false));
+		});
+	}
+
+	@Test
+	public void writeBehindConcurrentWriters() {
+
+		String tableId = "foo";
+		int numThreads = 4;
+		int numConfs = 100;
+
+		withDBTwice(1, (db) -> {
+
+			ConfDB.ConfTable table = db.new ConfTable(tableId);
+			ExecutorService threads = Executors.newFixedThreadPool(numThreads);
+			try {
+				List<Future<?>> futures = new ArrayList<>();
+				for (int t=0; t<numThreads; t++) {
+					final int pos0 = t;
+					futures.add(threads.submit(() -> {
+						for (int i=0; i<numConfs; i++) {
+							int[] assignments = { pos0, i/10, i%10 };
+							table.setLowerBound(assignments, i, i + 1);
+							table.setUpperBound(assignments, i + 0.5, i + 1);
+							table.flush();
+							assertThat(table.get(assignments).upper.energy, is(i + 0.5));
+						}
+					}));
+				}
+
+				// rethrow any assertion failures from the writer threads
+				for (Future<?> future : futures) {
+					try {
+						future.get();
+					} catch (ExecutionException ex) {
+						if (ex.getCause() instanceof Error) {
+							throw (Error)ex.getCause();
+						}
+						throw new RuntimeException(ex.getCause());
+					} catch (InterruptedException ex) {
+						throw new RuntimeException(ex);
+					}
+				}
+			} finally {
+				threads.shutdownNow();
+			}
+
+		}, (db) -> {
+
+			ConfDB.ConfTable table = db.new ConfTable(tableId);
+			assertThat(table.size(), is((long)numThreads*numConfs));
+			for (ConfDB.Conf conf : table) {
+				double lower = conf.assignments[1]*10 + conf.assignments[2];
+				assertConf(conf, conf.assignments, lower, (long)lower + 1, lower + 0.5, (long)lower + 1);
+				assertThat(table.getConfsByUpperBound(lower + 0.5).size(), is(numThreads));
+			}
+		});
+	}
+
+	@Test
+	public void logBackend() {
+
+		String tableId = "foo";
+
+		withDBTwice(0, ConfDB.Backend.Log, (db) -> {
+
+			ConfDB.ConfTable table = db.new ConfTable(tableId);
+			table.setBounds(new int[] { 1, 2, 3 }, 1.5, 7.9, 42L);
+			table.setLowerBound(new int[] { 7, 9, 8 }, 3.2, 54L);
+			table.setLowerBound(new int[] { 4, 0, 5 }, 1.5, 60L);
+			table.setUpperBound(new int[] { 4, 0, 5 }, 2.4, 61L);
+			table.setBounds(new int[] { 0, 0, 0 }, 0.1, 0.2, 10L);
+			table.remove(new int[] { 0, 0, 0 });
+
+			// updates should keep the other bound
+			table.setLowerBound(new int[] { 7, 9, 8 }, 1.2, 70L);
+			table.setUpperBound(new int[] { 7, 9, 8 }, 4.1, 71L);
+
+			assertThat(table.size(), is(3L));
+			assertThat(table.get(new int[] { 0, 0, 0 }), is(nullValue()));
+			assertConf(table.get(new int[] { 7, 9, 8 }), new int[] { 7, 9, 8 }, 1.2, 70L, 4.1, 71L);
+
+		}, (db) -> {
+
+			// reopening should replay the log
+			ConfDB.ConfTable table = db.new ConfTable(tableId);
+			assertThat(table.size(), is(3L));
+
+			Iterator<ConfDB.Conf> confs = table.iterator();
+			assertConf(confs.next(), new int[] { 1, 2, 3 }, 1.5, 42L, 7.9, 42L);
+			assertConf(confs.next(), new int[] { 4, 0, 5 }, 1.5, 60L, 2.4, 61L);
+			assertConf(confs.next(), new int[] { 7, 9, 8 }, 1.2, 70L, 4.1, 71L);
+			assertThat(confs.hasNext(), is(false));
+
+			assertThat(table.lowerBounds(), contains(1.2, 1.5));
+			assertThat(table.upperBounds(), contains(2.4, 4.1, 7.9));
+			assertThat(table.getConfsByLowerBound(1.5).size(), is(2));
+			assertThat(table.getConfsByLowerBound(1.6), is(nullValue()));
+
+			Iterator<ConfSearch.EnergiedConf> econfs = table.energiedConfs(ConfDB.SortOrder.Energy).iterator();
+			assertThat(econfs.next().getAssignments(), is(new int[] { 4, 0, 5 }));
+			assertThat(econfs.next().getAssignments(), is(new int[] { 7, 9, 8 }));
+			assertThat(econfs.next().getAssignments(), is(new int[] { 1, 2, 3 }));
+			assertThat(econfs.hasNext(), is(false));
+		});
+	}
+
+	@Test
+	public void logBackendWriteBehind() {
+
+		String tableId = "foo";
+		int numConfs = 500;
+
+		withDBTwice(1, ConfDB.Backend.Log, (db) -> {
+
+			ConfDB.ConfTable table = db.new ConfTable(tableId);
+			for (int i=0; i<numConfs; i++) {
+				int[] assignments = { i/100, (i/10)%10, i%10 };
+				table.setLowerBound(assignments, -i, i + 1);
+				table.setUpperBound(assignments, i, i + 1);
+				table.flush();
+			}
+
+		}, (db) -> {
+
+			ConfDB.ConfTable table = db.new ConfTable(tableId);
+			assertThat(table.size(), is((long)numConfs));
+			int i = 0;
+			for (ConfDB.Conf conf : table) {
+				assertConf(conf, new int[] { i/100, (i/10)%10, i%10 }, -i, i + 1, i, i + 1);
+				i++;
+			}
+		});
+	}
+
+	@Test
+	public void logBackendManyTables() {
+
+		int numTables = 10;
+		int numConfs = 20;
+
+		// ids longer than the file system allows for file names
+		List<String> tableIds = new ArrayList<>();
+		for (int t=0; t<numTables; t++) {
+			tableIds.add(String.join("", Collections.nCopies(100, "LYS:TYR:")) + t);
+		}
+
+		withDBTwice(0, ConfDB.Backend.Log, (db) -> {
+
+			// keep fewer logs open than there are tables
+			db.setMaxOpenLogs(2);
+
+			List<ConfDB.ConfTable> tables = new ArrayList<>();
+			for (String tableId : tableIds) {
+				tables.add(db.new ConfTable(tableId));
+			}
+			for (int i=0; i<numConfs; i++) {
+				for (int t=0; t<numTables; t++) {
+					tables.get(t).setBounds(new int[] { t, i/10, i%10 }, i, i + 0.5, i + 1);
+				}
+			}
+			db.flush();
+
+			for (int t=0; t<numTables; t++) {
+				assertThat(tables.get(t).size(), is((long)numConfs));
+			}
+
+			// older views should still work after their logs are closed
+			Iterator<Double> lowerBounds = tables.get(0).lowerBounds().iterator();
+			tables.get(1).setLowerBound(new int[] { 1, 0, 0 }, 5.0, 100L);
+			tables.get(2).setLowerBound(new int[] { 2, 0, 0 }, 5.0, 100L);
+			for (int i=0; i<numConfs; i++) {
+				assertThat(lowerBounds.next(), is((double)i));
+			}
+			assertThat(lowerBounds.hasNext(), is(false));
+
+			File[] logFiles = file.getAbsoluteFile().getParentFile().listFiles((dir, name) ->
+				name.startsWith(file.getName() + ".") && name.endsWith(".log")
+			);
+			assertThat(logFiles.length, is(numTables));
+
+		}, (db) -> {
+
+			for (int t=0; t<numTables; t++) {
+				ConfDB.ConfTable table = db.new ConfTable(tableIds.get(t));
+				assertThat(table.size(), is((long)numConfs));
+				int[] assignments = { t, 1, 9 };
+				assertConf(table.get(assignments), assignments, 19.0, 20L, 19.5, 20L);
+			}
+		});
+	}
+
+	@Test
+	public void sharedLogBackend() {
+
+		String tableId = "foo";
+		int numConfs = 200;
+
+		cleanDB();
+		try {
+
+			// open the same DB twice, like two processes would
+			ConfDB db1 = openDB(0, ConfDB.Backend.SharedLog);
+			ConfDB db2 = openDB(0, ConfDB.Backend.SharedLog);
+			ConfDB.ConfTable table1 = db1.new ConfTable(tableId);
+			ConfDB.ConfTable table2 = db2.new ConfTable(tableId);
+
+			// writes from one should show up in the other right away
+			table1.setLowerBound(new int[] { 1, 2, 3 }, 1.5, 40L);
+			assertConfLower(table2.get(new int[] { 1, 2, 3 }), new int[] { 1, 2, 3 }, 1.5, 40L);
+
+			// and updates to the other bound should keep the first one
+			table2.setUpperBound(new int[] { 1, 2, 3 }, 7.9, 42L);
+			assertConf(table1.get(new int[] { 1, 2, 3 }), new int[] { 1, 2, 3 }, 1.5, 40L, 7.9, 42L);
+			assertThat(table1.upperBounds(), contains(7.9));
+
+			// write lower bounds from one DB and upper bounds from the other, at the same time
+			List<Thread> threads = new ArrayList<>();
+			threads.add(new Thread(() -> {
+				for (int i=0; i<numConfs; i++) {
+					table1.setLowerBound(new int[] { 0, i/10, i%10 }, i, i + 1);
+					table1.flush();
+				}
+			}));
+			threads.add(new Thread(() -> {
+				for (int i=0; i<numConfs; i++) {
+					table2.setUpperBound(new int[] { 0, i/10, i%10 }, i + 0.5, i + 1);
+					table2.flush();
+				}
+			}));
+			threads.forEach((thread) -> thread.start());
+			for (Thread thread : threads) {
+				try {
+					thread.join();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+			}
+
+			for (ConfDB.ConfTable table : Arrays.asList(table1, table2)) {
+				assertThat(table.size(), is(numConfs + 1L));
+				for (int i=0; i<numConfs; i++) {
+					int[] assignments = { 0, i/10, i%10 };
+					assertConf(table.get(assignments), assignments, i, i + 1, i + 0.5, i + 1);
+				}
+			}
+
+			db1.close();
+			db2.close();
+
+			// everything should still be there after reopening
+			ConfDB db = openDB(0, ConfDB.Backend.SharedLog);
+			try {
+				assertThat(db.new ConfTable(tableId).size(), is(numConfs + 1L));
+			} finally {
+				db.close();
+			}
+
+		} finally {
+			cleanDB();
+		}
+	}
+
+	@Test
+	public void sharedLogBackendProcesses()
+	throws Exception {
+
+		String tableId = "foo";
+		int numConfs = 100;
+
+		cleanDB();
+		try {
+
+			// write upper bounds from another JVM
+			Process process = new ProcessBuilder(
+				new File(new File(System.getProperty("java.home"), "bin"), "java").getPath(),
+				"-cp", System.getProperty("java.class.path"),
+				SharedLogWriter.class.getName(),
+				tableId, Integer.toString(numConfs)
+			).inheritIO().start();
+
+			// while writing lower bounds and reading from this one
+			ConfDB db = openDB(0, ConfDB.Backend.SharedLog);
+			try {
+				ConfDB.ConfTable table = db.new ConfTable(tableId);
+				for (int i=0; i<numConfs; i++) {
+					int[] assignments = { 0, i/10, i%10 };
+					table.setLowerBound(assignments, i, i + 1);
+					table.flush();
+					assertThat(table.get(assignments).lower.energy, is((double)i));
+					assertThat(table.lowerBounds().iterator().next(), is(0.0));
+				}
+
+				assertThat(process.waitFor(), is(0));
+
+				// we should see both processes' bounds for every conf
+				assertThat(table.size(), is((long)numConfs));
+				for (int i=0; i<numConfs; i++) {
+					int[] assignments = { 0, i/10, i%10 };
+					assertConf(table.get(assignments), assignments, i, i + 1, i + 0.5, i + 2);
+				}
+			} finally {
+				process.destroy();
+				db.close();
+			}
+
+		} finally {
+			cleanDB();
+		}
+	}
+
+	/** writes upper bounds to a shared log for {@link #sharedLogBackendProcesses()}, in a separate JVM */
+	public static class SharedLogWriter {
+
+		public static void main(String[] args) {
+
+			String tableId = args[0];
+			int numConfs = Integer.parseInt(args[1]);
+
+			beforeClass();
+			ConfDB db = new ConfDB(confSpace, file, 0, ConfDB.Backend.SharedLog);
+			try {
+				ConfDB.ConfTable table = db.new ConfTable(tableId);
+				for (int i=0; i<numConfs; i++) {
+					int[] assignments = { 0, i/10, i%10 };
+					table.setUpperBound(assignments, i + 0.5, i + 2);
+					table.flush();
+					assertThat(table.get(assignments).upper.energy, is(i + 0.5));
+					assertThat(table.upperBounds().iterator().next(), is(0.5));
+				}
+			} finally {
+				db.close();
+			}
+		}
+	}
 }
@@ -0,0 +1,144 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.confspace;
+
+import static edu.duke.cs.osprey.TestBase.isAbsolutely;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
+import edu.duke.cs.osprey.energy.EnergyCalculator;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.parallelism.Parallelism;
+import edu.duke.cs.osprey.structure.Molecule;
+import edu.duke.cs.osprey.structure.PDBIO;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TestMoleculePool {
+
+	private static SimpleConfSpace confSpace;
+
+	@BeforeClass
+	public static void beforeClass() {
+
+		Molecule mol = PDBIO.readFile("examples/1CC8/1CC8.ss.pdb");
+		Strand strand = new Strand.Builder(mol).build();
+		strand.flexibility.get("A2").setLibraryRotamers(Strand.WildType, "VAL", "LEU").addWildTypeRotamers().setContinuous();
+		strand.flexibility.get("A3").setLibraryRotamers(Strand.WildType, "GLU", "PRO").setContinuous();
+		strand.flexibility.get("A4").setLibraryRotamers(Strand.WildType, "ALA", "ILE");
+		strand.flexibility.get("A5").setLibraryRotamers(Strand.WildType).addWildTypeRotamers().setContinuous();
+
+		confSpace = new SimpleConfSpace.Builder()
+			.addStrand(strand)
+			.build();
+	}
+
+	private static List<RCTuple> makeFrags(int numFrags) {
+
+		// mix singles, pairs, and full confs in random order
+		Random rand = new Random(12345);
+		List<RCTuple> frags = new ArrayList<>();
+		for (int i=0; i<numFrags; i++) {
+			RCTuple frag = new RCTuple();
+			for (SimpleConfSpace.Position pos : confSpace.positions) {
+				if (rand.nextInt(3) > 0) {
+					frag = frag.addRC(pos.index, rand.nextInt(pos.resConfs.size()));
+				}
+			}
+			if (frag.size() == 0) {
+				frag = new RCTuple(0, 0);
+			}
+			frags.add(frag);
+		}
+		return frags;
+	}
+
+	@Test
+	public void matchesRebuild() {
+
+		// the pool checks every molecule against the rebuild path
+		MoleculePool pool = new MoleculePool(confSpace, MoleculePool.DefaultMaxReuses, true);
+		Random rand = new Random(67890);
+		for (RCTuple frag : makeFrags(200)) {
+			ParametricMolecule pmol = pool.makeMolecule(frag);
+
+			// move the DOFs around, like a minimizer would
+			for (int d=0; d<pmol.dofs.size(); d++) {
+				double min = pmol.dofBounds.getMin(d);
+				double max = pmol.dofBounds.getMax(d);
+				pmol.dofs.get(d).apply(min + rand.nextDouble()*(max - min));
+			}
+		}
+	}
+
+	@Test
+	public void reusesMolecule() {
+
+		MoleculePool pool = new MoleculePool(confSpace);
+		ParametricMolecule pmol1 = pool.makeMolecule(new int[] { 0, 0, 0, 0 });
+		ParametricMolecule pmol2 = pool.makeMolecule(new int[] { 1, 0, 1, 0 });
+		assertThat(pmol1.mol, sameInstance(pmol2.mol));
+	}
+
+	@Test
+	public void energies() {
+
+		List<RCTuple> frags = makeFrags(40);
+
+		try (EnergyCalculator ecalc = new EnergyCalculator.Builder(confSpace, new ForcefieldParams())
+			.setParallelism(Parallelism.makeCpu(4))
+			.build()
+		) {
+			ConfEnergyCalculator confEcalc = new ConfEnergyCalculator.Builder(confSpace, ecalc).build();
+			ConfEnergyCalculator pooledConfEcalc = new ConfEnergyCalculator.Builder(confSpace, ecalc)
+				.setPooledMolecules(true)
+				.build();
+
+			for (RCTuple frag : frags) {
+				double expected = confEcalc.calcEnergy(frag).energy;
+				double observed = pooledConfEcalc.calcFragEnergy(frag, pooledConfEcalc.makeFragInters(frag));
+				if (Double.isInfinite(expected)) {
+					assertThat(observed, is(expected));
+				} else {
+					// minimizations start from nearly (but not exactly) the same coords
+					assertThat(observed, isAbsolutely(expected, 1e-4));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.ematrix;
+
+import static edu.duke.cs.osprey.TestBase.TempFile;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.SimpleConfSpace;
+import edu.duke.cs.osprey.confspace.Strand;
+import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
+import edu.duke.cs.osprey.energy.EnergyCalculator;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.parallelism.Parallelism;
+import edu.duke.cs.osprey.structure.Molecule;
+import edu.duke.cs.osprey.structure.PDBIO;
+import org.junit.Test;
+
+import java.io.RandomAccessFile;
+
+public class TestEnergyMatrixCheckpoint {
+
+	private static SimpleConfSpace makeConfSpace(String ... resTypesAt10) {
+		Molecule mol = PDBIO.readFile("examples/python.GMEC/1CC8.ss.pdb");
+		Strand strand = new Strand.Builder(mol).build();
+		strand.flexibility.get("A10").setLibraryRotamers(resTypesAt10);
+		strand.flexibility.get("A11").setLibraryRotamers(Strand.WildType, "LEU");
+		return new SimpleConfSpace.Builder().addStrand(strand).build();
+	}
+
+	private static EnergyMatrix calcEmat(SimpleConfSpace confSpace, TempFile checkpointFile) {
+		return calcEmat(confSpace, checkpointFile, false);
+	}
+
+	private static EnergyMatrix calcEmat(SimpleConfSpace confSpace, TempFile checkpointFile, boolean isPipelined) {
+		try (EnergyCalculator ecalc = new EnergyCalculator.Builder(confSpace, new ForcefieldParams())
+			.setParallelism(Parallelism.makeCpu(isPipelined ? 2 : 1))
+			.build()) {
+			return new SimplerEnergyMatrixCalculator.Builder(confSpace, ecalc)
+				.setCheckpointFile(checkpointFile)
+				.setPipelined(isPipelined)
+				.build()
+				.calcEnergyMatrix();
+		}
+	}
+
+	private static int countEntries(SimpleConfSpace confSpace, TempFile checkpointFile) {
+		return countEntries(confSpace, checkpointFile, new ForcefieldParams());
+	}
+
+	private static int countEntries(SimpleConfSpace confSpace, TempFile checkpointFile, ForcefieldParams ffparams) {
+		try (EnergyCalculator ecalc = new EnergyCalculator.Builder(confSpace, ffparams).build()) {
+			try (EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(checkpointFile, new ConfEnergyCalculator.Builder(confSpace, ecalc).build())) {
+				return checkpoint.getNumLoaded();
+			}
+		}
+	}
+
+	private static void assertEmats(SimpleConfSpace confSpace, EnergyMatrix exp, EnergyMatrix obs) {
+		for (int pos1=0; pos1<confSpace.positions.size(); pos1++) {
+			for (int rc1=0; rc1<confSpace.getNumResConfs(pos1); rc1++) {
+				assertThat(new RCTuple(pos1, rc1).toString(), obs.getEnergy(pos1, rc1), is(exp.getEnergy(pos1, rc1)));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<confSpace.getNumResConfs(pos2); rc2++) {
+						assertThat(new RCTuple(pos1, rc1, pos2, rc2).toString(), obs.getEnergy(pos1, rc1, pos2, rc2), is(exp.getEnergy(pos1, rc1, pos2, rc2)));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void resumeAfterCrash() throws Exception {
+
+		SimpleConfSpace confSpace = makeConfSpace("VAL");
+		EnergyMatrix expected = calcEmat(confSpace, null);
+		int numEntries = confSpace.getNumResConfs() + confSpace.getNumResConfPairs();
+
+		try (TempFile checkpointFile = new TempFile("emat.checkpoint")) {
+
+			assertEmats(confSpace, expected, calcEmat(confSpace, checkpointFile));
+			assertThat(countEntries(confSpace, checkpointFile), is(numEntries));
+
+			// chop off the end of the file, like a crash in the middle of a write
+			try (RandomAccessFile raf = new RandomAccessFile(checkpointFile, "rw")) {
+				raf.setLength(raf.length() - 5);
+			}
+			assertThat(countEntries(confSpace, checkpointFile), lessThan(numEntries));
+
+			// resuming should fill in the missing entries
+			assertEmats(confSpace, expected, calcEmat(confSpace, checkpointFile));
+			assertThat(countEntries(confSpace, checkpointFile), is(numEntries));
+		}
+	}
+
+	@Test
+	public void reuseAfterEdit() {
+
+		SimpleConfSpace confSpace = makeConfSpace("VAL");
+		SimpleConfSpace editedConfSpace = makeConfSpace("VAL", "ILE");
+		EnergyMatrix expected = calcEmat(editedConfSpace, null);
+
+		try (TempFile checkpointFile = new TempFile("emat.checkpoint")) {
+
+			calcEmat(confSpace, checkpointFile);
+
+			// the VAL entries should be reused, and the ILE entries calculated
+			assertEmats(editedConfSpace, expected, calcEmat(editedConfSpace, checkpointFile));
+			assertThat(countEntries(editedConfSpace, checkpointFile), is(editedConfSpace.getNumResConfs() + editedConfSpace.getNumResConfPairs()));
+
+			// removing the ILE again should drop the stale entries
+			calcEmat(confSpace, checkpointFile);
+			assertThat(countEntries(confSpace, checkpointFile), is(confSpace.getNumResConfs() + confSpace.getNumResConfPairs()));
+		}
+	}
+
+	@Test
+	public void resumePipelined() throws Exception {
+
+		SimpleConfSpace confSpace = makeConfSpace("VAL", "ILE");
+		EnergyMatrix expected = calcEmat(confSpace, null);
+		int numEntries = confSpace.getNumResConfs() + confSpace.getNumResConfPairs();
+
+		try (TempFile checkpointFile = new TempFile("emat.checkpoint")) {
+
+			assertEmats(confSpace, expected, calcEmat(confSpace, checkpointFile, true));
+			assertThat(countEntries(confSpace, checkpointFile), is(numEntries));
+
+			// chop off the end of the file, then resume with the pipeline
+			try (RandomAccessFile raf = new RandomAccessFile(checkpointFile, "rw")) {
+				raf.setLength(raf.length() - 5);
+			}
+			assertEmats(confSpace, expected, calcEmat(confSpace, checkpointFile, true));
+			assertThat(countEntries(confSpace, checkpointFile), is(numEntries));
+		}
+	}
+
+	@Test
+	public void keepMismatchedCheckpoint() {
+
+		SimpleConfSpace confSpace = makeConfSpace("VAL");
+		int numEntries = confSpace.getNumResConfs() + confSpace.getNumResConfPairs();
+
+		ForcefieldParams otherParams = new ForcefieldParams();
+		otherParams.solvScale = 0.6;
+
+		try (TempFile checkpointFile = new TempFile("emat.checkpoint")) {
+			try (TempFile unusedFile = new TempFile(checkpointFile.getAbsolutePath() + ".unused")) {
+
+				calcEmat(confSpace, checkpointFile);
+				long size = checkpointFile.length();
+
+				// different forcefield settings shouldn't reuse the checkpoint, but shouldn't destroy it either
+				assertThat(countEntries(confSpace, checkpointFile, otherParams), is(0));
+				assertThat(unusedFile.exists(), is(true));
+				assertThat(unusedFile.length(), is(size));
+			}
+		}
+	}
+
+	@Test
+	public void keepGarbageFile() throws Exception {
+
+		SimpleConfSpace confSpace = makeConfSpace("VAL");
+
+		try (TempFile checkpointFile = new TempFile("emat.checkpoint")) {
+			try (TempFile unusedFile = new TempFile(checkpointFile.getAbsolutePath() + ".unused")) {
+
+				// someone pointed the checkpoint at the wrong file
+				try (RandomAccessFile raf = new RandomAccessFile(checkpointFile, "rw")) {
+					raf.write(new byte[] { 1, 2, 3 });
+				}
+
+				assertThat(countEntries(confSpace, checkpointFile), is(0));
+				assertThat(unusedFile.length(), is(3L));
+			}
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.ematrix;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
+import edu.duke.cs.osprey.astar.conf.RCs;
+import edu.duke.cs.osprey.confspace.ConfSearch;
+import edu.duke.cs.osprey.pruning.PruningMatrix;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TestFloatEnergyMatrix {
+
+	private static final int[] NumRCsAtPos = { 3, 4, 2, 5, 3 };
+
+	private static EnergyMatrix makeEmat() {
+		EnergyMatrix emat = new EnergyMatrix(NumRCsAtPos.length, NumRCsAtPos, Double.POSITIVE_INFINITY);
+		Random rand = new Random(12345);
+		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+				emat.setOneBody(pos1, rc1, rand.nextGaussian()*10);
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+						emat.setPairwise(pos1, rc1, pos2, rc2, rand.nextGaussian());
+					}
+				}
+			}
+		}
+		return emat;
+	}
+
+	@Test
+	public void rounding() {
+
+		double[] vals = { 0.1, -0.1, 1.0/3.0, -1.0/3.0, 1e-50, 1e50, Double.MAX_VALUE, 0.0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for (double val : vals) {
+			assertThat(Double.toString(val), (double)FloatEnergyMatrix.Rounding.Down.round(val), lessThanOrEqualTo(val));
+			assertThat(Double.toString(val), (double)FloatEnergyMatrix.Rounding.Up.round(val), greaterThanOrEqualTo(val));
+		}
+
+		// exact floats shouldn't change
+		assertThat(FloatEnergyMatrix.Rounding.Down.round(0.5), is(0.5f));
+		assertThat(FloatEnergyMatrix.Rounding.Up.round(0.5), is(0.5f));
+	}
+
+	@Test
+	public void copyRoundsDown() {
+
+		EnergyMatrix emat = makeEmat();
+		FloatEnergyMatrix femat = new FloatEnergyMatrix(emat, FloatEnergyMatrix.Rounding.Down);
+
+		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+				assertThat(femat.getEnergy(pos1, rc1), lessThanOrEqualTo(emat.getEnergy(pos1, rc1)));
+				assertThat(femat.getOneBody(pos1, rc1), closeTo(emat.getEnergy(pos1, rc1), 1e-5));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+						assertThat(femat.getEnergy(pos1, rc1, pos2, rc2), lessThanOrEqualTo(emat.getEnergy(pos1, rc1, pos2, rc2)));
+						assertThat(femat.getPairwise(pos2, rc2, pos1, rc1), closeTo(emat.getEnergy(pos1, rc1, pos2, rc2), 1e-5));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void negateFlipsRounding() {
+		FloatEnergyMatrix femat = new FloatEnergyMatrix(makeEmat(), FloatEnergyMatrix.Rounding.Down);
+		femat.negate();
+		assertThat(femat.getRounding(), is(FloatEnergyMatrix.Rounding.Up));
+	}
+
+	@Test
+	public void astarLowerBounds() {
+
+		EnergyMatrix emat = makeEmat();
+		FloatEnergyMatrix femat = new FloatEnergyMatrix(emat, FloatEnergyMatrix.Rounding.Down);
+		RCs rcs = new RCs(new PruningMatrix(NumRCsAtPos.length, NumRCsAtPos, 0));
+
+		ConfAStarTree tree = new ConfAStarTree.Builder(emat, rcs).setTraditional().build();
+		ConfAStarTree ftree = new ConfAStarTree.Builder(femat, rcs).setTraditional().build();
+
+		// the float scores should be lower bounds on the double scores, and very close
+		for (int i=0; i<20; i++) {
+			ConfSearch.ScoredConf conf = tree.nextConf();
+			ConfSearch.ScoredConf fconf = ftree.nextConf();
+			assertThat(fconf.getScore(), lessThanOrEqualTo(conf.getScore()));
+			assertThat(fconf.getScore(), closeTo(conf.getScore(), 1e-4));
+		}
+	}
+}
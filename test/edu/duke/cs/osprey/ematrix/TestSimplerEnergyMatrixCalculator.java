@@ -50,6 +50,7 @@ import edu.duke.cs.osprey.dof.deeper.DEEPerSettings;
 import edu.duke.cs.osprey.ematrix.epic.EPICSettings;
 import edu.duke.cs.osprey.energy.EnergyCalculator;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.parallelism.Parallelism;
 import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.structure.PDBIO;
 import edu.duke.cs.osprey.tupexp.LUTESettings;
@@ -816,6 +817,26 @@ public class TestSimplerEnergyMatrixCalculator extends TestBase {
 		);
 	}
 	
+	@Test
+	public void pipelinedDiscreteGLNtoTRP() {
+		SimpleConfSpace confSpace = makeConfSpace(false, "GLN", "ILE", "LEU", "TRP");
+		assertEnergyMatrix(
+			confSpace,
+			makeExpectedEmatDiscreteGLNtoTRP(confSpace),
+			makeEmatCalc(confSpace, Parallelism.makeCpu(4), true).calcEnergyMatrix()
+		);
+	}
+	
+	@Test
+	public void pipelinedContinuousHIStoTYR() {
+		SimpleConfSpace confSpace = makeConfSpace(true, "HIS", "LYS", "TYR");
+		assertEnergyMatrix(
+			confSpace,
+			makeExpectedEmatContinuousHIStoTYR(confSpace),
+			makeEmatCalc(confSpace, Parallelism.makeCpu(4), true).calcEnergyMatrix()
+		);
+	}
+	
 	private SimpleConfSpace makeConfSpace(boolean doMinimize, String ... aminoAcids) {
 		return makeConfSpace(doMinimize, 10, aminoAcids);
 	}
@@ -844,10 +865,16 @@ public class TestSimplerEnergyMatrixCalculator extends TestBase {
 	}
 	
 	private SimplerEnergyMatrixCalculator makeEmatCalc(SimpleConfSpace confSpace) {
+		return makeEmatCalc(confSpace, Parallelism.makeCpu(1), false);
+	}
+	
+	private SimplerEnergyMatrixCalculator makeEmatCalc(SimpleConfSpace confSpace, Parallelism parallelism, boolean isPipelined) {
 		EnergyCalculator ecalc = new EnergyCalculator.Builder(confSpace, new ForcefieldParams())
 			.setType(EnergyCalculator.Type.CpuOriginalCCD) // use original CCD implementation to match old code energies
+			.setParallelism(parallelism)
 			.build();
 		return new SimplerEnergyMatrixCalculator.Builder(confSpace, ecalc)
+			.setPipelined(isPipelined)
 			.build();
 	}
 	
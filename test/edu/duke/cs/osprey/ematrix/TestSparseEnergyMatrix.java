@@ -0,0 +1,137 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.ematrix;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.confspace.SimpleConfSpace;
+import edu.duke.cs.osprey.confspace.Strand;
+import edu.duke.cs.osprey.energy.EnergyCalculator;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.structure.Molecule;
+import edu.duke.cs.osprey.structure.PDBIO;
+import org.junit.Test;
+
+public class TestSparseEnergyMatrix {
+
+	private static SimpleConfSpace makeConfSpace() {
+		Molecule mol = PDBIO.readFile("examples/python.GMEC/1CC8.ss.pdb");
+		Strand strand = new Strand.Builder(mol).build();
+		for (String resNum : new String[] { "A2", "A3", "A14", "A15" }) {
+			strand.flexibility.get(resNum).setLibraryRotamers(Strand.WildType, "VAL").addWildTypeRotamers().setContinuous();
+		}
+		return new SimpleConfSpace.Builder().addStrand(strand).build();
+	}
+
+	private static EnergyMatrix calcEmat(SimpleConfSpace confSpace, double sparseCutoff) {
+		try (EnergyCalculator ecalc = new EnergyCalculator.Builder(confSpace, new ForcefieldParams()).build()) {
+			return new SimplerEnergyMatrixCalculator.Builder(confSpace, ecalc)
+				.setSparseCutoff(sparseCutoff)
+				.build()
+				.calcEnergyMatrix();
+		}
+	}
+
+	@Test
+	public void matchesDense() {
+
+		SimpleConfSpace confSpace = makeConfSpace();
+		EnergyMatrix dense = calcEmat(confSpace, Double.POSITIVE_INFINITY);
+		PositionContacts contacts = new PositionContacts(confSpace, new ForcefieldParams(), 10.0);
+		SparseEnergyMatrix sparse = (SparseEnergyMatrix)calcEmat(confSpace, 10.0);
+
+		// neighboring positions are always in contact, far away ones shouldn't be
+		assertThat(contacts.isInContact(0, 1), is(true));
+		assertThat(contacts.isInContact(2, 3), is(true));
+		assertThat(contacts.isInContact(2, 0), is(false));
+		assertThat(contacts.getNumContacts(), lessThan(contacts.getNumPairs()));
+		assertThat(sparse.getNumStoredPairs(), is(contacts.getNumContacts()));
+		assertThat(sparse.getErrorBound(), is(contacts.getTotalErrorBound()));
+
+		for (int pos1=0; pos1<confSpace.positions.size(); pos1++) {
+			for (int rc1=0; rc1<confSpace.getNumResConfs(pos1); rc1++) {
+
+				assertThat(sparse.getEnergy(pos1, rc1), is(dense.getEnergy(pos1, rc1)));
+
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<confSpace.getNumResConfs(pos2); rc2++) {
+
+						double denseEnergy = dense.getEnergy(pos1, rc1, pos2, rc2);
+						if (contacts.isInContact(pos1, pos2)) {
+
+							// stored energies should match exactly
+							assertThat(sparse.isStored(pos1, pos2), is(true));
+							assertThat(sparse.getEnergy(pos1, rc1, pos2, rc2), is(denseEnergy));
+							assertThat(sparse.getEnergy(pos2, rc2, pos1, rc1), is(denseEnergy));
+
+						} else {
+
+							// skipped energies should be lower bounds within the error bound
+							assertThat(sparse.isStored(pos1, pos2), is(false));
+							assertThat(sparse.getEnergy(pos1, rc1, pos2, rc2), is(-contacts.getErrorBound(pos1, pos2)));
+							assertThat(sparse.getEnergy(pos1, rc1, pos2, rc2), lessThanOrEqualTo(denseEnergy));
+							assertThat(Math.abs(denseEnergy), lessThanOrEqualTo(contacts.getErrorBound(pos1, pos2)));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void setSkippedPair() {
+
+		SimpleConfSpace confSpace = makeConfSpace();
+		PositionContacts contacts = new PositionContacts(confSpace, new ForcefieldParams(), 10.0);
+		SparseEnergyMatrix emat = new SparseEnergyMatrix(confSpace, contacts);
+		assertThat(contacts.isInContact(2, 0), is(false));
+
+		// the lower bound doesn't need storage
+		double bound = -contacts.getErrorBound(2, 0);
+		emat.setPairwise(2, 0, 0, 0, bound);
+		assertThat(emat.isStored(2, 0), is(false));
+		assertThat(emat.getPairwise(2, 0, 0, 0), is(bound));
+
+		// but anything else does
+		emat.setPairwise(0, 1, 2, 0, 5.0);
+		assertThat(emat.isStored(2, 0), is(true));
+		assertThat(emat.getPairwise(2, 0, 0, 1), is(5.0));
+		assertThat(emat.getPairwise(2, 0, 0, 0), is(bound));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void cutoffTooSmallForSolvation() {
+		new PositionContacts(makeConfSpace(), new ForcefieldParams(), 5.0);
+	}
+}
@@ -0,0 +1,174 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.ematrix;
+
+import static edu.duke.cs.osprey.TestBase.TempFile;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.pruning.PruningMatrix;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TestTupleMatrixFile {
+
+	private static final int[] NumRCsAtPos = { 2, 3, 1, 4 };
+
+	private static EnergyMatrix makeEmat() {
+		EnergyMatrix emat = new EnergyMatrix(NumRCsAtPos.length, NumRCsAtPos, Double.POSITIVE_INFINITY);
+		Random rand = new Random(12345);
+		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+				emat.setOneBody(pos1, rc1, rand.nextGaussian());
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+						emat.setPairwise(pos1, rc1, pos2, rc2, rand.nextInt(10) == 0 ? Double.POSITIVE_INFINITY : rand.nextGaussian());
+					}
+				}
+			}
+		}
+		emat.setConstTerm(4.2);
+		return emat;
+	}
+
+	private static PruningMatrix makePmat() {
+		PruningMatrix pmat = new PruningMatrix(NumRCsAtPos.length, NumRCsAtPos, 0);
+		Random rand = new Random(67890);
+		for (int pos1=0; pos1<pmat.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<pmat.getNumConfAtPos(pos1); rc1++) {
+				pmat.setOneBody(pos1, rc1, rand.nextBoolean());
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<pmat.getNumConfAtPos(pos2); rc2++) {
+						pmat.setPairwise(pos1, rc1, pos2, rc2, rand.nextBoolean());
+					}
+				}
+			}
+		}
+		return pmat;
+	}
+
+	private static void assertEmat(EnergyMatrix exp, EnergyMatrix obs) {
+		assertThat(obs.getNumPos(), is(exp.getNumPos()));
+		assertThat(obs.getConstTerm(), is(exp.getConstTerm()));
+		for (int pos1=0; pos1<exp.getNumPos(); pos1++) {
+			assertThat(obs.getNumConfAtPos(pos1), is(exp.getNumConfAtPos(pos1)));
+			for (int rc1=0; rc1<exp.getNumConfAtPos(pos1); rc1++) {
+				assertThat(obs.getEnergy(pos1, rc1), is(exp.getEnergy(pos1, rc1)));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<exp.getNumConfAtPos(pos2); rc2++) {
+						assertThat(obs.getEnergy(pos1, rc1, pos2, rc2), is(exp.getEnergy(pos1, rc1, pos2, rc2)));
+						assertThat(obs.getEnergy(pos2, rc2, pos1, rc1), is(exp.getEnergy(pos1, rc1, pos2, rc2)));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void energyMatrixHeap() {
+		EnergyMatrix emat = makeEmat();
+		try (TempFile file = new TempFile("emat.bin")) {
+			EnergyMatrix.writeBinary(emat, file);
+			assertEmat(emat, EnergyMatrix.readBinary(file));
+		}
+	}
+
+	@Test
+	public void energyMatrixMapped() {
+		EnergyMatrix emat = makeEmat();
+		try (TempFile file = new TempFile("emat.bin")) {
+			EnergyMatrix.writeBinary(emat, file);
+			MappedEnergyMatrix mapped = EnergyMatrix.mapBinary(file);
+			assertEmat(emat, mapped);
+			assertThat(mapped.sum(), is(emat.sum()));
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void energyMatrixMappedIsReadOnly() {
+		try (TempFile file = new TempFile("emat.bin")) {
+			EnergyMatrix.writeBinary(makeEmat(), file);
+			EnergyMatrix.mapBinary(file).setOneBody(0, 0, 5.0);
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void energyMatrixMappedCantFill() {
+		try (TempFile file = new TempFile("emat.bin")) {
+			EnergyMatrix.writeBinary(makeEmat(), file);
+			EnergyMatrix.mapBinary(file).fill(5.0);
+		}
+	}
+
+	@Test
+	public void energyMatrixMappedCopy() {
+		EnergyMatrix emat = makeEmat();
+		try (TempFile file = new TempFile("emat.bin")) {
+			EnergyMatrix.writeBinary(emat, file);
+			EnergyMatrix copy = new EnergyMatrix(EnergyMatrix.mapBinary(file));
+			assertEmat(emat, copy);
+
+			// the copy lives on the heap, so it can be modified
+			copy.setOneBody(0, 0, 5.0);
+			assertThat(copy.getOneBody(0, 0), is(5.0));
+		}
+	}
+
+	@Test
+	public void pruningMatrix() {
+		PruningMatrix pmat = makePmat();
+		try (TempFile file = new TempFile("pmat.bin")) {
+			PruningMatrix.writeBinary(pmat, file);
+			PruningMatrix obs = PruningMatrix.readBinary(file);
+			for (int pos1=0; pos1<pmat.getNumPos(); pos1++) {
+				for (int rc1=0; rc1<pmat.getNumConfAtPos(pos1); rc1++) {
+					assertThat(obs.getOneBody(pos1, rc1), is(pmat.getOneBody(pos1, rc1)));
+					for (int pos2=0; pos2<pos1; pos2++) {
+						for (int rc2=0; rc2<pmat.getNumConfAtPos(pos2); rc2++) {
+							assertThat(obs.getPairwise(pos1, rc1, pos2, rc2), is(pmat.getPairwise(pos1, rc1, pos2, rc2)));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void pruningMatrixIsntEnergyMatrix() {
+		try (TempFile file = new TempFile("pmat.bin")) {
+			PruningMatrix.writeBinary(makePmat(), file);
+			EnergyMatrix.mapBinary(file);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.energy;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import edu.duke.cs.osprey.confspace.ParametricMolecule;
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.SimpleConfSpace;
+import edu.duke.cs.osprey.confspace.Strand;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.parallelism.Parallelism;
+import edu.duke.cs.osprey.structure.Molecule;
+import edu.duke.cs.osprey.structure.PDBIO;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TestWarmStartCache {
+
+	private static SimpleConfSpace confSpace;
+
+	@BeforeClass
+	public static void beforeClass() {
+
+		Molecule mol = PDBIO.readFile("examples/1CC8/1CC8.ss.pdb");
+		Strand strand = new Strand.Builder(mol).build();
+		strand.flexibility.get("A2").setLibraryRotamers(Strand.WildType, "VAL", "LEU").addWildTypeRotamers().setContinuous();
+		strand.flexibility.get("A3").setLibraryRotamers(Strand.WildType, "GLU").setContinuous();
+		strand.flexibility.get("A4").setLibraryRotamers(Strand.WildType, "ALA", "ILE");
+		strand.flexibility.get("A5").setLibraryRotamers(Strand.WildType).addWildTypeRotamers().setContinuous();
+
+		confSpace = new SimpleConfSpace.Builder()
+			.addStrand(strand)
+			.build();
+	}
+
+	private static List<RCTuple> makeConfs(int numConfs) {
+		Random rand = new Random(12345);
+		List<RCTuple> confs = new ArrayList<>();
+		for (int i=0; i<numConfs; i++) {
+			RCTuple conf = new RCTuple();
+			for (SimpleConfSpace.Position pos : confSpace.positions) {
+				conf = conf.addRC(pos.index, rand.nextInt(pos.resConfs.size()));
+			}
+			confs.add(conf);
+		}
+		return confs;
+	}
+
+	@Test
+	public void onlyFullConfs() {
+
+		WarmStartCache warmStarts = new WarmStartCache(confSpace);
+		RCTuple pair = new RCTuple(0, 0, 1, 0);
+		assertThat(warmStarts.isTracked(pair), is(false));
+		assertThat(warmStarts.makeStart(pair, confSpace.makeMolecule(pair)), is(nullValue()));
+	}
+
+	@Test
+	public void remembersOptima() {
+
+		try (EnergyCalculator ecalc = new EnergyCalculator.Builder(confSpace, new ForcefieldParams())
+			.setParallelism(Parallelism.makeCpu(1))
+			.build()
+		) {
+			ConfEnergyCalculator confEcalc = new ConfEnergyCalculator.Builder(confSpace, ecalc)
+				.setWarmStarts(true)
+				.build();
+			WarmStartCache warmStarts = confEcalc.warmStarts;
+
+			// nothing to start from yet
+			RCTuple conf = new RCTuple(new int[] { 0, 0, 0, 0 });
+			assertThat(warmStarts.makeStart(conf, confSpace.makeMolecule(conf)), is(nullValue()));
+
+			EnergyCalculator.EnergiedParametricMolecule cold = confEcalc.calcEnergy(conf);
+			assertThat(warmStarts.getNumWarmStarts(), is(0L));
+
+			// now the residue DOFs should start at the optimum we just found
+			ParametricMolecule pmol = confSpace.makeMolecule(conf);
+			DoubleMatrix1D start = warmStarts.makeStart(conf, pmol);
+			assertThat(start, is(not(nullValue())));
+			for (int d=0; d<pmol.dofs.size(); d++) {
+				assertThat(start.get(d), is(cold.params.get(d)));
+			}
+
+			// and minimizing from the optimum shouldn't make anything worse
+			EnergyCalculator.EnergiedParametricMolecule warm = confEcalc.calcEnergy(conf);
+			assertThat(warm.energy, lessThanOrEqualTo(cold.energy + 1e-6));
+			assertThat(warmStarts.getNumWarmStarts(), is(2L));
+		}
+	}
+
+	@Test
+	public void startsInBounds() {
+
+		try (EnergyCalculator ecalc = new EnergyCalculator.Builder(confSpace, new ForcefieldParams())
+			.setParallelism(Parallelism.makeCpu(2))
+			.build()
+		) {
+			ConfEnergyCalculator confEcalc = new ConfEnergyCalculator.Builder(confSpace, ecalc)
+				.setWarmStarts(true)
+				.build();
+
+			for (RCTuple conf : makeConfs(20)) {
+				ParametricMolecule pmol = confSpace.makeMolecule(conf);
+				DoubleMatrix1D start = confEcalc.warmStarts.makeStart(conf, pmol);
+				if (start != null) {
+					for (int d=0; d<pmol.dofs.size(); d++) {
+						assertThat(start.get(d), greaterThanOrEqualTo(pmol.dofBounds.getMin(d)));
+						assertThat(start.get(d), lessThanOrEqualTo(pmol.dofBounds.getMax(d)));
+					}
+				}
+				confEcalc.calcEnergy(conf);
+			}
+
+			assertThat(confEcalc.warmStarts.getNumWarmStarts(), greaterThan(0L));
+		}
+	}
+}
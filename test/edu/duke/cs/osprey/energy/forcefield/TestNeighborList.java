@@ -0,0 +1,137 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.energy.forcefield;
+
+import static edu.duke.cs.osprey.TestBase.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.energy.ResidueInteractions;
+import edu.duke.cs.osprey.structure.AtomConnectivity;
+import edu.duke.cs.osprey.structure.Residue;
+import edu.duke.cs.osprey.structure.Residues;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestNeighborList {
+
+	@BeforeClass
+	public static void before() {
+		TestForcefieldEnergy.before();
+	}
+
+	private static ResidueForcefieldEnergy makeEfunc(Residues residues, double cutoff) {
+		return makeEfunc(residues, cutoff, ForcefieldParams.SolvationForcefield.EEF1);
+	}
+
+	private static ResidueForcefieldEnergy makeEfunc(Residues residues, double cutoff, ForcefieldParams.SolvationForcefield solvationForcefield) {
+
+		ForcefieldParams ffparams = new ForcefieldParams();
+		ffparams.nonbondedCutoff = cutoff;
+		ffparams.solvationForcefield = solvationForcefield;
+
+		ResPairCache resPairCache = new ResPairCache(
+			ffparams,
+			new AtomConnectivity.Builder()
+				.addTemplates(residues)
+				.build()
+		);
+		ResidueInteractions inters = new ResidueInteractions();
+		inters.addComplete(residues);
+
+		return new ResidueForcefieldEnergy(resPairCache, inters, residues);
+	}
+
+	private static Residues makeResidues(TestForcefieldEnergy.TestResidues r) {
+		return new Residues(
+			r.gly06, r.gly15, r.ser17, r.trp18, r.trp25, r.arg22, r.ala24, r.ile26, r.phe31, r.arg32, r.glu34, r.val36,
+			r.leu39, r.trp47, r.leu48, r.ile53, r.arg55, r.val56, r.leu57, r.ile59, r.val62, r.leu64, r.val65, r.met66
+		);
+	}
+
+	@Test
+	public void hugeCutoffMatchesNoCutoff() {
+
+		Residues residues = makeResidues(new TestForcefieldEnergy.TestResidues());
+
+		double expected = makeEfunc(residues, Double.POSITIVE_INFINITY).getEnergy();
+		ResidueForcefieldEnergy efunc = makeEfunc(residues, 1000.0);
+
+		assertThat(efunc.getEnergy(), isAbsolutely(expected, 1e-9));
+		assertThat(efunc.getNeighborList().getNumBuilds(), is(1L));
+	}
+
+	@Test
+	public void rebuildAfterMoving() {
+
+		Residues residues = makeResidues(new TestForcefieldEnergy.TestResidues());
+		ResidueForcefieldEnergy efunc = makeEfunc(residues, 8.0);
+
+		// the cutoff should change the energy
+		double exactEnergy = makeEfunc(residues, Double.POSITIVE_INFINITY).getEnergy();
+		assertThat(efunc.getEnergy(), is(not(exactEnergy)));
+
+		// small moves shouldn't trigger a rebuild
+		Residue res = residues.get(3);
+		translate(res, 0.1);
+		double smallMoveEnergy = efunc.getEnergy();
+		assertThat(efunc.getNeighborList().getNumBuilds(), is(1L));
+		assertThat(smallMoveEnergy, isAbsolutely(makeEfunc(residues, 8.0).getEnergy(), 1e-9));
+
+		// big moves should
+		translate(res, 5.0);
+		double bigMoveEnergy = efunc.getEnergy();
+		assertThat(efunc.getNeighborList().getNumBuilds(), is(2L));
+		assertThat(bigMoveEnergy, isAbsolutely(makeEfunc(residues, 8.0).getEnergy(), 1e-9));
+	}
+
+	private static void translate(Residue res, double dist) {
+		for (int i=0; i<res.coords.length; i+=3) {
+			res.coords[i] += dist;
+		}
+	}
+
+	@Test
+	public void shortCutoffKeepsSolvation() {
+
+		Residues residues = makeResidues(new TestForcefieldEnergy.TestResidues());
+
+		// a non-bonded cutoff shorter than the EEF1 cutoff shouldn't truncate solvation
+		double cutoff = 5.0;
+		ResidueForcefieldEnergy efunc = makeEfunc(residues, cutoff);
+		ResidueForcefieldEnergy efuncNoSolv = makeEfunc(residues, cutoff, null);
+		assertThat(efunc.getNeighborList().cutoff, is(ForcefieldParams.solvCutoff));
+
+		assertThat(efunc.getEnergy() - efuncNoSolv.getEnergy(), isAbsolutely(efunc.getSolvationEnergy(), 1e-9));
+	}
+}
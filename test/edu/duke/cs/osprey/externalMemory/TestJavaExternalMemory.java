@@ -0,0 +1,229 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.externalMemory;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+
+public class TestJavaExternalMemory {
+
+	private static class IntPrioritySerializer implements ExternalPriorityQueue.Serializer<Integer> {
+
+		@Override
+		public int getNumBytes() {
+			return Integer.BYTES;
+		}
+
+		@Override
+		public double serialize(Integer val, ByteBuffer buf) {
+			buf.putInt(val);
+			return val;
+		}
+
+		@Override
+		public Integer deserialize(double priority, ByteBuffer buf) {
+			int val = buf.getInt();
+			assertThat((double)val, is(priority));
+			return val;
+		}
+	}
+
+	private static class IntFIFOSerializer implements ExternalFIFOQueue.Serializer<Integer> {
+
+		@Override
+		public int getNumBytes() {
+			return Integer.BYTES;
+		}
+
+		@Override
+		public void serialize(Integer val, ByteBuffer buf) {
+			buf.putInt(val);
+		}
+
+		@Override
+		public Integer deserialize(ByteBuffer buf) {
+			return buf.getInt();
+		}
+	}
+
+	@Test
+	public void priorityInMemory() {
+		ExternalMemory.use(16, ExternalMemory.Backend.Java, () -> {
+
+			ExternalPriorityQueue<Integer> q = new ExternalPriorityQueue<>(new IntPrioritySerializer());
+			q.push(5);
+			q.push(2);
+			q.push(7);
+
+			assertThat(q.size(), is(3L));
+			assertThat(q.getNumRuns(), is(0));
+			assertThat(q.poll(), is(2));
+			assertThat(q.poll(), is(5));
+			assertThat(q.poll(), is(7));
+			assertThat(q.isEmpty(), is(true));
+			assertThat(q.poll(), is(nullValue()));
+		});
+	}
+
+	@Test
+	public void prioritySpilled() {
+		ExternalMemory.use(1, ExternalMemory.Backend.Java, () -> {
+
+			// push way more than fits in 1 MiB, in random order
+			int n = 1000000;
+			int[] vals = new Random(12345).ints(n, 0, 100000).toArray();
+
+			ExternalPriorityQueue<Integer> q = new ExternalPriorityQueue<>(new IntPrioritySerializer());
+			for (int val : vals) {
+				q.push(val);
+			}
+			assertThat(q.size(), is((long)n));
+			assertThat(q.getNumRuns(), greaterThan(0));
+			assertThat(ExternalMemory.getExternalBytes(), greaterThan(0L));
+
+			// interleave a few more pushes with the pops
+			q.push(-1);
+			q.push(100000);
+			Arrays.sort(vals);
+			assertThat(q.poll(), is(-1));
+			for (int val : vals) {
+				assertThat(q.poll(), is(val));
+			}
+			assertThat(q.poll(), is(100000));
+			assertThat(q.isEmpty(), is(true));
+		});
+	}
+
+	@Test
+	public void fifoSpilled() {
+		ExternalMemory.use(1, ExternalMemory.Backend.Java, () -> {
+
+			int n = 1000000;
+			ExternalFIFOQueue<Integer> q = new ExternalFIFOQueue<>(new IntFIFOSerializer());
+			for (int i=0; i<n; i++) {
+				q.push(i);
+			}
+			assertThat(q.size(), is((long)n));
+			assertThat(q.getNumSegments(), greaterThan(0));
+
+			// pop half, push some more, then pop everything
+			for (int i=0; i<n/2; i++) {
+				assertThat(q.poll(), is(i));
+			}
+			for (int i=n; i<n*3/2; i++) {
+				q.push(i);
+			}
+			for (int i=n/2; i<n*3/2; i++) {
+				assertThat(q.poll(), is(i));
+			}
+			assertThat(q.isEmpty(), is(true));
+		});
+	}
+
+	@Test
+	public void priorityLeveledMerges() {
+		ExternalMemory.use(1, ExternalMemory.Backend.Java, () -> {
+
+			// push enough to spill many runs
+			int n = 4000000;
+			int[] vals = new Random(12345).ints(n, 0, 1000000).toArray();
+
+			ExternalPriorityQueue<Integer> q = new ExternalPriorityQueue<>(new IntPrioritySerializer());
+			int maxNumRuns = 0;
+			for (int val : vals) {
+				q.push(val);
+				maxNumRuns = Math.max(maxNumRuns, q.getNumRuns());
+			}
+
+			// merging should keep fewer than the fan-in runs on each level
+			assertThat(maxNumRuns, lessThan(ExternalPriorityQueue.MergeFanIn*3));
+
+			Arrays.sort(vals);
+			for (int val : vals) {
+				assertThat(q.poll(), is(val));
+			}
+			assertThat(q.isEmpty(), is(true));
+		});
+	}
+
+	@Test
+	public void fifoWrapsAround() {
+		ExternalMemory.use(16, ExternalMemory.Backend.Java, () -> {
+
+			// keep a small window of entries, so the buffer wraps around without growing or spilling
+			ExternalFIFOQueue<Integer> q = new ExternalFIFOQueue<>(new IntFIFOSerializer());
+			int next = 0;
+			for (int i=0; i<500; i++) {
+				q.push(i);
+			}
+			for (int i=500; i<100000; i++) {
+				q.push(i);
+				assertThat(q.poll(), is(next++));
+			}
+			assertThat(q.getNumSegments(), is(0));
+
+			// grow the buffer while it's wrapped around
+			for (int i=100000; i<110000; i++) {
+				q.push(i);
+			}
+			while (!q.isEmpty()) {
+				assertThat(q.poll(), is(next++));
+			}
+			assertThat(next, is(110000));
+		});
+	}
+
+	@Test
+	public void useResetsReservations() {
+
+		// leave a queue's memory reserved at the end of a use
+		ExternalMemory.use(1, ExternalMemory.Backend.Java, () -> {
+			ExternalPriorityQueue<Integer> q = new ExternalPriorityQueue<>(new IntPrioritySerializer());
+			q.push(5);
+			assertThat(ExternalMemory.getInternalBytes(), greaterThan(0L));
+		});
+
+		// the next use should start with the full limit
+		ExternalMemory.use(1, ExternalMemory.Backend.Java, () -> {
+			assertThat(ExternalMemory.getInternalBytes(), is(0L));
+			assertThat(ExternalMemory.reserveInternalBytes(1024*1024), is(true));
+		});
+	}
+}
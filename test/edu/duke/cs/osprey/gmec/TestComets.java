@@ -164,6 +164,10 @@ public class TestComets {
 	}
 
 	private static Comets make2RL0PPI(boolean boundedMemory) {
+		return make2RL0PPI(boundedMemory, 1, false, null);
+	}
+
+	private static Comets make2RL0PPI(boolean boundedMemory, int numSequencesInParallel, boolean refineStatesInParallel, Integer maxMinimizationsInFlight) {
 
 		Molecule mol = PDBIO.readResource("/2RL0.min.reduce.pdb");
 		ResidueTemplateLibrary templateLib = new ResidueTemplateLibrary.Builder(ffparams.forcefld).build();
@@ -214,6 +218,9 @@ public class TestComets {
 			.setObjectiveWindowMax(2000) // need a big window to get all the sequences
 			.setObjectiveWindowSize(10000)
 			.setMinNumConfTrees(boundedMemory ? 5 : null)
+			.setNumSequencesInParallel(numSequencesInParallel)
+			.setRefineStatesInParallel(refineStatesInParallel)
+			.setMaxMinimizationsInFlight(maxMinimizationsInFlight)
 			.build();
 
 		initStates(comets.states, boundedMemory);
@@ -463,6 +470,18 @@ public class TestComets {
 		prepStates(comets, () -> check2RL0PPI(comets));
 	}
 
+	@Test
+	public void ppi2RL0Parallel() {
+		Comets comets = make2RL0PPI(false, 4, true, 6);
+		prepStates(comets, () -> check2RL0PPI(comets));
+	}
+
+	@Test
+	public void ppi2RL0ParallelSequences() {
+		Comets comets = make2RL0PPI(true, 4, false, null);
+		prepStates(comets, () -> check2RL0PPI(comets));
+	}
+
 	@Test
 	public void onlyOneMutant2RL0() {
 		Comets comets = make2RL0OnlyOneMutant();
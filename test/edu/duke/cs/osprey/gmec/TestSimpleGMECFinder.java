@@ -89,6 +89,15 @@ public class TestSimpleGMECFinder {
 			.build();
 		}
 
+		public SimpleGMECFinder makePrefetchingFinder() {
+			return new SimpleGMECFinder.Builder(
+				new ConfAStarTree.Builder(emat, confSpace).build(),
+				confEcalc
+			)
+			.setPrefetchConfs(true)
+			.build();
+		}
+
 		public SimpleGMECFinder makeExternalFinder() {
 			return new SimpleGMECFinder.Builder(
 				new ConfAStarTree.Builder(emat, confSpace)
@@ -239,6 +248,27 @@ public class TestSimpleGMECFinder {
 		assertThat(conf.getScore(), isAbsolutely(-38.254643, EnergyEpsilon));
 	}
 	
+	@Test
+	public void findContinuousWindowPrefetch() {
+		Queue<EnergiedConf> confs = problemContinuous.makePrefetchingFinder().find(0.3);
+		assertThat(confs.size(), is(3L));
+
+		EnergiedConf conf = confs.poll();
+		assertThat(conf.getAssignments(), is(new int[] { 1, 26, 0 }));
+		assertThat(conf.getEnergy(), isAbsolutely(-38.465807, EnergyEpsilon));
+		assertThat(conf.getScore(), isAbsolutely(-38.566297, EnergyEpsilon));
+
+		conf = confs.poll();
+		assertThat(conf.getAssignments(), is(new int[] { 1, 25, 0 }));
+		assertThat(conf.getEnergy(), isAbsolutely(-38.243730, EnergyEpsilon));
+		assertThat(conf.getScore(), isAbsolutely(-38.391590, EnergyEpsilon));
+
+		conf = confs.poll();
+		assertThat(conf.getAssignments(), is(new int[] { 1, 29, 0 }));
+		assertThat(conf.getEnergy(), isAbsolutely(-38.166219, EnergyEpsilon));
+		assertThat(conf.getScore(), isAbsolutely(-38.254643, EnergyEpsilon));
+	}
+
 	@Test
 	public void findContinuousWindowExternal() {
 		ExternalMemory.use(64, () -> {
@@ -59,6 +59,10 @@ public class TestBBKStar {
 	}
 
 	public static Results runBBKStar(TestKStar.ConfSpaces confSpaces, int numSequences, double epsilon, String confdbPattern, int maxSimultaneousMutations) {
+		return runBBKStar(confSpaces, numSequences, epsilon, confdbPattern, maxSimultaneousMutations, 1);
+	}
+
+	public static Results runBBKStar(TestKStar.ConfSpaces confSpaces, int numSequences, double epsilon, String confdbPattern, int maxSimultaneousMutations, int numNodesInParallel) {
 
 		Parallelism parallelism = Parallelism.makeCpu(4);
 
@@ -87,6 +91,7 @@ public class TestBBKStar {
 			BBKStar.Settings bbkstarSettings = new BBKStar.Settings.Builder()
 				.setNumBestSequences(numSequences)
 				.setNumConfsPerBatch(8)
+				.setNumNodesInParallel(numNodesInParallel)
 				.build();
 			BBKStar bbkstar = new BBKStar(confSpaces.protein, confSpaces.ligand, confSpaces.complex, kstarSettings, bbkstarSettings);
 			for (BBKStar.ConfSpaceInfo info : bbkstar.confSpaceInfos()) {
@@ -147,6 +152,17 @@ public class TestBBKStar {
 		assert2RL0(results, numSequences);
 	}
 
+	@Test
+	public void test2RL0ParallelNodes() {
+
+		TestKStar.ConfSpaces confSpaces = TestKStar.make2RL0();
+		final double epsilon = 0.99;
+		final int numSequences = 25;
+		Results results = runBBKStar(confSpaces, numSequences, epsilon, null, 1, 4);
+
+		assert2RL0(results, numSequences);
+	}
+
 	private void assert2RL0(Results results, int numSequences) {
 
 		// K* bounds collected with e = 0.1 from original K* algo
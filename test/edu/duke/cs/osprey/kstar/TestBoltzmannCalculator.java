@@ -0,0 +1,96 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.kstar;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.kstar.pfunc.BoltzmannCalculator;
+import edu.duke.cs.osprey.kstar.pfunc.PartitionFunction;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+public class TestBoltzmannCalculator {
+
+	private static final BoltzmannCalculator bcalc = new BoltzmannCalculator(PartitionFunction.decimalPrecision);
+
+	private static BigDecimal sumOneAtATime(double[] energies, int n) {
+		BigDecimal sum = BigDecimal.ZERO;
+		for (int i=0; i<n; i++) {
+			sum = sum.add(bcalc.calc(energies[i]), PartitionFunction.decimalPrecision);
+		}
+		return sum;
+	}
+
+	private static double ratio(BigDecimal obs, BigDecimal exp) {
+		return obs.divide(exp, PartitionFunction.decimalPrecision).doubleValue();
+	}
+
+	@Test
+	public void sumEmpty() {
+		assertThat(bcalc.calcSum(new double[0], 0), is(BigDecimal.ZERO));
+		assertThat(bcalc.calcSumBigExp(new double[0], 0).isZero(), is(true));
+	}
+
+	@Test
+	public void sumRandom() {
+
+		Random rand = new Random(12345);
+		double[] energies = new double[1000];
+		for (int i=0; i<energies.length; i++) {
+			energies[i] = -40.0 + rand.nextDouble()*30.0;
+		}
+
+		for (int n : new int[] { 1, 2, 10, 999, 1000 }) {
+
+			BigDecimal exp = sumOneAtATime(energies, n);
+			BigDecimal obs = bcalc.calcSum(energies, n);
+
+			// the sum should be very close, but never an underestimate
+			assertThat(ratio(obs, exp), greaterThanOrEqualTo(1.0));
+			assertThat(ratio(obs, exp), lessThan(1.0 + 1e-12));
+
+			assertThat(ratio(bcalc.calcSumBigExp(energies, n).toBigDecimal(PartitionFunction.decimalPrecision), exp), closeTo(1.0, 1e-12));
+		}
+	}
+
+	@Test
+	public void sumIgnoresUnusedPartOfArray() {
+
+		double[] energies = { -5.0, -3.0, Double.NaN, Double.NaN };
+
+		assertThat(ratio(bcalc.calcSum(energies, 2), sumOneAtATime(energies, 2)), closeTo(1.0, 1e-12));
+	}
+}
@@ -36,7 +36,10 @@ import static edu.duke.cs.osprey.TestBase.TempFile;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
 import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
+import edu.duke.cs.osprey.astar.conf.RCs;
+import edu.duke.cs.osprey.astar.conf.pruning.AStarPruner;
 import edu.duke.cs.osprey.confspace.ConfDB;
 import edu.duke.cs.osprey.confspace.Sequence;
 import edu.duke.cs.osprey.confspace.SimpleConfSpace;
@@ -48,7 +51,9 @@ import edu.duke.cs.osprey.energy.EnergyCalculator;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
 import edu.duke.cs.osprey.externalMemory.ExternalMemory;
 import edu.duke.cs.osprey.kstar.pfunc.PartitionFunction;
+import edu.duke.cs.osprey.kstar.pfunc.PfuncResultsDB;
 import edu.duke.cs.osprey.parallelism.Parallelism;
+import edu.duke.cs.osprey.pruning.PruningMatrix;
 import edu.duke.cs.osprey.restypes.ResidueTemplateLibrary;
 import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.structure.PDBIO;
@@ -76,6 +81,10 @@ public class TestKStar {
 	}
 
 	public static Result runKStar(ConfSpaces confSpaces, double epsilon, String confDBPattern, boolean useExternalMemory, int maxSimultaneousMutations) {
+		return runKStar(confSpaces, epsilon, confDBPattern, useExternalMemory, maxSimultaneousMutations, 1, null);
+	}
+
+	public static Result runKStar(ConfSpaces confSpaces, double epsilon, String confDBPattern, boolean useExternalMemory, int maxSimultaneousMutations, int numConcurrentSequences, File pfuncResultsFile) {
 
 		Parallelism parallelism = Parallelism.makeCpu(4);
 
@@ -113,6 +122,8 @@ public class TestKStar {
 				.addScoreConsoleWriter(testFormatter)
 				.setExternalMemory(useExternalMemory)
 				.setMaxSimultaneousMutations(maxSimultaneousMutations)
+				.setNumConcurrentSequences(numConcurrentSequences)
+				.setPfuncResultsFile(pfuncResultsFile)
 				//.setShowPfuncProgress(true)
 				.build();
 			KStar kstar = new KStar(confSpaces.protein, confSpaces.ligand, confSpaces.complex, settings);
@@ -209,6 +220,87 @@ public class TestKStar {
 		assert2RL0(result, epsilon);
 	}
 
+	@Test
+	public void test2RL0ConcurrentSequences() {
+
+		double epsilon = 0.95;
+		Result result = runKStar(make2RL0(), epsilon, null, false, 1, 4, null);
+		assert2RL0(result, epsilon);
+	}
+
+	@Test
+	public void test2RL0WithPfuncResultsDB() {
+
+		final double epsilon = 0.95;
+		final ConfSpaces confSpaces = make2RL0();
+
+		try (TempFile pfuncResultsFile = new TempFile("kstar.pfuncs.db")) {
+
+			// run with an empty db
+			Result result = runKStar(confSpaces, epsilon, null, false, 1, 1, pfuncResultsFile);
+			assert2RL0(result, epsilon);
+
+			// the db should have the results now
+			try (PfuncResultsDB db = new PfuncResultsDB(pfuncResultsFile)) {
+				assertThat(db.getNumEntries(), greaterThan(0L));
+			}
+
+			// run again with a looser epsilon, everything should come from the db
+			Result result2 = runKStar(confSpaces, 0.99, null, false, 1, 1, pfuncResultsFile);
+			assert2RL0(result2, epsilon);
+			for (int i=0; i<result.scores.size(); i++) {
+				KStarScore score = result.scores.get(i).score;
+				KStarScore score2 = result2.scores.get(i).score;
+				assertThat(score2.protein.numConfs, is(score.protein.numConfs));
+				assertThat(score2.ligand.numConfs, is(score.ligand.numConfs));
+				assertThat(score2.complex.numConfs, is(score.complex.numConfs));
+			}
+		}
+	}
+
+	@Test
+	public void pfuncResultsPruningFingerprint() {
+
+		SimpleConfSpace confSpace = make2RL0().protein;
+		EnergyMatrix emat = new EnergyMatrix(confSpace);
+
+		Function<PruningMatrix,Long> fingerprint = (pmat) ->
+			PfuncResultsDB.makePruningFingerprint(confSpace, (rcs) ->
+				new ConfAStarTree.Builder(emat, new RCs(rcs, pmat)).build()
+			);
+
+		// the same pruning should get the same fingerprint
+		long unpruned = fingerprint.apply(new PruningMatrix(confSpace));
+		assertThat(fingerprint.apply(new PruningMatrix(confSpace)), is(unpruned));
+
+		// different pruning should get different fingerprints
+		PruningMatrix singlePruned = new PruningMatrix(confSpace);
+		singlePruned.pruneSingle(0, 0);
+		PruningMatrix pairPruned = new PruningMatrix(confSpace);
+		pairPruned.prunePair(1, 0, 0, 1);
+		long single = fingerprint.apply(singlePruned);
+		long pair = fingerprint.apply(pairPruned);
+		assertThat(single, is(not(unpruned)));
+		assertThat(pair, is(not(unpruned)));
+		assertThat(pair, is(not(single)));
+
+		// conf searches that don't expose their pruning can't be fingerprinted
+		assertThat(PfuncResultsDB.makePruningFingerprint(confSpace, (rcs) ->
+			new ConfAStarTree.Builder(emat, rcs)
+				.setPruner(new AStarPruner() {
+					@Override
+					public boolean isPruned(ConfAStarNode node) {
+						return false;
+					}
+					@Override
+					public boolean isPruned(ConfAStarNode node, int nextPos, int nextRc) {
+						return false;
+					}
+				})
+				.build()
+		), is(nullValue()));
+	}
+
 	@Test
 	public void test2RL0WithExternalMemory() {
 
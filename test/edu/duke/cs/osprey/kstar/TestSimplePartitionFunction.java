@@ -130,6 +130,27 @@ public class TestSimplePartitionFunction {
 
 	private static PfuncFactory simplePfuncs = (confEcalc) -> new SimplePartitionFunction(confEcalc);
 	private static PfuncFactory gdPfuncs = (confEcalc) -> new GradientDescentPfunc(confEcalc);
+	private static PfuncFactory gdBigExpPfuncs = (confEcalc) -> {
+		GradientDescentPfunc pfunc = new GradientDescentPfunc(confEcalc);
+		pfunc.setUseBigExp(true);
+		return pfunc;
+	};
+	private static PfuncFactory gdStripedPfuncs = (confEcalc) -> {
+		GradientDescentPfunc pfunc = new GradientDescentPfunc(confEcalc);
+		pfunc.setUseStripedAggregation(true);
+		return pfunc;
+	};
+	private static PfuncFactory gdBigExpStripedPfuncs = (confEcalc) -> {
+		GradientDescentPfunc pfunc = new GradientDescentPfunc(confEcalc);
+		pfunc.setUseBigExp(true);
+		pfunc.setUseStripedAggregation(true);
+		return pfunc;
+	};
+	private static PfuncFactory gdPrefetchPfuncs = (confEcalc) -> {
+		GradientDescentPfunc pfunc = new GradientDescentPfunc(confEcalc);
+		pfunc.setPrefetchConfs(true);
+		return pfunc;
+	};
 
 	public static void testStrand(ForcefieldParams ffparams, SimpleConfSpace confSpace, Parallelism parallelism, double targetEpsilon, String approxQStar, EnergyMatrix emat, PfuncFactory pfuncs) {
 
@@ -213,6 +234,13 @@ public class TestSimplePartitionFunction {
 	@Test public void test2RL0ProteinGD2Cpus() { calc2RL0Protein(gdPfuncs, Parallelism.make(2, 0, 0)); }
 	@Test public void test2RL0ProteinGD1GpuStream() { calc2RL0Protein(gdPfuncs, Parallelism.make(1, 1, 1)); }
 	@Test public void test2RL0ProteinGD4GpuStreams() { calc2RL0Protein(gdPfuncs, Parallelism.make(2, 1, 4)); }
+	@Test public void test2RL0ProteinGDBigExp1Cpu() { calc2RL0Protein(gdBigExpPfuncs, Parallelism.make(1, 0, 0)); }
+	@Test public void test2RL0ProteinGDBigExp2Cpus() { calc2RL0Protein(gdBigExpPfuncs, Parallelism.make(2, 0, 0)); }
+	@Test public void test2RL0ProteinGDStriped1Cpu() { calc2RL0Protein(gdStripedPfuncs, Parallelism.make(1, 0, 0)); }
+	@Test public void test2RL0ProteinGDStriped4Cpus() { calc2RL0Protein(gdStripedPfuncs, Parallelism.make(4, 0, 0)); }
+	@Test public void test2RL0ProteinGDBigExpStriped4Cpus() { calc2RL0Protein(gdBigExpStripedPfuncs, Parallelism.make(4, 0, 0)); }
+	@Test public void test2RL0ProteinGDPrefetch1Cpu() { calc2RL0Protein(gdPrefetchPfuncs, Parallelism.make(1, 0, 0)); }
+	@Test public void test2RL0ProteinGDPrefetch4Cpus() { calc2RL0Protein(gdPrefetchPfuncs, Parallelism.make(4, 0, 0)); }
 
 	private static EnergyMatrix calc2RL0LigandEmat = null;
 	public void calc2RL0LigandPfunc(PfuncFactory pfuncs, Parallelism parallelism) {
@@ -235,6 +263,10 @@ public class TestSimplePartitionFunction {
 	@Test public void test2RL0LigandGD2Cpus() { calc2RL0LigandPfunc(gdPfuncs, Parallelism.make(2, 0, 0)); }
 	@Test public void test2RL0LigandGD1GpuStream() { calc2RL0LigandPfunc(gdPfuncs, Parallelism.make(1, 1, 1)); }
 	@Test public void test2RL0LigandGD4GpuStreams() { calc2RL0LigandPfunc(gdPfuncs, Parallelism.make(2, 1, 4)); }
+	@Test public void test2RL0LigandGDBigExp1Cpu() { calc2RL0LigandPfunc(gdBigExpPfuncs, Parallelism.make(1, 0, 0)); }
+	@Test public void test2RL0LigandGDBigExp2Cpus() { calc2RL0LigandPfunc(gdBigExpPfuncs, Parallelism.make(2, 0, 0)); }
+	@Test public void test2RL0LigandGDStriped4Cpus() { calc2RL0LigandPfunc(gdStripedPfuncs, Parallelism.make(4, 0, 0)); }
+	@Test public void test2RL0LigandGDBigExpStriped4Cpus() { calc2RL0LigandPfunc(gdBigExpStripedPfuncs, Parallelism.make(4, 0, 0)); }
 
 	private static EnergyMatrix calc2RL0ComplexEmat = null;
 	public void calc2RL0Complex(PfuncFactory pfuncs, Parallelism parallelism) {
@@ -267,6 +299,11 @@ public class TestSimplePartitionFunction {
 	@Test public void test2RL0ComplexGD4Cpus() { calc2RL0Complex(gdPfuncs, Parallelism.make(4, 0, 0)); }
 	@Test public void test2RL0ComplexGD1GpuStream() { calc2RL0Complex(gdPfuncs, Parallelism.make(1, 1, 1)); }
 	@Test public void test2RL0ComplexGD4GpuStreams() { calc2RL0Complex(gdPfuncs, Parallelism.make(2, 1, 4)); }
+	@Test public void test2RL0ComplexGDBigExp1Cpu() { calc2RL0Complex(gdBigExpPfuncs, Parallelism.make(1, 0, 0)); }
+	@Test public void test2RL0ComplexGDBigExp4Cpus() { calc2RL0Complex(gdBigExpPfuncs, Parallelism.make(4, 0, 0)); }
+	@Test public void test2RL0ComplexGDStriped4Cpus() { calc2RL0Complex(gdStripedPfuncs, Parallelism.make(4, 0, 0)); }
+	@Test public void test2RL0ComplexGDBigExpStriped4Cpus() { calc2RL0Complex(gdBigExpStripedPfuncs, Parallelism.make(4, 0, 0)); }
+	@Test public void test2RL0ComplexGDPrefetch4Cpus() { calc2RL0Complex(gdPrefetchPfuncs, Parallelism.make(4, 0, 0)); }
 
 
 	public static TestInfo make1GUA11TestInfo() {
@@ -166,6 +166,7 @@ public class BenchmarkMinimization extends TestBase {
 		//benchmarkSerial(search, simpleConfSpace, confs);
 		//benchmarkParallel(search, simpleConfSpace, confs);
 		//compareOneConf(search, confs);
+		//benchmarkLBFGS(simpleConfSpace, confs);
 		
 		benchmarkOps(search, simpleConfSpace, allConfs);
 	}
@@ -229,6 +230,29 @@ public class BenchmarkMinimization extends TestBase {
 		);
 	}
 	
+	private static void benchmarkLBFGS(SimpleConfSpace simpleConfSpace, List<ScoredConf> confs)
+	throws Exception {
+
+		ForcefieldParams ffparams = makeDefaultFFParams();
+
+		System.out.println("\nbenchmarking CPU CCD...");
+		Stopwatch ccdStopwatch;
+		try (EnergyCalculator ecalc = new EnergyCalculator.Builder(simpleConfSpace, ffparams)
+			.setType(EnergyCalculator.Type.Cpu)
+			.setParallelism(Parallelism.makeCpu(1))
+			.build()) {
+			ccdStopwatch = benchmark(simpleConfSpace, ecalc, confs, null);
+		}
+
+		System.out.println("\nbenchmarking CPU L-BFGS...");
+		new EnergyCalculator.Builder(simpleConfSpace, ffparams)
+			.setType(EnergyCalculator.Type.CpuLBFGS)
+			.setParallelism(Parallelism.makeCpu(1))
+			.use((ecalc) -> {
+				benchmark(simpleConfSpace, ecalc, confs, ccdStopwatch);
+			});
+	}
+
 	private static void benchmarkParallel(SearchProblem search, SimpleConfSpace simpleConfSpace, List<ScoredConf> confs)
 	throws Exception {
 		
@@ -44,17 +44,24 @@ import java.util.Map;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+
 import edu.duke.cs.osprey.TestBase;
 import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
 import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
 import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
 import edu.duke.cs.osprey.confspace.ConfSpace;
+import edu.duke.cs.osprey.confspace.ParametricMolecule;
 import edu.duke.cs.osprey.confspace.ParameterizedMoleculeCopy;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.confspace.SearchProblem;
 import edu.duke.cs.osprey.confspace.SimpleConfSpace;
 import edu.duke.cs.osprey.confspace.Strand;
+import edu.duke.cs.osprey.confspace.StrandFlex;
 import edu.duke.cs.osprey.control.EnvironmentVars;
+import edu.duke.cs.osprey.dof.StrandRotation;
+import edu.duke.cs.osprey.dof.StrandTranslation;
 import edu.duke.cs.osprey.dof.deeper.DEEPerSettings;
 import edu.duke.cs.osprey.ematrix.SimpleEnergyMatrixCalculator;
 import edu.duke.cs.osprey.ematrix.epic.EPICSettings;
@@ -67,6 +74,7 @@ import edu.duke.cs.osprey.energy.MultiTermEnergyFunction;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldInteractions;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams.SolvationForcefield;
+import edu.duke.cs.osprey.energy.forcefield.ResidueForcefieldEnergy;
 import edu.duke.cs.osprey.parallelism.Parallelism;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
 import edu.duke.cs.osprey.structure.Molecule;
@@ -372,6 +380,93 @@ public class TestMinimization extends TestBase {
 		check(EnergyCalculator.Type.ResidueCudaCCD, Parallelism.make(4, 1, 2));
 	}
 	
+	@Test
+	public void testCpuLBFGS1Thread() {
+		// L-BFGS doesn't converge to exactly the same points as CCD, so allow a little more error
+		check(EnergyCalculator.Type.CpuLBFGS, Parallelism.makeCpu(1), 1e-3);
+	}
+	@Test
+	public void testCpuLBFGS2Threads() {
+		check(EnergyCalculator.Type.CpuLBFGS, Parallelism.makeCpu(2), 1e-3);
+	}
+
+	@Test
+	public void analyticGradients() {
+
+		for (boolean doSolv : Arrays.asList(true, false)) {
+
+			Info info = Infos.get(doSolv);
+			new EnergyCalculator.Builder(info.simpleConfSpace, info.ffparams)
+				.use((ecalc) -> {
+
+					ConfEnergyCalculator confEcalc = new ConfEnergyCalculator.Builder(info.simpleConfSpace, ecalc).build();
+					for (ScoredConf conf : info.confs) {
+
+						RCTuple frag = new RCTuple(conf.getAssignments());
+						ParametricMolecule pmol = info.simpleConfSpace.makeMolecule(frag);
+						ResidueForcefieldEnergy efunc = new ResidueForcefieldEnergy(ecalc.resPairCache, confEcalc.makeFragInters(frag), pmol.mol);
+						MoleculeObjectiveFunction f = new MoleculeObjectiveFunction(pmol, efunc);
+
+						// the analytic gradient should match the numerical estimate
+						DoubleMatrix1D x = f.getDOFsCenter();
+						DoubleMatrix1D gradient = DoubleFactory1D.dense.make(x.size());
+						assertThat(info.toString(), f.getValueAndGradient(x, gradient), isAbsolutely(f.getValue(x), 1e-9));
+						for (int d=0; d<x.size(); d++) {
+							assertThat(info.toString(), gradient.get(d), isAbsolutely(f.estimateDerivative(d, x.get(d)), 1e-5));
+						}
+					}
+				});
+		}
+	}
+
+	@Test
+	public void analyticGradientsTranslateRotate() {
+
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		Molecule mol = PDBIO.readFile("examples/python.GMEC/1CC8.ss.pdb");
+
+		Strand protein = new Strand.Builder(mol).setResidues("A2", "A30").build();
+		protein.flexibility.get("A20").setLibraryRotamers(Strand.WildType).setContinuous();
+		protein.flexibility.get("A22").setLibraryRotamers(Strand.WildType).setContinuous();
+		Strand ligand = new Strand.Builder(mol).setResidues("A31", "A50").build();
+		ligand.flexibility.get("A40").setLibraryRotamers(Strand.WildType).setContinuous();
+
+		SimpleConfSpace confSpace = new SimpleConfSpace.Builder()
+			.addStrand(protein)
+			.addStrand(ligand, new StrandFlex.TranslateRotate())
+			.build();
+
+		new EnergyCalculator.Builder(confSpace, ffparams)
+			.use((ecalc) -> {
+
+				ConfEnergyCalculator confEcalc = new ConfEnergyCalculator.Builder(confSpace, ecalc).build();
+				RCTuple frag = new RCTuple(new int[confSpace.positions.size()]);
+				ParametricMolecule pmol = confSpace.makeMolecule(frag);
+				ResidueForcefieldEnergy efunc = new ResidueForcefieldEnergy(ecalc.resPairCache, confEcalc.makeFragInters(frag), pmol.mol);
+				MoleculeObjectiveFunction f = new MoleculeObjectiveFunction(pmol, efunc);
+
+				// make sure we're checking the strand motions too
+				assertThat(pmol.dofs.stream().filter((dof) -> dof instanceof StrandRotation).count(), is(3L));
+				assertThat(pmol.dofs.stream().filter((dof) -> dof instanceof StrandTranslation).count(), is(3L));
+
+				// pick a point away from the voxel center, so the strand is actually rotated and translated
+				DoubleMatrix1D x = f.getDOFsCenter();
+				for (int d=0; d<x.size(); d++) {
+					double xdmin = f.getConstraints()[0].get(d);
+					double xdmax = f.getConstraints()[1].get(d);
+					x.set(d, xdmin + (xdmax - xdmin)*(0.3 + 0.4*d/x.size()));
+				}
+
+				// the analytic gradient should match the numerical estimate
+				DoubleMatrix1D gradient = DoubleFactory1D.dense.make(x.size());
+				assertThat(f.getValueAndGradient(x, gradient), isAbsolutely(f.getValue(x), 1e-9));
+				for (int d=0; d<x.size(); d++) {
+					double expected = f.estimateDerivative(d, x.get(d));
+					assertThat(pmol.dofs.get(d).getName(), gradient.get(d), isAbsolutely(expected, 1e-4*Math.max(1, Math.abs(expected))));
+				}
+			});
+	}
+
 	private static interface MinimizerFactory {
 		ConfMinimizer make(ForcefieldParams ffparams, Factory<ForcefieldInteractions,Molecule> intergen, ConfSpace confSpace);
 	}
@@ -390,6 +485,10 @@ public class TestMinimization extends TestBase {
 	}
 	
 	private void check(EnergyCalculator.Type type, Parallelism parallelism) {
+		check(type, parallelism, Epsilon);
+	}
+
+	private void check(EnergyCalculator.Type type, Parallelism parallelism, double epsilon) {
 		
 		for (boolean doSolv : Arrays.asList(true, false)) {
 			
@@ -400,12 +499,16 @@ public class TestMinimization extends TestBase {
 				.use((ecalc) -> {
 					
 					ConfEnergyCalculator confEcalc = new ConfEnergyCalculator.Builder(info.simpleConfSpace, ecalc).build();
-					checkConfs(info, confEcalc.calcAllEnergies(info.confs));
+					checkConfs(info, confEcalc.calcAllEnergies(info.confs), epsilon);
 				});
 		}
 	}
 	
 	private void checkConfs(Info info, List<EnergiedConf> econfs) {
+		checkConfs(info, econfs, Epsilon);
+	}
+
+	private void checkConfs(Info info, List<EnergiedConf> econfs, double epsilon) {
 		
 		assertThat(info.toString(), econfs.size(), is(info.confs.size()));
 		
@@ -419,7 +522,7 @@ public class TestMinimization extends TestBase {
 			
 			// penalize large errors, but not lower energies
 			double absErr = econf.getEnergy() - info.expectedEnergies[i];
-			assertThat(info.toString(), absErr, lessThanOrEqualTo(Epsilon));
+			assertThat(info.toString(), absErr, lessThanOrEqualTo(epsilon));
 		}
 	}
 }
@@ -0,0 +1,141 @@
+/*
+** This file is part of OSPREY 3.0
+** 
+** OSPREY Protein Redesign Software Version 3.0
+** Copyright (C) 2001-2018 Bruce Donald Lab, Duke University
+** 
+** OSPREY is free software: you can redistribute it and/or modify
+** it under the terms of the GNU General Public License version 2
+** as published by the Free Software Foundation.
+** 
+** You should have received a copy of the GNU General Public License
+** along with OSPREY.  If not, see <http://www.gnu.org/licenses/>.
+** 
+** OSPREY relies on grants for its development, and since visibility
+** in the scientific literature is essential for our success, we
+** ask that users of OSPREY cite our papers. See the CITING_OSPREY
+** document in this distribution for more information.
+** 
+** Contact Info:
+**    Bruce Donald
+**    Duke University
+**    Department of Computer Science
+**    Levine Science Research Center (LSRC)
+**    Durham
+**    NC 27708-0129
+**    USA
+**    e-mail: www.cs.duke.edu/brd/
+** 
+** <signature of Bruce Donald>, Mar 1, 2018
+** Bruce Donald, Professor of Computer Science
+*/
+
+package edu.duke.cs.osprey.tools;
+
+import static edu.duke.cs.osprey.TestBase.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Random;
+
+public class TestBigExp {
+
+	private static final MathContext mc = new MathContext(64, RoundingMode.HALF_UP);
+	private static final double Epsilon = 1e-12;
+
+	private static double ratio(BigExp obs, BigDecimal exp) {
+		return obs.toBigDecimal(mc).divide(exp, mc).doubleValue();
+	}
+
+	@Test
+	public void doubles() {
+		for (double val : new double[] { 0.0, 1.0, -1.0, 0.5, 3.0, 1e-300, 1e300, -12345.678, Double.MIN_VALUE }) {
+			assertThat(new BigExp(val).doubleValue(), is(val));
+		}
+		assertThat(new BigExp(Double.POSITIVE_INFINITY).isInfinite(), is(true));
+		assertThat(new BigExp(Double.NaN).isNaN(), is(true));
+	}
+
+	@Test
+	public void bigDecimals() {
+		for (String val : new String[] { "1", "0.001", "-7.5", "1.5e-400", "4.467797e+30", "9.87654321e+1234" }) {
+			BigDecimal d = new BigDecimal(val);
+			assertThat(val, ratio(new BigExp(d), d), isRelatively(1.0, Epsilon));
+		}
+		assertThat(new BigExp(BigDecimal.ZERO).isZero(), is(true));
+		assertThat(new BigExp(MathTools.BigPositiveInfinity).toBigDecimal(mc), is(MathTools.BigPositiveInfinity));
+	}
+
+	@Test
+	public void arithmetic() {
+
+		assertThat(new BigExp(3.0).add(new BigExp(5.0)).doubleValue(), is(8.0));
+		assertThat(new BigExp(3.0).sub(new BigExp(5.0)).doubleValue(), is(-2.0));
+		assertThat(new BigExp(3.0).mult(new BigExp(5.0)).doubleValue(), is(15.0));
+		assertThat(new BigExp(3.0).div(new BigExp(4.0)).doubleValue(), is(0.75));
+		assertThat(new BigExp(3.0).add(1.0).sub(0.5).mult(2.0).div(7.0).doubleValue(), is(1.0));
+
+		// zero times infinity is zero, like MathTools.bigMultiply()
+		assertThat(new BigExp(0.0).mult(new BigExp(Double.POSITIVE_INFINITY)).isZero(), is(true));
+
+		// adding something way smaller shouldn't change anything
+		BigExp big = new BigExp(1.0, 100000);
+		assertThat(new BigExp(big).add(new BigExp(1.0)), is(big));
+		assertThat(new BigExp(1.0).add(big), is(big));
+	}
+
+	@Test
+	public void boltzmannSums() {
+
+		// sum weights way outside the double range, and compare to BigDecimal
+		ExpFunction e = new ExpFunction(mc);
+		Random rand = new Random(12345);
+		BigExp sum = new BigExp(0.0);
+		BigDecimal expected = BigDecimal.ZERO;
+		for (int i=0; i<1000; i++) {
+			double x = rand.nextDouble()*2000 - 500;
+			sum.add(new BigExp().setExp(x));
+			expected = expected.add(e.exp(x), mc);
+		}
+		assertThat(ratio(sum, expected), isRelatively(1.0, 1e-10));
+		assertThat(sum.doubleValue(), is(Double.POSITIVE_INFINITY));
+	}
+
+	@Test
+	public void compare() {
+		assertThat(new BigExp(2.0).compareTo(new BigExp(-3.0)), greaterThan(0));
+		assertThat(new BigExp(-2.0).compareTo(new BigExp(-3.0)), greaterThan(0));
+		assertThat(new BigExp(0.0).compareTo(new BigExp(Double.POSITIVE_INFINITY)), lessThan(0));
+		assertThat(new BigExp(1.0, 1000).compareTo(new BigExp(1.5, 999)), greaterThan(0));
+		assertThat(new BigExp(1.0, -1000).compareTo(new BigExp(0.0)), greaterThan(0));
+		assertThat(new BigExp(5.0).compareTo(new BigExp(5.0)), is(0));
+	}
+
+	@Test
+	public void ln() {
+		assertThat(new BigExp().setExp(1234.5).ln(), isRelatively(1234.5, Epsilon));
+		assertThat(new BigExp().setExp(-1234.5).ln(), isRelatively(-1234.5, Epsilon));
+		assertThat(new BigExp(Math.E).ln(), isRelatively(1.0, Epsilon));
+	}
+
+	@Test
+	public void hugeExponentsToBigDecimal() {
+
+		// past the range of BigDecimal.pow(), so it takes more than one chunk
+		for (long exp : new long[] { 1500000000L, -1500000000L, 3000000000L }) {
+			BigDecimal d = new BigExp(1.5, exp).toBigDecimal(mc);
+			double log10 = (d.precision() - d.scale() - 1) + Math.log10(d.unscaledValue().toString().charAt(0) - '0');
+			assertThat(Long.toString(exp), log10, isRelatively(Math.log10(1.5) + exp*Math.log10(2.0), 1e-8));
+		}
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void tooHugeForBigDecimal() {
+		new BigExp(1.5, Long.MAX_VALUE/2).toBigDecimal(mc);
+	}
+}